@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.crypto;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.thirdparty.com.google.common.base.Preconditions;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.apache.hadoop.util.PerformanceAdvisory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SHA-256 of OpenSSL's EVP API using JNI, which uses the SHA-NI or AVX2 code
+ * paths of libcrypto where the CPU has them.
+ *
+ * Each instance holds a native EVP_MD_CTX. The owner must release it with
+ * {@link #close()} once done: it is not freed when the instance is garbage
+ * collected.
+ */
+@InterfaceAudience.Private
+public final class OpensslSha256 extends MessageDigest
+    implements Cloneable, Closeable {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(OpensslSha256.class.getName());
+
+  public static final int DIGEST_LENGTH = 32;
+
+  private static final String loadingFailureReason;
+
+  static {
+    String loadingFailure = null;
+    try {
+      if (!NativeCodeLoader.buildSupportsOpenssl()) {
+        PerformanceAdvisory.LOG.debug("Build does not support openssl");
+        loadingFailure = "build does not support openssl.";
+      } else {
+        initIDs();
+      }
+    } catch (Throwable t) {
+      loadingFailure = t.getMessage();
+      LOG.debug("Failed to load OpenSSL SHA-256.", t);
+    } finally {
+      loadingFailureReason = loadingFailure;
+    }
+  }
+
+  private long context;
+  /** Passes single bytes to updateBytes(). */
+  private byte[] oneByte = new byte[1];
+
+  public OpensslSha256() {
+    super("SHA-256");
+    Preconditions.checkState(isNativeCodeLoaded(),
+        "OpenSSL SHA-256 is not available: %s", loadingFailureReason);
+    context = initContext();
+  }
+
+  public static String getLoadingFailureReason() {
+    return loadingFailureReason;
+  }
+
+  public static boolean isNativeCodeLoaded() {
+    return loadingFailureReason == null;
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return DIGEST_LENGTH;
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    oneByte[0] = input;
+    engineUpdate(oneByte, 0, 1);
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int off, int len) {
+    checkState();
+    Preconditions.checkPositionIndexes(off, off + len, input.length);
+    if (len > 0) {
+      updateBytes(context, input, off, len);
+    }
+  }
+
+  /**
+   * Direct buffers are hashed in place.
+   */
+  @Override
+  protected void engineUpdate(ByteBuffer input) {
+    if (!input.isDirect()) {
+      super.engineUpdate(input);
+      return;
+    }
+    checkState();
+    int pos = input.position();
+    int len = input.remaining();
+    if (len > 0) {
+      updateDirect(context, input, pos, len);
+      input.position(pos + len);
+    }
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    byte[] out = new byte[DIGEST_LENGTH];
+    checkState();
+    doFinal(context, out, 0);
+    return out;
+  }
+
+  @Override
+  protected void engineReset() {
+    checkState();
+    reset(context);
+  }
+
+  @Override
+  public OpensslSha256 clone() throws CloneNotSupportedException {
+    checkState();
+    OpensslSha256 copy = (OpensslSha256) super.clone();
+    copy.context = copyContext(context);
+    copy.oneByte = new byte[1];
+    return copy;
+  }
+
+  /** Forcibly clean the context. */
+  public void clean() {
+    if (context != 0) {
+      clean(context);
+      context = 0;
+    }
+  }
+
+  /** Release the context. The digest cannot be used any more. */
+  @Override
+  public void close() {
+    clean();
+  }
+
+  /** Check whether context is initialized. */
+  private void checkState() {
+    Preconditions.checkState(context != 0);
+  }
+
+  private native static void initIDs();
+
+  private native static long initContext();
+
+  private native static long copyContext(long context);
+
+  private native static void reset(long context);
+
+  private native static void updateBytes(long context, byte[] b, int off,
+      int len);
+
+  private native static void updateDirect(long context, ByteBuffer buf,
+      int off, int len);
+
+  private native static void doFinal(long context, byte[] out, int off);
+
+  private native static void clean(long context);
+}
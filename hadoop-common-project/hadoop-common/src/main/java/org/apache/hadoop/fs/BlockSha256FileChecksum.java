@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/** SHA-256 of the SHA-256 digests of the blocks of a file. */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public class BlockSha256FileChecksum extends FileChecksum {
+  public static final int LENGTH = 32;
+
+  private long bytesPerBlock;
+  private byte[] sha256;
+
+  /** Same as this(0, new byte[LENGTH]) */
+  public BlockSha256FileChecksum() {
+    this(0, new byte[LENGTH]);
+  }
+
+  /**
+   * Create a BlockSha256FileChecksum.
+   * @param bytesPerBlock size of the blocks, 0 if the file has one block
+   * @param sha256 SHA-256 of the concatenated block digests
+   */
+  public BlockSha256FileChecksum(long bytesPerBlock, byte[] sha256) {
+    if (sha256.length != LENGTH) {
+      throw new IllegalArgumentException("Expected a digest of " + LENGTH
+          + " bytes, not " + sha256.length);
+    }
+    this.bytesPerBlock = bytesPerBlock;
+    this.sha256 = sha256;
+  }
+
+  @Override
+  public String getAlgorithmName() {
+    return "SHA256-of-" + bytesPerBlock + "SHA256";
+  }
+
+  @Override
+  public int getLength() {
+    return LENGTH;
+  }
+
+  @Override
+  public byte[] getBytes() {
+    return Arrays.copyOf(sha256, LENGTH);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    bytesPerBlock = in.readLong();
+    in.readFully(sha256);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(bytesPerBlock);
+    out.write(sha256);
+  }
+
+  @Override
+  public String toString() {
+    return getAlgorithmName() + ":" + Hex.encodeHexString(sha256);
+  }
+}
@@ -516,6 +516,7 @@ public String toString() {
    */
   public enum ChecksumCombineMode {
     MD5MD5CRC,  // MD5 of block checksums, which are MD5 over chunk CRCs
-    COMPOSITE_CRC  // Block/chunk-independent composite CRC
+    COMPOSITE_CRC,  // Block/chunk-independent composite CRC
+    BLOCK_SHA256  // SHA-256 of the stored SHA-256 digest of each block
   }
 }
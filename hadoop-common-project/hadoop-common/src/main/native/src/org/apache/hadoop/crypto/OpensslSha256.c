@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "org_apache_hadoop_crypto.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "org_apache_hadoop_crypto_OpensslSha256.h"
+
+/**
+ * A helper macro to convert the java 'context-handle'
+ * to a EVP_MD_CTX pointer.
+ */
+#define MD_CONTEXT(context) ((EVP_MD_CTX*)((ptrdiff_t)(context)))
+
+/*
+ * EVP_DigestUpdate() hashes with the fastest sha256_block_data_order() the
+ * CPU supports (SHA-NI, AVX2, ...).
+ */
+#ifdef UNIX
+static EVP_MD_CTX * (*dlsym_EVP_MD_CTX_new)(void);
+static void (*dlsym_EVP_MD_CTX_free)(EVP_MD_CTX *);
+static const EVP_MD * (*dlsym_EVP_sha256)(void);
+static int (*dlsym_EVP_DigestInit_ex)(EVP_MD_CTX *, const EVP_MD *,  \
+           ENGINE *);
+static int (*dlsym_EVP_DigestUpdate)(EVP_MD_CTX *, const void *, size_t);
+static int (*dlsym_EVP_DigestFinal_ex)(EVP_MD_CTX *, unsigned char *,  \
+           unsigned int *);
+static int (*dlsym_EVP_MD_CTX_copy_ex)(EVP_MD_CTX *, const EVP_MD_CTX *);
+static void *openssl;
+#endif
+
+#ifdef WINDOWS
+typedef EVP_MD_CTX * (__cdecl *__dlsym_EVP_MD_CTX_new)(void);
+typedef void (__cdecl *__dlsym_EVP_MD_CTX_free)(EVP_MD_CTX *);
+typedef const EVP_MD * (__cdecl *__dlsym_EVP_sha256)(void);
+typedef int (__cdecl *__dlsym_EVP_DigestInit_ex)(EVP_MD_CTX *,  \
+             const EVP_MD *, ENGINE *);
+typedef int (__cdecl *__dlsym_EVP_DigestUpdate)(EVP_MD_CTX *,  \
+             const void *, size_t);
+typedef int (__cdecl *__dlsym_EVP_DigestFinal_ex)(EVP_MD_CTX *,  \
+             unsigned char *, unsigned int *);
+typedef int (__cdecl *__dlsym_EVP_MD_CTX_copy_ex)(EVP_MD_CTX *,  \
+             const EVP_MD_CTX *);
+static __dlsym_EVP_MD_CTX_new dlsym_EVP_MD_CTX_new;
+static __dlsym_EVP_MD_CTX_free dlsym_EVP_MD_CTX_free;
+static __dlsym_EVP_sha256 dlsym_EVP_sha256;
+static __dlsym_EVP_DigestInit_ex dlsym_EVP_DigestInit_ex;
+static __dlsym_EVP_DigestUpdate dlsym_EVP_DigestUpdate;
+static __dlsym_EVP_DigestFinal_ex dlsym_EVP_DigestFinal_ex;
+static __dlsym_EVP_MD_CTX_copy_ex dlsym_EVP_MD_CTX_copy_ex;
+static HMODULE openssl;
+#endif
+
+// EVP_MD_CTX_create and EVP_MD_CTX_destroy were renamed in 1.1.0
+#if OPENSSL_VERSION_NUMBER >= 0x10100000L
+#define EVP_MD_CTX_NEW "EVP_MD_CTX_new"
+#define EVP_MD_CTX_FREE "EVP_MD_CTX_free"
+#else
+#define EVP_MD_CTX_NEW "EVP_MD_CTX_create"
+#define EVP_MD_CTX_FREE "EVP_MD_CTX_destroy"
+#endif
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_initIDs
+    (JNIEnv *env, jclass clazz)
+{
+  char msg[1000];
+#ifdef UNIX
+  openssl = dlopen(HADOOP_OPENSSL_LIBRARY, RTLD_LAZY | RTLD_GLOBAL);
+#endif
+
+#ifdef WINDOWS
+  openssl = LoadLibrary(HADOOP_OPENSSL_LIBRARY);
+#endif
+
+  if (!openssl) {
+    snprintf(msg, sizeof(msg), "Cannot load %s (%s)!", HADOOP_OPENSSL_LIBRARY,  \
+        dlerror());
+    THROW(env, "java/lang/UnsatisfiedLinkError", msg);
+    return;
+  }
+
+#ifdef UNIX
+  dlerror();  // Clear any existing error
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_MD_CTX_new, env, openssl, EVP_MD_CTX_NEW);
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_MD_CTX_free, env, openssl, EVP_MD_CTX_FREE);
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_sha256, env, openssl, "EVP_sha256");
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_DigestInit_ex, env, openssl,  \
+                      "EVP_DigestInit_ex");
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_DigestUpdate, env, openssl,  \
+                      "EVP_DigestUpdate");
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_DigestFinal_ex, env, openssl,  \
+                      "EVP_DigestFinal_ex");
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_MD_CTX_copy_ex, env, openssl,  \
+                      "EVP_MD_CTX_copy_ex");
+#endif
+
+#ifdef WINDOWS
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_MD_CTX_new, dlsym_EVP_MD_CTX_new,  \
+                      env, openssl, EVP_MD_CTX_NEW);
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_MD_CTX_free, dlsym_EVP_MD_CTX_free,  \
+                      env, openssl, EVP_MD_CTX_FREE);
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_sha256, dlsym_EVP_sha256,  \
+                      env, openssl, "EVP_sha256");
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_DigestInit_ex, dlsym_EVP_DigestInit_ex,  \
+                      env, openssl, "EVP_DigestInit_ex");
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_DigestUpdate, dlsym_EVP_DigestUpdate,  \
+                      env, openssl, "EVP_DigestUpdate");
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_DigestFinal_ex, dlsym_EVP_DigestFinal_ex,  \
+                      env, openssl, "EVP_DigestFinal_ex");
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_MD_CTX_copy_ex, dlsym_EVP_MD_CTX_copy_ex,  \
+                      env, openssl, "EVP_MD_CTX_copy_ex");
+#endif
+}
+
+JNIEXPORT jlong JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_initContext
+    (JNIEnv *env, jclass clazz)
+{
+  EVP_MD_CTX *context = dlsym_EVP_MD_CTX_new();
+  if (!context) {
+    THROW(env, "java/lang/OutOfMemoryError", NULL);
+    return (jlong)0;
+  }
+  if (!dlsym_EVP_DigestInit_ex(context, dlsym_EVP_sha256(), NULL)) {
+    dlsym_EVP_MD_CTX_free(context);
+    THROW(env, "java/lang/InternalError", "Error in EVP_DigestInit_ex.");
+    return (jlong)0;
+  }
+  return JLONG(context);
+}
+
+JNIEXPORT jlong JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_copyContext
+    (JNIEnv *env, jclass clazz, jlong ctx)
+{
+  EVP_MD_CTX *context = dlsym_EVP_MD_CTX_new();
+  if (!context) {
+    THROW(env, "java/lang/OutOfMemoryError", NULL);
+    return (jlong)0;
+  }
+  if (!dlsym_EVP_MD_CTX_copy_ex(context, MD_CONTEXT(ctx))) {
+    dlsym_EVP_MD_CTX_free(context);
+    THROW(env, "java/lang/InternalError", "Error in EVP_MD_CTX_copy_ex.");
+    return (jlong)0;
+  }
+  return JLONG(context);
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_reset
+    (JNIEnv *env, jclass clazz, jlong ctx)
+{
+  if (!dlsym_EVP_DigestInit_ex(MD_CONTEXT(ctx), dlsym_EVP_sha256(), NULL)) {
+    THROW(env, "java/lang/InternalError", "Error in EVP_DigestInit_ex.");
+  }
+}
+
+/*
+ * Nothing but EVP_DigestUpdate() runs inside the critical region: no JNI
+ * call may be made before it is released.
+ */
+JNIEXPORT void JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_updateBytes
+    (JNIEnv *env, jclass clazz, jlong ctx, jbyteArray data, jint off,
+    jint len)
+{
+  int rc;
+  unsigned char *buf = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
+  if (buf == NULL) {
+    return; // OutOfMemoryError pending
+  }
+  rc = dlsym_EVP_DigestUpdate(MD_CONTEXT(ctx), buf + off, (size_t) len);
+  (*env)->ReleasePrimitiveArrayCritical(env, data, buf, JNI_ABORT);
+  if (!rc) {
+    THROW(env, "java/lang/InternalError", "Error in EVP_DigestUpdate.");
+  }
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_updateDirect
+    (JNIEnv *env, jclass clazz, jlong ctx, jobject data, jint off, jint len)
+{
+  unsigned char *buf = (*env)->GetDirectBufferAddress(env, data);
+  if (buf == NULL) {
+    THROW(env, "java/lang/InternalError", "Cannot get buffer address.");
+    return;
+  }
+  if (!dlsym_EVP_DigestUpdate(MD_CONTEXT(ctx), buf + off, (size_t) len)) {
+    THROW(env, "java/lang/InternalError", "Error in EVP_DigestUpdate.");
+  }
+}
+
+/*
+ * Write the digest to out at off, then reset the context for the next
+ * message as MessageDigest#digest() does.
+ */
+JNIEXPORT void JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_doFinal
+    (JNIEnv *env, jclass clazz, jlong ctx, jbyteArray out, jint off)
+{
+  unsigned char md[EVP_MAX_MD_SIZE];
+  unsigned int md_len = 0;
+  EVP_MD_CTX *context = MD_CONTEXT(ctx);
+  if (!dlsym_EVP_DigestFinal_ex(context, md, &md_len)) {
+    THROW(env, "java/lang/InternalError", "Error in EVP_DigestFinal_ex.");
+    return;
+  }
+  (*env)->SetByteArrayRegion(env, out, off, md_len, (jbyte *) md);
+  if ((*env)->ExceptionCheck(env)) {
+    return;
+  }
+  if (!dlsym_EVP_DigestInit_ex(context, dlsym_EVP_sha256(), NULL)) {
+    THROW(env, "java/lang/InternalError", "Error in EVP_DigestInit_ex.");
+  }
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_crypto_OpensslSha256_clean
+    (JNIEnv *env, jclass clazz, jlong ctx)
+{
+  EVP_MD_CTX *context = MD_CONTEXT(ctx);
+  if (context) {
+    dlsym_EVP_MD_CTX_free(context);
+  }
+}
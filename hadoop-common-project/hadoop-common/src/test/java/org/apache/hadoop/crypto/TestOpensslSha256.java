@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOpensslSha256 {
+  private final byte[] data = new byte[100 * 64 + 13];
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(OpensslSha256.getLoadingFailureReason() == null);
+    new Random(0).nextBytes(data);
+  }
+
+  private byte[] expected() throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(data);
+  }
+
+  @Test(timeout=120000)
+  public void testDigest() throws Exception {
+    OpensslSha256 sha = new OpensslSha256();
+    try {
+      int half = data.length / 2;
+      sha.update(data, 0, half);
+      sha.update(data[half]);
+      sha.update(data, half + 1, data.length - half - 1);
+      Assert.assertArrayEquals(expected(), sha.digest());
+      // digest() resets the context
+      Assert.assertArrayEquals(expected(), sha.digest(data));
+    } finally {
+      sha.clean();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testDigestBuffers() throws Exception {
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.flip();
+    int half = data.length / 2;
+    direct.limit(half);
+    ByteBuffer readOnly = ByteBuffer.wrap(data).asReadOnlyBuffer();
+    readOnly.position(half);
+
+    OpensslSha256 sha = new OpensslSha256();
+    try {
+      sha.update(direct);
+      Assert.assertFalse(direct.hasRemaining());
+      sha.update(readOnly);
+      Assert.assertFalse(readOnly.hasRemaining());
+      Assert.assertArrayEquals(expected(), sha.digest());
+    } finally {
+      sha.clean();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testClone() throws Exception {
+    OpensslSha256 sha = new OpensslSha256();
+    int half = data.length / 2;
+    sha.update(data, 0, half);
+    OpensslSha256 copy = sha.clone();
+    try {
+      sha.update(new byte[10]);
+      copy.update(data, half, data.length - half);
+      Assert.assertArrayEquals(expected(), copy.digest());
+    } finally {
+      sha.clean();
+      copy.clean();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testUpdateArguments() throws Exception {
+    OpensslSha256 sha = new OpensslSha256();
+    try {
+      sha.update(data, 10, data.length);
+      Assert.fail("Should check the bounds of the array.");
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      // Expected
+    }
+    sha.clean();
+    try {
+      sha.update(data);
+      Assert.fail("Should not update a cleaned context.");
+    } catch (IllegalStateException e) {
+      // Expect IllegalStateException
+    }
+  }
+}
@@ -702,6 +702,16 @@ private synchronized DatanodeInfo blockSeekTo(long target)
         } else if (refetchToken > 0 && tokenRefetchNeeded(ex, targetAddr)) {
           refetchToken--;
           fetchBlockAt(target);
+        } else if (ex instanceof ChecksumException) {
+          // The local replica failed its digest check; report it and try
+          // another node, as readBuffer does for a checksum error.
+          DFSClient.LOG.warn("Found Checksum error for "
+              + targetBlock.getBlock() + " from " + chosenNode, ex);
+          CorruptedBlocks corruptedBlocks = new CorruptedBlocks();
+          corruptedBlocks.addCorruptedBlock(targetBlock.getBlock(), chosenNode);
+          reportCheckSumFailure(corruptedBlocks,
+              targetBlock.getLocations().length, false);
+          addToLocalDeadNodes(chosenNode);
         } else {
           connectFailedOnce = true;
           DFSClient.LOG.warn("Failed to connect to {} for file {} for block "
@@ -17,12 +17,14 @@
  */
 package org.apache.hadoop.hdfs;
 
+import org.apache.hadoop.fs.BlockSha256FileChecksum;
 import org.apache.hadoop.fs.CompositeCrcFileChecksum;
 import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
 import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
 import org.apache.hadoop.fs.Options.ChecksumCombineMode;
 import org.apache.hadoop.fs.PathIOException;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockChecksumOptions;
 import org.apache.hadoop.hdfs.protocol.BlockChecksumType;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
@@ -54,6 +56,8 @@
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 /**
@@ -112,6 +116,9 @@ static abstract class FileChecksumComputer {
       case COMPOSITE_CRC:
         this.blockChecksumType = BlockChecksumType.COMPOSITE_CRC;
         break;
+      case BLOCK_SHA256:
+        this.blockChecksumType = BlockChecksumType.BLOCK_SHA256;
+        break;
       default:
         throw new IOException("Unknown ChecksumCombineMode: " + combineMode);
       }
@@ -237,9 +244,13 @@ void setLastRetriedIndex(int lastRetriedIndex) {
     void compute() throws IOException {
       /**
        * request length is 0 or the file is empty, return one with the
-       * magic entry that matches what previous hdfs versions return.
+       * magic entry that matches what previous hdfs versions return, or the
+       * digest of no block digests for BLOCK_SHA256.
        */
-      if (locatedBlocks == null || locatedBlocks.isEmpty()) {
+      if ((locatedBlocks == null || locatedBlocks.isEmpty())
+          && combineMode == ChecksumCombineMode.BLOCK_SHA256) {
+        fileChecksum = makeBlockSha256Result();
+      } else if (locatedBlocks == null || locatedBlocks.isEmpty()) {
         // Explicitly specified here in case the default DataOutputBuffer
         // buffer length value is changed in future. This matters because the
         // fixed value 32 has to be used to repeat the magic value for previous
@@ -272,6 +283,8 @@ FileChecksum makeFinalResult() throws IOException {
         return makeMd5CrcResult();
       case COMPOSITE_CRC:
         return makeCompositeCrcResult();
+      case BLOCK_SHA256:
+        return makeBlockSha256Result();
       default:
         throw new IOException("Unknown ChecksumCombineMode: " + combineMode);
       }
@@ -345,6 +358,22 @@ FileChecksum makeCompositeCrcResult() throws IOException {
           compositeCrc, getCrcType(), bytesPerCRC);
     }
 
+    FileChecksum makeBlockSha256Result() throws IOException {
+      long bytesPerBlock = 0;
+      if (locatedBlocks != null && locatedBlocks.size() > 1) {
+        bytesPerBlock = locatedBlocks.get(0).getBlockSize();
+      }
+      final MessageDigest sha256;
+      try {
+        sha256 = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException("cannot compute SHA256", e);
+      }
+      sha256.update(blockChecksumBuf.getData(), 0,
+          blockChecksumBuf.getLength());
+      return new BlockSha256FileChecksum(bytesPerBlock, sha256.digest());
+    }
+
     /**
      * Create and return a sender given an IO stream pair.
      */
@@ -380,6 +409,11 @@ void extractChecksumProperties(
         DatanodeInfo datanode,
         int blockIdx)
         throws IOException {
+      if (getBlockChecksumType() == BlockChecksumType.BLOCK_SHA256) {
+        // digests of the data itself, there are no CRC properties to match
+        return;
+      }
+
       //read byte-per-checksum
       final int bpc = checksumData.getBytesPerCrc();
       if (blockIdx == 0) { //first block
@@ -467,6 +501,24 @@ String populateBlockChecksumBuf(OpBlockChecksumResponseProto checksumData)
         }
         getBlockChecksumBuf().write(crcBytes);
         break;
+      case BLOCK_SHA256:
+        returnedType = PBHelperClient.convert(
+            checksumData.getBlockChecksumOptions().getBlockChecksumType());
+        if (returnedType != BlockChecksumType.BLOCK_SHA256) {
+          throw new IOException(String.format(
+              "Unexpected blockChecksumType '%s', expecting BLOCK_SHA256",
+              returnedType));
+        }
+        byte[] sha256 = checksumData.getBlockChecksum().toByteArray();
+        if (sha256.length != Block.CHECKSUM_LENGTH) {
+          throw new IOException("Expected a block digest of "
+              + Block.CHECKSUM_LENGTH + " bytes, not " + sha256.length);
+        }
+        if (LOG.isDebugEnabled()) {
+          blockChecksumForDebug = Block.encodeChecksumBytes(sha256);
+        }
+        getBlockChecksumBuf().write(sha256);
+        break;
       default:
         throw new IOException(
             "Unknown BlockChecksumType: " + getBlockChecksumType());
@@ -513,8 +565,17 @@ void checksumBlocks() throws IOException {
      * Return true when sounds good to continue or retry, false when severe
      * condition or totally failed.
      */
-    private boolean checksumBlock(LocatedBlock locatedBlock) {
+    private boolean checksumBlock(LocatedBlock locatedBlock)
+        throws IOException {
       ExtendedBlock block = locatedBlock.getBlock();
+      if (getBlockChecksumType() == BlockChecksumType.BLOCK_SHA256
+          && getRemaining() >= block.getNumBytes()
+          && block.getLocalBlock().hasChecksum()) {
+        // The NameNode has the digest of the whole, complete block
+        setRemaining(getRemaining() - block.getNumBytes());
+        getBlockChecksumBuf().write(block.getLocalBlock().getChecksum());
+        return true;
+      }
       if (getRemaining() < block.getNumBytes()) {
         block.setNumBytes(getRemaining());
       }
@@ -617,6 +678,10 @@ private void tryDatanode(LocatedBlock locatedBlock,
                                           ChecksumCombineMode combineMode)
         throws IOException {
       super(src, length, blockLocations, namenode, client, combineMode);
+      if (combineMode == ChecksumCombineMode.BLOCK_SHA256) {
+        throw new IOException(
+            "BLOCK_SHA256 checksums are not supported for striped files");
+      }
 
       this.ecPolicy = ecPolicy;
     }
@@ -415,6 +415,9 @@ interface Read {
     String URI_CACHE_KEY = PREFIX + "uri.cache.enabled";
     boolean URI_CACHE_DEFAULT = false;
 
+    String  VERIFY_BLOCK_DIGEST_KEY = PREFIX + "verify-block-digest";
+    boolean VERIFY_BLOCK_DIGEST_DEFAULT = false;
+
     interface ShortCircuit {
       String PREFIX = Read.PREFIX + "shortcircuit.";
 
@@ -433,6 +436,9 @@ interface ShortCircuit {
       String  METRICS_SAMPLING_PERCENTAGE_KEY =
           PREFIX + "metrics.sampling.percentage";
       int     METRICS_SAMPLING_PERCENTAGE_DEFAULT = 0;
+
+      String  VERIFY_BLOCK_DIGEST_KEY = PREFIX + "verify-block-digest";
+      boolean VERIFY_BLOCK_DIGEST_DEFAULT = false;
     }
   }
 
@@ -35,6 +35,7 @@
 import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.BlockReader;
 import org.apache.hadoop.hdfs.ClientContext;
@@ -493,17 +494,48 @@ private BlockReader getBlockReaderLocal() throws IOException {
           "BlockReaderLocal via {}", this, pathInfo.getPath());
       return null;
     }
+    // A replica whose whole block matched its SHA-256 needs no per-chunk CRC
+    // checks, which also lets it be read through an unanchored zero-copy mmap.
+    byte[] expectedDigest = getShortCircuitDigest();
+    if (expectedDigest != null) {
+      try {
+        info.getReplica().verifyDigest(expectedDigest);
+      } catch (ChecksumException e) {
+        // Drop the replica from the cache and let the caller report it,
+        // as it would a checksum error found while streaming.
+        LOG.warn("{}: short-circuit replica does not match its digest.",
+            this, e);
+        cache.purgeCorruptReplica(info.getReplica());
+        info.getReplica().unref();
+        throw e;
+      } catch (IOException e) {
+        LOG.warn(this + ": giving up on BlockReaderLocal.", e);
+        info.getReplica().unref();
+        return null;
+      }
+    }
     return new BlockReaderLocal.Builder(conf.getShortCircuitConf()).
         setFilename(fileName).
         setBlock(block).
         setStartOffset(startOffset).
         setShortCircuitReplica(info.getReplica()).
-        setVerifyChecksum(verifyChecksum).
+        setVerifyChecksum(verifyChecksum && expectedDigest == null).
         setCachingStrategy(cachingStrategy).
         setStorageType(storageType).
         build();
   }
 
+  /**
+   * @return The SHA-256 short-circuit replicas of the block must be checked
+   *         against, or null if they should not be checked.
+   */
+  private byte[] getShortCircuitDigest() {
+    if (!conf.getShortCircuitConf().isVerifyShortCircuitBlockDigest()) {
+      return null;
+    }
+    return block.getLocalBlock().getChecksum();
+  }
+
   /**
    * Fetch a pair of short-circuit block descriptors from a local DataNode.
    *
@@ -589,8 +621,10 @@ private ShortCircuitReplicaInfo requestFileDescriptors(DomainPeer peer,
     final DataOutputStream out =
         new DataOutputStream(new BufferedOutputStream(peer.getOutputStream(), SMALL_BUFFER_SIZE));
     SlotId slotId = slot == null ? null : slot.getSlotId();
+    byte[] expectedDigest = getShortCircuitDigest();
     new Sender(out).requestShortCircuitFds(block, token, slotId, 1,
-        failureInjector.getSupportsReceiptVerification());
+        failureInjector.getSupportsReceiptVerification(),
+        expectedDigest != null);
     DataInputStream in = new DataInputStream(peer.getInputStream());
     BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
         PBHelperClient.vintPrefixed(in));
@@ -25,11 +25,14 @@
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.EnumSet;
 import java.util.UUID;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.hdfs.BlockReader;
 import org.apache.hadoop.hdfs.PeerCache;
@@ -58,6 +61,8 @@
 
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCK_READER_REMOTE_BUFFER_SIZE_DEFAULT;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCK_READER_REMOTE_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.Read.VERIFY_BLOCK_DIGEST_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.Read.VERIFY_BLOCK_DIGEST_KEY;
 
 /**
  * This is a wrapper around connection to datanode
@@ -121,6 +126,13 @@ public class BlockReaderRemote implements BlockReader {
 
   private final boolean verifyChecksum;
 
+  /**
+   * SHA-256 the whole block must have, or null if the read does not cover
+   * the whole block or the client does not check it.
+   */
+  private final byte[] expectedDigest;
+  private final MessageDigest digest;
+
   private boolean sentStatusCode = false;
 
   private final int networkDistance;
@@ -217,6 +229,9 @@ private void readNextPacket() throws IOException {
             packetReceiver.getChecksumSlice(),
             filename, curHeader.getOffsetInBlock());
       }
+      if (digest != null) {
+        digest.update(curDataSlice.duplicate());
+      }
       bytesNeededToFinish -= curHeader.getDataLen();
     }
 
@@ -231,6 +246,13 @@ private void readNextPacket() throws IOException {
     // header, which should be empty
     if (bytesNeededToFinish <= 0) {
       readTrailingEmptyPacket();
+      if (digest != null &&
+          !MessageDigest.isEqual(digest.digest(), expectedDigest)) {
+        // Not acknowledged: the DN closes the connection
+        throw new ChecksumException("SHA-256 of block " + blockId
+            + " from " + datanodeID + " does not match its digest, file "
+            + filename, curHeader.getOffsetInBlock());
+      }
       if (verifyChecksum) {
         sendReadResult(Status.CHECKSUM_OK);
       } else {
@@ -280,7 +302,8 @@ protected BlockReaderRemote(String file, long blockId,
                               long startOffset, long firstChunkOffset,
                               long bytesToRead, Peer peer,
                               DatanodeID datanodeID, PeerCache peerCache,
-                              int networkDistance) {
+                              int networkDistance, byte[] expectedDigest)
+      throws IOException {
     // Path is used only for printing block and file information in debug
     this.peer = peer;
     this.datanodeID = datanodeID;
@@ -300,6 +323,16 @@ protected BlockReaderRemote(String file, long blockId,
     bytesPerChecksum = this.checksum.getBytesPerChecksum();
     checksumSize = this.checksum.getChecksumSize();
     this.networkDistance = networkDistance;
+    this.expectedDigest = expectedDigest;
+    if (expectedDigest != null) {
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException("cannot compute SHA256", e);
+      }
+    } else {
+      this.digest = null;
+    }
   }
 
 
@@ -400,10 +433,18 @@ public static BlockReader newBlockReader(String file,
     int bufferSize = configuration.getInt(
         DFS_CLIENT_BLOCK_READER_REMOTE_BUFFER_SIZE_KEY,
         DFS_CLIENT_BLOCK_READER_REMOTE_BUFFER_SIZE_DEFAULT);
+    // A read of the whole of a complete block can be checked against the
+    // block's SHA-256 as it streams in, sparing the DN from checking it
+    byte[] expectedDigest = null;
+    if (startOffset == 0 && len == block.getNumBytes() &&
+        configuration.getBoolean(VERIFY_BLOCK_DIGEST_KEY,
+            VERIFY_BLOCK_DIGEST_DEFAULT)) {
+      expectedDigest = block.getLocalBlock().getChecksum();
+    }
     final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
         peer.getOutputStream(), bufferSize));
     new Sender(out).readBlock(block, blockToken, clientName, startOffset, len,
-        verifyChecksum, cachingStrategy);
+        verifyChecksum, cachingStrategy, expectedDigest != null);
 
     //
     // Get bytes in block
@@ -431,7 +472,7 @@ public static BlockReader newBlockReader(String file,
 
     return new BlockReaderRemote(file, block.getBlockId(), checksum,
         verifyChecksum, startOffset, firstChunkOffset, len, peer, datanodeID,
-        peerCache, networkDistance);
+        peerCache, networkDistance, expectedDigest);
   }
 
   static void checkSuccess(
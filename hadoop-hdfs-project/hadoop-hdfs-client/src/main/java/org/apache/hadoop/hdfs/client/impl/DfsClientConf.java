@@ -722,6 +722,7 @@ public static class ShortCircuitConf {
     private final boolean useLegacyBlockReaderLocal;
     private final String domainSocketPath;
     private final boolean skipShortCircuitChecksums;
+    private final boolean verifyShortCircuitBlockDigest;
 
     private final int shortCircuitBufferSize;
     private final boolean shortCircuitLocalReads;
@@ -790,6 +791,9 @@ public ShortCircuitConf(Configuration conf) {
       skipShortCircuitChecksums = conf.getBoolean(
           Read.ShortCircuit.SKIP_CHECKSUM_KEY,
           Read.ShortCircuit.SKIP_CHECKSUM_DEFAULT);
+      verifyShortCircuitBlockDigest = conf.getBoolean(
+          Read.ShortCircuit.VERIFY_BLOCK_DIGEST_KEY,
+          Read.ShortCircuit.VERIFY_BLOCK_DIGEST_DEFAULT);
       shortCircuitBufferSize = conf.getInt(
           Read.ShortCircuit.BUFFER_SIZE_KEY,
           Read.ShortCircuit.BUFFER_SIZE_DEFAULT);
@@ -873,6 +877,13 @@ public boolean isSkipShortCircuitChecksums() {
       return skipShortCircuitChecksums;
     }
 
+    /**
+     * @return the verifyShortCircuitBlockDigest
+     */
+    public boolean isVerifyShortCircuitBlockDigest() {
+      return verifyShortCircuitBlockDigest;
+    }
+
     /**
      * @return the shortCircuitBufferSize
      */
@@ -974,6 +985,8 @@ public String confAsString() {
           + useLegacyBlockReaderLocal
           + ", domainSocketDataTraffic = "
           + domainSocketDataTraffic
+          + ", verifyShortCircuitBlockDigest = "
+          + verifyShortCircuitBlockDigest
           + ", shortCircuitSharedMemoryWatcherInterruptCheckMs = "
           + shortCircuitSharedMemoryWatcherInterruptCheckMs
           + ", keyProviderCacheExpiryMs = "
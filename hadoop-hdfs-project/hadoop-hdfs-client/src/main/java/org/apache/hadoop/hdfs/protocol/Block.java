@@ -18,6 +18,8 @@
 package org.apache.hadoop.hdfs.protocol;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.regex.Matcher;
@@ -107,7 +109,18 @@ public static long getBlockId(String metaOrBlockFile) {
   private long blockId;
   private long numBytes;
   private long generationStamp;
-  private byte[] checksum;
+  // The SHA-256 checksum is held in primitive fields rather than in an
+  // array, which would cost the NameNode an object header and a reference
+  // for each of its blocks. Unlike the array reference, the four words are
+  // not updated atomically: a subclass whose checksum is set while other
+  // threads read it must synchronize the checksum accessors, including
+  // copyChecksumTo and checksumEquals(boolean, long...) through which other
+  // blocks read it (see the DataNode's ReplicaInfo).
+  private long checksum0;
+  private long checksum1;
+  private long checksum2;
+  private long checksum3;
+  private boolean hasChecksum;
 
   public Block() {this(0, 0, 0);}
 
@@ -124,7 +137,8 @@ public Block(final long blkid) {
   }
 
   public Block(Block blk) {
-    this(blk.blockId, blk.numBytes, blk.generationStamp, blk.checksum);
+    this(blk.blockId, blk.numBytes, blk.generationStamp);
+    setChecksum(blk);
   }
 
   /**
@@ -162,8 +176,7 @@ public void set(long blkid, long len, long genStamp, byte[] checksum) {
     this.blockId = blkid;
     this.numBytes = len;
     this.generationStamp = genStamp;
-    this.checksum = (checksum != null) ? checksum.clone() : null;
-//    LOG.info(this.toFullString());
+    setChecksum(checksum);
   }
 
   public void set(long blkid, long len, long genStamp) {
@@ -220,8 +233,7 @@ public static String toString(final Block b) {
         .append(b.generationStamp);
 
     // Add checksum
-    byte[] ck = b.getChecksum();
-    if (ck != null)
+    if (b.hasChecksum)
       sb.append("--").append(b.getChecksumAsString());
 
     return sb.toString();
@@ -284,16 +296,14 @@ final void writeHelper(DataOutput out) throws IOException {
     out.writeLong(blockId);
     out.writeLong(numBytes);
     out.writeLong(generationStamp);
-    if (checksum == null) {
+    if (!hasChecksum) {
       out.writeInt(0);
-      LOG.info("Serialize Checksum: len=0");
-    }
-    else {
-      out.writeInt(checksum.length);
-      for (int b: checksum) {
-        out.writeByte(b);
-      }
-      LOG.info("Serialize Checksum: len=" + checksum.length + " value=" + getChecksumAsString());
+    } else {
+      out.writeInt(CHECKSUM_LENGTH);
+      out.writeLong(checksum0);
+      out.writeLong(checksum1);
+      out.writeLong(checksum2);
+      out.writeLong(checksum3);
     }
   }
 
@@ -305,11 +315,17 @@ final void readHelper(DataInput in) throws IOException {
       throw new IOException("Unexpected block size: " + numBytes);
     }
     int checksumLength = in.readInt();
-    if (checksumLength != 0) {
-      this.checksum = new byte[checksumLength];
-      in.readFully(this.checksum, 0, checksumLength);
+    if (checksumLength == 0) {
+      setChecksum((byte[]) null);
+    } else if (checksumLength == CHECKSUM_LENGTH) {
+      this.checksum0 = in.readLong();
+      this.checksum1 = in.readLong();
+      this.checksum2 = in.readLong();
+      this.checksum3 = in.readLong();
+      this.hasChecksum = true;
+    } else {
+      throw new IOException("Unexpected checksum length: " + checksumLength);
     }
-    LOG.info("Deserialize Checksum: len=" + checksumLength + " value=" + getChecksumAsString());
   }
 
   // write only the identifier part of the block
@@ -395,18 +411,175 @@ public static boolean matchingIdAndGenStamp(Block a, Block b) {
     }
   }
 
+  /**
+   * @return a new array holding the checksum, or null if there is none
+   */
   public byte[] getChecksum() {
-    return (checksum != null) ? checksum.clone() : null;
+    if (!hasChecksum) {
+      return null;
+    }
+    byte[] c = new byte[CHECKSUM_LENGTH];
+    getChecksum(c, 0);
+    return c;
+  }
+
+  /**
+   * Copy the checksum into dst, which must have {@link #CHECKSUM_LENGTH}
+   * bytes from off.
+   *
+   * @return false, leaving dst as is, if there is no checksum
+   */
+  public boolean getChecksum(byte[] dst, int off) {
+    if (!hasChecksum) {
+      return false;
+    }
+    putLong(dst, off, checksum0);
+    putLong(dst, off + 8, checksum1);
+    putLong(dst, off + 16, checksum2);
+    putLong(dst, off + 24, checksum3);
+    return true;
+  }
+
+  /**
+   * Write the checksum at the position of dst, which must have
+   * {@link #CHECKSUM_LENGTH} bytes remaining, and advance it. The bytes are
+   * the same whatever the byte order of dst.
+   *
+   * @return false, leaving dst as is, if there is no checksum
+   */
+  public boolean writeChecksumTo(ByteBuffer dst) {
+    if (!hasChecksum) {
+      return false;
+    }
+    final int off = dst.position();
+    bigEndian(dst).putLong(off, checksum0).putLong(off + 8, checksum1)
+        .putLong(off + 16, checksum2).putLong(off + 24, checksum3);
+    dst.position(off + CHECKSUM_LENGTH);
+    return true;
+  }
+
+  public boolean hasChecksum() {
+    return hasChecksum;
+  }
+
+  /**
+   * @return whether the checksum equals c, without copying it. A null or
+   * empty c matches a block without checksum.
+   */
+  public boolean checksumEquals(byte[] c) {
+    if (c == null || c.length == 0) {
+      return !hasChecksum;
+    }
+    return c.length == CHECKSUM_LENGTH && checksumEquals(c, 0);
+  }
+
+  /**
+   * @return whether the block has a checksum equal to the
+   * {@link #CHECKSUM_LENGTH} bytes of c at off
+   */
+  public boolean checksumEquals(byte[] c, int off) {
+    return hasChecksum &&
+        checksum0 == getLong(c, off) && checksum1 == getLong(c, off + 8) &&
+        checksum2 == getLong(c, off + 16) && checksum3 == getLong(c, off + 24);
+  }
+
+  /**
+   * @return whether both blocks have the same checksum, or none
+   */
+  public boolean checksumEquals(Block b) {
+    return b.checksumEquals(hasChecksum,
+        checksum0, checksum1, checksum2, checksum3);
+  }
+
+  /**
+   * @return whether the checksum equals the given words, or both are absent
+   */
+  protected boolean checksumEquals(boolean has,
+      long c0, long c1, long c2, long c3) {
+    return hasChecksum == has && checksum0 == c0 && checksum1 == c1 &&
+        checksum2 == c2 && checksum3 == c3;
   }
 
   public String getChecksumAsString() {
-    return (checksum != null) ?
+    byte[] checksum = getChecksum();
+    return checksum != null ?
         Block.encodeChecksumBytes(checksum) :
         NO_CHECKSUM;
   }
 
+  /**
+   * Set the checksum from an array of {@link #CHECKSUM_LENGTH} bytes, which
+   * is copied. A null or empty array clears the checksum.
+   */
   public void setChecksum(byte[] checksum) {
-    this.checksum = checksum;
+    if (checksum == null || checksum.length == 0) {
+      checksum0 = checksum1 = checksum2 = checksum3 = 0;
+      hasChecksum = false;
+      return;
+    }
+    if (checksum.length != CHECKSUM_LENGTH) {
+      throw new IllegalArgumentException("Expected a checksum of "
+          + CHECKSUM_LENGTH + " bytes, not " + checksum.length);
+    }
+    checksum0 = getLong(checksum, 0);
+    checksum1 = getLong(checksum, 8);
+    checksum2 = getLong(checksum, 16);
+    checksum3 = getLong(checksum, 24);
+    hasChecksum = true;
+  }
+
+  /**
+   * Set the checksum from the {@link #CHECKSUM_LENGTH} bytes at the position
+   * of src, without copying them, whatever the byte order of src. The
+   * position of src is unchanged.
+   */
+  public void setChecksum(ByteBuffer src) {
+    final int off = src.position();
+    final ByteBuffer b = bigEndian(src);
+    checksum0 = b.getLong(off);
+    checksum1 = b.getLong(off + 8);
+    checksum2 = b.getLong(off + 16);
+    checksum3 = b.getLong(off + 24);
+    hasChecksum = true;
+  }
+
+  /** The checksum words are stored big-endian, as by getLong(byte[], int). */
+  private static ByteBuffer bigEndian(ByteBuffer b) {
+    return b.order() == ByteOrder.BIG_ENDIAN ?
+        b : b.duplicate().order(ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * Set the checksum to the one of b.
+   */
+  public void setChecksum(Block b) {
+    b.copyChecksumTo(this);
+  }
+
+  /**
+   * Set the checksum of dst to the one of this block.
+   */
+  protected void copyChecksumTo(Block dst) {
+    dst.checksum0 = checksum0;
+    dst.checksum1 = checksum1;
+    dst.checksum2 = checksum2;
+    dst.checksum3 = checksum3;
+    dst.hasChecksum = hasChecksum;
+  }
+
+  private static long getLong(byte[] b, int off) {
+    long v = 0;
+    for (int i = 0; i < 8; i++) {
+      v = (v << 8) | (b[off + i] & 0xff);
+    }
+    return v;
+  }
+
+  private static void putLong(byte[] b, int off, long v) {
+    for (int i = 7; i >= 0; i--) {
+      b[off + i] = (byte) v;
+      v >>>= 8;
+    }
   }
 
   public void setChecksum(String checksum) {
@@ -416,7 +589,7 @@ public void setChecksum(String checksum) {
   }
 
   public void setChecksum(File f) {
-    this.checksum = computeChecksum(f);
+    setChecksum(computeChecksum(f));
   }
 
   public static String encodeChecksumBytes(byte[] c) {
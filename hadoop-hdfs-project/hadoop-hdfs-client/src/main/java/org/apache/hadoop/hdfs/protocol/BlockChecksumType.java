@@ -26,5 +26,6 @@
 @InterfaceAudience.Private
 public enum BlockChecksumType {
   MD5CRC,  // BlockChecksum obtained by taking the MD5 digest of chunk CRCs
-  COMPOSITE_CRC  // Chunk-independent CRC, optionally striped
+  COMPOSITE_CRC,  // Chunk-independent CRC, optionally striped
+  BLOCK_SHA256  // SHA-256 of the block data, as stored with the replica
 }
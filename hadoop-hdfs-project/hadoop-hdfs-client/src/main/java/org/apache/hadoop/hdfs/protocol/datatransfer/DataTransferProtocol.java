@@ -53,6 +53,29 @@ public interface DataTransferProtocol {
    */
   int DATA_TRANSFER_VERSION = 28;
 
+  /**
+   * Read a block, which the DN checks against its SHA-256.
+   *
+   * @param blk the block being read.
+   * @param blockToken security token for accessing the block.
+   * @param clientName client's name.
+   * @param blockOffset offset of the block.
+   * @param length maximum number of bytes for this read.
+   * @param sendChecksum if false, the DN should skip reading and sending
+   *        checksums
+   * @param cachingStrategy  The caching strategy to use.
+   */
+  default void readBlock(final ExtendedBlock blk,
+      final Token<BlockTokenIdentifier> blockToken,
+      final String clientName,
+      final long blockOffset,
+      final long length,
+      final boolean sendChecksum,
+      final CachingStrategy cachingStrategy) throws IOException {
+    readBlock(blk, blockToken, clientName, blockOffset, length, sendChecksum,
+        cachingStrategy, false);
+  }
+
   /**
    * Read a block.
    *
@@ -64,6 +87,8 @@ public interface DataTransferProtocol {
    * @param sendChecksum if false, the DN should skip reading and sending
    *        checksums
    * @param cachingStrategy  The caching strategy to use.
+   * @param clientChecksDigest if true, the client reads the whole block and
+   *        checks it against its SHA-256, so the DN need not check it first
    */
   void readBlock(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> blockToken,
@@ -71,7 +96,8 @@ void readBlock(final ExtendedBlock blk,
       final long blockOffset,
       final long length,
       final boolean sendChecksum,
-      final CachingStrategy cachingStrategy) throws IOException;
+      final CachingStrategy cachingStrategy,
+      final boolean clientChecksDigest) throws IOException;
 
   /**
    * Write a block to a datanode pipeline.
@@ -159,10 +185,32 @@ void transferBlock(final ExtendedBlock blk,
    * @param supportsReceiptVerification  True if the client supports
    *                          receipt verification.
    */
-  void requestShortCircuitFds(final ExtendedBlock blk,
+  default void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> blockToken,
       SlotId slotId, int maxVersion, boolean supportsReceiptVerification)
-        throws IOException;
+      throws IOException {
+    requestShortCircuitFds(blk, blockToken, slotId, maxVersion,
+        supportsReceiptVerification, false);
+  }
+
+  /**
+   * Request short circuit access file descriptors from a DataNode.
+   *
+   * @param blk             The block to get file descriptors for.
+   * @param blockToken      Security token for accessing the block.
+   * @param slotId          The shared memory slot id to use, or null
+   *                          to use no slot id.
+   * @param maxVersion      Maximum version of the block data the client
+   *                          can understand.
+   * @param supportsReceiptVerification  True if the client supports
+   *                          receipt verification.
+   * @param clientChecksDigest  True if the client checks the SHA-256 of the
+   *                          block itself.
+   */
+  void requestShortCircuitFds(final ExtendedBlock blk,
+      final Token<BlockTokenIdentifier> blockToken,
+      SlotId slotId, int maxVersion, boolean supportsReceiptVerification,
+      boolean clientChecksDigest) throws IOException;
 
   /**
    * Release a pair of short-circuit FDs requested earlier.
@@ -23,6 +23,8 @@
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.util.DirectBufferPool;
@@ -74,6 +76,18 @@ public class PacketReceiver implements Closeable {
    */
   private PacketHeader curHeader;
 
+  /**
+   * Whether {@link #curPacketBuf} was handed off, so that the next packet
+   * must be read into another buffer.
+   */
+  private boolean curPacketBufHandedOff = false;
+
+  /**
+   * Buffers handed off and released since, to read the next packets into.
+   */
+  private final Queue<ByteBuffer> releasedPacketBufs =
+      new ConcurrentLinkedQueue<>();
+
   public PacketReceiver(boolean useDirectBuffers) {
     this.useDirectBuffers = useDirectBuffers;
     reallocPacketBuf(PacketHeader.PKT_LENGTHS_LEN);
@@ -91,6 +105,20 @@ public ByteBuffer getChecksumSlice() {
     return curChecksumSlice;
   }
 
+  /**
+   * Hand off the buffer of the most recently read packet, so that its slices
+   * are not overwritten by the next packets, which are read into other
+   * buffers. The buffer is reused once the returned callback is run, which
+   * may be done on any thread.
+   */
+  public Runnable handOffPacketBuf() {
+    Preconditions.checkState(!curPacketBufHandedOff,
+        "The buffer of the packet is already handed off");
+    curPacketBufHandedOff = true;
+    final ByteBuffer buf = curPacketBuf;
+    return () -> releasedPacketBufs.add(buf);
+  }
+
   /**
    * Reads all of the data for the next packet into the appropriate buffers.
    *
@@ -129,6 +157,12 @@ private void doRead(ReadableByteChannel ch, InputStream in)
     // DATA       the actual block data
     Preconditions.checkState(curHeader == null || !curHeader.isLastPacketInBlock());
 
+    if (curPacketBufHandedOff) {
+      // Read into a released buffer, or a new one
+      curPacketBufHandedOff = false;
+      curPacketBuf = releasedPacketBufs.poll();
+      reallocPacketBuf(PacketHeader.PKT_LENGTHS_LEN);
+    }
     curPacketBuf.clear();
     curPacketBuf.limit(PacketHeader.PKT_LENGTHS_LEN);
     doReadFully(ch, in, curPacketBuf);
@@ -284,15 +318,30 @@ private void reallocPacketBuf(int atLeastCapacity) {
   }
 
   private void returnPacketBufToPool() {
-    if (curPacketBuf != null && curPacketBuf.isDirect()) {
+    if (curPacketBuf != null && curPacketBuf.isDirect() &&
+        !curPacketBufHandedOff) {
       bufferPool.returnBuffer(curPacketBuf);
       curPacketBuf = null;
     }
   }
 
+  /**
+   * Return the released buffers to the pool. Buffers released later are
+   * left to the garbage collector.
+   */
+  private void returnReleasedPacketBufsToPool() {
+    for (ByteBuffer buf = releasedPacketBufs.poll(); buf != null;
+        buf = releasedPacketBufs.poll()) {
+      if (buf.isDirect()) {
+        bufferPool.returnBuffer(buf);
+      }
+    }
+  }
+
   @Override // Closeable
   public void close() {
     returnPacketBufToPool();
+    returnReleasedPacketBufsToPool();
   }
 
   @Override
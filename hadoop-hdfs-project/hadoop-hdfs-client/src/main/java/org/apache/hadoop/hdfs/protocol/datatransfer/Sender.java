@@ -103,7 +103,8 @@ public void readBlock(final ExtendedBlock blk,
       final long blockOffset,
       final long length,
       final boolean sendChecksum,
-      final CachingStrategy cachingStrategy) throws IOException {
+      final CachingStrategy cachingStrategy,
+      final boolean clientChecksDigest) throws IOException {
 
     OpReadBlockProto proto = OpReadBlockProto.newBuilder()
         .setHeader(DataTransferProtoUtil.buildClientHeader(blk, clientName,
@@ -112,6 +113,7 @@ public void readBlock(final ExtendedBlock blk,
         .setLen(length)
         .setSendChecksums(sendChecksum)
         .setCachingStrategy(getCachingStrategy(cachingStrategy))
+        .setClientChecksDigest(clientChecksDigest)
         .build();
 
     send(out, Op.READ_BLOCK, proto);
@@ -194,8 +196,8 @@ public void transferBlock(final ExtendedBlock blk,
   @Override
   public void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> blockToken,
-      SlotId slotId, int maxVersion, boolean supportsReceiptVerification)
-      throws IOException {
+      SlotId slotId, int maxVersion, boolean supportsReceiptVerification,
+      boolean clientChecksDigest) throws IOException {
     OpRequestShortCircuitAccessProto.Builder builder =
         OpRequestShortCircuitAccessProto.newBuilder()
             .setHeader(DataTransferProtoUtil.buildBaseHeader(
@@ -204,6 +206,7 @@ public void requestShortCircuitFds(final ExtendedBlock blk,
       builder.setSlotId(PBHelperClient.convert(slotId));
     }
     builder.setSupportsReceiptVerification(supportsReceiptVerification);
+    builder.setClientChecksDigest(clientChecksDigest);
     OpRequestShortCircuitAccessProto proto = builder.build();
     send(out, Op.REQUEST_SHORT_CIRCUIT_FDS, proto);
   }
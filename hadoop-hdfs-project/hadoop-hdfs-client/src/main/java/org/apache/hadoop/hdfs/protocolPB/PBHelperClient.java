@@ -20,6 +20,7 @@
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
@@ -36,6 +37,7 @@
 import org.apache.hadoop.thirdparty.com.google.common.primitives.Shorts;
 import org.apache.hadoop.thirdparty.protobuf.ByteString;
 import org.apache.hadoop.thirdparty.protobuf.CodedInputStream;
+import org.apache.hadoop.thirdparty.protobuf.UnsafeByteOperations;
 
 import org.apache.hadoop.crypto.CipherOption;
 import org.apache.hadoop.crypto.CipherSuite;
@@ -279,6 +281,8 @@ public static HdfsProtos.BlockChecksumTypeProto convert(
       return HdfsProtos.BlockChecksumTypeProto.MD5CRC;
     case COMPOSITE_CRC:
       return HdfsProtos.BlockChecksumTypeProto.COMPOSITE_CRC;
+    case BLOCK_SHA256:
+      return HdfsProtos.BlockChecksumTypeProto.BLOCK_SHA256;
     default:
       throw new IllegalStateException(
           "BUG: BlockChecksumType not found, type=" + type);
@@ -292,6 +296,8 @@ public static BlockChecksumType convert(
       return BlockChecksumType.MD5CRC;
     case COMPOSITE_CRC:
       return BlockChecksumType.COMPOSITE_CRC;
+    case BLOCK_SHA256:
+      return BlockChecksumType.BLOCK_SHA256;
     default:
       throw new IllegalStateException(
           "BUG: BlockChecksumTypeProto not found, type="
@@ -627,7 +633,8 @@ public static List<CipherOption> convertCipherOptionProtos(
     return null;
   }
 
-  public static LocatedBlock convertLocatedBlockProto(LocatedBlockProto proto) {
+  public static LocatedBlock convertLocatedBlockProto(LocatedBlockProto proto)
+      throws IOException {
     if (proto == null) return null;
     List<DatanodeInfoProto> locs = proto.getLocsList();
     DatanodeInfo[] targets = new DatanodeInfo[locs.size()];
@@ -678,6 +685,9 @@ public static LocatedBlock convertLocatedBlockProto(LocatedBlockProto proto) {
       ((LocatedStripedBlock) lb).setBlockTokens(blockTokens);
     }
     lb.setBlockToken(convert(proto.getBlockToken()));
+    if (proto.hasChecksum()) {
+      setChecksum(lb.getBlock().getLocalBlock(), proto.getChecksum());
+    }
 
     return lb;
   }
@@ -831,7 +841,8 @@ public static AdminStates convert(AdminState adminState) {
   }
 
   // LocatedBlocks
-  public static LocatedBlocks convert(LocatedBlocksProto lb) {
+  public static LocatedBlocks convert(LocatedBlocksProto lb)
+      throws IOException {
     return new LocatedBlocks(
         lb.getFileLength(), lb.getUnderConstruction(),
         convertLocatedBlocks(lb.getBlocksList()),
@@ -970,14 +981,15 @@ public static LocatedBlockProto[] convertLocatedBlocks(LocatedBlock[] lb) {
         .toArray(new LocatedBlockProto[lb.length]);
   }
 
-  public static LocatedBlock[] convertLocatedBlocks(LocatedBlockProto[] lb) {
+  public static LocatedBlock[] convertLocatedBlocks(LocatedBlockProto[] lb)
+      throws IOException {
     if (lb == null) return null;
     return convertLocatedBlocks(Arrays.asList(lb))
         .toArray(new LocatedBlock[lb.length]);
   }
 
   public static List<LocatedBlock> convertLocatedBlocks(
-      List<LocatedBlockProto> lb) {
+      List<LocatedBlockProto> lb) throws IOException {
     if (lb == null) return null;
     final int len = lb.size();
     List<LocatedBlock> result = new ArrayList<>(len);
@@ -992,13 +1004,23 @@ public static List<LocatedBlockProto> convertLocatedBlocks2(
     if (lb == null) return null;
     final int len = lb.size();
     List<LocatedBlockProto> result = new ArrayList<>(len);
+    // One buffer holds the checksums of all the blocks
+    ByteBuffer checksums = ByteBuffer.allocate(len * Block.CHECKSUM_LENGTH);
     for (LocatedBlock aLb : lb) {
-      result.add(convertLocatedBlock(aLb));
+      result.add(convertLocatedBlock(aLb, checksums));
     }
     return result;
   }
 
   public static LocatedBlockProto convertLocatedBlock(LocatedBlock b) {
+    return convertLocatedBlock(b, null);
+  }
+
+  /**
+   * @param checksums where to write the checksum of the block, or null
+   */
+  private static LocatedBlockProto convertLocatedBlock(LocatedBlock b,
+      ByteBuffer checksums) {
     if (b == null) return null;
     Builder builder = LocatedBlockProto.newBuilder();
     DatanodeInfo[] locs = b.getLocations();
@@ -1034,6 +1056,10 @@ public static LocatedBlockProto convertLocatedBlock(LocatedBlock b) {
       Token<BlockTokenIdentifier>[] blockTokens = sb.getBlockTokens();
       builder.addAllBlockTokens(convert(blockTokens));
     }
+    Block local = b.getBlock().getLocalBlock();
+    if (local.hasChecksum()) {
+      builder.setChecksum(convertChecksum(local, checksums));
+    }
 
     return builder.setB(PBHelperClient.convert(b.getBlock()))
         .setBlockToken(PBHelperClient.convert(b.getBlockToken()))
@@ -1191,7 +1217,7 @@ static InotifyProtos.INodeType createTypeConvert(Event.CreateEvent.INodeType
   }
 
   public static List<LocatedBlock> convertLocatedBlock(
-      List<LocatedBlockProto> lb) {
+      List<LocatedBlockProto> lb) throws IOException {
     if (lb == null) return null;
     final int len = lb.size();
     List<LocatedBlock> result = new ArrayList<>(len);
@@ -1703,7 +1729,8 @@ public static FsPermissionProto convert(FsPermission p) {
     return FsPermissionProto.newBuilder().setPerm(p.toShort()).build();
   }
 
-  public static HdfsFileStatus convert(HdfsFileStatusProto fs) {
+  public static HdfsFileStatus convert(HdfsFileStatusProto fs)
+      throws IOException {
     if (fs == null) {
       return null;
     }
@@ -2011,7 +2038,8 @@ public static DatanodeReportTypeProto convert(DatanodeReportType t) {
     }
   }
 
-  public static DirectoryListing convert(DirectoryListingProto dl) {
+  public static DirectoryListing convert(DirectoryListingProto dl)
+      throws IOException {
     if (dl == null)
       return null;
     List<HdfsFileStatusProto> partList =  dl.getPartialListingList();
@@ -2021,7 +2049,8 @@ public static DirectoryListing convert(DirectoryListingProto dl) {
                   dl.getRemainingEntries());
   }
 
-  public static HdfsFileStatus[] convert(HdfsFileStatusProto[] fs) {
+  public static HdfsFileStatus[] convert(HdfsFileStatusProto[] fs)
+      throws IOException {
     if (fs == null) return null;
     final int len = fs.length;
     HdfsFileStatus[] result = new HdfsFileStatus[len];
@@ -2032,7 +2061,7 @@ public static HdfsFileStatus[] convert(HdfsFileStatusProto[] fs) {
   }
 
   public static List<HdfsFileStatus> convertHdfsFileStatus(
-      List<HdfsFileStatusProto> fs) {
+      List<HdfsFileStatusProto> fs) throws IOException {
     if (fs == null) {
       return null;
     }
@@ -2148,19 +2177,52 @@ public static BlockProto convert(Block b) {
     BlockProto.Builder builder = BlockProto.newBuilder().setBlockId(b.getBlockId())
         .setGenStamp(b.getGenerationStamp()).setNumBytes(b.getNumBytes());
 
-    byte[] c = b.getChecksum();
-    builder.setChecksum(
-        ByteString.copyFrom((c != null) ? c : new byte[0])
-    );
+    builder.setChecksum(b.hasChecksum() ?
+        convertChecksum(b, null) : ByteString.EMPTY);
 
     return builder.build();
   }
 
   public static Block convert(BlockProto b) {
-    byte[] checksum = b.getChecksum().toByteArray();
-    if (checksum.length != Block.CHECKSUM_LENGTH)
-      checksum = null;
-    return new Block(b.getBlockId(), b.getNumBytes(), b.getGenStamp(), checksum);
+    Block block = new Block(b.getBlockId(), b.getNumBytes(), b.getGenStamp());
+    if (b.getChecksum().size() == Block.CHECKSUM_LENGTH) {
+      block.setChecksum(b.getChecksum().asReadOnlyByteBuffer());
+    }
+    return block;
+  }
+
+  /**
+   * @param buf where to write the checksum, shared by the blocks of one
+   *            message, or null to allocate room for it
+   * @return the checksum of b, wrapping buf rather than copying it
+   */
+  private static ByteString convertChecksum(Block b, ByteBuffer buf) {
+    if (buf == null) {
+      buf = ByteBuffer.allocate(Block.CHECKSUM_LENGTH);
+    }
+    final int off = buf.arrayOffset() + buf.position();
+    b.writeChecksumTo(buf);
+    return UnsafeByteOperations.unsafeWrap(buf.array(), off,
+        Block.CHECKSUM_LENGTH);
+  }
+
+  /**
+   * Set the checksum of a block to the one carried by a message. An empty
+   * checksum clears it.
+   *
+   * @throws IOException if the checksum is not {@link Block#CHECKSUM_LENGTH}
+   *         bytes long
+   */
+  public static void setChecksum(Block b, ByteString checksum)
+      throws IOException {
+    if (checksum.isEmpty()) {
+      b.setChecksum((byte[]) null);
+    } else if (checksum.size() == Block.CHECKSUM_LENGTH) {
+      b.setChecksum(checksum.asReadOnlyByteBuffer());
+    } else {
+      throw new IOException("Invalid checksum of " + checksum.size() +
+          " bytes for " + b + ", expected " + Block.CHECKSUM_LENGTH);
+    }
   }
 
   public static BlockTypeProto convert(BlockType blockType) {
@@ -2208,7 +2270,8 @@ public static List<DatanodeStorageReportProto> convertDatanodeStorageReports(
     return protos;
   }
 
-  public static LocatedBlock[] convertLocatedBlock(LocatedBlockProto[] lb) {
+  public static LocatedBlock[] convertLocatedBlock(LocatedBlockProto[] lb)
+      throws IOException {
     if (lb == null) return null;
     return convertLocatedBlock(Arrays.asList(lb)).toArray(
         new LocatedBlock[lb.length]);
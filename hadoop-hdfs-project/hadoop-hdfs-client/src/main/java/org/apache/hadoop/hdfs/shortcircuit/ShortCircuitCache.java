@@ -1023,6 +1023,24 @@ public void freeSlot(Slot slot) {
     shmManager.freeSlot(slot);
   }
 
+  /**
+   * Purge a replica whose data was found to be corrupt, so that the cache
+   * does not hand it out again.  The caller keeps its own reference.
+   *
+   * @param replica        The replica to purge.
+   */
+  public void purgeCorruptReplica(ShortCircuitReplica replica) {
+    lock.lock();
+    try {
+      if (!replica.purged) {
+        LOG.debug("{}: purging corrupt replica {}", this, replica);
+        purge(replica);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
   /**
    * Schedule a shared memory slot to be released.
    *
@@ -22,8 +22,11 @@
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.hdfs.ExtendedBlockId;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitShm.Slot;
@@ -119,6 +122,17 @@ public class ShortCircuitReplica {
    */
   private Long evictableTimeNs = null;
 
+  /**
+   * The SHA-256 the block data was last checked against, or null if it was
+   * never checked.  Nothing tells us if the block file is later changed in
+   * place; the DataNode only invalidates our slot when the replica is
+   * deleted, invalidated or moved.  So this only records that the data
+   * matched when it was checked.
+   *
+   * Protected by this object's monitor.
+   */
+  private byte[] verifiedDigest;
+
   public ShortCircuitReplica(ExtendedBlockId key,
       FileInputStream dataStream, FileInputStream metaStream,
       ShortCircuitCache cache, long creationTimeMs, Slot slot) throws IOException {
@@ -136,6 +150,66 @@ public ShortCircuitReplica(ExtendedBlockId key,
     this.slot = slot;
   }
 
+  /**
+   * Check that the block data hashes to the given SHA-256.
+   *
+   * The data is read through a read-only mmap, so no copy of the block is
+   * made on the Java heap.
+   *
+   * @param key          The block the data belongs to, for error messages.
+   * @param dataStream   The block data.
+   * @param expected     The SHA-256 the whole block must have.
+   * @throws ChecksumException if the data does not hash to expected.
+   */
+  private static void checkDigest(ExtendedBlockId key,
+      FileInputStream dataStream, byte[] expected) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("cannot compute SHA256", e);
+    }
+    FileChannel channel = dataStream.getChannel();
+    long length = channel.size();
+    for (long pos = 0; pos < length; pos += Integer.MAX_VALUE) {
+      MappedByteBuffer mmap = channel.map(MapMode.READ_ONLY, pos,
+          Math.min(Integer.MAX_VALUE, length - pos));
+      try {
+        md.update(mmap);
+      } finally {
+        NativeIO.POSIX.munmap(mmap);
+      }
+    }
+    if (!MessageDigest.isEqual(md.digest(), expected)) {
+      throw new ChecksumException("SHA-256 of short-circuit replica " + key
+          + " does not match its digest", 0);
+    }
+  }
+
+  /**
+   * Check the block data against the given SHA-256, unless it has already
+   * been checked against it.  The result is remembered for the lifetime of
+   * this replica, so later readers can skip their own checksum verification.
+   *
+   * @throws ChecksumException if the data does not hash to expected.
+   */
+  public synchronized void verifyDigest(byte[] expected) throws IOException {
+    if (isDigestVerified(expected)) {
+      return;
+    }
+    checkDigest(key, dataStream, expected);
+    verifiedDigest = expected.clone();
+    LOG.trace("{}: verified SHA-256 of block data", this);
+  }
+
+  /**
+   * @return True if the block data has been checked against the given SHA-256.
+   */
+  public synchronized boolean isDigestVerified(byte[] expected) {
+    return verifiedDigest != null && expected != null &&
+        MessageDigest.isEqual(verifiedDigest, expected);
+  }
+
   /**
    * Decrement the reference count.
    */
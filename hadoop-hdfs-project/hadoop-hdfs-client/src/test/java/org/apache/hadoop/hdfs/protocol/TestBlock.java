@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.hdfs.protocolPB.PBHelperClient;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+/**
+ * Test the checksum of the Block class.
+ */
+public class TestBlock {
+  private static byte[] checksum(long seed) {
+    byte[] c = new byte[Block.CHECKSUM_LENGTH];
+    new Random(seed).nextBytes(c);
+    return c;
+  }
+
+  @Test
+  public void testChecksum() {
+    byte[] c = checksum(1);
+    Block b = new Block(1, 10, 1, c);
+    assertTrue(b.hasChecksum());
+    assertArrayEquals(c, b.getChecksum());
+    assertTrue(b.checksumEquals(c));
+    assertFalse(b.checksumEquals(checksum(2)));
+    assertFalse(b.checksumEquals((byte[]) null));
+    assertEquals(Block.encodeChecksumBytes(c), b.getChecksumAsString());
+    byte[] dst = new byte[Block.CHECKSUM_LENGTH + 1];
+    assertTrue(b.getChecksum(dst, 1));
+    assertArrayEquals(c, Arrays.copyOfRange(dst, 1, dst.length));
+
+    // The array is copied both ways
+    c[0]++;
+    assertFalse(b.checksumEquals(c));
+    b.getChecksum()[0]++;
+    c[0]--;
+    assertTrue(b.checksumEquals(c));
+
+    Block copy = new Block(b);
+    assertTrue(copy.checksumEquals(b));
+    copy.setChecksum(checksum(2));
+    assertFalse(copy.checksumEquals(b));
+    copy.setChecksum(b);
+    assertArrayEquals(c, copy.getChecksum());
+
+    b.setChecksum(new byte[0]);
+    assertFalse(b.hasChecksum());
+    assertNull(b.getChecksum());
+    assertTrue(b.checksumEquals((byte[]) null));
+    assertFalse(b.checksumEquals(copy));
+    assertEquals(Block.NO_CHECKSUM, b.getChecksumAsString());
+    assertFalse(b.getChecksum(dst, 1));
+
+    try {
+      b.setChecksum(new byte[Block.CHECKSUM_LENGTH - 1]);
+      fail("set a checksum of the wrong length");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testChecksumBuffers() {
+    byte[] c = checksum(1);
+    Block b = new Block(1, 10, 1, c);
+    for (ByteOrder order : new ByteOrder[] {
+        ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+      ByteBuffer buf = ByteBuffer.allocate(Block.CHECKSUM_LENGTH + 2)
+          .order(order);
+      buf.position(1);
+      assertTrue(b.writeChecksumTo(buf));
+      assertEquals(Block.CHECKSUM_LENGTH + 1, buf.position());
+      assertArrayEquals(c, Arrays.copyOfRange(buf.array(), 1,
+          Block.CHECKSUM_LENGTH + 1));
+
+      Block read = new Block(2, 20, 2);
+      buf.position(1);
+      read.setChecksum(buf);
+      assertEquals(1, buf.position());
+      assertEquals(order, buf.order());
+      assertArrayEquals(c, read.getChecksum());
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    for (byte[] c : new byte[][] {checksum(1), null}) {
+      Block b = new Block(1, 10, 1, c);
+      DataOutputBuffer out = new DataOutputBuffer();
+      b.write(out);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      // Reading a block without checksum clears the previous one
+      Block read = new Block(2, 20, 2, checksum(2));
+      read.readFields(in);
+      assertEquals(b.getNumBytes(), read.getNumBytes());
+      assertArrayEquals(c, read.getChecksum());
+
+      Block converted = PBHelperClient.convert(PBHelperClient.convert(b));
+      assertTrue(converted.checksumEquals(b));
+    }
+  }
+}
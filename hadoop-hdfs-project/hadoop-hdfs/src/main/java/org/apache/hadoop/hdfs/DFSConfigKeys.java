@@ -141,6 +141,37 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_DATANODE_USE_DN_HOSTNAME_DEFAULT = false;
   public static final String  DFS_DATANODE_MAX_LOCKED_MEMORY_KEY = "dfs.datanode.max.locked.memory";
   public static final long    DFS_DATANODE_MAX_LOCKED_MEMORY_DEFAULT = 0;
+  public static final String  DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_KEY =
+      "dfs.datanode.nimble.verify.segment.size";
+  public static final int     DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_DEFAULT =
+      512 * 1024;
+  public static final String  DFS_DATANODE_NIMBLE_VERIFY_CACHE_SIZE_KEY =
+      "dfs.datanode.nimble.verify.cache.size";
+  public static final int     DFS_DATANODE_NIMBLE_VERIFY_CACHE_SIZE_DEFAULT =
+      4096;
+  public static final String  DFS_DATANODE_NIMBLE_VERIFY_BEFORE_CACHING_KEY =
+      "dfs.datanode.nimble.verify.before.caching";
+  public static final boolean DFS_DATANODE_NIMBLE_VERIFY_BEFORE_CACHING_DEFAULT =
+      true;
+  public static final String  DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_KEY =
+      "dfs.datanode.nimble.digest.checkpoint.interval";
+  public static final int     DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_DEFAULT =
+      4 * 1024 * 1024;
+  public static final String  DFS_DATANODE_NIMBLE_DIGEST_INDEX_ENABLED_KEY =
+      "dfs.datanode.nimble.digest.index.enabled";
+  public static final boolean DFS_DATANODE_NIMBLE_DIGEST_INDEX_ENABLED_DEFAULT =
+      true;
+  public static final String  DFS_DATANODE_NIMBLE_DIGEST_INDEX_SEGMENT_SIZE_KEY =
+      "dfs.datanode.nimble.digest.index.segment.size";
+  public static final long    DFS_DATANODE_NIMBLE_DIGEST_INDEX_SEGMENT_SIZE_DEFAULT =
+      8 * 1024 * 1024;
+  public static final String  DFS_DATANODE_NIMBLE_DIGEST_QUEUE_SIZE_KEY =
+      "dfs.datanode.nimble.digest.queue.size";
+  public static final int     DFS_DATANODE_NIMBLE_DIGEST_QUEUE_SIZE_DEFAULT =
+      16;
+  public static final String  DFS_DATANODE_NIMBLE_DIGEST_THREADS_KEY =
+      "dfs.datanode.nimble.digest.threads";
+  public static final int     DFS_DATANODE_NIMBLE_DIGEST_THREADS_DEFAULT = 4;
   public static final String  DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_KEY = "dfs.datanode.fsdatasetcache.max.threads.per.volume";
   public static final int     DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_DEFAULT = 4;
   public static final String  DFS_DATANODE_FSDATASETASYNCDISK_MAX_THREADS_PER_VOLUME_KEY =
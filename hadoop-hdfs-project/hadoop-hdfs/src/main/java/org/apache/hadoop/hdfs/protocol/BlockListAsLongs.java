@@ -44,6 +44,13 @@
 @InterfaceStability.Evolving
 public abstract class BlockListAsLongs implements Iterable<BlockReportReplica> {
   private final static int CHUNK_SIZE = 64*1024; // 64K
+  /**
+   * Flag in the upper bits of an encoded replica state telling that the
+   * replica's digest follows.  Decoders that predate it mask it off, so it
+   * is only set for a NameNode that supports
+   * {@link org.apache.hadoop.hdfs.server.protocol.NamespaceInfo.Capability#BLOCK_REPORT_DIGESTS}.
+   */
+  static final long REPLICA_HAS_DIGEST = 1L << 4;
   private static long[] EMPTY_LONGS = new long[]{0, 0};
 
   public static BlockListAsLongs EMPTY = new BlockListAsLongs() {
@@ -207,6 +214,9 @@ public static Builder builder(int maxDataLength) {
    * The structure of the buffer is as follows:
    * - each replica is represented by 4 longs:
    *   blockId, block length, genstamp, replica state
+   * - if {@link #REPLICA_HAS_DIGEST} is set in the replica state, the 4 longs
+   *   are followed by the {@link Block#CHECKSUM_LENGTH} bytes of the SHA-256
+   *   of the finalized replica
    *
    * @return ByteString encoded block report
    */
@@ -233,6 +243,16 @@ public List<ByteString> getBlocksBuffers() {
     return buffers;
   }
 
+  /**
+   * Drop the replica digests from the block report, for a NameNode that
+   * cannot decode them.
+   *
+   * @return a block report without digests
+   */
+  public BlockListAsLongs withoutDigests() {
+    return this;
+  }
+
   /**
    * Convert block report to old-style list of longs.  Only used to
    * re-encode the block report when the DN detects an older NN. This is
@@ -264,12 +284,20 @@ public static class Builder {
     private final CodedOutputStream cos;
     private int numBlocks = 0;
     private int numFinalized = 0;
+    private int numDigests = 0;
     private final int maxDataLength;
+    private final boolean withDigests;
+    private final byte[] digest = new byte[Block.CHECKSUM_LENGTH];
 
     Builder(int maxDataLength) {
+      this(maxDataLength, true);
+    }
+
+    Builder(int maxDataLength, boolean withDigests) {
       out = ByteString.newOutput(64*1024);
       cos = CodedOutputStream.newInstance(out);
       this.maxDataLength = maxDataLength;
+      this.withDigests = withDigests;
     }
 
     public void add(Replica replica) {
@@ -279,9 +307,18 @@ public void add(Replica replica) {
         cos.writeUInt64NoTag(replica.getBytesOnDisk());
         cos.writeUInt64NoTag(replica.getGenerationStamp());
         ReplicaState state = replica.getState();
+        // only a finalized replica's digest is of any use to the NN
+        boolean hasDigest = withDigests && state == ReplicaState.FINALIZED &&
+            replica instanceof Block &&
+            ((Block) replica).getChecksum(digest, 0);
         // although state is not a 64-bit value, using a long varint to
         // allow for future use of the upper bits
-        cos.writeUInt64NoTag(state.getValue());
+        cos.writeUInt64NoTag(hasDigest ?
+            state.getValue() | REPLICA_HAS_DIGEST : state.getValue());
+        if (hasDigest) {
+          cos.writeRawBytes(digest);
+          numDigests++;
+        }
         if (state == ReplicaState.FINALIZED) {
           numFinalized++;
         }
@@ -303,8 +340,8 @@ public BlockListAsLongs build() {
         // shouldn't happen, ByteString.Output doesn't throw IOE
         throw new IllegalStateException(ioe);
       }
-      return new BufferDecoder(numBlocks, numFinalized, out.toByteString(),
-          maxDataLength);
+      return new BufferDecoder(numBlocks, numFinalized, numDigests > 0,
+          out.toByteString(), maxDataLength);
     }
   }
 
@@ -319,17 +356,21 @@ private static class BufferDecoder extends BlockListAsLongs {
     private final ByteString buffer;
     private final int numBlocks;
     private int numFinalized;
+    // false only if the buffer is known to hold no digests
+    private final boolean hasDigests;
     private final int maxDataLength;
 
     BufferDecoder(final int numBlocks, final ByteString buf,
         final int maxDataLength) {
-      this(numBlocks, -1, buf, maxDataLength);
+      this(numBlocks, -1, true, buf, maxDataLength);
     }
 
     BufferDecoder(final int numBlocks, final int numFinalized,
-        final ByteString buf, final int maxDataLength) {
+        final boolean hasDigests, final ByteString buf,
+        final int maxDataLength) {
       this.numBlocks = numBlocks;
       this.numFinalized = numFinalized;
+      this.hasDigests = hasDigests;
       this.buffer = buf;
       this.maxDataLength = maxDataLength;
     }
@@ -344,6 +385,18 @@ public ByteString getBlocksBuffer() {
       return buffer;
     }
 
+    @Override
+    public BlockListAsLongs withoutDigests() {
+      if (!hasDigests) {
+        return this;
+      }
+      Builder builder = new Builder(maxDataLength, false);
+      for (Replica replica : this) {
+        builder.add(replica);
+      }
+      return builder.build();
+    }
+
     @Override
     public long[] getBlockListAsLongs() {
       // terribly inefficient but only occurs if server tries to transcode
@@ -396,6 +449,7 @@ public Iterator<BlockReportReplica> iterator() {
       return new Iterator<BlockReportReplica>() {
         final BlockReportReplica block = new BlockReportReplica();
         final CodedInputStream cis = buffer.newCodedInput();
+        private final byte[] digest = new byte[Block.CHECKSUM_LENGTH];
         private int currentBlockIndex = 0;
 
         {
@@ -418,8 +472,18 @@ public BlockReportReplica next() {
             block.setBlockId(cis.readSInt64());
             block.setNumBytes(cis.readRawVarint64() & NUM_BYTES_MASK);
             block.setGenerationStamp(cis.readRawVarint64());
-            long state = cis.readRawVarint64() & REPLICA_STATE_MASK;
-            block.setState(ReplicaState.getState((int)state));
+            long state = cis.readRawVarint64();
+            block.setState(
+                ReplicaState.getState((int)(state & REPLICA_STATE_MASK)));
+            // the replica is reused, so the digest is copied into its fields
+            if ((state & REPLICA_HAS_DIGEST) != 0) {
+              for (int i = 0; i < digest.length; i++) {
+                digest[i] = cis.readRawByte();
+              }
+              block.setChecksum(digest);
+            } else {
+              block.setChecksum((byte[]) null);
+            }
           } catch (IOException e) {
             throw new IllegalStateException(e);
           }
@@ -160,7 +160,8 @@ private void opReadBlock() throws IOException {
         proto.getSendChecksums(),
         (proto.hasCachingStrategy() ?
             getCachingStrategy(proto.getCachingStrategy()) :
-          CachingStrategy.newDefaultStrategy()));
+          CachingStrategy.newDefaultStrategy()),
+        proto.getClientChecksDigest());
     } finally {
       if (traceScope != null) traceScope.close();
     }
@@ -235,7 +236,8 @@ private void opRequestShortCircuitFds(DataInputStream in) throws IOException {
       requestShortCircuitFds(PBHelperClient.convert(proto.getHeader().getBlock()),
           PBHelperClient.convert(proto.getHeader().getToken()),
           slotId, proto.getMaxVersion(),
-          proto.getSupportsReceiptVerification());
+          proto.getSupportsReceiptVerification(),
+          proto.getClientChecksDigest());
     } finally {
       if (traceScope != null) traceScope.close();
     }
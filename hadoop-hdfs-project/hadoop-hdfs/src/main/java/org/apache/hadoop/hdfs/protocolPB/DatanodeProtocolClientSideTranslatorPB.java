@@ -196,12 +196,17 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
 
     boolean useBlocksBuffer = registration.getNamespaceInfo()
         .isCapabilitySupported(Capability.STORAGE_BLOCK_REPORT_BUFFERS);
+    boolean useDigests = registration.getNamespaceInfo()
+        .isCapabilitySupported(Capability.BLOCK_REPORT_DIGESTS);
 
     for (StorageBlockReport r : reports) {
       StorageBlockReportProto.Builder reportBuilder = StorageBlockReportProto
           .newBuilder().setStorage(PBHelperClient.convert(r.getStorage()));
       BlockListAsLongs blocks = r.getBlocks();
       if (useBlocksBuffer) {
+        if (!useDigests) {
+          blocks = blocks.withoutDigests();
+        }
         reportBuilder.setNumberOfBlocks(blocks.getNumberOfBlocks());
         reportBuilder.addAllBlocksBuffers(blocks.getBlocksBuffers());
       } else {
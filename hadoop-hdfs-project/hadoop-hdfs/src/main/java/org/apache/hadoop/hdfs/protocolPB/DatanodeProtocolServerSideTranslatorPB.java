@@ -210,23 +210,23 @@ public BlockReceivedAndDeletedResponseProto blockReceivedAndDeleted(
     List<StorageReceivedDeletedBlocksProto> sBlocks = request.getBlocksList();
     StorageReceivedDeletedBlocks[] info = 
         new StorageReceivedDeletedBlocks[sBlocks.size()];
-    for (int i = 0; i < sBlocks.size(); i++) {
-      StorageReceivedDeletedBlocksProto sBlock = sBlocks.get(i);
-      List<ReceivedDeletedBlockInfoProto> list = sBlock.getBlocksList();
-      ReceivedDeletedBlockInfo[] rdBlocks = 
-          new ReceivedDeletedBlockInfo[list.size()];
-      for (int j = 0; j < list.size(); j++) {
-        rdBlocks[j] = PBHelper.convert(list.get(j));
-      }
-      if (sBlock.hasStorage()) {
-        info[i] = new StorageReceivedDeletedBlocks(
-            PBHelperClient.convert(sBlock.getStorage()), rdBlocks);
-      } else {
-        info[i] = new StorageReceivedDeletedBlocks(
-            new DatanodeStorage(sBlock.getStorageUuid()), rdBlocks);
-      }
-    }
     try {
+      for (int i = 0; i < sBlocks.size(); i++) {
+        StorageReceivedDeletedBlocksProto sBlock = sBlocks.get(i);
+        List<ReceivedDeletedBlockInfoProto> list = sBlock.getBlocksList();
+        ReceivedDeletedBlockInfo[] rdBlocks =
+            new ReceivedDeletedBlockInfo[list.size()];
+        for (int j = 0; j < list.size(); j++) {
+          rdBlocks[j] = PBHelper.convert(list.get(j));
+        }
+        if (sBlock.hasStorage()) {
+          info[i] = new StorageReceivedDeletedBlocks(
+              PBHelperClient.convert(sBlock.getStorage()), rdBlocks);
+        } else {
+          info[i] = new StorageReceivedDeletedBlocks(
+              new DatanodeStorage(sBlock.getStorageUuid()), rdBlocks);
+        }
+      }
       impl.blockReceivedAndDeleted(PBHelper.convert(request.getRegistration()),
           request.getBlockPoolId(), info);
     } catch (IOException e) {
@@ -265,10 +265,10 @@ public ReportBadBlocksResponseProto reportBadBlocks(RpcController controller,
       ReportBadBlocksRequestProto request) throws ServiceException {
     List<LocatedBlockProto> lbps = request.getBlocksList();
     LocatedBlock [] blocks = new LocatedBlock [lbps.size()];
-    for(int i=0; i<lbps.size(); i++) {
-      blocks[i] = PBHelperClient.convertLocatedBlockProto(lbps.get(i));
-    }
     try {
+      for(int i=0; i<lbps.size(); i++) {
+        blocks[i] = PBHelperClient.convertLocatedBlockProto(lbps.get(i));
+      }
       impl.reportBadBlocks(blocks);
     } catch (IOException e) {
       throw new ServiceException(e);
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.protocolPB;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -200,6 +201,10 @@ public static BlockWithLocationsProto convert(BlockWithLocations blk) {
       builder.setIndices(PBHelperClient.getByteString(sblk.getIndices()));
       builder.setDataBlockNum(sblk.getDataBlockNum());
       builder.setCellSize(sblk.getCellSize());
+      for (byte[] checksum : sblk.getChecksums()) {
+        builder.addChecksums(checksum == null ? ByteString.EMPTY
+            : ByteString.copyFrom(checksum));
+      }
     }
     return builder.build();
   }
@@ -214,8 +219,16 @@ public static BlockWithLocations convert(BlockWithLocationsProto b) {
         storageUuids.toArray(new String[storageUuids.size()]),
         PBHelperClient.convertStorageTypes(storageTypes, storageUuids.size()));
     if (b.hasIndices()) {
+      byte[][] checksums = null;
+      if (b.getChecksumsCount() > 0) {
+        checksums = new byte[b.getChecksumsCount()][];
+        for (int i = 0; i < checksums.length; i++) {
+          ByteString checksum = b.getChecksums(i);
+          checksums[i] = checksum.isEmpty() ? null : checksum.toByteArray();
+        }
+      }
       blk = new StripedBlockWithLocations(blk, b.getIndices().toByteArray(),
-          (short) b.getDataBlockNum(), b.getCellSize());
+          (short) b.getDataBlockNum(), b.getCellSize(), checksums);
     }
     return blk;
   }
@@ -383,7 +396,8 @@ public static RecoveringBlockProto convert(RecoveringBlock b) {
     return builder.build();
   }
 
-  public static RecoveringBlock convert(RecoveringBlockProto b) {
+  public static RecoveringBlock convert(RecoveringBlockProto b)
+      throws IOException {
     LocatedBlock lb = PBHelperClient.convertLocatedBlockProto(b.getBlock());
     RecoveringBlock rBlock;
     if (b.hasTruncateBlock()) {
@@ -451,7 +465,8 @@ public static DatanodeRegistration convert(DatanodeRegistrationProto proto) {
         si, convert(proto.getKeys()), proto.getSoftwareVersion());
   }
 
-  public static DatanodeCommand convert(DatanodeCommandProto proto) {
+  public static DatanodeCommand convert(DatanodeCommandProto proto)
+      throws IOException {
     switch (proto.getCmdType()) {
     case BalancerBandwidthCommand:
       return PBHelper.convert(proto.getBalancerCmd());
@@ -619,7 +634,7 @@ public static FinalizeCommand convert(FinalizeCommandProto finalizeCmd) {
   }
 
   public static BlockRecoveryCommand convert(
-      BlockRecoveryCommandProto recoveryCmd) {
+      BlockRecoveryCommandProto recoveryCmd) throws IOException {
     List<RecoveringBlockProto> list = recoveryCmd.getBlocksList();
     List<RecoveringBlock> recoveringBlocks = new ArrayList<RecoveringBlock>(
         list.size());
@@ -741,7 +756,7 @@ public static ReceivedDeletedBlockInfoProto convert(
   }
 
   public static ReceivedDeletedBlockInfo convert(
-      ReceivedDeletedBlockInfoProto proto) {
+      ReceivedDeletedBlockInfoProto proto) throws IOException {
     ReceivedDeletedBlockInfo.BlockStatus status = null;
     switch (proto.getStatus()) {
     case RECEIVING:
@@ -755,7 +770,7 @@ public static ReceivedDeletedBlockInfo convert(
       break;
     }
     Block b = PBHelperClient.convert(proto.getBlock());
-    b.setChecksum(proto.getChecksum().toByteArray());
+    PBHelperClient.setChecksum(b, proto.getChecksum());
     return new ReceivedDeletedBlockInfo(
         b,
         status,
@@ -1050,8 +1065,15 @@ public static BlockECReconstructionInfo convertBlockECReconstructionInfo(
     ErasureCodingPolicy ecPolicy =
         PBHelperClient.convertErasureCodingPolicy(
             blockEcReconstructionInfoProto.getEcPolicy());
+    byte[][] blockChecksums =
+        new byte[blockEcReconstructionInfoProto.getBlockChecksumsCount()][];
+    for (int i = 0; i < blockChecksums.length; i++) {
+      ByteString checksum = blockEcReconstructionInfoProto.getBlockChecksums(i);
+      blockChecksums[i] = checksum.isEmpty() ? null : checksum.toByteArray();
+    }
     return new BlockECReconstructionInfo(block, sourceDnInfos, targetDnInfos,
-        targetStorageUuids, convertStorageTypes, liveBlkIndices, ecPolicy);
+        targetStorageUuids, convertStorageTypes, liveBlkIndices, ecPolicy,
+        blockChecksums);
   }
 
   public static BlockECReconstructionInfoProto convertBlockECRecoveryInfo(
@@ -1080,6 +1102,11 @@ public static BlockECReconstructionInfoProto convertBlockECRecoveryInfo(
     builder.setEcPolicy(PBHelperClient.convertErasureCodingPolicy(
         blockEcRecoveryInfo.getErasureCodingPolicy()));
 
+    for (byte[] checksum : blockEcRecoveryInfo.getBlockChecksums()) {
+      builder.addBlockChecksums(checksum == null ? ByteString.EMPTY
+          : ByteString.copyFrom(checksum));
+    }
+
     return builder.build();
   }
 
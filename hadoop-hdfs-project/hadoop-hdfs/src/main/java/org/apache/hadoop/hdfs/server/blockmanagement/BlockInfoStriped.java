@@ -26,6 +26,7 @@
 import org.apache.hadoop.hdfs.util.StripedBlockUtil;
 import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -51,6 +52,14 @@ public class BlockInfoStriped extends BlockInfo {
    * be further optimized to save memory usage.
    */
   private byte[] indices;
+  /**
+   * SHA-256 digests of the internal blocks, as first reported by the
+   * DataNodes, {@link Block#CHECKSUM_LENGTH} bytes per block index. Allocated
+   * with the first digest reported; {@link #internalChecksumMask} tells the
+   * indices holding one.
+   */
+  private byte[] internalChecksums;
+  private int internalChecksumMask;
 
   public BlockInfoStriped(Block blk, ErasureCodingPolicy ecPolicy) {
     super(blk, (short) (ecPolicy.getNumDataUnits() + ecPolicy.getNumParityUnits()));
@@ -180,6 +189,60 @@ Block getBlockOnStorage(DatanodeStorageInfo storage) {
     }
   }
 
+  /**
+   * Record the digest of the reported internal block, under its block index,
+   * unless that index already has one. The group itself has no digest of its
+   * own.
+   */
+  public void setInternalChecksum(Block reportedBlock) {
+    int blockIndex = BlockIdManager.getBlockIndex(reportedBlock);
+    if (!reportedBlock.hasChecksum() || blockIndex >= getTotalBlockNum() ||
+        (internalChecksumMask & (1 << blockIndex)) != 0) {
+      return;
+    }
+    if (internalChecksums == null) {
+      internalChecksums = new byte[getTotalBlockNum() * Block.CHECKSUM_LENGTH];
+    }
+    reportedBlock.getChecksum(internalChecksums,
+        blockIndex * Block.CHECKSUM_LENGTH);
+    internalChecksumMask |= 1 << blockIndex;
+  }
+
+  /**
+   * Forget the digest recorded for the given block index.
+   */
+  @VisibleForTesting
+  public void clearInternalChecksum(int blockIndex) {
+    internalChecksumMask &= ~(1 << blockIndex);
+  }
+
+  /**
+   * @return whether the reported internal block has the digest recorded for
+   *         its block index, or no digest is recorded to compare it with
+   */
+  public boolean internalChecksumMatches(Block reportedBlock) {
+    int blockIndex = BlockIdManager.getBlockIndex(reportedBlock);
+    if (blockIndex >= getTotalBlockNum() ||
+        (internalChecksumMask & (1 << blockIndex)) == 0) {
+      return true;
+    }
+    return reportedBlock.checksumEquals(internalChecksums,
+        blockIndex * Block.CHECKSUM_LENGTH);
+  }
+
+  /**
+   * @return a copy of the digest of the internal block with the given index,
+   *         or null if no DataNode has reported one
+   */
+  public byte[] getInternalChecksum(int blockIndex) {
+    if ((internalChecksumMask & (1 << blockIndex)) == 0) {
+      return null;
+    }
+    int from = blockIndex * Block.CHECKSUM_LENGTH;
+    return Arrays.copyOfRange(internalChecksums, from,
+        from + Block.CHECKSUM_LENGTH);
+  }
+
   @Override
   boolean removeStorage(DatanodeStorageInfo storage) {
     int dnIndex = findStorageInfoFromEnd(storage);
@@ -1400,8 +1400,12 @@ private LocatedBlock createLocatedBlock(LocatedBlockBuilder locatedBlocks,
             false);
       } else {
         final DatanodeStorageInfo[] storages = uc.getExpectedStorageLocations();
-        final ExtendedBlock eb = new ExtendedBlock(getBlockPoolId(),
-            blk);
+        // The digest of a block being written or appended to is stale, so
+        // hand out a copy without it
+        final ExtendedBlock eb = blk.hasChecksum()
+            ? new ExtendedBlock(getBlockPoolId(), blk.getBlockId(),
+                blk.getNumBytes(), blk.getGenerationStamp())
+            : new ExtendedBlock(getBlockPoolId(), blk);
         return null == locatedBlocks
             ? newLocatedBlock(eb, storages, pos, false)
                 : locatedBlocks.newLocatedBlock(eb, storages, pos, false);
@@ -3001,6 +3005,7 @@ void processFirstBlockReport(
         bmSafeMode.checkBlocksWithFutureGS(iblk);
         continue;
       }
+      updateStoredDigest(storedBlock, iblk, reportedState);
 
       // If block is corrupt, mark it and continue to next block.
       BlockUCState ucState = storedBlock.getBlockUCState();
@@ -3150,11 +3155,7 @@ private BlockInfo processReportedBlock(
       return null;
     }
     // Ensure the timestamp is correct!
-    // Only set checksum if it's set. Avoids empty checksums during startup.
-    // This assumption is legal since codebase of the DataNode is trusted.
-    if (block.getChecksum() != null) {
-      storedBlock.setChecksum(block.getChecksum());
-    }
+    updateStoredDigest(storedBlock, block, reportedState);
     BlockUCState ucState = storedBlock.getBlockUCState();
 
     // Block is on the NN
@@ -3200,6 +3201,44 @@ private BlockInfo processReportedBlock(
     return storedBlock;
   }
 
+  /**
+   * Take the SHA-256 of a reported replica into the stored block, if the
+   * block has none yet. Avoids empty checksums during startup.
+   * Only finalized replicas of the stored generation stamp are taken; an
+   * RBW replica may still carry the digest of the data before an append.
+   * A stored digest is never replaced: a replica reporting another one is
+   * marked corrupt by {@link #checkReplicaCorrupt}.
+   * The internal blocks of a striped group each have their own digest.
+   */
+  private static void updateStoredDigest(BlockInfo storedBlock,
+      Block reported, ReplicaState reportedState) {
+    if (!reported.hasChecksum() || reportedState != ReplicaState.FINALIZED ||
+        reported.getGenerationStamp() != storedBlock.getGenerationStamp()) {
+      return;
+    }
+    if (storedBlock.isStriped()) {
+      ((BlockInfoStriped) storedBlock).setInternalChecksum(reported);
+    } else if (!storedBlock.hasChecksum()) {
+      storedBlock.setChecksum(reported);
+    }
+  }
+
+  /**
+   * @return whether a reported finalized replica has the digest stored for
+   * it, or either has none
+   */
+  private static boolean storedDigestMatches(BlockInfo storedBlock,
+      Block reported) {
+    if (!reported.hasChecksum()) {
+      return true;
+    }
+    if (storedBlock.isStriped()) {
+      return ((BlockInfoStriped) storedBlock)
+          .internalChecksumMatches(reported);
+    }
+    return !storedBlock.hasChecksum() || storedBlock.checksumEquals(reported);
+  }
+
   /**
    * Queue the given reported block for later processing in the
    * standby node. @see PendingDataNodeMessages.
@@ -3318,6 +3357,11 @@ private BlockToMarkCorrupt checkReplicaCorrupt(
               reported.getNumBytes() + " does not match " +
               "length in block map " + blockMapSize,
               Reason.SIZE_MISMATCH);
+        } else if (!storedDigestMatches(storedBlock, reported)) {
+          return new BlockToMarkCorrupt(new Block(reported), storedBlock,
+              "block is " + ucState + " and reported digest " +
+              reported.getChecksumAsString() + " does not match " +
+              "digest in block map", Reason.DIGEST_MISMATCH);
         } else {
           return null; // not corrupt
         }
@@ -4144,12 +4188,15 @@ private long addBlock(BlockInfo block, List<BlockWithLocations> results) {
       if(block.isStriped()) {
         BlockInfoStriped blockStriped = (BlockInfoStriped) block;
         byte[] indices = new byte[locations.size()];
+        byte[][] checksums = new byte[locations.size()][];
         for (int i = 0; i < locations.size(); i++) {
           indices[i] =
               (byte) blockStriped.getStorageBlockIndex(locations.get(i));
+          checksums[i] = blockStriped.getInternalChecksum(indices[i]);
         }
         results.add(new StripedBlockWithLocations(blkWithLocs, indices,
-            blockStriped.getDataBlockNum(), blockStriped.getCellSize()));
+            blockStriped.getDataBlockNum(), blockStriped.getCellSize(),
+            checksums));
         // approximate size
         return block.getNumBytes() / blockStriped.getDataBlockNum();
       }else{
@@ -51,7 +51,8 @@ public enum Reason {
     GENSTAMP_MISMATCH,   // mismatch in generation stamps
     SIZE_MISMATCH,       // mismatch in sizes
     INVALID_STATE,       // invalid state
-    CORRUPTION_REPORTED  // client or datanode reported the corruption
+    CORRUPTION_REPORTED, // client or datanode reported the corruption
+    DIGEST_MISMATCH      // mismatch with the block's SHA-256 digest
   }
 
   private final Map<Block, Map<DatanodeDescriptor, Reason>> corruptReplicasMap =
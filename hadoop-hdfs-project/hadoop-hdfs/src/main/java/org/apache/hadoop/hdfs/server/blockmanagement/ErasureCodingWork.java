@@ -145,9 +145,15 @@ void addTaskToDatanode(NumberReplicas numberReplicas) {
         createReplicationWork(leavingServiceSources.get(i), targets[i]);
       }
     } else {
+      // Send the known digests along, for the rebuilt blocks to be checked
+      byte[][] blockChecksums = new byte[stripedBlk.getTotalBlockNum()][];
+      for (int i = 0; i < blockChecksums.length; i++) {
+        blockChecksums[i] = stripedBlk.getInternalChecksum(i);
+      }
       targets[0].getDatanodeDescriptor().addBlockToBeErasureCoded(
           new ExtendedBlock(blockPoolId, stripedBlk), getSrcNodes(), targets,
-          getLiveBlockIndicies(), stripedBlk.getErasureCodingPolicy());
+          getLiveBlockIndicies(), stripedBlk.getErasureCodingPolicy(),
+          blockChecksums);
     }
   }
 
@@ -25,6 +25,7 @@
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -813,6 +814,10 @@ public void fetchBlockChecksumsWithRetry(String bpid, DataNode dn) {
     boolean ok = false;
     String safeModeClassName = org.apache.hadoop.hdfs.server.namenode.SafeModeException.class.getName();
 
+    if (!hasReplicasWithoutChecksum(bpid, dn)) {
+      // All checksums were loaded from the digest index
+      return;
+    }
     /* Keep trying till we get all checksums */
     while (!ok)
       try {
@@ -841,12 +846,48 @@ private void fetchBlockChecksums(String bpid, DataNode dn) throws IOException {
     BlocksWithLocations bls = bpNamenode.getBlocksForDatanode(info, Long.MAX_VALUE, 0);
     LOG.info("BlocksWithLocations: " + bls.getBlocks().length + " " + bls);
     for (BlocksWithLocations.BlockWithLocations bl: bls.getBlocks()) {
-      Replica replica = dn.data.getReplica(bpid, bl.getBlock().getBlockId());
-      replica.setChecksum(bl.getBlock().getChecksum());
+      if (bl instanceof BlocksWithLocations.StripedBlockWithLocations) {
+        // The group has no digest; each internal block has its own
+        BlocksWithLocations.StripedBlockWithLocations sbl =
+            (BlocksWithLocations.StripedBlockWithLocations) bl;
+        byte[] indices = sbl.getIndices();
+        byte[][] checksums = sbl.getChecksums();
+        for (int i = 0; i < indices.length; i++) {
+          if (checksums[i] != null) {
+            setReplicaChecksum(bpid, dn,
+                bl.getBlock().getBlockId() + indices[i], checksums[i]);
+          }
+        }
+      } else {
+        setReplicaChecksum(bpid, dn, bl.getBlock().getBlockId(),
+            bl.getBlock().getChecksum());
+      }
       LOG.info("BlockWithLocations: " + bl);
     }
   }
 
+  private static void setReplicaChecksum(String bpid, DataNode dn,
+      long blockId, byte[] checksum) {
+    Replica replica = dn.data.getReplica(bpid, blockId);
+    if (replica == null) {
+      return;
+    }
+    byte[] old = replica.getChecksum();
+    if (old != null && !Arrays.equals(old, checksum)) {
+      LOG.warn("Replacing the checksum of {} with the NameNode's", replica);
+    }
+    replica.setChecksum(checksum);
+  }
+
+  private static boolean hasReplicasWithoutChecksum(String bpid, DataNode dn) {
+    for (ReplicaInfo replica : dn.data.getFinalizedBlocks(bpid)) {
+      if (!replica.hasChecksum()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private void sleepAndLogInterrupts(int millis,
       String stateString) {
     try {
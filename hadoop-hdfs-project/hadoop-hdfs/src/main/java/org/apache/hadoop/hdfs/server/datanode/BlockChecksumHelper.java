@@ -21,6 +21,7 @@
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.DFSUtilClient;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockChecksumOptions;
 import org.apache.hadoop.hdfs.protocol.BlockChecksumType;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -34,6 +35,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos;
 import org.apache.hadoop.hdfs.protocolPB.PBHelperClient;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.erasurecode.StripedBlockChecksumCompositeCrcReconstructor;
 import org.apache.hadoop.hdfs.server.datanode.erasurecode.StripedBlockChecksumMd5CrcReconstructor;
 import org.apache.hadoop.hdfs.server.datanode.erasurecode.StripedBlockChecksumReconstructor;
@@ -53,9 +55,11 @@
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -406,6 +410,84 @@ private void computeCompositeCrc(long stripeLength) throws IOException {
     }
   }
 
+  /**
+   * SHA-256 block digest computer for replicated blocks. A finalized replica
+   * keeps the digest of its data in memory, so when the whole of it is asked
+   * for neither the metadata file nor the block file is read. Only a prefix,
+   * or a replica still being written, is read and hashed.
+   */
+  static class ReplicatedBlockDigestComputer
+      extends AbstractBlockChecksumComputer {
+    private final ExtendedBlock block;
+    private final long requestLength;
+
+    ReplicatedBlockDigestComputer(DataNode datanode,
+                                  ExtendedBlock block,
+                                  BlockChecksumOptions blockChecksumOptions)
+        throws IOException {
+      super(datanode, blockChecksumOptions);
+      this.block = block;
+      this.requestLength = block.getNumBytes();
+      Preconditions.checkArgument(requestLength >= 0);
+      // no CRCs are involved
+      setBytesPerCRC(0);
+      setCrcPerBlock(0);
+      setCrcType(DataChecksum.Type.NULL);
+    }
+
+    @Override
+    void compute() throws IOException {
+      final Replica replica = getDatanode().data.getReplica(
+          block.getBlockPoolId(), block.getBlockId());
+      if (replica == null) {
+        throw new ReplicaNotFoundException(block);
+      }
+      if (replica.getGenerationStamp() < block.getGenerationStamp()) {
+        throw new IOException(
+            "replica.getGenerationStamp() < block.getGenerationStamp(), block="
+                + block + ", replica=" + replica);
+      }
+
+      final byte[] stored = replica.getChecksum();
+      final boolean fromMemory = stored != null
+          && replica.getState() == ReplicaState.FINALIZED
+          && requestLength >= replica.getNumBytes();
+      if (fromMemory) {
+        setOutBytes(stored);
+      } else {
+        setOutBytes(digestPrefix(
+            Math.min(requestLength, replica.getVisibleLength())));
+      }
+
+      LOG.debug("block={}, fromMemory={}, sha256={}", block, fromMemory,
+          Block.encodeChecksumBytes(getOutBytes()));
+    }
+
+    private byte[] digestPrefix(long length) throws IOException {
+      final MessageDigest sha256;
+      try {
+        sha256 = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException("cannot compute SHA256", e);
+      }
+      final byte[] buf = new byte[
+          DFSUtilClient.getIoFileBufferSize(getDatanode().getConf())];
+      try (InputStream blockIn = getBlockInputStream(block, 0)) {
+        long remaining = length;
+        while (remaining > 0) {
+          int n = blockIn.read(buf, 0, (int) Math.min(buf.length, remaining));
+          if (n < 0) {
+            throw new EOFException("Block " + block + " ended " + remaining
+                + " bytes short of " + length);
+          }
+          sha256.update(buf, 0, n);
+          remaining -= n;
+        }
+      }
+      return sha256.digest();
+    }
+  }
+
   /**
    * Non-striped block group checksum computer for striped blocks.
    */
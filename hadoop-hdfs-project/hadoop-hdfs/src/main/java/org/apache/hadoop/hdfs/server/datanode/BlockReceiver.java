@@ -21,7 +21,6 @@
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Queue;
@@ -79,7 +78,10 @@ class BlockReceiver implements Closeable {
   private     DataChecksum     diskChecksum; // checksum we write to disk
 
   /* Block's Checksum */
-  private MessageDigest memChecksum;
+  private PipelinedDigest memChecksum;
+  /** Digest of the data received, and its checksum, once closed. */
+  private ResumableDigest receivedDigest;
+  private byte[] receivedChecksum;
 
   /**
    * In the case that the client is writing with a different
@@ -164,7 +166,6 @@ class BlockReceiver implements Closeable {
       this.myAddr = myAddr;
       this.srcDataNode = srcDataNode;
       this.datanode = datanode;
-      this.memChecksum = NimbleUtils._checksum();
 
       this.clientname = clientname;
       this.isDatanode = clientname.length() == 0;
@@ -227,7 +228,7 @@ class BlockReceiver implements Closeable {
           block.setGenerationStamp(newGs);
           break;
         case PIPELINE_SETUP_APPEND:
-          this.memChecksum = digestToAppend(block); // verify checksum & open for appending
+          this.memChecksum = newDigest(digestToAppend(block)); // verify checksum & open for appending
           replicaHandler = datanode.data.append(block, newGs, minBytesRcvd);
           block.setGenerationStamp(newGs);
           datanode.notifyNamenodeReceivingBlock(
@@ -250,6 +251,10 @@ class BlockReceiver implements Closeable {
         }
       }
       replicaInfo = replicaHandler.getReplica();
+      // Appends resume the replica's digest; the others start a new one
+      if (memChecksum == null) {
+        this.memChecksum = newDigest(ResumableDigest.newStreaming());
+      }
       this.dropCacheBehindWrites = (cachingStrategy.getDropBehind() == null) ?
         datanode.getDnConf().dropCacheBehindWrites :
           cachingStrategy.getDropBehind();
@@ -301,46 +306,62 @@ class BlockReceiver implements Closeable {
     }
   }
 
-  private MessageDigest digestOfDiskData(ExtendedBlock b) throws IOException {
-    MessageDigest md = NimbleUtils._checksum();
-    InputStream is     = datanode.data.getBlockInputStream(b, 0);
+  private PipelinedDigest newDigest(ResumableDigest md) {
+    return datanode.newDigest(md, block.toString());
+  }
 
-    // Compute checksum of on-disk data
-    byte[]      buffer = new byte[8192];
-    int count;
-    while ((count = is.read(buffer)) > 0) {
-      md.update(buffer, 0, count);
+  private ResumableDigest digestOfDiskData(ExtendedBlock b, Replica replica)
+      throws IOException {
+    ResumableDigest md = new ResumableDigest(
+        datanode.getDnConf().getDigestCheckpointInterval());
+    // The whole digest is checked below, so read the replica as is
+    InputStream is = replica instanceof ReplicaInfo ?
+        ((ReplicaInfo) replica).getDataInputStream(0) :
+        datanode.data.getBlockInputStream(b, 0);
+    try (DataInputStream in = new DataInputStream(is)) {
+      md.update(in, replica.getNumBytes());
     }
     return md;
   }
 
   /**
-   * Verify in-memory checksum matches checksum of data on-disk.
+   * Verify in-memory checksum matches checksum of data on-disk, and get the
+   * digest to continue with the appended data. The digest state saved by
+   * the replica's finalization, or by its last append or truncate, matches
+   * the checksum without reading the replica; otherwise, e.g. if the state
+   * was not built yet, the replica is hashed again, and its state is saved
+   * once the append is finalized.
    *
    * @param b   Block
-   * @return MessageDigest to append
+   * @return digest to append
    * @throws IOException
    */
-  public MessageDigest digestToAppend(ExtendedBlock b) throws IOException {
-    // Compute checksum of on-disk data
-    MessageDigest md = digestOfDiskData(b);
-    byte[] diskChecksum;
-
-    try {
-      MessageDigest md2 = (MessageDigest) md.clone();
-      diskChecksum = md2.digest();
-    } catch (CloneNotSupportedException e) {
-      LOG.info("Cloning MessageDigest not supported");
-      diskChecksum = md.digest();
-      md = digestOfDiskData(b);
+  ResumableDigest digestToAppend(ExtendedBlock b) throws IOException {
+    Replica replica =
+        datanode.data.getReplica(b.getBlockPoolId(), b.getBlockId());
+    if (replica == null) {
+      throw new ReplicaNotFoundException(b);
+    }
+    if (replica instanceof ReplicaInfo) {
+      ResumableDigest saved = ((ReplicaInfo) replica).loadDigestState();
+      if (saved != null) {
+        return saved;
+      }
     }
 
+    // Compute checksum of on-disk data
+    long begin = Time.monotonicNow();
+    ResumableDigest md = digestOfDiskData(b, replica);
+    byte[] diskChecksum = md.digest();
+    datanode.metrics.addDigestAppendRehash(Time.monotonicNow() - begin);
+
     // Get checksum stored in-memory
     Block memBlock = datanode.data.getStoredBlock(b.getBlockPoolId(), b.getBlockId());
     byte[] memChecksum = memBlock.getChecksum();
 
     // Verify in-memory checksum is same as on-disk checksum
     if (!Arrays.equals(memChecksum, diskChecksum)) {
+      datanode.metrics.incrDigestMismatches();
       LOG.error("Checksum mismatch: expected={} got={}",
           NimbleUtils.URLEncode(memChecksum), NimbleUtils.URLEncode(diskChecksum));
       throw new NimbleError("on-disk checksum does not match");
@@ -348,6 +369,31 @@ public MessageDigest digestToAppend(ExtendedBlock b) throws IOException {
     return md;
   }
 
+  /**
+   * Save the digest state with the finalized replica, for appends and
+   * truncates to resume. The state of a replica received with a streaming
+   * digest is built in the background.
+   */
+  private void saveDigestState() {
+    Replica replica =
+        datanode.data.getReplica(block.getBlockPoolId(), block.getBlockId());
+    try {
+      ResumableDigest md = finishDigest();
+      if (!(replica instanceof ReplicaInfo) ||
+          replica.getNumBytes() != md.getLength()) {
+        // e.g. append recovery, which only hashes the new data
+        return;
+      }
+      if (md.isResumable()) {
+        ((ReplicaInfo) replica).saveDigestState(md);
+      } else {
+        datanode.saveDigestState((ReplicaInfo) replica);
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot save digest state of {}", replica, e);
+    }
+  }
+
 
   /** Return the datanode object. */
   DataNode getDataNode() {return datanode;}
@@ -356,8 +402,25 @@ Replica getReplica() {
     return replicaInfo;
   }
 
-  byte[] getMemChecksum() {
-    return memChecksum.digest();
+  /**
+   * Wait for the data received so far to be hashed.
+   */
+  byte[] getMemChecksum() throws IOException {
+    finishDigest();
+    return receivedChecksum;
+  }
+
+  /**
+   * Wait for the data received so far to be hashed, and keep the digest and
+   * checksum for finalizing the block, as the digest is released on close.
+   */
+  private synchronized ResumableDigest finishDigest() throws IOException {
+    if (receivedDigest == null) {
+      ResumableDigest md = memChecksum.getDigest();
+      receivedChecksum = md.digest();
+      receivedDigest = md;
+    }
+    return receivedDigest;
   }
 
   /**
@@ -373,6 +436,16 @@ public void close() throws IOException {
     packetReceiver.close();
 
     IOException ioe = null;
+    // stop hashing, keep the checksum and release the digest
+    try {
+      if (memChecksum != null) {
+        finishDigest();
+      }
+    } catch (IOException e) {
+      ioe = e;
+    } finally {
+      IOUtils.closeStream(memChecksum);
+    }
     if (syncOnClose && (streams.getDataOut() != null || checksumOut != null)) {
       datanode.metrics.incrFsyncCount();      
     }
@@ -801,8 +874,10 @@ private int receivePacket() throws IOException {
             maxWriteToDiskMs = duration;
           }
 
-          // Checksum for Nimble
-          memChecksum.update(dataBuf.array(), startByteToDisk, numBytesToDisk);
+          // Checksum for Nimble, hashed while the next packets arrive into
+          // other buffers
+          memChecksum.update(ByteBuffer.wrap(dataBuf.array(), startByteToDisk,
+              numBytesToDisk), packetReceiver.handOffPacketBuf());
 
           final byte[] lastCrc;
           if (shouldNotWriteChecksum) {
@@ -1059,6 +1134,7 @@ void receiveBlock(
             // for isDatnode or TRANSFER_FINALIZED
             // Finalize the block.
             datanode.data.finalizeBlock(block, dirSyncOnFinalize);
+            saveDigestState();
           }
         }
         datanode.metrics.incrBlocksWritten();
@@ -1581,6 +1657,7 @@ private void finalizeBlock(long startTime) throws IOException {
         block.setNumBytes(replicaInfo.getNumBytes());
         block.setChecksum(getMemChecksum());
         datanode.data.finalizeBlock(block, dirSyncOnFinalize);
+        saveDigestState();
       }
 
       if (pinning) {
@@ -186,6 +186,23 @@ class BlockSender implements java.io.Closeable {
   private static final long CHUNK_SIZE = 512;
 
   private static final String EIO_ERROR = "Input/output error";
+
+  /**
+   * Constructor of a sender checking the data against the SHA-256 of the
+   * replica.
+   *
+   * @see #BlockSender(ExtendedBlock, long, long, boolean, boolean, boolean,
+   *      boolean, DataNode, String, CachingStrategy)
+   */
+  BlockSender(ExtendedBlock block, long startOffset, long length,
+              boolean corruptChecksumOk, boolean verifyChecksum,
+              boolean sendChecksum, DataNode datanode, String clientTraceFmt,
+              CachingStrategy cachingStrategy)
+      throws IOException {
+    this(block, startOffset, length, corruptChecksumOk, verifyChecksum,
+        sendChecksum, true, datanode, clientTraceFmt, cachingStrategy);
+  }
+
   /**
    * Constructor
    * 
@@ -195,14 +212,16 @@ class BlockSender implements java.io.Closeable {
    * @param corruptChecksumOk if true, corrupt checksum is okay
    * @param verifyChecksum verify checksum while reading the data
    * @param sendChecksum send checksum to client.
+   * @param checkDigest check the data against the SHA-256 of the replica,
+   *                    false if the client checks it
    * @param datanode datanode from which the block is being read
    * @param clientTraceFmt format string used to print client trace logs
    * @throws IOException
    */
   BlockSender(ExtendedBlock block, long startOffset, long length,
               boolean corruptChecksumOk, boolean verifyChecksum,
-              boolean sendChecksum, DataNode datanode, String clientTraceFmt,
-              CachingStrategy cachingStrategy)
+              boolean sendChecksum, boolean checkDigest, DataNode datanode,
+              String clientTraceFmt, CachingStrategy cachingStrategy)
       throws IOException {
     InputStream blockIn = null;
     DataInputStream checksumIn = null;
@@ -428,7 +447,8 @@ class BlockSender implements java.io.Closeable {
       if (DataNode.LOG.isDebugEnabled()) {
         DataNode.LOG.debug("replica=" + replica);
       }
-      blockIn = datanode.data.getBlockInputStream(block, offset); // seek to offset
+      // seek to offset
+      blockIn = datanode.data.getBlockInputStream(block, offset, checkDigest);
       ris = new ReplicaInputStreams(
           blockIn, checksumIn, volumeRef, fileIoProvider);
     } catch (IOException ioe) {
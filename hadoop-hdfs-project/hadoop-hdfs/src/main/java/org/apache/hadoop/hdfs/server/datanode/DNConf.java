@@ -74,6 +74,7 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.DataTransferSaslUtil;
 import org.apache.hadoop.hdfs.server.common.Util;
 import org.apache.hadoop.security.SaslPropertiesResolver;
+import org.apache.hadoop.thirdparty.com.google.common.base.Preconditions;
 
 import java.util.concurrent.TimeUnit;
 
@@ -128,6 +129,9 @@ public class DNConf {
 
   final long maxLockedMemory;
   private final String[] pmemDirs;
+  private final int digestCheckpointInterval;
+  private final int digestQueueSize;
+  private final int verifySegmentSize;
 
   private final long bpReadyTimeout;
 
@@ -279,6 +283,19 @@ public DNConf(final Configurable dn) {
     this.pmemDirs = getConf().getTrimmedStrings(
         DFS_DATANODE_PMEM_CACHE_DIRS_KEY);
 
+    this.digestCheckpointInterval = (int) getConf().getLongBytes(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_DEFAULT);
+    Preconditions.checkArgument(digestCheckpointInterval > 0,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_KEY +
+        " must be positive");
+    this.digestQueueSize = getConf().getInt(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_QUEUE_SIZE_DEFAULT);
+    this.verifySegmentSize = (int) getConf().getLongBytes(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_DEFAULT);
+
     this.restartReplicaExpiry = getConf().getLong(
         DFS_DATANODE_RESTART_REPLICA_EXPIRY_KEY,
         DFS_DATANODE_RESTART_REPLICA_EXPIRY_DEFAULT) * 1000L;
@@ -351,6 +368,30 @@ public long getMaxLockedMemory() {
     return maxLockedMemory;
   }
 
+  /**
+   * @return interval at which the SHA-256 state of finalized replicas is
+   * checkpointed, see {@link ResumableDigest}
+   */
+  public int getDigestCheckpointInterval() {
+    return digestCheckpointInterval;
+  }
+
+  /**
+   * @return number of packets of a block being received that may wait to be
+   * hashed, see {@link PipelinedDigest}
+   */
+  public int getDigestQueueSize() {
+    return digestQueueSize;
+  }
+
+  /**
+   * @return size of the separately verified segments of a replica, see
+   * {@link SegmentedReplicaDigest}
+   */
+  public int getVerifySegmentSize() {
+    return verifySegmentSize;
+  }
+
   /**
    * Returns true if connect to datanode via hostname
    * 
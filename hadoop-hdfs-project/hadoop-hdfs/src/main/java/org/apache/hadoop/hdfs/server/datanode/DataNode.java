@@ -85,6 +85,7 @@
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -92,6 +93,7 @@
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -225,6 +227,7 @@
 import org.apache.hadoop.thirdparty.com.google.common.cache.CacheLoader;
 import org.apache.hadoop.thirdparty.com.google.common.cache.LoadingCache;
 import org.apache.hadoop.thirdparty.com.google.common.collect.Lists;
+import org.apache.hadoop.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.thirdparty.protobuf.BlockingService;
 
 import org.slf4j.Logger;
@@ -398,6 +401,10 @@ public static InetSocketAddress createSocketAddr(String target) {
   private DiskBalancer diskBalancer;
 
   private final ExecutorService xferService;
+  /** Hashes the packets of the blocks being received, see PipelinedDigest. */
+  private final ExecutorService digestService;
+  /** Builds the digest state of received replicas, see saveDigestState(). */
+  private final ExecutorService digestStateService;
 
   @Nullable
   private final StorageLocationChecker storageLocationChecker;
@@ -418,6 +425,33 @@ private static Tracer createTracer(Configuration conf) {
 
   private long startTime = 0;
 
+  // Replicas finalized while this many wait are hashed on their first append
+  private static final int DIGEST_STATE_QUEUE_SIZE = 1024;
+
+  private static ExecutorService newDigestStateService() {
+    return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(DIGEST_STATE_QUEUE_SIZE),
+        new ThreadFactoryBuilder()
+            .setNameFormat("DataNode digest state thread")
+            .setDaemon(true)
+            .build(),
+        new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  private static ExecutorService newDigestService(Configuration conf) {
+    int threads = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_THREADS_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_THREADS_DEFAULT);
+    Preconditions.checkArgument(threads > 0,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_THREADS_KEY +
+        " must be positive");
+    return HadoopExecutors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("DataNode digest thread %d")
+            .setDaemon(true)
+            .build());
+  }
+
   /**
    * Creates a dummy DataNode for testing purpose.
    */
@@ -441,6 +475,8 @@ private static Tracer createTracer(Configuration conf) {
     volumeChecker = new DatasetVolumeChecker(conf, new Timer());
     this.xferService =
         HadoopExecutors.newCachedThreadPool(new Daemon.DaemonFactory());
+    this.digestService = newDigestService(conf);
+    this.digestStateService = newDigestStateService();
   }
 
   /**
@@ -481,6 +517,8 @@ private static Tracer createTracer(Configuration conf) {
     this.volumeChecker = new DatasetVolumeChecker(conf, new Timer());
     this.xferService =
         HadoopExecutors.newCachedThreadPool(new Daemon.DaemonFactory());
+    this.digestService = newDigestService(conf);
+    this.digestStateService = newDigestStateService();
 
     // Determine whether we should try to pass file descriptors to clients.
     if (conf.getBoolean(HdfsClientConfigKeys.Read.ShortCircuit.KEY,
@@ -1676,7 +1714,6 @@ void initBlockPool(BPOfferService bpos) throws IOException {
 
     try {
       data.addBlockPool(nsInfo.getBlockPoolID(), getConf());
-      LOG.info("NIMBLE: added block pool");
     } catch (AddBlockPoolException e) {
       handleAddBlockPoolError(e);
     }
@@ -1879,6 +1916,42 @@ public DataNodeMetrics getMetrics() {
     return metrics;
   }
 
+  /**
+   * @param md digest to continue
+   * @param name to log failures with, e.g. the block
+   * @return a digest hashing the data given to it on the datanode's digest
+   * threads
+   */
+  public PipelinedDigest newDigest(ResumableDigest md, String name) {
+    return new PipelinedDigest(md, metrics, dnConf.getDigestQueueSize(),
+        digestService, name);
+  }
+
+  /**
+   * Hash a finalized replica received with a streaming digest again, in the
+   * background, and save its resumable digest state, so that its first
+   * append or truncate does not hash the whole replica. The state is only
+   * saved if it gives the replica's checksum; replicas changed meanwhile, or
+   * finalized while the queue is full, are hashed on their first append.
+   */
+  void saveDigestState(ReplicaInfo replica) {
+    digestStateService.execute(() -> {
+      final long length = replica.getNumBytes();
+      try (ResumableDigest md = new ResumableDigest(
+          dnConf.getDigestCheckpointInterval());
+           DataInputStream in = new DataInputStream(
+               replica.getDataInputStream(0))) {
+        md.update(in, length);
+        if (replica.getNumBytes() == length &&
+            replica.checksumEquals(md.digest())) {
+          replica.saveDigestState(md);
+        }
+      } catch (IOException e) {
+        LOG.warn("Cannot save digest state of {}", replica, e);
+      }
+    });
+  }
+
   public DataNodeDiskMetrics getDiskMetrics() {
     return diskMetrics;
   }
@@ -1953,7 +2026,21 @@ public ShortCircuitFdsVersionException(String msg) {
   }
 
   FileInputStream[] requestShortCircuitFdsForRead(final ExtendedBlock blk,
-      final Token<BlockTokenIdentifier> token, int maxVersion) 
+      final Token<BlockTokenIdentifier> token, int maxVersion)
+          throws ShortCircuitFdsUnsupportedException,
+            ShortCircuitFdsVersionException, IOException {
+    return requestShortCircuitFdsForRead(blk, token, maxVersion, false);
+  }
+
+  /**
+   * Open the block and meta files of a replica for a short-circuit reader.
+   * Unless the client checks the SHA-256 of the block itself, the replica
+   * must be checked against it first; a dataset that can only return
+   * checked data as a stream cannot pass descriptors to such a client.
+   */
+  FileInputStream[] requestShortCircuitFdsForRead(final ExtendedBlock blk,
+      final Token<BlockTokenIdentifier> token, int maxVersion,
+      boolean clientChecksDigest)
           throws ShortCircuitFdsUnsupportedException,
             ShortCircuitFdsVersionException, IOException {
     if (fileDescriptorPassingDisabledReason != null) {
@@ -1972,7 +2059,8 @@ FileInputStream[] requestShortCircuitFdsForRead(final ExtendedBlock blk,
     
     try {
       Preconditions.checkNotNull(data, "Storage not yet initialized");
-      fis[0] = (FileInputStream)data.getBlockInputStream(blk, 0);
+      fis[0] = (FileInputStream)data.getBlockInputStream(blk, 0,
+          !clientChecksDigest);
       fis[1] = DatanodeUtil.getMetaDataInputStream(blk, data);
     } catch (ClassCastException e) {
       LOG.debug("requestShortCircuitFdsForRead failed", e);
@@ -2077,6 +2165,10 @@ public void shutdown() {
 
     LOG.info("Waiting up to 30 seconds for transfer threads to complete");
     HadoopExecutors.shutdown(this.xferService, LOG, 15L, TimeUnit.SECONDS);
+    // Receivers still running hash the rest of their blocks themselves
+    HadoopExecutors.shutdown(this.digestService, LOG, 15L, TimeUnit.SECONDS);
+    // Replicas not hashed yet keep being hashed on their first append
+    this.digestStateService.shutdownNow();
 
     // wait for all data receiver threads to exit
     if (this.threadGroup != null) {
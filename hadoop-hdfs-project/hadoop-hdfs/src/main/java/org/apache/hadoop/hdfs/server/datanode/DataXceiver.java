@@ -28,6 +28,7 @@
 import org.apache.hadoop.hdfs.ExtendedBlockId;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.BlockChecksumOptions;
+import org.apache.hadoop.hdfs.protocol.BlockChecksumType;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -51,9 +52,9 @@
 import org.apache.hadoop.hdfs.protocolPB.PBHelperClient;
 import org.apache.hadoop.hdfs.security.token.block.BlockKey;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
-import org.apache.hadoop.hdfs.server.datanode.BlockChecksumHelper.BlockChecksumComputer;
 import org.apache.hadoop.hdfs.server.datanode.BlockChecksumHelper.AbstractBlockChecksumComputer;
 import org.apache.hadoop.hdfs.server.datanode.BlockChecksumHelper.ReplicatedBlockChecksumComputer;
+import org.apache.hadoop.hdfs.server.datanode.BlockChecksumHelper.ReplicatedBlockDigestComputer;
 import org.apache.hadoop.hdfs.server.datanode.BlockChecksumHelper.BlockGroupNonStripedChecksumComputer;
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsUnsupportedException;
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsVersionException;
@@ -349,8 +350,8 @@ private void collectThreadLocalStates() {
   @Override
   public void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> token,
-      SlotId slotId, int maxVersion, boolean supportsReceiptVerification)
-        throws IOException {
+      SlotId slotId, int maxVersion, boolean supportsReceiptVerification,
+      boolean clientChecksDigest) throws IOException {
     updateCurrentThreadName("Passing file descriptors for block " + blk);
     DataOutputStream out = getBufferedOutputStream();
     checkAccess(out, true, blk, token,
@@ -373,7 +374,8 @@ public void requestShortCircuitFds(final ExtendedBlock blk,
               ExtendedBlockId.fromExtendedBlock(blk), slotId, isCached);
           registeredSlotId = slotId;
         }
-        fis = datanode.requestShortCircuitFdsForRead(blk, token, maxVersion);
+        fis = datanode.requestShortCircuitFdsForRead(blk, token, maxVersion,
+            clientChecksDigest);
         Preconditions.checkState(fis != null);
         bld.setStatus(SUCCESS);
         bld.setShortCircuitAccessVersion(DataNode.CURRENT_BLOCK_FORMAT_VERSION);
@@ -571,7 +573,8 @@ public void readBlock(final ExtendedBlock block,
       final long blockOffset,
       final long length,
       final boolean sendChecksum,
-      final CachingStrategy cachingStrategy) throws IOException {
+      final CachingStrategy cachingStrategy,
+      final boolean clientChecksDigest) throws IOException {
     previousOpClientName = clientName;
     long read = 0;
     updateCurrentThreadName("Sending block " + block);
@@ -595,8 +598,8 @@ public void readBlock(final ExtendedBlock block,
     try {
       try {
         blockSender = new BlockSender(block, blockOffset, length,
-            true, false, sendChecksum, datanode, clientTraceFmt,
-            cachingStrategy);
+            true, false, sendChecksum, !clientChecksDigest, datanode,
+            clientTraceFmt, cachingStrategy);
       } catch(IOException e) {
         String msg = "opReadBlock " + block + " received exception " + e; 
         LOG.info(msg);
@@ -998,8 +1001,15 @@ public void blockChecksum(ExtendedBlock block,
         getOutputStream());
     checkAccess(out, true, block, blockToken, Op.BLOCK_CHECKSUM,
         BlockTokenIdentifier.AccessMode.READ);
-    BlockChecksumComputer maker = new ReplicatedBlockChecksumComputer(
-        datanode, block, blockChecksumOptions);
+    final AbstractBlockChecksumComputer maker;
+    if (blockChecksumOptions.getBlockChecksumType()
+        == BlockChecksumType.BLOCK_SHA256) {
+      maker = new ReplicatedBlockDigestComputer(
+          datanode, block, blockChecksumOptions);
+    } else {
+      maker = new ReplicatedBlockChecksumComputer(
+          datanode, block, blockChecksumOptions);
+    }
 
     try {
       maker.compute();
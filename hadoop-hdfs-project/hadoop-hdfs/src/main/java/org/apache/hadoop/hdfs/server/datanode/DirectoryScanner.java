@@ -447,6 +447,11 @@ public void reconcile() throws IOException {
       }
     }
 
+    // Write out the checksums of the reconciled replicas
+    for (String bpid : stats.keySet()) {
+      dataset.saveReplicaDigests(bpid);
+    }
+
     if (!retainDiffs) {
       clear();
     }
@@ -19,7 +19,6 @@
 
 import java.io.*;
 import java.net.URI;
-import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -28,7 +27,9 @@
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.ScanInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
@@ -116,6 +117,22 @@ public File getMetaFile() {
         DatanodeUtil.getMetaName(getBlockName(), getGenerationStamp()));
   }
 
+  /**
+   * Get the file holding the saved {@link ResumableDigest} of this replica.
+   */
+  File getDigestStateFile() {
+    return new File(getDir(), getBlockName() + ResumableDigest.FILE_EXTENSION);
+  }
+
+  /**
+   * Get the file holding the saved {@link SegmentedReplicaDigest} of this
+   * replica.
+   */
+  File getSegmentedDigestFile() {
+    return new File(getDir(),
+        getBlockName() + SegmentedReplicaDigest.FILE_EXTENSION);
+  }
+
   /**
    * Return the parent directory path where this replica is located.
    * @return the parent directory path where this replica is located
@@ -272,6 +289,10 @@ public boolean blockDataExists() {
 
   @Override
   public boolean deleteBlockData() {
+    getFileIoProvider().deleteWithExistsCheck(getVolume(),
+        getDigestStateFile());
+    getFileIoProvider().deleteWithExistsCheck(getVolume(),
+        getSegmentedDigestFile());
     return getFileIoProvider().fullyDelete(getVolume(), getBlockFile());
   }
 
@@ -280,6 +301,75 @@ public long getBlockDataLength() {
     return getBlockFile().length();
   }
 
+  @Override
+  public ResumableDigest loadDigestState() {
+    final File f = getDigestStateFile();
+    if (!getFileIoProvider().exists(getVolume(), f)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        getFileIoProvider().getFileInputStream(getVolume(), f)))) {
+      ResumableDigest state = ResumableDigest.read(in);
+      if (state.getLength() == getNumBytes() &&
+          Arrays.equals(state.digest(), getChecksum())) {
+        return state;
+      }
+      LOG.debug("Ignoring stale digest state of {}", this);
+    } catch (IOException e) {
+      LOG.warn("Cannot load digest state of {}", this, e);
+    }
+    return null;
+  }
+
+  @Override
+  public void saveDigestState(ResumableDigest state) throws IOException {
+    final ReplicaInfo onDisk =
+        getState() == ReplicaState.RUR ? getOriginalReplica() : this;
+    if (onDisk.getState() != ReplicaState.FINALIZED) {
+      // Finalizing moves the replica without the state
+      return;
+    }
+    final File f = getDigestStateFile();
+    final File tmp = new File(f.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        getFileIoProvider().getFileOutputStream(getVolume(), tmp)))) {
+      state.write(out);
+    }
+    getFileIoProvider().replaceFile(getVolume(), tmp, f);
+  }
+
+  @Override
+  SegmentedReplicaDigest loadSegmentedDigest() {
+    final File f = getSegmentedDigestFile();
+    if (!getFileIoProvider().exists(getVolume(), f)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        getFileIoProvider().getFileInputStream(getVolume(), f)))) {
+      return SegmentedReplicaDigest.read(in);
+    } catch (IOException e) {
+      LOG.warn("Cannot load segment digests of {}", this, e);
+    }
+    return null;
+  }
+
+  @Override
+  boolean saveSegmentedDigest(SegmentedReplicaDigest digest)
+      throws IOException {
+    if (getState() != ReplicaState.FINALIZED) {
+      // Finalizing moves the replica without the digests
+      return false;
+    }
+    final File f = getSegmentedDigestFile();
+    final File tmp = new File(f.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        getFileIoProvider().getFileOutputStream(getVolume(), tmp)))) {
+      digest.write(out);
+    }
+    getFileIoProvider().replaceFile(getVolume(), tmp, f);
+    return true;
+  }
+
   @Override
   public URI getMetadataURI() {
     return getMetaFile().toURI();
@@ -388,9 +478,25 @@ public void bumpReplicaGS(long newGS) throws IOException {
 
   @Override
   public void truncateBlock(long newLength) throws IOException {
-    byte[] newChecksum = truncateBlock(getVolume(), getBlockFile(), getMetaFile(),
-        getNumBytes(), newLength, getChecksum(), getFileIoProvider());
-    setChecksum(newChecksum);
+    truncateBlock(newLength,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_DEFAULT);
+  }
+
+  @Override
+  public void truncateBlock(long newLength, int digestCheckpointInterval)
+      throws IOException {
+    ResumableDigest state = truncateBlock(getVolume(), getBlockFile(),
+        getMetaFile(), getNumBytes(), newLength, getChecksum(),
+        loadDigestState(), digestCheckpointInterval, getFileIoProvider());
+    if (state == null) {
+      return;
+    }
+    setChecksum(state.digest());
+    try {
+      saveDigestState(state);
+    } catch (IOException e) {
+      LOG.warn("Cannot save digest state of {}", this, e);
+    }
   }
 
   @Override
@@ -466,32 +572,35 @@ public void setPinning(LocalFileSystem localFS, Path path) throws
   }
 
 
-  public static byte[] getBlockChecksumTill(RandomAccessFile file, byte[] expectChecksum, long tillLen) throws IOException {
-    MessageDigest md  = _checksum();
-    byte[] fullChecksum, paritalChecksum;
-
+  /**
+   * Digest of the first tillLen bytes of a block file, checking the whole
+   * file against expectChecksum on the way. Hashing resumes from the last
+   * checkpoint of the saved state at or before tillLen, so only the data
+   * after it is read.
+   *
+   * @param saved state saved for the whole file, or null to hash it all
+   * @param checkpointInterval checkpoint interval of the state, if none was
+   *                           saved
+   */
+  static ResumableDigest getBlockDigestTill(RandomAccessFile file,
+      ResumableDigest saved, int checkpointInterval, byte[] expectChecksum,
+      long tillLen) throws IOException {
     // Sanity checks
     if (expectChecksum == null) {
       LOG.error("Full block's checksum set to null while truncating. Recovering due to a disk error?");
       throw new NimbleError("Truncating block without a known checksum");
     }
 
-    // Calculate partial checksum
-    byte content[] = new byte[(int) file.length()];
-    file.readFully(content);
-    md.update(content, 0, (int) tillLen);
+    final ResumableDigest md = saved != null ? saved.resumeAt(tillLen) :
+        new ResumableDigest(checkpointInterval);
+    final long fileLen = file.length();
 
-    try {
-      MessageDigest md2 = (MessageDigest) md.clone();
-      paritalChecksum = md2.digest();
-    } catch (CloneNotSupportedException e) {
-      LOG.info("Cloning MessageDigest not supported");
-      throw new NimbleError("Cloning checksum is not supported. Cannot reliably truncate block.");
-    }
-
-    // Remaining checksum
-    md.update(content, (int) tillLen, (int)file.length() - (int)tillLen);
-    fullChecksum = md.digest();
+    // Calculate partial checksum, then check the remaining data
+    file.seek(md.getLength());
+    md.update(file, tillLen - md.getLength());
+    final ResumableDigest partial = md.copy();
+    md.update(file, fileLen - tillLen);
+    byte[] fullChecksum = md.digest();
 
     if (!Arrays.equals(expectChecksum, fullChecksum)) {
       LOG.error("Existing block's checksum mismatch when truncating. {} (exp.) != {} (calc.)",
@@ -499,13 +608,24 @@ public static byte[] getBlockChecksumTill(RandomAccessFile file, byte[] expectCh
       throw new NimbleError("Incorrect checksum while truncating file");
     }
 
-    LOG.info("Updated checksum for truncated block: {}", NimbleUtils.URLEncode(paritalChecksum));
-    return paritalChecksum;
+    LOG.debug("Updated checksum for truncated block: {}",
+        NimbleUtils.URLEncode(partial.digest()));
+    return partial;
   }
 
-  public static byte[] truncateBlock(
+  /**
+   * Truncate a block file and its meta file.
+   *
+   * @param saved saved digest state of the block file, or null
+   * @param checkpointInterval checkpoint interval of the new state, if none
+   *                           was saved
+   * @return the digest state of the truncated block file, or saved if the
+   * length does not change
+   */
+  public static ResumableDigest truncateBlock(
       FsVolumeSpi volume, File blockFile, File metaFile,
-      long oldlen, long newlen, byte[] expectChecksum, FileIoProvider fileIoProvider)
+      long oldlen, long newlen, byte[] expectChecksum, ResumableDigest saved,
+      int checkpointInterval, FileIoProvider fileIoProvider)
       throws IOException {
     LOG.info("truncateBlock: blockFile=" + blockFile
         + ", metaFile=" + metaFile
@@ -513,7 +633,7 @@ public static byte[] truncateBlock(
         + ", newlen=" + newlen);
 
     if (newlen == oldlen) {
-      return expectChecksum;
+      return saved;
     }
     if (newlen > oldlen) {
       throw new IOException("Cannot truncate block to from oldlen (=" + oldlen
@@ -531,11 +651,12 @@ public static byte[] truncateBlock(
     long lastchunkoffset = (n - 1)*bpc;
     int lastchunksize = (int)(newlen - lastchunkoffset);
     byte[] b = new byte[Math.max(lastchunksize, checksumsize)];
-    byte[] newChecksum; // for Nimble
+    ResumableDigest newState; // for Nimble
 
     try (RandomAccessFile blockRAF = fileIoProvider.getRandomAccessFile(
         volume, blockFile, "rw")) {
-      newChecksum = getBlockChecksumTill(blockRAF, expectChecksum, newlen);
+      newState = getBlockDigestTill(blockRAF, saved, checkpointInterval,
+          expectChecksum, newlen);
 
       //truncate blockFile
       blockRAF.setLength(newlen);
@@ -557,7 +678,7 @@ public static byte[] truncateBlock(
       metaRAF.write(b, 0, checksumsize);
     }
 
-    return newChecksum;
+    return newState;
   }
 
   /**
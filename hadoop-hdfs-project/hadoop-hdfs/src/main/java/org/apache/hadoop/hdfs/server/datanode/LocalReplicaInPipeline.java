@@ -443,6 +443,12 @@ public void moveReplicaFrom(ReplicaInfo oldReplicaInfo, File newBlkFile)
           " Unable to move block file " + oldReplica.getBlockFile() +
           " to rbw dir " + newBlkFile, e);
     }
+    // The digest state and segment digests are only kept for finalized
+    // replicas
+    fileIoProvider.deleteWithExistsCheck(getVolume(),
+        oldReplica.getDigestStateFile());
+    fileIoProvider.deleteWithExistsCheck(getVolume(),
+        oldReplica.getSegmentedDigestFile());
   }
 
   @Override // ReplicaInPipeline
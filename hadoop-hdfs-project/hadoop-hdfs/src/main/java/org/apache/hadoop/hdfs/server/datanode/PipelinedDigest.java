@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.slf4j.Logger;
+
+/**
+ * The SHA-256 checksum of a replica being received, computed on the
+ * datanode's digest threads so that hashing a packet overlaps with
+ * receiving, writing and mirroring the next ones, instead of delaying their
+ * acks.
+ *
+ * The receiver hands each packet's buffer off with a callback releasing it
+ * once hashed, and must not modify the buffer until then. At most queueSize
+ * packets wait to be hashed; the receiver blocks on the next one until one
+ * is hashed. The packets of a digest are hashed in order by one task at a
+ * time on the shared executor, which runs at most queueSize of them before
+ * letting the other digests have the thread. {@link #getDigest()} waits for
+ * the queued data to be hashed, and is only called when the block is
+ * finalized. With a queue size of 0, or no executor, the data is hashed on
+ * the receiver's thread. {@link #close()} releases the digest, whose native
+ * context is not freed by garbage collection.
+ *
+ * The erasure coding worker hashes the internal blocks it rebuilds the same
+ * way while it decodes the next stripes; as it reuses its buffers, they are
+ * copied.
+ */
+@InterfaceAudience.Private
+public class PipelinedDigest implements Closeable {
+  static final Logger LOG = DataNode.LOG;
+
+  /** The data of a packet, and what to do once it is hashed. */
+  private static final class Packet {
+    private final ByteBuffer data;
+    private final Runnable release;
+
+    private Packet(ByteBuffer data, Runnable release) {
+      this.data = data;
+      this.release = release;
+    }
+  }
+
+  private final ResumableDigest md;
+  private final DataNodeMetrics metrics;
+  private final Executor executor;
+  private final String name;
+  private final int queueSize;
+
+  /** Packets waiting to be hashed. */
+  private final Queue<Packet> pending = new ArrayDeque<>();
+  /** Whether a task hashing the pending packets is submitted or running. */
+  private boolean hashing = false;
+  private boolean closed = false;
+  /** Whether the digest is to be released once no task is hashing. */
+  private boolean released = false;
+  private volatile Throwable failure = null;
+
+  /**
+   * @param md digest to continue
+   * @param queueSize number of packets that may wait to be hashed, or 0 to
+   *                  hash on the caller's thread
+   * @param executor to hash on, shared with other digests
+   * @param name to log failures with, e.g. the block
+   */
+  PipelinedDigest(ResumableDigest md, DataNodeMetrics metrics,
+      int queueSize, Executor executor, String name) {
+    this.md = md;
+    this.metrics = metrics;
+    this.queueSize = executor == null ? 0 : queueSize;
+    this.executor = executor;
+    this.name = name;
+  }
+
+  /**
+   * Hash len bytes of b, starting at off, after the data given before.
+   * The bytes are copied, so b may be reused when this returns.
+   */
+  public void update(byte[] b, int off, int len) throws IOException {
+    update(ByteBuffer.wrap(b, off, len));
+  }
+
+  /**
+   * Hash the remaining bytes of b, after the data given before. The bytes
+   * are copied and the position of b is left as is, so b may be reused when
+   * this returns.
+   */
+  public void update(ByteBuffer b) throws IOException {
+    if (!b.hasRemaining()) {
+      return;
+    }
+    if (queueSize <= 0) {
+      update(b, null);
+      return;
+    }
+    ByteBuffer copy = ByteBuffer.allocate(b.remaining());
+    copy.put(b.duplicate());
+    copy.flip();
+    update(copy, null);
+  }
+
+  /**
+   * Hash the remaining bytes of b, after the data given before, without
+   * copying them. The position of b is left as is. b must not be modified
+   * until release, if not null, is run, which happens once the bytes are
+   * hashed or failed to be; it may be run on another thread.
+   */
+  public void update(ByteBuffer b, Runnable release) throws IOException {
+    final Packet p = new Packet(b.duplicate(), release);
+    synchronized (this) {
+      try {
+        checkFailure();
+        if (p.data.hasRemaining() && queueSize > 0 && !closed) {
+          queue(p);
+          return;
+        }
+      } catch (IOException | RuntimeException e) {
+        release(p);
+        throw e;
+      }
+      // Nothing is queued, so hash here
+      try {
+        if (p.data.hasRemaining()) {
+          hash(p.data);
+        }
+      } finally {
+        release(p);
+      }
+    }
+  }
+
+  private void queue(Packet p) throws IOException {
+    if (pending.size() >= queueSize) {
+      long begin = System.nanoTime();
+      try {
+        while (pending.size() >= queueSize && failure == null) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException(
+            "Interrupted while queueing data of " + name + " to hash");
+      }
+      metrics.addDigestQueueWaitNanos(System.nanoTime() - begin);
+      checkFailure();
+    }
+    pending.add(p);
+    if (!hashing) {
+      submit();
+    }
+  }
+
+  /** Submit a task hashing the pending packets. */
+  private void submit() {
+    hashing = true;
+    try {
+      executor.execute(this::run);
+    } catch (RejectedExecutionException e) {
+      // The datanode is shutting down: hash the rest here
+      hashing = false;
+      closed = true;
+      hashPending();
+    }
+  }
+
+  /**
+   * Wait for the data given so far to be hashed.
+   *
+   * @return the digest of the data given so far
+   */
+  public ResumableDigest getDigest() throws IOException {
+    finish();
+    checkFailure();
+    return md;
+  }
+
+  /**
+   * Wait for the data queued so far to be hashed. Data given later is
+   * hashed on the caller's thread.
+   */
+  private synchronized void finish() throws IOException {
+    closed = true;
+    try {
+      while (hashing) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      // The queued data may not be hashed
+      failure = e;
+      throw new InterruptedIOException(
+          "Interrupted while waiting for the digest of " + name);
+    }
+  }
+
+  /**
+   * Wait for the queued data to be hashed, and release the digest. If
+   * interrupted, the task still hashing releases it once done.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    released = true;
+    try {
+      finish();
+    } finally {
+      if (!hashing) {
+        md.close();
+      }
+    }
+  }
+
+  /** Hash at most queueSize pending packets, then let other digests run. */
+  private void run() {
+    for (int i = 0; i < queueSize; i++) {
+      Packet p;
+      synchronized (this) {
+        p = pending.poll();
+        if (p == null) {
+          idle();
+          return;
+        }
+        // Wake up the receiver waiting for room in the queue
+        notifyAll();
+      }
+      try {
+        if (failure == null) {
+          hash(p.data);
+        }
+      } catch (Throwable t) {
+        LOG.warn("Failed to hash data of {}", name, t);
+        failure = t;
+      } finally {
+        release(p);
+      }
+    }
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        idle();
+      } else {
+        submit();
+      }
+    }
+  }
+
+  /** No task is hashing any more; release the digest if closed meanwhile. */
+  private void idle() {
+    hashing = false;
+    if (released) {
+      md.close();
+    }
+    notifyAll();
+  }
+
+  /** Hash the pending packets on this thread, when they cannot be queued. */
+  private void hashPending() {
+    for (Packet p = pending.poll(); p != null; p = pending.poll()) {
+      try {
+        if (failure == null) {
+          hash(p.data);
+        }
+      } catch (Throwable t) {
+        LOG.warn("Failed to hash data of {}", name, t);
+        failure = t;
+      } finally {
+        release(p);
+      }
+    }
+    notifyAll();
+  }
+
+  private void hash(ByteBuffer b) throws IOException {
+    final int len = b.remaining();
+    long begin = System.nanoTime();
+    md.update(b);
+    metrics.addDigest(len, System.nanoTime() - begin);
+  }
+
+  private static void release(Packet p) {
+    if (p.release != null) {
+      p.release.run();
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable t = failure;
+    if (t != null) {
+      throw new IOException("Failed to hash data of " + name, t);
+    }
+  }
+}
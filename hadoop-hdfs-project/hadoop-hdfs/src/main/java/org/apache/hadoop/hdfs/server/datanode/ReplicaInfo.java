@@ -17,12 +17,12 @@
  */
 package org.apache.hadoop.hdfs.server.datanode;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.LocalFileSystem;
@@ -30,10 +30,9 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.ScanInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
-import org.apache.hadoop.hdfs.server.nimble.NimbleError;
-import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
-import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.thirdparty.com.google.common.util.concurrent.Striped;
 import org.apache.hadoop.util.LightWeightResizableGSet;
 
 /**
@@ -50,6 +49,15 @@ abstract public class ReplicaInfo extends Block
   /** volume where the replica belongs. */
   private FsVolumeSpi volume;
 
+  /**
+   * Fingerprint of the segment digests saved for this replica, see
+   * getVerifiedDataInputStream.
+   */
+  private volatile byte[] segmentsFingerprint;
+  /** Lets one reader at a time build the segment digests of a replica. */
+  private static final Striped<Lock> SEGMENTED_DIGEST_LOCKS =
+      Striped.lock(64);
+
   /** This is used by some tests and FsDatasetUtil#computeChecksum. */
   private static final FileIoProvider DEFAULT_FILE_IO_PROVIDER =
       new FileIoProvider(null, null);
@@ -102,29 +110,184 @@ public FileIoProvider getFileIoProvider() {
         : DEFAULT_FILE_IO_PROVIDER;
   }
 
-  public InputStream getVerifiedDataInputStream(long seekOffset)
-          throws IOException {
-    // Load block to memory
-    InputStream ins = getDataInputStream(0);
-    byte[] data = new byte[(int) this.getNumBytes()];
-    IOUtils.readFully(ins, data, 0, data.length);
-
-    // Verify checksums match
-    byte[] ck = NimbleUtils.checksum(data);
-    if (!Arrays.equals(ck, this.getChecksum())) {
-      String msg = String.format("On disk checksum != in-memory checksum: {} != {} ",
-              NimbleUtils.URLEncode(ck), this.getChecksumAsString());
-      LOG.error(msg);
-      throw new NimbleError(msg);
+  // The checksum is set by the BPServiceActor and on finalize while readers
+  // compare it, so its words are only accessed with the replica's lock held.
+  // Accessors taking another block copy its checksum first, so that no two
+  // replica locks are held at once.
+
+  @Override
+  public synchronized byte[] getChecksum() {
+    return super.getChecksum();
+  }
+
+  @Override
+  public synchronized boolean getChecksum(byte[] dst, int off) {
+    return super.getChecksum(dst, off);
+  }
+
+  @Override
+  public synchronized boolean hasChecksum() {
+    return super.hasChecksum();
+  }
+
+  @Override
+  public synchronized boolean checksumEquals(byte[] c) {
+    return super.checksumEquals(c);
+  }
+
+  @Override
+  public boolean checksumEquals(Block b) {
+    return checksumEquals(b.getChecksum());
+  }
+
+  @Override
+  protected synchronized boolean checksumEquals(boolean has,
+      long c0, long c1, long c2, long c3) {
+    return super.checksumEquals(has, c0, c1, c2, c3);
+  }
+
+  @Override
+  public synchronized void setChecksum(byte[] checksum) {
+    super.setChecksum(checksum);
+  }
+
+  @Override
+  public void setChecksum(Block b) {
+    setChecksum(b.getChecksum());
+  }
+
+  @Override
+  protected synchronized void copyChecksumTo(Block dst) {
+    super.copyChecksumTo(dst);
+  }
+
+  /**
+   * Returns an {@link InputStream} to the replica's data that only returns
+   * data matching the replica's checksum. Reads only hash the segments they
+   * touch. The first read hashes the whole replica to derive the segment
+   * digests and saves them, while concurrent first readers wait for it.
+   *
+   * @param seekOffset the offset at which the read is started from.
+   * @param segmentSize the size of the separately verified segments.
+   * @param metrics where to record the checks, or null.
+   * @return the {@link InputStream} to read the verified replica data.
+   * @throws IOException if the data does not match, or cannot be read.
+   */
+  public InputStream getVerifiedDataInputStream(long seekOffset,
+      int segmentSize, DataNodeMetrics metrics) throws IOException {
+    return new VerifiedBlockInputStream(this,
+        getSegmentedDigest(segmentSize, metrics), seekOffset, metrics);
+  }
+
+  /**
+   * Hash the whole replica and check it against the replica's checksum.
+   * The segment digests for {@link #getVerifiedDataInputStream} are
+   * refreshed on the way.
+   *
+   * @param segmentSize the size of the separately verified segments.
+   * @param metrics where to record the check, or null.
+   * @throws IOException if the data does not match, or cannot be read.
+   */
+  public void verifyData(int segmentSize, DataNodeMetrics metrics)
+      throws IOException {
+    setSegmentedDigest(
+        SegmentedReplicaDigest.build(this, segmentSize, metrics));
+  }
+
+  SegmentedReplicaDigest getSegmentedDigest(int segmentSize,
+      DataNodeMetrics metrics) throws IOException {
+    SegmentedReplicaDigest digest = loadTrustedSegmentedDigest(segmentSize);
+    if (digest != null) {
+      return digest;
+    }
+    Lock lock = SEGMENTED_DIGEST_LOCKS.get(this);
+    lock.lock();
+    try {
+      digest = loadTrustedSegmentedDigest(segmentSize);
+      if (digest == null) {
+        digest = SegmentedReplicaDigest.build(this, segmentSize, metrics);
+        setSegmentedDigest(digest);
+        LOG.debug("Verified checksum of {}", this);
+      }
+      return digest;
+    } finally {
+      lock.unlock();
     }
-    LOG.info("Verified checksum of " + this);
+  }
 
-    // Wrap & return
-    InputStream ret = new ByteArrayInputStream(data);
-    ret.skip(seekOffset);
-    return ret;
+  /**
+   * @return the saved segment digests if they are the ones last computed
+   * for this replica and still describe it, or null
+   */
+  private SegmentedReplicaDigest loadTrustedSegmentedDigest(int segmentSize)
+      throws IOException {
+    final byte[] fingerprint = segmentsFingerprint;
+    if (fingerprint == null) {
+      return null;
+    }
+    final SegmentedReplicaDigest digest = loadSegmentedDigest();
+    if (digest == null || !digest.matches(this, segmentSize)) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(fingerprint, digest.fingerprint())) {
+      LOG.warn("Ignoring segment digests of {} that were not saved by this " +
+          "datanode", this);
+      return null;
+    }
+    return digest;
   }
 
+  private void setSegmentedDigest(SegmentedReplicaDigest digest) {
+    segmentsFingerprint = null;
+    try {
+      if (saveSegmentedDigest(digest)) {
+        segmentsFingerprint = digest.fingerprint();
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot save segment digests of {}", this, e);
+    }
+  }
+
+  /**
+   * Load the segment digests saved with {@link #saveSegmentedDigest}.
+   *
+   * @return the saved digests, or null if there are none
+   */
+  SegmentedReplicaDigest loadSegmentedDigest() {
+    return null;
+  }
+
+  /**
+   * Save the segment digests of the replica data, for later verified reads.
+   * Digests that are not saved are rebuilt by the next verified read.
+   *
+   * @return whether the digests were saved
+   * @throws IOException if the digests cannot be written
+   */
+  boolean saveSegmentedDigest(SegmentedReplicaDigest digest)
+      throws IOException {
+    return false;
+  }
+
+  /**
+   * Load the SHA-256 state saved with {@link #saveDigestState}, if it still
+   * matches the length and checksum of the replica.
+   *
+   * @return the saved state, or null if there is none or it is stale
+   */
+  public ResumableDigest loadDigestState() {
+    return null;
+  }
+
+  /**
+   * Save the SHA-256 state of the replica data, to be resumed by appends and
+   * truncates. Only kept for finalized replicas.
+   *
+   * @param state the state at the end of the replica data
+   * @throws IOException if the state cannot be written
+   */
+  public void saveDigestState(ResumableDigest state) throws IOException {
+  }
 
   /**
    * Set the volume where this replica is located on disk.
@@ -304,6 +467,15 @@ abstract public boolean getPinning(LocalFileSystem localFS)
 
   abstract public void truncateBlock(long newLength) throws IOException;
 
+  /**
+   * Truncate the replica. If no digest state was saved with it, the new
+   * state is checkpointed every digestCheckpointInterval bytes.
+   */
+  public void truncateBlock(long newLength, int digestCheckpointInterval)
+      throws IOException {
+    truncateBlock(newLength);
+  }
+
   abstract public void copyMetadata(URI destination) throws IOException;
 
   abstract public void copyBlockdata(URI destination) throws IOException;
@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.util.Sha256;
+import org.apache.hadoop.thirdparty.com.google.common.base.Preconditions;
+
+/**
+ * The running SHA-256 checksum of a replica, whose intermediate state can be
+ * saved and resumed.
+ *
+ * Besides the state at the end of the data, the state is recorded every
+ * checkpoint interval bytes. An append resumes from the final state instead
+ * of hashing the replica again, and a truncate resumes from the last
+ * checkpoint before the new length.
+ *
+ * A saved state is not trusted as is: it must finalize to the replica's
+ * checksum (see {@link ReplicaInfo#loadDigestState()}), and a checkpoint is
+ * only used when hashing the data after it gives the replica's checksum
+ * again. Finding a different state that finalizes to the same checksum
+ * amounts to a second preimage of SHA-256.
+ *
+ * Only {@link Sha256} can export its state, and it compresses in Java, an
+ * order of magnitude slower than OpenSSL or the JDK. Replicas being received
+ * are thus hashed by a {@link #newStreaming()} digest, whose state cannot
+ * be saved: once finalized, the replica is hashed in Java again in the
+ * background to save its state (see DataNode#saveDigestState).
+ */
+@InterfaceAudience.Private
+public final class ResumableDigest implements Closeable {
+  /** Suffix of the file holding the state, next to the block file. */
+  static final String FILE_EXTENSION = ".sha256";
+
+  private static final int VERSION = 1;
+  private static final int MAX_STATE_LENGTH = 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int checkpointInterval;
+  /** A {@link Sha256} if resumable, a faster digest otherwise. */
+  private final MessageDigest sha;
+  private long length;
+  /** State after each checkpoint interval, in order. */
+  private final List<byte[]> checkpoints;
+
+  public ResumableDigest(int checkpointInterval) {
+    this(checkpointInterval, new Sha256(), 0, new ArrayList<>());
+  }
+
+  private ResumableDigest(int checkpointInterval, MessageDigest sha,
+      long length, List<byte[]> checkpoints) {
+    this.checkpointInterval = checkpointInterval;
+    this.sha = sha;
+    this.length = length;
+    this.checkpoints = checkpoints;
+  }
+
+  /**
+   * @return a digest hashing with {@link Sha256#newDigest()}, i.e. OpenSSL
+   * or the JDK, whose state can be neither saved nor resumed
+   */
+  public static ResumableDigest newStreaming() throws IOException {
+    try {
+      return new ResumableDigest(0, Sha256.newDigest(), 0, new ArrayList<>());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("cannot compute SHA256", e);
+    }
+  }
+
+  /**
+   * @return whether the state can be saved and resumed, i.e. this is not a
+   * {@link #newStreaming()} digest
+   */
+  public boolean isResumable() {
+    return sha instanceof Sha256;
+  }
+
+  public void update(byte[] b, int off, int len) {
+    if (!isResumable()) {
+      sha.update(b, off, len);
+      length += len;
+      return;
+    }
+    while (len > 0) {
+      long next = (length / checkpointInterval + 1) * checkpointInterval;
+      int n = (int) Math.min(len, next - length);
+      sha.update(b, off, n);
+      off += n;
+      len -= n;
+      length += n;
+      if (length == next) {
+        checkpoints.add(((Sha256) sha).getState());
+      }
+    }
+  }
+
+  /**
+   * Hash the remaining bytes of b, and advance its position to its limit.
+   * A streaming digest hashes direct buffers in place when it is OpenSSL's.
+   */
+  public void update(ByteBuffer b) {
+    if (b.hasArray()) {
+      int len = b.remaining();
+      update(b.array(), b.arrayOffset() + b.position(), len);
+      b.position(b.limit());
+      return;
+    }
+    if (!isResumable()) {
+      length += b.remaining();
+      sha.update(b);
+      return;
+    }
+    while (b.hasRemaining()) {
+      long next = (length / checkpointInterval + 1) * checkpointInterval;
+      int n = (int) Math.min(b.remaining(), next - length);
+      int limit = b.limit();
+      b.limit(b.position() + n);
+      sha.update(b);
+      b.limit(limit);
+      length += n;
+      if (length == next) {
+        checkpoints.add(((Sha256) sha).getState());
+      }
+    }
+  }
+
+  /**
+   * Hash the next len bytes of in.
+   */
+  public void update(DataInput in, long len) throws IOException {
+    byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, Math.max(len, 0))];
+    while (len > 0) {
+      int n = (int) Math.min(buf.length, len);
+      in.readFully(buf, 0, n);
+      update(buf, 0, n);
+      len -= n;
+    }
+  }
+
+  /**
+   * @return the checksum of the data so far. Hashing may continue.
+   */
+  public byte[] digest() {
+    MessageDigest copy = copyOf(sha);
+    try {
+      return copy.digest();
+    } finally {
+      Sha256.release(copy);
+    }
+  }
+
+  /**
+   * Release the native context of a {@link #newStreaming()} digest, which
+   * cannot be used afterwards. Resumable digests hold no native state.
+   */
+  @Override
+  public void close() {
+    Sha256.release(sha);
+  }
+
+  /**
+   * @return the number of bytes hashed
+   */
+  public long getLength() {
+    return length;
+  }
+
+  int getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  int getNumCheckpoints() {
+    return checkpoints.size();
+  }
+
+  public ResumableDigest copy() {
+    return new ResumableDigest(checkpointInterval, copyOf(sha),
+        length, new ArrayList<>(checkpoints));
+  }
+
+  /**
+   * @return the digest at the last checkpoint at or before offset, to hash
+   * the data from there on
+   */
+  public ResumableDigest resumeAt(long offset) throws IOException {
+    Preconditions.checkState(isResumable(), "Cannot resume a streaming digest");
+    int k = (int) Math.min(Math.min(offset, length) / checkpointInterval,
+        checkpoints.size());
+    if (k == 0) {
+      return new ResumableDigest(checkpointInterval);
+    }
+    return new ResumableDigest(checkpointInterval,
+        Sha256.fromState(checkpoints.get(k - 1)),
+        (long) k * checkpointInterval,
+        new ArrayList<>(checkpoints.subList(0, k)));
+  }
+
+  public void write(DataOutput out) throws IOException {
+    Preconditions.checkState(isResumable(), "Cannot save a streaming digest");
+    out.writeInt(VERSION);
+    out.writeInt(checkpointInterval);
+    out.writeLong(length);
+    writeState(out, ((Sha256) sha).getState());
+    out.writeInt(checkpoints.size());
+    for (byte[] state : checkpoints) {
+      writeState(out, state);
+    }
+  }
+
+  public static ResumableDigest read(DataInput in) throws IOException {
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported digest state version " + version);
+    }
+    int interval = in.readInt();
+    long length = in.readLong();
+    if (interval <= 0 || length < 0) {
+      throw new IOException("Invalid digest state: interval=" + interval
+          + ", length=" + length);
+    }
+    Sha256 sha = Sha256.fromState(readState(in));
+    int n = in.readInt();
+    if (n != length / interval) {
+      throw new IOException("Expected " + length / interval
+          + " checkpoints, not " + n);
+    }
+    List<byte[]> checkpoints = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      byte[] state = readState(in);
+      Sha256.fromState(state);
+      checkpoints.add(state);
+    }
+    return new ResumableDigest(interval, sha, length, checkpoints);
+  }
+
+  private static void writeState(DataOutput out, byte[] state)
+      throws IOException {
+    out.writeInt(state.length);
+    out.write(state);
+  }
+
+  private static byte[] readState(DataInput in) throws IOException {
+    int len = in.readInt();
+    if (len <= 0 || len > MAX_STATE_LENGTH) {
+      throw new IOException("Invalid digest state length " + len);
+    }
+    byte[] state = new byte[len];
+    in.readFully(state);
+    return state;
+  }
+
+  private static MessageDigest copyOf(MessageDigest sha) {
+    try {
+      return (MessageDigest) sha.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
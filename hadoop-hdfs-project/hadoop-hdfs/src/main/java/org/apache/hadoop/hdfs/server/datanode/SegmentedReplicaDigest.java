@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.nimble.NimbleError;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.hdfs.util.Sha256;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
+
+/**
+ * SHA-256 digests of the fixed-size segments of a replica, derived from data
+ * that matched the replica's in-memory block checksum.
+ *
+ * The block checksum covers the whole replica, so on its own it can only
+ * vouch for a read after hashing the whole replica. The segment digests are
+ * computed by the first verified read of a replica, in one pass that checks
+ * the block checksum, and saved in a file next to the block file. Later
+ * reads only hash the segments they touch (see
+ * {@link VerifiedBlockInputStream}).
+ *
+ * Only the {@link #fingerprint()} of the digests is kept in memory, with the
+ * replica, so that digests read back from disk are trusted only if they are
+ * the ones computed from checked data. After a restart, or once the replica
+ * changes, they are computed again.
+ */
+@InterfaceAudience.Private
+final class SegmentedReplicaDigest {
+  /** Suffix of the file holding the digests, next to the block file. */
+  static final String FILE_EXTENSION = ".segments";
+
+  private static final int VERSION = 1;
+  private static final int DIGEST_LENGTH = Block.CHECKSUM_LENGTH;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int segmentSize;
+  private final long length;
+  private final byte[] blockChecksum;
+  private final byte[] digests; // DIGEST_LENGTH bytes per segment
+
+  private SegmentedReplicaDigest(int segmentSize, long length,
+      byte[] blockChecksum, byte[] digests) {
+    this.segmentSize = segmentSize;
+    this.length = length;
+    this.blockChecksum = blockChecksum;
+    this.digests = digests;
+  }
+
+  /**
+   * Hash the data of a replica, and check it against the block checksum.
+   *
+   * @param metrics where to record the check, or null
+   * @throws NimbleError if the data on disk does not match the checksum
+   */
+  static SegmentedReplicaDigest build(ReplicaInfo replica, int segmentSize,
+      DataNodeMetrics metrics) throws IOException {
+    final long begin = Time.monotonicNow();
+    final long length = replica.getNumBytes();
+    final byte[] expected = replica.getChecksum();
+    final MessageDigest whole = NimbleUtils._checksum();
+    final Builder segments = new Builder(segmentSize);
+    final byte[] buf = new byte[BUFFER_SIZE];
+
+    final byte[] actual;
+    try (InputStream in = replica.getDataInputStream(0)) {
+      for (long pos = 0; pos < length;) {
+        int n = (int) Math.min(buf.length, length - pos);
+        IOUtils.readFully(in, buf, 0, n);
+        whole.update(buf, 0, n);
+        segments.update(buf, 0, n);
+        pos += n;
+      }
+      actual = whole.digest();
+    } catch (IOException e) {
+      segments.release();
+      throw e;
+    } finally {
+      Sha256.release(whole);
+    }
+
+    if (metrics != null) {
+      metrics.addDigestVerify(Time.monotonicNow() - begin);
+    }
+    if (!Arrays.equals(actual, expected)) {
+      if (metrics != null) {
+        metrics.incrDigestMismatches();
+      }
+      String msg = String.format(
+          "On disk checksum != in-memory checksum: %s != %s for %s",
+          NimbleUtils.URLEncode(actual), replica.getChecksumAsString(),
+          replica.getBlockName());
+      DataNode.LOG.error(msg);
+      segments.release();
+      throw new NimbleError(msg);
+    }
+    return segments.build(expected);
+  }
+
+  /**
+   * Computes the segment digests of data given in order from the start of
+   * a replica.
+   */
+  static final class Builder {
+    private final int segmentSize;
+    private final MessageDigest segment;
+    private byte[] digests = new byte[4 * DIGEST_LENGTH];
+    private int segments = 0;
+    private long length = 0;
+
+    Builder(int segmentSize) throws IOException {
+      this.segmentSize = segmentSize;
+      this.segment = NimbleUtils._checksum();
+    }
+
+    void update(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int inSegment = (int) (length % segmentSize);
+        int n = Math.min(len, segmentSize - inSegment);
+        segment.update(b, off, n);
+        off += n;
+        len -= n;
+        length += n;
+        if (inSegment + n == segmentSize) {
+          endSegment();
+        }
+      }
+    }
+
+    private void endSegment() throws IOException {
+      if ((segments + 1) * DIGEST_LENGTH > digests.length) {
+        digests = Arrays.copyOf(digests, 2 * digests.length);
+      }
+      digestInto(segment, digests, segments++ * DIGEST_LENGTH);
+    }
+
+    /**
+     * @param blockChecksum the checksum of the same data
+     * @return the digests of the data given so far. No more data may be
+     * given, and the builder is released.
+     */
+    SegmentedReplicaDigest build(byte[] blockChecksum) throws IOException {
+      try {
+        if (length % segmentSize != 0) {
+          endSegment();
+        }
+      } finally {
+        release();
+      }
+      return new SegmentedReplicaDigest(segmentSize, length, blockChecksum,
+          Arrays.copyOf(digests, segments * DIGEST_LENGTH));
+    }
+
+    /** Release the segment digest, when the digests are not built. */
+    void release() {
+      Sha256.release(segment);
+    }
+  }
+
+  private static void digestInto(MessageDigest md, byte[] out, int off)
+      throws IOException {
+    try {
+      md.digest(out, off, DIGEST_LENGTH);
+    } catch (DigestException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Write the digests, to be read back with {@link #read}.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(VERSION);
+    out.writeInt(segmentSize);
+    out.writeLong(length);
+    out.write(blockChecksum);
+    out.writeInt(digests.length);
+    out.write(digests);
+  }
+
+  /**
+   * Read digests written with {@link #write}. They must still be checked
+   * against the {@link #fingerprint()} of the digests that were written.
+   */
+  static SegmentedReplicaDigest read(DataInputStream in) throws IOException {
+    final int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported segment digests version " + version);
+    }
+    final int segmentSize = in.readInt();
+    final long length = in.readLong();
+    if (segmentSize <= 0 || length < 0) {
+      throw new IOException("Invalid segment digests: segmentSize=" +
+          segmentSize + " length=" + length);
+    }
+    final byte[] blockChecksum = new byte[DIGEST_LENGTH];
+    in.readFully(blockChecksum);
+    final int n = in.readInt();
+    if (n != (long) numSegments(length, segmentSize) * DIGEST_LENGTH) {
+      throw new IOException("Invalid segment digests: " + n + " bytes for " +
+          length + " bytes of data");
+    }
+    final byte[] digests = new byte[n];
+    in.readFully(digests);
+    return new SegmentedReplicaDigest(segmentSize, length, blockChecksum,
+        digests);
+  }
+
+  /**
+   * @return the SHA-256 of the digests and of the data they describe
+   */
+  byte[] fingerprint() throws IOException {
+    final MessageDigest md = NimbleUtils._checksum();
+    try {
+      md.update(ByteBuffer.allocate(Integer.BYTES + Long.BYTES)
+          .putInt(segmentSize).putLong(length).array());
+      md.update(blockChecksum);
+      md.update(digests);
+      return md.digest();
+    } finally {
+      Sha256.release(md);
+    }
+  }
+
+  static int numSegments(long length, int segmentSize) {
+    return (int) ((length + segmentSize - 1) / segmentSize);
+  }
+
+  /**
+   * @return whether these digests still describe the replica
+   */
+  boolean matches(ReplicaInfo replica, int segmentSize) {
+    return this.segmentSize == segmentSize &&
+        this.length == replica.getNumBytes() &&
+        replica.checksumEquals(this.blockChecksum);
+  }
+
+  int getSegmentSize() {
+    return segmentSize;
+  }
+
+  long getLength() {
+    return length;
+  }
+
+  int getNumSegments() {
+    return digests.length / DIGEST_LENGTH;
+  }
+
+  /**
+   * Length of segment i. Only the last one may be shorter.
+   */
+  int getSegmentLength(int i) {
+    return (int) Math.min(segmentSize, length - (long) i * segmentSize);
+  }
+
+  /**
+   * Check the data of segment i.
+   *
+   * @param md scratch digest
+   */
+  boolean verify(int i, byte[] data, int len, MessageDigest md) {
+    if (len != getSegmentLength(i)) {
+      return false;
+    }
+    md.reset();
+    md.update(data, 0, len);
+    byte[] actual = md.digest();
+    int off = i * DIGEST_LENGTH;
+    int diff = 0;
+    for (int j = 0; j < DIGEST_LENGTH; j++) {
+      diff |= actual[j] ^ digests[off + j];
+    }
+    return diff == 0;
+  }
+
+  /**
+   * @return bytes of heap held by the digests
+   */
+  int getMemoryBytes() {
+    return digests.length;
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.nimble.NimbleError;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.hdfs.util.Sha256;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Reads the data of a replica, checking each segment against its
+ * {@link SegmentedReplicaDigest} before any of its bytes are returned.
+ *
+ * Segments are read from disk in order, starting at the segment that holds
+ * the initial offset, into a buffer of one segment. Bytes are served from
+ * that buffer only, so they cannot change on disk between the check and the
+ * read. Segments that are skipped over are neither read nor hashed. As this
+ * is not a {@link java.io.FileInputStream}, {@link BlockSender} copies the
+ * data rather than sending the block file with transferTo.
+ */
+@InterfaceAudience.Private
+class VerifiedBlockInputStream extends InputStream {
+  private final ReplicaInfo replica;
+  private final SegmentedReplicaDigest digest;
+  private final InputStream in;
+  private final MessageDigest md;
+  private final DataNodeMetrics metrics; // null if not recorded
+  private long inPos;         // offset of the next byte of in
+  private long pos;           // offset of the next byte to return
+  private byte[] buf;         // data of the current segment
+  private int bufSegment = -1;
+  private int bufLength;
+
+  VerifiedBlockInputStream(ReplicaInfo replica, SegmentedReplicaDigest digest,
+      long seekOffset, DataNodeMetrics metrics) throws IOException {
+    this.replica = replica;
+    this.metrics = metrics;
+    this.digest = digest;
+    this.pos = Math.min(Math.max(seekOffset, 0), digest.getLength());
+    this.inPos = pos - pos % digest.getSegmentSize();
+    this.in = replica.getDataInputStream(inPos);
+    this.md = NimbleUtils._checksum();
+  }
+
+  /**
+   * Load the segment holding pos, if not loaded yet.
+   */
+  private void fill() throws IOException {
+    int segment = (int) (pos / digest.getSegmentSize());
+    if (segment == bufSegment) {
+      return;
+    }
+    long start = (long) segment * digest.getSegmentSize();
+    if (start > inPos) {
+      IOUtils.skipFully(in, start - inPos);
+      inPos = start;
+    }
+    int len = digest.getSegmentLength(segment);
+    allocate(len);
+    IOUtils.readFully(in, buf, 0, len);
+    inPos += len;
+    check(segment, len);
+  }
+
+  /**
+   * Make room in buf for a segment of len bytes, dropping the one loaded.
+   */
+  private void allocate(int len) {
+    if (buf == null || buf.length < len) {
+      buf = new byte[len];
+    }
+    bufSegment = -1;
+  }
+
+  /**
+   * Check the len bytes of the segment read into buf, and make it the
+   * loaded segment.
+   */
+  private void check(int segment, int len) throws IOException {
+    long start = (long) segment * digest.getSegmentSize();
+    long verifyStartNanos = System.nanoTime();
+    boolean verified = digest.verify(segment, buf, len, md);
+    if (metrics != null) {
+      metrics.addDigestSegmentVerifyNanos(System.nanoTime() - verifyStartNanos);
+      if (!verified) {
+        metrics.incrDigestMismatches();
+      }
+    }
+    if (!verified) {
+      String msg = String.format(
+          "On disk data of %s does not match its digest at offset %d",
+          replica.getBlockName(), start);
+      DataNode.LOG.error(msg);
+      throw new NimbleError(msg);
+    }
+    bufSegment = segment;
+    bufLength = len;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (pos >= digest.getLength()) {
+      return -1;
+    }
+    fill();
+    int bufPos = (int) (pos % digest.getSegmentSize());
+    int n = Math.min(len, bufLength - bufPos);
+    System.arraycopy(buf, bufPos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = Math.max(0, Math.min(n, digest.getLength() - pos));
+    pos += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    if (bufSegment >= 0 && pos / digest.getSegmentSize() == bufSegment) {
+      return bufLength - (int) (pos % digest.getSegmentSize());
+    }
+    return 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    buf = null;
+    try {
+      in.close();
+    } finally {
+      Sha256.release(md);
+    }
+  }
+}
@@ -31,6 +31,9 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.DataEncryptionKeyFactory;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.PipelinedDigest;
+import org.apache.hadoop.hdfs.server.datanode.ResumableDigest;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
 import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.io.IOUtils;
@@ -46,6 +49,7 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.EnumSet;
 
 /**
@@ -62,6 +66,9 @@ class StripedBlockWriter {
   private final DatanodeInfo target;
   private final StorageType storageType;
   private final String storageId;
+  // digest the rebuilt block must have, or null if it is not known
+  private final byte[] expectedChecksum;
+  private final PipelinedDigest digest;
 
   private Socket targetSocket;
   private DataOutputStream targetOutputStream;
@@ -74,7 +81,8 @@ class StripedBlockWriter {
   StripedBlockWriter(StripedWriter stripedWriter, DataNode datanode,
                      Configuration conf, ExtendedBlock block,
                      DatanodeInfo target, StorageType storageType,
-                     String storageId) throws IOException {
+                     String storageId, byte[] expectedChecksum)
+      throws IOException {
     this.stripedWriter = stripedWriter;
     this.datanode = datanode;
     this.conf = conf;
@@ -83,6 +91,11 @@ class StripedBlockWriter {
     this.target = target;
     this.storageType = storageType;
     this.storageId = storageId;
+    this.expectedChecksum = expectedChecksum;
+    // Hash the rebuilt data on a thread of its own, in parallel with the
+    // other targets and with decoding the next stripes
+    this.digest = expectedChecksum == null ? null : datanode.newDigest(
+        ResumableDigest.newStreaming(), block.toString());
 
     this.targetBuffer = stripedWriter.allocateWriteBuffer();
 
@@ -165,6 +178,9 @@ void transferData2Target(byte[] packetBuf) throws IOException {
     if (targetBuffer.remaining() == 0) {
       return;
     }
+    if (digest != null) {
+      digest.update(targetBuffer);
+    }
 
     if (targetBuffer.isDirect()) {
       ByteBuffer directCheckSumBuf =
@@ -205,6 +221,9 @@ void transferData2Target(byte[] packetBuf) throws IOException {
 
   // send an empty packet to mark the end of the block
   void endTargetBlock(byte[] packetBuf) throws IOException {
+    if (digest != null) {
+      checkDigest();
+    }
     DFSPacket packet = new DFSPacket(packetBuf, 0,
         blockOffset4Target, seqNo4Target++,
         stripedWriter.getChecksumSize(), true);
@@ -212,7 +231,23 @@ void endTargetBlock(byte[] packetBuf) throws IOException {
     targetOutputStream.flush();
   }
 
+  /**
+   * Check the rebuilt block against the digest it must have. On a mismatch
+   * the last packet is not sent, so the target discards its temporary
+   * replica instead of finalizing it.
+   */
+  private void checkDigest() throws IOException {
+    byte[] actual = digest.getDigest().digest();
+    if (!Arrays.equals(actual, expectedChecksum)) {
+      datanode.getMetrics().incrECReconstructionDigestMismatches();
+      throw new IOException("Rebuilt " + block + " for " + target
+          + " has SHA-256 " + NimbleUtils.URLEncode(actual) + " instead of "
+          + NimbleUtils.URLEncode(expectedChecksum));
+    }
+  }
+
   void close() {
+    IOUtils.closeStream(digest);
     IOUtils.closeStream(targetOutputStream);
     IOUtils.closeStream(targetInputStream);
     IOUtils.closeStream(targetSocket);
@@ -42,25 +42,37 @@ public class StripedReconstructionInfo {
   private final StorageType[] targetStorageTypes;
   private final String[] targetStorageIds;
 
+  // digests of the internal blocks by block index, null where unknown
+  private final byte[][] blockChecksums;
+
   public StripedReconstructionInfo(ExtendedBlock blockGroup,
       ErasureCodingPolicy ecPolicy, byte[] liveIndices, DatanodeInfo[] sources,
       byte[] targetIndices) {
     this(blockGroup, ecPolicy, liveIndices, sources, targetIndices, null,
-        null, null);
+        null, null, null);
   }
 
   StripedReconstructionInfo(ExtendedBlock blockGroup,
       ErasureCodingPolicy ecPolicy, byte[] liveIndices, DatanodeInfo[] sources,
       DatanodeInfo[] targets, StorageType[] targetStorageTypes,
       String[] targetStorageIds) {
+    this(blockGroup, ecPolicy, liveIndices, sources, targets,
+        targetStorageTypes, targetStorageIds, null);
+  }
+
+  StripedReconstructionInfo(ExtendedBlock blockGroup,
+      ErasureCodingPolicy ecPolicy, byte[] liveIndices, DatanodeInfo[] sources,
+      DatanodeInfo[] targets, StorageType[] targetStorageTypes,
+      String[] targetStorageIds, byte[][] blockChecksums) {
     this(blockGroup, ecPolicy, liveIndices, sources, null, targets,
-        targetStorageTypes, targetStorageIds);
+        targetStorageTypes, targetStorageIds, blockChecksums);
   }
 
   private StripedReconstructionInfo(ExtendedBlock blockGroup,
       ErasureCodingPolicy ecPolicy, byte[] liveIndices, DatanodeInfo[] sources,
       byte[] targetIndices, DatanodeInfo[] targets,
-      StorageType[] targetStorageTypes, String[] targetStorageIds) {
+      StorageType[] targetStorageTypes, String[] targetStorageIds,
+      byte[][] blockChecksums) {
 
     this.blockGroup = blockGroup;
     this.ecPolicy = ecPolicy;
@@ -70,6 +82,7 @@ private StripedReconstructionInfo(ExtendedBlock blockGroup,
     this.targets = targets;
     this.targetStorageTypes = targetStorageTypes;
     this.targetStorageIds = targetStorageIds;
+    this.blockChecksums = blockChecksums;
   }
 
   ExtendedBlock getBlockGroup() {
@@ -104,6 +117,15 @@ String[] getTargetStorageIds() {
     return targetStorageIds;
   }
 
+  /**
+   * @return the digest the internal block with the given index is expected
+   *         to have, or null if it is not known
+   */
+  byte[] getBlockChecksum(int blockIndex) {
+    return blockChecksums != null && blockIndex < blockChecksums.length ?
+        blockChecksums[blockIndex] : null;
+  }
+
   /**
    * Return the weight of this EC reconstruction task.
    *
@@ -56,6 +56,8 @@ class StripedWriter {
   private boolean hasValidTargets;
   private final StorageType[] targetStorageTypes;
   private final String[] targetStorageIds;
+  // digests the rebuilt blocks must have, null where unknown
+  private final byte[][] targetChecksums;
 
   private StripedBlockWriter[] writers;
 
@@ -87,6 +89,10 @@ class StripedWriter {
     Preconditions.checkArgument(targetIndices.length <= parityBlkNum,
         "Too much missed striped blocks.");
     initTargetIndices();
+    targetChecksums = new byte[targets.length][];
+    for (int i = 0; i < targets.length; i++) {
+      targetChecksums[i] = stripedReconInfo.getBlockChecksum(targetIndices[i]);
+    }
     long maxTargetLength = 0L;
     for (short targetIndex : targetIndices) {
       maxTargetLength = Math.max(maxTargetLength,
@@ -195,7 +201,8 @@ int initTargetStreams() {
   private StripedBlockWriter createWriter(short index) throws IOException {
     return new StripedBlockWriter(this, datanode, conf,
         reconstructor.getBlock(targetIndices[index]), targets[index],
-        targetStorageTypes[index], targetStorageIds[index]);
+        targetStorageTypes[index], targetStorageIds[index],
+        targetChecksums[index]);
   }
 
   ByteBuffer allocateWriteBuffer() {
@@ -255,6 +255,15 @@ StorageReport[] getStorageReports(String bpid)
    */
   void checkAndUpdate(String bpid, ScanInfo info) throws IOException;
 
+  /**
+   * Persist the SHA-256 checksums of the finalized replicas of the block
+   * pool, so that they are known again after a restart. Called after the
+   * directory scanner reconciled the block pool.
+   * The default implementation does nothing.
+   */
+  default void saveReplicaDigests(String bpid) {
+  }
+
   /**
    * @param b - the block
    * @return a stream if the meta-data of the block exists;
@@ -301,6 +310,22 @@ LengthInputStream getMetaDataInputStream(ExtendedBlock b
   InputStream getBlockInputStream(ExtendedBlock b, long seekOffset)
             throws IOException;
 
+  /**
+   * Returns an input stream at specified offset of the specified block.
+   * The default implementation checks the data whether or not verify is set.
+   * @param b block
+   * @param seekOffset offset with in the block to seek to
+   * @param verify if false, the data need not be checked against the
+   *  checksum of the replica, as the reader checks it itself
+   * @return an input stream to read the contents of the specified block,
+   *  starting at the offset
+   * @throws IOException
+   */
+  default InputStream getBlockInputStream(ExtendedBlock b, long seekOffset,
+      boolean verify) throws IOException {
+    return getBlockInputStream(b, seekOffset);
+  }
+
   /**
    * Returns an input stream at specified offset of the specified block.
    * The block is still in the tmp directory and is not finalized
@@ -28,6 +28,7 @@
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -111,6 +112,7 @@ class BlockPoolSlice {
   private final Timer timer;
   private final int maxDataLength;
   private final FileIoProvider fileIoProvider;
+  private final ReplicaDigestIndex digestIndex;
 
   private static ForkJoinPool addReplicaThreadPool = null;
   private static final int VOLUMES_REPLICA_ADD_THREADPOOL_SIZE = Runtime
@@ -200,6 +202,17 @@ public int compare(File f1, File f2) {
         DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_TIME_DEFAULT,
         TimeUnit.MILLISECONDS);
 
+    if (conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_INDEX_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_INDEX_ENABLED_DEFAULT)) {
+      this.digestIndex = new ReplicaDigestIndex(currentDir, volume,
+          fileIoProvider, conf.getLongBytes(
+              DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_INDEX_SEGMENT_SIZE_KEY,
+              DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_INDEX_SEGMENT_SIZE_DEFAULT));
+    } else {
+      this.digestIndex = null;
+    }
+
     // Use cached value initially if available. Or the following call will
     // block until the initial du command completes.
     this.dfsUsage = new FSCachingGetSpaceUsed.Builder().setBpid(bpid)
@@ -249,6 +262,13 @@ File getDirectory() {
     return currentDir.getParentFile();
   }
 
+  /**
+   * @return the digest index of the slice, or null if it is disabled
+   */
+  ReplicaDigestIndex getDigestIndex() {
+    return digestIndex;
+  }
+
   File getFinalizedDir() {
     return finalizedDir;
   }
@@ -435,6 +455,9 @@ ReplicaInfo activateSavedReplica(ReplicaInfo replicaInfo,
         .setFsVolume(replicaState.getLazyPersistVolume())
         .setDirectoryToUse(targetBlockFile.getParentFile())
         .build();
+    if (digestIndex != null) {
+      digestIndex.add(newReplicaInfo);
+    }
     return newReplicaInfo;
   }
 
@@ -457,6 +480,12 @@ void getVolumeMap(ReplicaMap volumeMap,
           "Recovered " + numRecovered + " replicas from " + lazypersistDir);
     }
 
+    // Read the digest index while the replicas are being added
+    ForkJoinTask<List<ByteBuffer>> digestTask = null;
+    if (digestIndex != null) {
+      digestTask = addReplicaThreadPool.submit(digestIndex::load);
+    }
+
     boolean  success = readReplicasFromCache(volumeMap, lazyWriteReplicaMap);
     if (!success) {
       List<IOException> exceptions = Collections
@@ -486,6 +515,28 @@ void getVolumeMap(ReplicaMap volumeMap,
       //wait for all the tasks to finish.
       waitForSubTaskToFinish(subTaskQueue, exceptions);
     }
+
+    if (digestTask != null) {
+      applyDigestIndex(volumeMap, digestTask);
+    }
+  }
+
+  /**
+   * Set the checksums of the finalized replicas found on this slice from the
+   * digest index.
+   */
+  private void applyDigestIndex(ReplicaMap volumeMap,
+      ForkJoinTask<List<ByteBuffer>> digestTask) {
+    try {
+      int applied = digestIndex.apply(digestTask.get(), bpid, volumeMap);
+      LOG.info("Loaded the checksums of {} replicas of {} from the digest "
+          + "index", applied, this);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while loading the digest index of {}", this);
+    } catch (ExecutionException e) {
+      LOG.warn("Failed to load the digest index of " + this, e.getCause());
+    }
   }
 
   /**
@@ -900,6 +951,9 @@ void shutdown(BlockListAsLongs blocksListToPersist) {
     saveReplicas(blocksListToPersist);
     saveDfsUsed();
     dfsUsedSaved = true;
+    if (digestIndex != null) {
+      digestIndex.close();
+    }
 
     // Remove the shutdown hook to avoid any memory leak
     if (shutdownHook != null) {
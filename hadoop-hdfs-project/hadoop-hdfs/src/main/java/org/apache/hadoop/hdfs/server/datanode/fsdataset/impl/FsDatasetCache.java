@@ -49,19 +49,22 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.ExtendedBlockId;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DNConf;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
+import org.apache.hadoop.hdfs.server.nimble.NimbleError;
 import org.apache.hadoop.util.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Manages caching for an FsDatasetImpl by using the mmap(2) and mlock(2)
- * system calls to lock blocks into memory. Block checksums are verified upon
- * entry into the cache.
+ * system calls to lock blocks into memory. Block checksums, and unless
+ * disabled the SHA-256 checksum of the replica, are verified upon entry
+ * into the cache.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
@@ -132,6 +135,12 @@ public boolean shouldAdvertise() {
 
   private final long revocationPollingMs;
 
+  /**
+   * Whether to check a replica against its SHA-256 checksum before caching
+   * it. Reads of the cache are not checked.
+   */
+  private final boolean verifyBeforeCaching;
+
   /**
    * A specific cacheLoader could cache block either to DRAM or
    * to persistent memory.
@@ -179,6 +188,9 @@ public FsDatasetCache(FsDatasetImpl dataset) throws IOException {
               ".  Reconfigure this to " + minRevocationPollingMs);
     }
     this.revocationPollingMs = confRevocationPollingMs;
+    this.verifyBeforeCaching = dataset.datanode.getConf().getBoolean(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_BEFORE_CACHING_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_BEFORE_CACHING_DEFAULT);
 
     this.cacheLoader = MappableBlockLoaderFactory.createCacheLoader(
         this.getDnConf());
@@ -423,7 +435,8 @@ public void run() {
         }
         reservedBytes = true;
         try {
-          blockIn = (FileInputStream)dataset.getBlockInputStream(extBlk, 0);
+          blockIn = (FileInputStream)dataset.getBlockInputStreamForCaching(
+              extBlk, verifyBeforeCaching);
           metaIn = DatanodeUtil.getMetaDataInputStream(extBlk, dataset);
         } catch (ClassCastException e) {
           LOG.warn("Failed to cache " + key +
@@ -433,6 +446,9 @@ public void run() {
           LOG.info("Failed to cache " + key + ": failed to find backing " +
               "files.");
           return;
+        } catch (NimbleError e) {
+          LOG.warn("Failed to cache " + key + ": " + e.getMessage());
+          return;
         } catch (IOException e) {
           LOG.warn("Failed to cache " + key + ": failed to open file", e);
           return;
@@ -273,6 +273,9 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
 
   private boolean blockPinningEnabled;
   private final int maxDataLength;
+  private final int verifySegmentSize;
+  private final int digestCheckpointInterval;
+  final VerifiedReplicaCache verifiedReplicas;
 
   @VisibleForTesting
   final AutoCloseableLock datasetWriteLock;
@@ -408,6 +411,18 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     maxDataLength = conf.getInt(
         CommonConfigurationKeys.IPC_MAXIMUM_DATA_LENGTH,
         CommonConfigurationKeys.IPC_MAXIMUM_DATA_LENGTH_DEFAULT);
+    verifySegmentSize = (int) conf.getLongBytes(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_DEFAULT);
+    Preconditions.checkArgument(verifySegmentSize > 0,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_SEGMENT_SIZE_KEY +
+        " must be positive");
+    digestCheckpointInterval = (int) conf.getLongBytes(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_DEFAULT);
+    verifiedReplicas = new VerifiedReplicaCache(conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_VERIFY_CACHE_SIZE_DEFAULT));
   }
 
   @Override
@@ -611,6 +626,7 @@ public void removeVolumes(
             }
           }
           storageToRemove.add(sd.getStorageUuid());
+          verifiedReplicas.invalidateVolume(sd.getStorageUuid());
           storageLocationsToRemove.remove(sdLocation);
         }
       }
@@ -825,6 +841,12 @@ ReplicaInfo getBlockReplica(String bpid, long blockId) throws IOException {
   @Override // FsDatasetSpi
   public InputStream getBlockInputStream(ExtendedBlock b,
       long seekOffset) throws IOException {
+    return getBlockInputStream(b, seekOffset, true);
+  }
+
+  @Override // FsDatasetSpi
+  public InputStream getBlockInputStream(ExtendedBlock b,
+      long seekOffset, boolean verify) throws IOException {
 
     ReplicaInfo info;
     try (AutoCloseableLock lock = datasetReadLock.acquire()) {
@@ -839,7 +861,8 @@ public InputStream getBlockInputStream(ExtendedBlock b,
     if (info == null) {
       throw new IOException("No data exists for block " + b);
     }
-    return getBlockInputStreamWithCheckingPmemCache(info, b, seekOffset);
+    return getBlockInputStreamWithCheckingPmemCache(info, b, seekOffset,
+        verify);
   }
 
   /**
@@ -847,7 +870,8 @@ public InputStream getBlockInputStream(ExtendedBlock b,
    * If so, get DataInputStream of the corresponding cache file on pmem.
    */
   private InputStream getBlockInputStreamWithCheckingPmemCache(
-      ReplicaInfo info, ExtendedBlock b, long seekOffset) throws IOException {
+      ReplicaInfo info, ExtendedBlock b, long seekOffset, boolean verify)
+      throws IOException {
     String cachePath = cacheManager.getReplicaCachePath(
         b.getBlockPoolId(), b.getBlockId());
     if (cachePath != null) {
@@ -862,10 +886,36 @@ private InputStream getBlockInputStreamWithCheckingPmemCache(
       return FsDatasetUtil.getInputStreamAndSeek(
           new File(cachePath), seekOffset);
     }
-    // Verify correct checksum. When called from caching, it will cause a double copy.
-    // Potential for optimization!
-    LOG.info("Load block {} to memory", info.getBlockId());
-    return info.getVerifiedDataInputStream(seekOffset);
+    // Only return data that matches the checksum of the replica, unless
+    // the reader checks it
+    final String bpid = b.getBlockPoolId();
+    if (!verify || verifiedReplicas.isVerified(bpid, info)) {
+      return info.getDataInputStream(seekOffset);
+    }
+    if (verifiedReplicas.isEnabled() &&
+        info.getState() == ReplicaState.FINALIZED) {
+      verifiedReplicas.verify(bpid, info, verifySegmentSize,
+          datanode.getMetrics());
+      return info.getDataInputStream(seekOffset);
+    }
+    return info.getVerifiedDataInputStream(seekOffset, verifySegmentSize,
+        datanode.getMetrics());
+  }
+
+  /**
+   * Open the block file of a replica to cache it.
+   *
+   * @param verify whether to check the replica against its checksum first,
+   *               unless it was checked before and has not changed since
+   */
+  InputStream getBlockInputStreamForCaching(ExtendedBlock b, boolean verify)
+      throws IOException {
+    ReplicaInfo info = getReplicaInfo(b);
+    if (verify && !verifiedReplicas.isVerified(b.getBlockPoolId(), info)) {
+      verifiedReplicas.verify(b.getBlockPoolId(), info, verifySegmentSize,
+          datanode.getMetrics());
+    }
+    return info.getDataInputStream(0);
   }
 
   /**
@@ -1307,6 +1357,7 @@ private ReplicaInPipeline append(String bpid,
       }
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, replicaInfo.getBlockId());
+      verifiedReplicas.invalidate(bpid, replicaInfo.getBlockId());
 
       // If there are any hardlinks to the block, break them.  This ensures
       // we are not appending to a file that is part of a previous/ directory.
@@ -1586,7 +1637,8 @@ private ReplicaHandler recoverRbwImpl(ReplicaInPipeline rbw,
         // If the source was client and the last node in the pipeline was lost,
         // any corrupt data written after the acked length can go unnoticed.
         if (bytesOnDisk > bytesAcked) {
-          rbw.getReplicaInfo().truncateBlock(bytesAcked);
+          rbw.getReplicaInfo().truncateBlock(bytesAcked,
+              digestCheckpointInterval);
           rbw.setNumBytes(bytesAcked);
           rbw.setLastChecksumAndDataLen(bytesAcked, null);
         }
@@ -1851,8 +1903,12 @@ private ReplicaInfo finalizeReplica(String bpid, ReplicaInfo replicaInfo)
       assert newReplicaInfo.getState() == ReplicaState.FINALIZED
           : "Replica should be finalized";
 
-      LOG.info("NIMBLE: finalize replica: " + newReplicaInfo);
       volumeMap.add(bpid, newReplicaInfo);
+      FsVolumeImpl volume = (FsVolumeImpl) newReplicaInfo.getVolume();
+      ReplicaDigestIndex digestIndex = volume.getDigestIndex(bpid);
+      if (digestIndex != null && digestIndex.add(newReplicaInfo)) {
+        compactDigestIndexAsync(volume, bpid);
+      }
       return newReplicaInfo;
     }
   }
@@ -2181,6 +2237,7 @@ private void invalidate(String bpid, Block[] invalidBlks, boolean async)
 
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, invalidBlks[i].getBlockId());
+      verifiedReplicas.invalidate(bpid, invalidBlks[i].getBlockId());
 
       try {
         if (async) {
@@ -2228,6 +2285,7 @@ public void invalidate(String bpid, ReplicaInfo block) {
 
     // If the block is cached, start uncaching it.
     cacheManager.uncacheBlock(bpid, block.getBlockId());
+    verifiedReplicas.invalidate(bpid, block.getBlockId());
 
     datanode.notifyNamenodeDeletedBlock(new ExtendedBlock(bpid, block),
         block.getStorageUuid());
@@ -2824,8 +2882,9 @@ private ReplicaInfo updateReplicaUnderRecovery(
 
     if (rur.getNumBytes() > newlength) {
       if(!copyOnTruncate) {
+        verifiedReplicas.invalidate(bpid, rur.getBlockId());
         rur.breakHardLinksIfNeeded();
-        rur.truncateBlock(newlength);
+        rur.truncateBlock(newlength, digestCheckpointInterval);
         // update RUR with the new length
         rur.setNumBytes(newlength);
       } else {
@@ -2903,11 +2962,72 @@ public void shutdownBlockPool(String bpid) {
       LOG.info("Removing block pool " + bpid);
       Map<DatanodeStorage, BlockListAsLongs> blocksPerVolume
           = getBlockReports(bpid);
+      finishDigestCompactions(startDigestCompactions(bpid));
       volumeMap.cleanUpBlockPool(bpid);
       volumes.removeBlockPool(bpid, blocksPerVolume);
+      verifiedReplicas.invalidateBlockPool(bpid);
     }
   }
   
+  @Override // FsDatasetSpi
+  public void saveReplicaDigests(String bpid) {
+    final Collection<ReplicaDigestIndex.Compaction> compactions;
+    try (AutoCloseableLock lock = datasetReadLock.acquire()) {
+      compactions = startDigestCompactions(bpid);
+    }
+    finishDigestCompactions(compactions);
+  }
+
+  /**
+   * Compact the digest indices of a block pool after a log segment of the
+   * index on volume v filled up.
+   */
+  private void compactDigestIndexAsync(FsVolumeImpl v, String bpid) {
+    try {
+      asyncDiskService.execute(v, () -> saveReplicaDigests(bpid));
+    } catch (RuntimeException e) {
+      LOG.warn("Cannot compact the digest index of {} on {}", bpid, v, e);
+    }
+  }
+
+  /**
+   * Start compacting the digest index of each volume from the volume map.
+   * Must be called with the dataset lock held, so that no replica is
+   * finalized meanwhile.
+   */
+  private Collection<ReplicaDigestIndex.Compaction> startDigestCompactions(
+      String bpid) {
+    Map<FsVolumeSpi, ReplicaDigestIndex.Compaction> compactions =
+        new HashMap<>();
+    for (FsVolumeImpl v : volumes.getVolumes()) {
+      ReplicaDigestIndex digestIndex = v.getDigestIndex(bpid);
+      if (digestIndex != null) {
+        compactions.put(v, digestIndex.startCompaction());
+      }
+    }
+    Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+    if (!compactions.isEmpty() && replicas != null) {
+      for (ReplicaInfo replica : replicas) {
+        ReplicaDigestIndex.Compaction c = compactions.get(replica.getVolume());
+        if (c != null) {
+          c.add(replica);
+        }
+      }
+    }
+    return compactions.values();
+  }
+
+  private void finishDigestCompactions(
+      Collection<ReplicaDigestIndex.Compaction> compactions) {
+    for (ReplicaDigestIndex.Compaction c : compactions) {
+      try {
+        c.finish();
+      } catch (IOException e) {
+        LOG.warn("Failed to compact the digest index", e);
+      }
+    }
+  }
+
   /**
    * Class for representing the Datanode volume information
    */
@@ -3159,6 +3279,7 @@ private void removeOldReplica(ReplicaInfo replicaInfo,
         newReplicaInfo.isOnTransientStorage());
 
     // Remove the old replicas
+    verifiedReplicas.invalidate(bpid, replicaInfo.getBlockId());
     cleanupReplica(bpid, replicaInfo);
 
     // If deletion failed then the directory scanner will cleanup the blocks
@@ -65,6 +65,7 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaBuilder;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipeline;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.ResumableDigest;
 import org.apache.hadoop.hdfs.server.datanode.StorageLocation;
 import org.apache.hadoop.hdfs.server.datanode.checker.VolumeCheckResult;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.DataNodeVolumeMetrics;
@@ -127,6 +128,7 @@ public class FsVolumeImpl implements FsVolumeSpi {
   private AtomicLong reservedForReplicas;
   private long recentReserved = 0;
   private final Configuration conf;
+  private final int digestCheckpointInterval;
   // Capacity configured. This is useful when we want to
   // limit the visible capacity for tests. If negative, then we just
   // query from the filesystem.
@@ -189,6 +191,9 @@ public class FsVolumeImpl implements FsVolumeSpi {
       this.metrics = null;
     }
     this.conf = conf;
+    this.digestCheckpointInterval = (int) conf.getLongBytes(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_DEFAULT);
     this.fileIoProvider = fileIoProvider;
   }
 
@@ -1014,6 +1019,15 @@ void getVolumeMap(String bpid, ReplicaMap volumeMap,
     getBlockPoolSlice(bpid).getVolumeMap(volumeMap, ramDiskReplicaMap);
   }
 
+  /**
+   * @return the digest index of the block pool on this volume, or null if
+   * the block pool is not on this volume or the index is disabled
+   */
+  ReplicaDigestIndex getDigestIndex(String bpid) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    return bp == null ? null : bp.getDigestIndex();
+  }
+
   long getNumBlocks() {
     long numBlocks = 0L;
     for (BlockPoolSlice s : bpSlices.values()) {
@@ -1296,8 +1310,11 @@ public ReplicaInPipeline updateRURCopyOnTruncate(ReplicaInfo rur,
         copyReplicaWithNewBlockIdAndGS(rur, bpid, newBlockId, recoveryId);
     File blockFile = copiedReplicaFiles[1];
     File metaFile = copiedReplicaFiles[0];
-    byte[] newChecksum = LocalReplica.truncateBlock(rur.getVolume(), blockFile, metaFile,
-        rur.getNumBytes(), newlength, rur.getChecksum(), fileIoProvider);
+    ResumableDigest newState = LocalReplica.truncateBlock(rur.getVolume(),
+        blockFile, metaFile, rur.getNumBytes(), newlength, rur.getChecksum(),
+        rur.loadDigestState(), digestCheckpointInterval, fileIoProvider);
+    byte[] newChecksum =
+        newState == null ? rur.getChecksum() : newState.digest();
 
     // TODO: Set checksum correctly
     LocalReplicaInPipeline newReplicaInfo = new ReplicaBuilder(ReplicaState.RBW)
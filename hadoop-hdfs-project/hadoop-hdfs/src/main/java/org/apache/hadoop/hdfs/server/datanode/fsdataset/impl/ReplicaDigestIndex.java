@@ -0,0 +1,482 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.FileIoProvider;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the SHA-256 checksums of the finalized replicas of a block pool
+ * slice on disk, so that a restarted DataNode knows them without hashing the
+ * block files or fetching them from the NameNode.
+ *
+ * The index is a snapshot plus numbered log segments in the current
+ * directory of the slice. Finalizing a replica appends a record to the
+ * current segment. Once a segment reaches the configured size the index
+ * switches to a new one and asks for a compaction, so the log stays bounded
+ * however rarely the directory scanner runs. A compaction switches to a new
+ * segment, streams the finalized replicas of the volume map to a new
+ * snapshot and deletes the segments before the new one. After a crash, the
+ * last snapshot and the segments written since are still there; a record
+ * torn by the crash fails its CRC and ends the replay of its segment.
+ *
+ * A record is only applied to a replica with the same block ID, generation
+ * stamp and length. The data of a block does not change without a new
+ * generation stamp, so records of deleted or older replicas are harmless
+ * and deletions are not logged. Replicas without a matching record keep a
+ * null checksum, which the NameNode supplies as before.
+ */
+@InterfaceAudience.Private
+class ReplicaDigestIndex {
+  static final Logger LOG = LoggerFactory.getLogger(ReplicaDigestIndex.class);
+
+  static final String SNAPSHOT_FILE = "digests";
+  static final String SEGMENT_PREFIX = "digests.log.";
+  /** Snapshots being written, by their first segment. */
+  static final String TMP_PREFIX = SNAPSHOT_FILE + ".tmp.";
+
+  private static final int MAGIC = 0x44494758;
+  private static final int VERSION = 2;
+  /** Magic, version and first segment after the snapshot. */
+  private static final int HEADER_LENGTH = 4 + 4 + 8;
+  /** Number of records and CRC, after the records. */
+  private static final int TRAILER_LENGTH = 8 + 4;
+  /** Block ID, generation stamp, length and checksum. */
+  static final int RECORD_LENGTH = 3 * 8 + Block.CHECKSUM_LENGTH;
+  /** A log record is followed by its CRC. */
+  static final int LOG_RECORD_LENGTH = RECORD_LENGTH + 4;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File dir;
+  private final File snapshotFile;
+  private final FsVolumeSpi volume;
+  private final FileIoProvider fileIoProvider;
+  private final long maxSegmentSize;
+
+  /** Segment the records are appended to. */
+  private long segment;
+  private FileOutputStream log;
+  private long segmentSize = 0;
+  /** Whether a full segment waits for a compaction. */
+  private boolean compactionDue = false;
+  private final ByteBuffer record = ByteBuffer.allocate(LOG_RECORD_LENGTH);
+  private final CRC32 crc = new CRC32();
+
+  private final Object compactionLock = new Object();
+  /** First segment after the last snapshot written. */
+  private long snapshotSegment = -1;
+
+  ReplicaDigestIndex(File dir, FsVolumeSpi volume,
+      FileIoProvider fileIoProvider) {
+    this(dir, volume, fileIoProvider,
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_INDEX_SEGMENT_SIZE_DEFAULT);
+  }
+
+  /**
+   * @param maxSegmentSize size at which a log segment is closed and a
+   *                       compaction is due
+   */
+  ReplicaDigestIndex(File dir, FsVolumeSpi volume,
+      FileIoProvider fileIoProvider, long maxSegmentSize) {
+    this.dir = dir;
+    this.snapshotFile = new File(dir, SNAPSHOT_FILE);
+    this.volume = volume;
+    this.fileIoProvider = fileIoProvider;
+    this.maxSegmentSize = maxSegmentSize;
+    // Snapshots left by a crash while they were written
+    String[] names = dir.list();
+    if (names != null) {
+      for (String name : names) {
+        if (name.startsWith(TMP_PREFIX)) {
+          fileIoProvider.deleteWithExistsCheck(volume, new File(dir, name));
+        }
+      }
+    }
+    // Never append to a segment that may end with a torn record, nor to one
+    // that the snapshot covers
+    long[] segments = listSegments();
+    this.segment = Math.max(readSnapshotSegment(),
+        segments.length == 0 ? 0 : segments[segments.length - 1] + 1);
+  }
+
+  /**
+   * @return the first segment after the snapshot, or 0 if there is no
+   * snapshot
+   */
+  private long readSnapshotSegment() {
+    if (!snapshotFile.exists()) {
+      return 0;
+    }
+    try (DataInputStream in = new DataInputStream(
+        fileIoProvider.getFileInputStream(volume, snapshotFile))) {
+      in.readInt();
+      in.readInt();
+      return Math.max(in.readLong(), 0);
+    } catch (IOException e) {
+      LOG.warn("Failed to read the digest index snapshot {}", snapshotFile, e);
+      return 0;
+    }
+  }
+
+  private File getSegmentFile(long seq) {
+    return new File(dir, SEGMENT_PREFIX + seq);
+  }
+
+  /**
+   * @return the sequence numbers of the segments on disk, in order
+   */
+  private long[] listSegments() {
+    String[] names = dir.list();
+    if (names == null) {
+      return new long[0];
+    }
+    long[] segments = new long[names.length];
+    int n = 0;
+    for (String name : names) {
+      if (name.startsWith(SEGMENT_PREFIX)) {
+        try {
+          segments[n++] =
+              Long.parseLong(name.substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+          LOG.warn("Ignoring unexpected file {} in {}", name, dir);
+        }
+      }
+    }
+    segments = Arrays.copyOf(segments, n);
+    Arrays.sort(segments);
+    return segments;
+  }
+
+  /**
+   * Read the snapshot and the segments written since.
+   *
+   * @return the buffers of records, in the order to apply them
+   */
+  List<ByteBuffer> load() throws IOException {
+    List<ByteBuffer> records = new ArrayList<>();
+    ByteBuffer snapshot = readSnapshot();
+    long from = 0;
+    if (snapshot != null) {
+      from = snapshot.getLong(8);
+      records.add(snapshot);
+    }
+    for (long seq : listSegments()) {
+      if (seq >= from && seq < segment) {
+        records.add(readSegment(getSegmentFile(seq)));
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Map the snapshot and check its CRC.
+   *
+   * @return the records of the snapshot, or null if there is no valid one
+   */
+  private ByteBuffer readSnapshot() {
+    if (!snapshotFile.exists()) {
+      return null;
+    }
+    try (FileInputStream in =
+             fileIoProvider.getFileInputStream(volume, snapshotFile);
+         FileChannel channel = in.getChannel()) {
+      long size = channel.size();
+      if (size < HEADER_LENGTH + TRAILER_LENGTH || size > Integer.MAX_VALUE) {
+        throw new IOException("Unexpected size " + size);
+      }
+      // The mapping stays valid after the channel is closed
+      ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      int end = (int) size - 4;
+      ByteBuffer body = buf.duplicate();
+      body.limit(end);
+      CRC32 sum = new CRC32();
+      sum.update(body.duplicate());
+      if ((int) sum.getValue() != buf.getInt(end)) {
+        throw new IOException("CRC mismatch");
+      }
+      if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+        throw new IOException("Unsupported version " + buf.getInt(4));
+      }
+      int recordsEnd = end - 8;
+      long count = buf.getLong(recordsEnd);
+      if (HEADER_LENGTH + count * RECORD_LENGTH != recordsEnd) {
+        throw new IOException("Expected " + count + " records");
+      }
+      body.limit(recordsEnd);
+      body.position(HEADER_LENGTH);
+      return body;
+    } catch (IOException e) {
+      LOG.warn("Ignoring the digest index snapshot {}", snapshotFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the records of the segment, up to the first one that fails its
+   * CRC
+   */
+  private ByteBuffer readSegment(File file) throws IOException {
+    byte[] data = new byte[(int) file.length()];
+    try (FileInputStream in = fileIoProvider.getFileInputStream(volume, file)) {
+      IOUtils.readFully(in, data, 0, data.length);
+    }
+    ByteBuffer in = ByteBuffer.wrap(data);
+    // Records are compacted in place, dropping their CRCs
+    ByteBuffer out = ByteBuffer.wrap(data);
+    CRC32 sum = new CRC32();
+    while (in.remaining() >= LOG_RECORD_LENGTH) {
+      int pos = in.position();
+      sum.reset();
+      sum.update(data, pos, RECORD_LENGTH);
+      if ((int) sum.getValue() != in.getInt(pos + RECORD_LENGTH)) {
+        break;
+      }
+      out.put(data, pos, RECORD_LENGTH);
+      in.position(pos + LOG_RECORD_LENGTH);
+    }
+    if (in.hasRemaining()) {
+      LOG.warn("Ignoring {} bytes at the end of {}", in.remaining(), file);
+    }
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Set the checksum of the finalized replicas of this volume in volumeMap
+   * that do not have one yet.
+   *
+   * @return the number of replicas updated
+   */
+  int apply(List<ByteBuffer> records, String bpid, ReplicaMap volumeMap) {
+    int applied = 0;
+    for (ByteBuffer buf : records) {
+      while (buf.remaining() >= RECORD_LENGTH) {
+        long blockId = buf.getLong();
+        long genStamp = buf.getLong();
+        long length = buf.getLong();
+        ReplicaInfo replica = volumeMap.get(bpid, blockId);
+        if (replica != null && replica.getVolume() == volume &&
+            replica.getState() == ReplicaState.FINALIZED &&
+            !replica.hasChecksum() &&
+            replica.getGenerationStamp() == genStamp &&
+            replica.getNumBytes() == length) {
+          byte[] checksum = new byte[Block.CHECKSUM_LENGTH];
+          buf.get(checksum);
+          replica.setChecksum(checksum);
+          applied++;
+        } else {
+          buf.position(buf.position() + Block.CHECKSUM_LENGTH);
+        }
+      }
+    }
+    return applied;
+  }
+
+  private static boolean hasDigest(ReplicaInfo replica) {
+    byte[] checksum = replica.getChecksum();
+    return replica.getState() == ReplicaState.FINALIZED &&
+        checksum != null && checksum.length == Block.CHECKSUM_LENGTH;
+  }
+
+  private static void putRecord(ByteBuffer buf, ReplicaInfo replica) {
+    buf.putLong(replica.getBlockId());
+    buf.putLong(replica.getGenerationStamp());
+    buf.putLong(replica.getNumBytes());
+    buf.put(replica.getChecksum());
+  }
+
+  /**
+   * Log the checksum of a finalized replica. The record is written to the
+   * file but not synced: a record lost in a power failure only means that
+   * the checksum comes from the NameNode again.
+   *
+   * @return true if this record filled a segment and the caller should
+   * compact the index; only returned once until the next compaction starts
+   */
+  synchronized boolean add(ReplicaInfo replica) {
+    if (!hasDigest(replica)) {
+      return false;
+    }
+    record.clear();
+    putRecord(record, replica);
+    crc.reset();
+    crc.update(record.array(), 0, RECORD_LENGTH);
+    record.putInt((int) crc.getValue());
+    try {
+      if (log == null) {
+        log = fileIoProvider.getFileOutputStream(volume,
+            getSegmentFile(segment), true);
+      }
+      log.write(record.array(), 0, LOG_RECORD_LENGTH);
+      segmentSize += LOG_RECORD_LENGTH;
+    } catch (IOException e) {
+      LOG.warn("Failed to add {} to the digest index in {}", replica, dir, e);
+      // The segment may end with a partial record now
+      closeLog();
+      segment++;
+      return false;
+    }
+    if (segmentSize < maxSegmentSize) {
+      return false;
+    }
+    closeLog();
+    segment++;
+    if (compactionDue) {
+      return false;
+    }
+    compactionDue = true;
+    return true;
+  }
+
+  private void closeLog() {
+    IOUtils.cleanupWithLogger(LOG, log);
+    log = null;
+    segmentSize = 0;
+  }
+
+  synchronized void close() {
+    closeLog();
+  }
+
+  /**
+   * Switch to a new segment for the records added from now on. The caller
+   * must add all finalized replicas of the volume to the returned
+   * compaction, without records being added to the index meanwhile, and
+   * then {@link Compaction#finish()} it.
+   */
+  synchronized Compaction startCompaction() {
+    closeLog();
+    compactionDue = false;
+    return new Compaction(++segment);
+  }
+
+  /**
+   * A snapshot being written. The records are streamed to a temporary file,
+   * which replaces the snapshot when the compaction finishes.
+   */
+  class Compaction {
+    private final long nextSegment;
+    private final File tmpFile;
+    private final ByteBuffer buf = ByteBuffer.allocate(RECORD_LENGTH);
+    private FileOutputStream fos;
+    private CheckedOutputStream checked;
+    private DataOutputStream out;
+    private IOException failure;
+    private long count;
+
+    private Compaction(long nextSegment) {
+      this.nextSegment = nextSegment;
+      this.tmpFile = new File(dir, TMP_PREFIX + nextSegment);
+      try {
+        fos = fileIoProvider.getFileOutputStream(volume, tmpFile);
+        checked = new CheckedOutputStream(
+            new BufferedOutputStream(fos, BUFFER_SIZE), new CRC32());
+        out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(nextSegment);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    /** Stop writing; {@link #finish()} throws e. */
+    private void fail(IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+      IOUtils.cleanupWithLogger(LOG, out, fos);
+      out = null;
+    }
+
+    void add(ReplicaInfo replica) {
+      if (out == null || !hasDigest(replica)) {
+        return;
+      }
+      buf.clear();
+      putRecord(buf, replica);
+      try {
+        out.write(buf.array(), 0, RECORD_LENGTH);
+        count++;
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    /**
+     * Replace the snapshot and delete the segments that it covers.
+     */
+    void finish() throws IOException {
+      synchronized (compactionLock) {
+        try {
+          if (failure != null) {
+            throw failure;
+          }
+          if (nextSegment <= snapshotSegment) {
+            // A later compaction already finished
+            return;
+          }
+          out.writeLong(count);
+          out.writeInt((int) checked.getChecksum().getValue());
+          out.flush();
+          fileIoProvider.sync(volume, fos);
+          out.close();
+          out = null;
+          fileIoProvider.replaceFile(volume, tmpFile, snapshotFile);
+        } finally {
+          IOUtils.cleanupWithLogger(LOG, out);
+          out = null;
+          fileIoProvider.deleteWithExistsCheck(volume, tmpFile);
+        }
+        snapshotSegment = nextSegment;
+        for (long seq : listSegments()) {
+          if (seq < nextSegment) {
+            fileIoProvider.deleteWithExistsCheck(volume, getSegmentFile(seq));
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.ExtendedBlockId;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.LocalReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the finalized replicas whose block file was found to match the
+ * replica's checksum, so that reads of hot replicas do not hash them again.
+ *
+ * An entry is only used while the replica keeps its generation stamp,
+ * length and checksum, and the block file keeps its identity: the same
+ * file key (inode), size and modification time as when it was hashed.
+ * Appends, truncates, moves, deletions and volume removals also drop
+ * entries explicitly.
+ *
+ * This trusts the file system to report changes to the file: a reader
+ * served from an entry is not protected against a block file that is
+ * modified in place with its modification time restored.
+ */
+@InterfaceAudience.Private
+class VerifiedReplicaCache {
+  static final Logger LOG = LoggerFactory.getLogger(VerifiedReplicaCache.class);
+
+  private static final class Entry {
+    private final FsVolumeSpi volume;
+    private final long genStamp;
+    private final long length;
+    private final byte[] checksum;
+    private final Object fileKey;
+    private final long fileSize;
+    private final long modificationTime;
+
+    Entry(ReplicaInfo replica, BasicFileAttributes attrs) {
+      this.volume = replica.getVolume();
+      this.genStamp = replica.getGenerationStamp();
+      this.length = replica.getNumBytes();
+      this.checksum = replica.getChecksum();
+      this.fileKey = attrs.fileKey();
+      this.fileSize = attrs.size();
+      this.modificationTime = attrs.lastModifiedTime().toMillis();
+    }
+
+    boolean matches(ReplicaInfo replica, BasicFileAttributes attrs) {
+      return genStamp == replica.getGenerationStamp() &&
+          length == replica.getNumBytes() &&
+          replica.checksumEquals(checksum) &&
+          Objects.equals(fileKey, attrs.fileKey()) &&
+          fileSize == attrs.size() &&
+          modificationTime == attrs.lastModifiedTime().toMillis();
+    }
+  }
+
+  private final int capacity;
+  private final Map<ExtendedBlockId, Entry> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param capacity maximum number of replicas to remember; 0 disables the
+   * cache
+   */
+  VerifiedReplicaCache(int capacity) {
+    this.capacity = capacity;
+    // Access order, so that the least recently read replica is evicted
+    this.entries = new LinkedHashMap<ExtendedBlockId, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<ExtendedBlockId, Entry> eldest) {
+        return size() > VerifiedReplicaCache.this.capacity;
+      }
+    };
+  }
+
+  boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  private static BasicFileAttributes stat(ReplicaInfo replica)
+      throws IOException {
+    if (!(replica instanceof LocalReplica) ||
+        replica.getState() != ReplicaState.FINALIZED) {
+      return null;
+    }
+    File blockFile = ((LocalReplica) replica).getBlockFile();
+    return Files.readAttributes(blockFile.toPath(), BasicFileAttributes.class);
+  }
+
+  /**
+   * @return whether the block file of the replica was hashed and has not
+   * changed since
+   */
+  boolean isVerified(String bpid, ReplicaInfo replica) throws IOException {
+    if (!isEnabled()) {
+      return false;
+    }
+    final ExtendedBlockId key = new ExtendedBlockId(replica.getBlockId(), bpid);
+    final Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry != null) {
+      BasicFileAttributes attrs = stat(replica);
+      if (attrs != null && entry.matches(replica, attrs)) {
+        hits.increment();
+        return true;
+      }
+      synchronized (this) {
+        entries.remove(key, entry);
+      }
+    }
+    misses.increment();
+    return false;
+  }
+
+  /**
+   * Hash the replica, check it against the replica's checksum and remember
+   * the result if the replica can be cached.
+   *
+   * @param metrics where to record the check, or null.
+   * @throws IOException if the data does not match, or cannot be read.
+   */
+  void verify(String bpid, ReplicaInfo replica, int segmentSize,
+      DataNodeMetrics metrics) throws IOException {
+    // Taken before hashing, so that a change during hashing is noticed
+    final BasicFileAttributes attrs = isEnabled() ? stat(replica) : null;
+    replica.verifyData(segmentSize, metrics);
+    if (attrs != null) {
+      synchronized (this) {
+        entries.put(new ExtendedBlockId(replica.getBlockId(), bpid),
+            new Entry(replica, attrs));
+      }
+      LOG.debug("Verified {}", replica);
+    }
+  }
+
+  synchronized void invalidate(String bpid, long blockId) {
+    entries.remove(new ExtendedBlockId(blockId, bpid));
+  }
+
+  synchronized void invalidateBlockPool(String bpid) {
+    entries.keySet().removeIf(key -> key.getBlockPoolId().equals(bpid));
+  }
+
+  synchronized void invalidateVolume(String storageUuid) {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+      FsVolumeSpi volume = it.next().volume;
+      if (volume != null && volume.getStorageID().equals(storageUuid)) {
+        it.remove();
+      }
+    }
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+}
@@ -140,6 +140,22 @@ public class DataNodeMetrics {
   @Metric MutableRate sendDataPacketTransferNanos;
   final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+  @Metric("Bytes hashed into SHA-256 block checksums")
+  MutableCounterLong digestBytes;
+  @Metric("Nanoseconds spent hashing into SHA-256 block checksums")
+  MutableCounterLong digestTimeNanos;
+  @Metric("Waits of the receiver for the hashing of earlier packets, in ns")
+  MutableRate digestQueueWaitNanos;
+  @Metric("Checks of whole replicas against their checksum on read, in ms")
+  MutableRate digestVerify;
+  final MutableQuantiles[] digestVerifyQuantiles;
+  @Metric("Checks of replica segments against their digest on read, in ns")
+  MutableRate digestSegmentVerifyNanos;
+  @Metric("Rehashing the data of a replica before an append, in ms")
+  MutableRate digestAppendRehash;
+  @Metric("Replicas whose data did not match their checksum")
+  MutableCounterLong digestMismatches;
+
   @Metric("Count of blocks in pending IBR")
   private MutableGaugeLong blocksInPendingIBR;
   @Metric("Count of blocks at receiving status in pending IBR")
@@ -170,6 +186,9 @@ public class DataNodeMetrics {
   private MutableCounterLong ecReconstructionWriteTimeMillis;
   @Metric("Milliseconds spent on validating by erasure coding worker")
   private MutableCounterLong ecReconstructionValidateTimeMillis;
+  @Metric("Count of blocks rebuilt by erasure coding worker that did not " +
+      "match their SHA-256 digest")
+  private MutableCounterLong ecReconstructionDigestMismatches;
   @Metric("Sum of all BPServiceActors command queue length")
   private MutableCounterLong sumOfActorCommandQueueLength;
   @Metric("Num of processed commands of all BPServiceActors")
@@ -199,6 +218,7 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
     fsyncNanosQuantiles = new MutableQuantiles[len];
     sendDataPacketBlockedOnNetworkNanosQuantiles = new MutableQuantiles[len];
     sendDataPacketTransferNanosQuantiles = new MutableQuantiles[len];
+    digestVerifyQuantiles = new MutableQuantiles[len];
     ramDiskBlocksEvictionWindowMsQuantiles = new MutableQuantiles[len];
     ramDiskBlocksLazyPersistWindowMsQuantiles = new MutableQuantiles[len];
 
@@ -221,6 +241,10 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
           "sendDataPacketTransferNanos" + interval + "s", 
           "Time reading from disk and writing to network while sending " +
           "a packet in ns", "ops", "latency", interval);
+      digestVerifyQuantiles[i] = registry.newQuantiles(
+          "digestVerify" + interval + "s",
+          "Check of a whole replica against its checksum in ms",
+          "ops", "latency", interval);
       ramDiskBlocksEvictionWindowMsQuantiles[i] = registry.newQuantiles(
           "ramDiskBlocksEvictionWindows" + interval + "s",
           "Time between the RamDisk block write and eviction in ms",
@@ -503,6 +527,39 @@ public void incrBlocksInPendingIBR() {
     blocksInPendingIBR.incr();
   }
 
+  /**
+   * Record hashing of block data into its SHA-256 checksum.
+   * @param bytes number of bytes hashed
+   * @param nanos time spent hashing
+   */
+  public void addDigest(long bytes, long nanos) {
+    digestBytes.incr(bytes);
+    digestTimeNanos.incr(nanos);
+  }
+
+  public void addDigestQueueWaitNanos(long latencyNanos) {
+    digestQueueWaitNanos.add(latencyNanos);
+  }
+
+  public void addDigestVerify(long latencyMs) {
+    digestVerify.add(latencyMs);
+    for (MutableQuantiles q : digestVerifyQuantiles) {
+      q.add(latencyMs);
+    }
+  }
+
+  public void addDigestSegmentVerifyNanos(long latencyNanos) {
+    digestSegmentVerifyNanos.add(latencyNanos);
+  }
+
+  public void addDigestAppendRehash(long latencyMs) {
+    digestAppendRehash.add(latencyMs);
+  }
+
+  public void incrDigestMismatches() {
+    digestMismatches.incr();
+  }
+
   public void incrBlocksReceivingInPendingIBR() {
     blocksReceivingInPendingIBR.incr();
   }
@@ -611,6 +668,10 @@ public void incrECReconstructionValidateTime(long millis) {
     ecReconstructionValidateTimeMillis.incr(millis);
   }
 
+  public void incrECReconstructionDigestMismatches() {
+    ecReconstructionDigestMismatches.incr();
+  }
+
   public DataNodeUsageReport getDNUsageReport(long timeSinceLastReport) {
     return dnUsageReportUtil.getUsageReport(bytesWritten.value(), bytesRead
             .value(), totalWriteTime.value(), totalReadTime.value(),
@@ -27,6 +27,7 @@
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.security.PrivilegedExceptionAction;
 
@@ -294,6 +295,11 @@ public int getVersion(boolean verifyVersion) throws IOException {
     return logVersion;
   }
 
+  @Override
+  public ByteBuffer getLastOpFrame() {
+    return state == State.OPEN ? reader.getLastOpFrame() : null;
+  }
+
   @Override
   public long getPosition() {
     if (state == State.OPEN) {
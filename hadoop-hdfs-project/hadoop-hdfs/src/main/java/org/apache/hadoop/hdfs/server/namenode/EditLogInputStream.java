@@ -23,6 +23,7 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A generic abstract class to support reading edits log data from 
@@ -85,6 +86,17 @@ public FSEditLogOp readOp() throws IOException {
     return nextOp();
   }
   
+  /**
+   * The serialized form of the op last returned by readOp(), if the stream
+   * keeps it (see FSEditLogOp.Reader#getLastOpFrame()). The buffer is only
+   * valid until the next read.
+   *
+   * @return the frame of the last op, or null
+   */
+  public ByteBuffer getLastOpFrame() {
+    return null;
+  }
+
   /** 
    * Position the stream so that a valid operation can be read from it with
    * readOp().
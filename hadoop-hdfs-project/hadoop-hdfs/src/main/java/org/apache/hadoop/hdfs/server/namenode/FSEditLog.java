@@ -29,6 +29,7 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -104,6 +105,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.NimbleFlushOp;
 import org.apache.hadoop.hdfs.server.namenode.JournalSet.JournalAndStream;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
 import org.apache.hadoop.hdfs.server.nimble.TMCSEditLog;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
@@ -188,7 +190,7 @@ private enum State {
   private final LongAdder numTransactionsBatchedInSync = new LongAdder();
   private long totalTimeTransactions;  // total time for all transactions
   private NameNodeMetrics metrics;
-  private TMCSEditLog tmcsEdits;
+  private volatile TMCSEditLog tmcsEdits;
 
   private final NNStorage storage;
   private final Configuration conf;
@@ -265,12 +267,22 @@ public TMCSEditLog getTMCSEdits() {
     return tmcsEdits;
   }
 
-  public synchronized void ensureTMCSEditsIsInitialized() throws IOException {
+  /**
+   * @param imageName name of the image whose Nimble info is imageInfo,
+   *                  already checked when loading or saving it; the latest
+   *                  image is hashed again unless it is that one
+   */
+  public synchronized void ensureTMCSEditsIsInitialized(String imageName,
+      NimbleUtils.NimbleFSImageInfo imageInfo) throws IOException {
     if (tmcsEdits != null)
       return;
     File f = storage.getHighestFsImageName();
     LOG.info("Base editLogs off: " + f);
-    this.tmcsEdits = new TMCSEditLog(conf, true, f);
+    if (imageInfo != null && f.getName().equals(imageName)) {
+      this.tmcsEdits = new TMCSEditLog(conf, true, imageInfo);
+    } else {
+      this.tmcsEdits = new TMCSEditLog(conf, true, f);
+    }
   }
 
   public synchronized void initJournalsForWrite() {
@@ -418,6 +430,13 @@ synchronized void close() {
         endCurrentLogSegment(true);
       }
     } finally {
+      if (tmcsEdits != null) {
+        try {
+          tmcsEdits.close();
+        } catch (IOException ioe) {
+          LOG.warn("Error closing Nimble ledger-commit stage", ioe);
+        }
+      }
       if (journalSet != null && !journalSet.isEmpty()) {
         try {
           synchronized(journalSetLock) {
@@ -484,6 +503,12 @@ assert isOpenForWrite() :
       beginTransaction(op);
       // check if it is time to schedule an automatic sync
       needsSync = doEditTransaction(op);
+      // close the Nimble batch right after the op that makes it due
+      NimbleFlushOp seal = claimTMCSSeal(op);
+      if (seal != null) {
+        beginTransaction(seal);
+        needsSync |= doEditTransaction(seal);
+      }
       if (needsSync) {
         isAutoSyncScheduled = true;
       }
@@ -674,6 +699,19 @@ public void logSync() {
   }
 
   protected void logSync(long mytxid) {
+    try {
+      syncJournals(mytxid);
+    } finally {
+      // Group commit: wait for the Nimble ledger outside of the monitor
+      waitForTMCSCommit(mytxid);
+    }
+  }
+
+  /**
+   * The part of {@link #logSync(long)} that makes the edits durable in the
+   * journals, without waiting for the Nimble ledger.
+   */
+  void syncJournals(long mytxid) {
     long lastJournalledTxId = HdfsServerConstants.INVALID_TXID;
     boolean sync = false;
     long editsBatchedInSync = 0;
@@ -788,6 +826,74 @@ protected void logSync(long mytxid) {
     }
   }
 
+  /**
+   * Return an OP_NIMBLE_FLUSH to log right after the given op if the batch
+   * policy wants the open Nimble batch sealed, or null. Only this op closes
+   * a batch on replay, so replay finds the same boundaries whatever policy
+   * the replaying NameNode is configured with.
+   */
+  NimbleFlushOp claimTMCSSeal(FSEditLogOp op) {
+    assert Thread.holdsLock(this);
+    TMCSEditLog edits = tmcsEdits;
+    if (edits == null || state != State.IN_SEGMENT
+        || op.opCode == FSEditLogOpCodes.OP_NIMBLE_FLUSH
+        || !edits.claimSeal()) {
+      return null;
+    }
+    return NimbleFlushOp.getInstance(cache.get());
+  }
+
+  /**
+   * Wait until the Nimble ledger has acknowledged the closed batch covering
+   * the given transaction. A batch the ledger did not accept is fatal, as
+   * failing to sync the journals is.
+   */
+  private void waitForTMCSCommit(long mytxid) {
+    TMCSEditLog edits = tmcsEdits;
+    if (edits == null) {
+      return;
+    }
+    try {
+      edits.waitForCommit(mytxid);
+    } catch (IOException e) {
+      terminateOnTMCSFailure(mytxid, e);
+    }
+  }
+
+  /**
+   * Run the action once the Nimble ledger has acknowledged the closed batch
+   * covering the given transaction, or right away if there is nothing to
+   * wait for. The action may run on a ledger-commit thread. It is passed
+   * null, or the exception raised by terminating on a ledger failure when
+   * tests have disabled system exit, as in {@link #logSync(long)}.
+   */
+  void runAfterTMCSCommit(final long txid,
+      final Consumer<RuntimeException> action) {
+    TMCSEditLog edits = tmcsEdits;
+    if (edits == null) {
+      action.accept(null);
+      return;
+    }
+    edits.runAfterCommit(txid, e -> {
+      RuntimeException ex = null;
+      if (e != null) {
+        try {
+          terminateOnTMCSFailure(txid, e);
+        } catch (RuntimeException re) {
+          ex = re;
+        }
+      }
+      action.accept(ex);
+    });
+  }
+
+  private void terminateOnTMCSFailure(long txid, IOException e) {
+    // TMCSCommitter has already logged the failure with its cause
+    final String msg = "Nimble ledger has not acknowledged txid " + txid +
+        " due to " + e.getMessage() + ".";
+    terminate(1, msg);
+  }
+
   //
   // print statistics every 1 minute.
   //
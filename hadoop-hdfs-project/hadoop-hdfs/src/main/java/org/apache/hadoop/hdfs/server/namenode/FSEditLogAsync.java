@@ -28,6 +28,7 @@
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.NimbleFlushOp;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.util.Time;
 import org.slf4j.Logger;
@@ -126,6 +127,13 @@ void logEdit(final FSEditLogOp op) {
     synchronized(this) {
       enqueueEdit(edit);
       beginTransaction(op);
+      // the seal gets the next txid, so it is queued right behind the op.
+      // no caller waits for it; it is synced with the edits around it.
+      NimbleFlushOp seal = claimTMCSSeal(op);
+      if (seal != null) {
+        enqueueEdit(new SyncEdit(this, seal));
+        beginTransaction(seal);
+      }
     }
   }
 
@@ -256,13 +264,27 @@ public void run() {
           // normally edit log exceptions cause the NN to terminate, but tests
           // relying on ExitUtil.terminate need to see the exception.
           RuntimeException syncEx = null;
+          long syncTxId = getLastWrittenTxId();
           try {
-            logSync(getLastWrittenTxId());
+            syncJournals(syncTxId);
           } catch (RuntimeException ex) {
             syncEx = ex;
           }
-          while ((edit = syncWaitQ.poll()) != null) {
-            edit.logSyncNotify(syncEx);
+          if (syncEx != null) {
+            while ((edit = syncWaitQ.poll()) != null) {
+              edit.logSyncNotify(syncEx);
+            }
+          } else {
+            // the edits are durable.  their callers are released once the
+            // nimble ledger acknowledges them, while this thread moves on to
+            // the next sync.  a ledger failure terminates the NN.
+            final Edit[] synced = syncWaitQ.toArray(new Edit[0]);
+            syncWaitQ.clear();
+            runAfterTMCSCommit(syncTxId, ledgerEx -> {
+              for (Edit e : synced) {
+                e.logSyncNotify(ledgerEx);
+              }
+            });
           }
         }
       }
@@ -287,6 +287,9 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
             }
             long inodeId = applyEditLogOp(op, fsDir, startOpt,
                 in.getVersion(true), lastInodeId);
+            // Tag the op with the bytes just read, not a re-serialization
+            fsNamesys.getEditLog().getTMCSEdits().add(op, in.getLastOpFrame(),
+                in.getVersion(true));
             if (lastInodeId < inodeId) {
               lastInodeId = inodeId;
             }
@@ -1056,7 +1059,6 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
     default:
       throw new IOException("Invalid operation read " + op.opCode);
     }
-    fsNamesys.getEditLog().getTMCSEdits().add(op);
     return inodeId;
   }
   
@@ -1166,10 +1168,10 @@ private void updateBlocks(FSDirectory fsDir, BlockListUpdatingOp op,
           setGenerationStampIfGreater(newGenerationStamp);
 
       // TODO: Due to bad actors, or just replaying EditLogs? Separate out these cases.
-      if (!Arrays.equals(oldBlock.getChecksum(), newBlock.getChecksum())) {
+      if (!oldBlock.checksumEquals(newBlock)) {
         if (NimbleUtils.debug())
           LOG.info("Checksum MISMATCH!");
-        oldBlock.setChecksum(newBlock.getChecksum());
+        oldBlock.setChecksum(newBlock);
       }
 
       if (!oldBlock.isComplete() &&
@@ -77,6 +77,7 @@
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
@@ -5065,6 +5066,11 @@ public abstract static class Reader {
     final int logVersion;
     int maxOpSize;
 
+    // Frame of the last decoded op, if the reader keeps it
+    byte[] frame = new byte[4096];
+    int frameLength = -1;
+    private ByteBuffer frameView;
+
     public static Reader create(DataInputStream in, StreamLimiter limiter,
                                 int logVersion) {
       if (logVersion < NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION) {
@@ -5105,6 +5111,28 @@ public void setMaxOpSize(int maxOpSize) {
       this.maxOpSize = maxOpSize;
     }
 
+    /**
+     * The bytes of the op last returned by decodeOp() as they were read:
+     * opcode, length, txid and fields, without the checksum. Only available
+     * for edit logs of the current layout version, whose fields are
+     * serialized exactly as writeFields() does today.
+     *
+     * The buffer is reused by the next call to decodeOp().
+     *
+     * @return the frame, or null if not available
+     */
+    public ByteBuffer getLastOpFrame() {
+      if (frameLength < 0 ||
+          logVersion != NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION) {
+        return null;
+      }
+      if (frameView == null || frameView.array() != frame) {
+        frameView = ByteBuffer.wrap(frame);
+      }
+      frameView.limit(frameLength).position(0);
+      return frameView;
+    }
+
     /**
      * Read an operation from the input stream.
      * 
@@ -5283,6 +5311,7 @@ public long scanOp() throws IOException {
      *                  filled in, or null if we hit EOF.
      */
     private long decodeOpFrame() throws IOException {
+      frameLength = -1;
       limiter.setLimit(maxOpSize);
       in.mark(maxOpSize);
       byte opCodeByte;
@@ -5310,16 +5339,17 @@ private long decodeOpFrame() throws IOException {
             opLength + ", but the minimum op size is " + MIN_OP_LENGTH);
       }
       long txid = in.readLong();
-      // Verify checksum
+      // Verify checksum. Keep the frame, so that the bytes of the op can be
+      // reused without serializing it again (see getLastOpFrame()).
       in.reset();
       in.mark(maxOpSize);
       checksum.reset();
-      for (int rem = opLength - CHECKSUM_LENGTH; rem > 0;) {
-        int toRead = Math.min(temp.length, rem);
-        IOUtils.readFully(in, temp, 0, toRead);
-        checksum.update(temp, 0, toRead);
-        rem -= toRead;
+      int length = opLength - CHECKSUM_LENGTH;
+      if (frame.length < length) {
+        frame = new byte[Math.max(length, frame.length * 2)];
       }
+      IOUtils.readFully(in, frame, 0, length);
+      checksum.update(frame, 0, length);
       int expectedChecksum = in.readInt();
       int calculatedChecksum = (int)checksum.getValue();
       if (expectedChecksum != calculatedChecksum) {
@@ -5328,6 +5358,7 @@ private long decodeOpFrame() throws IOException {
             calculatedChecksum + " but read checksum " +
             expectedChecksum, txid);
       }
+      frameLength = length;
       return txid;
     }
   }
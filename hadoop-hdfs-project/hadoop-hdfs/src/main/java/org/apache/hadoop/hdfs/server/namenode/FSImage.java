@@ -24,7 +24,6 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -41,6 +40,7 @@
 import org.apache.hadoop.hdfs.server.nimble.NimbleError;
 import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
 import org.apache.hadoop.hdfs.server.nimble.TMCS;
+import org.apache.hadoop.hdfs.server.nimble.TMCSEditLog;
 import org.apache.hadoop.util.ShutdownHookManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -113,6 +113,13 @@ public class FSImage implements Closeable {
    */
   protected long lastAppliedTxId = 0;
 
+  /**
+   * Nimble info of the image last loaded or saved, checked against the
+   * SHA-256 computed while reading or writing it, and the image's name.
+   */
+  private NimbleUtils.NimbleFSImageInfo imageInfo;
+  private String imageInfoName;
+
   final private Configuration conf;
 
   protected NNStorageRetentionManager archivalManager;
@@ -901,7 +908,7 @@ public long loadEdits(Iterable<EditLogInputStream> editStreams,
 
     long prevLastAppliedTxId = lastAppliedTxId;
     long remainingReadTxns = maxTxnsToRead;
-    editLog.ensureTMCSEditsIsInitialized();
+    editLog.ensureTMCSEditsIsInitialized(imageInfoName, imageInfo);
     editLog.getTMCSEdits().loadMode();
     try {
       FSEditLogLoader loader = new FSEditLogLoader(target, lastAppliedTxId);
@@ -937,8 +944,15 @@ public long loadEdits(Iterable<EditLogInputStream> editStreams,
       }
     } finally {
       FSEditLog.closeAllStreams(editStreams);
-      editLog.getTMCSEdits().verifyState();
-      editLog.getTMCSEdits().liveMode();
+      TMCSEditLog tmcsEdits = editLog.getTMCSEdits();
+      if (target.isInStandbyState()) {
+        // The Active moves the ledger on: check what has been tailed so far
+        // and keep replaying. See FSNamesystem#startActiveServices.
+        tmcsEdits.verifyTailed();
+      } else {
+        tmcsEdits.verifyState();
+        tmcsEdits.liveMode();
+      }
     }
     return lastAppliedTxId - prevLastAppliedTxId;
   }
@@ -983,11 +997,15 @@ private void loadFSImage(File curFile, MD5Hash expectedMd5,
           " but expecting " + expectedMd5);
     }
 
-    // Verify NimbleFSImageInfo
-    if (!NimbleUtils.verifyFSImageInfo(curFile))
+    // Verify NimbleFSImageInfo against the SHA-256 computed while loading
+    NimbleUtils.NimbleFSImageInfo info = NimbleUtils.getFSImageInfo(curFile,
+        loader.getLoadedImageSha256());
+    if (!NimbleUtils.verifyTagForFSImage(info.tag, info.digest, info.counter))
       throw new NimbleError("Verification failed for FSImage: " + curFile);
     else
       LOG.info("Verified signature of FSImage");
+    imageInfo = info;
+    imageInfoName = curFile.getName();
 
     long txId = loader.getLoadedImageTxId();
     LOG.info("Loaded image for txid " + txId + " from " + curFile);
@@ -1019,12 +1037,7 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     storage.setMostRecentCheckpointInfo(txid, Time.now());
 
     // Save nimble metadata
-    try {
-      NimbleUtils.saveFSImageInfo(newFile);
-    } catch (NoSuchAlgorithmException e) {
-      LOG.error("nimble failure: " + e);
-      e.printStackTrace();
-    }
+    NimbleUtils.saveFSImageInfo(newFile, saver.getSavedSha256());
   }
 
   /**
@@ -1281,8 +1294,10 @@ private synchronized void saveFSImageInAllDirs(FSNamesystem source,
 
       // Increment TMCS (for new FSImage)
       TMCS tmcs = TMCS.getInstance();
+      // Checked against the SHA-256 computed while saving
+      File imageFile = this.getStorage().getFsImageName(txid);
       NimbleUtils.NimbleFSImageInfo info =
-              NimbleUtils.getFSImageInfo(this.getStorage().getFsImageName(txid));
+              NimbleUtils.readFSImageInfo(imageFile);
       if (tmcs.expectedCounter() != info.counter) {
         String m = String.format("counters do not match for FSImage, expected=%d got=%d",
                 tmcs.expectedCounter(), info.counter);
@@ -1297,6 +1312,8 @@ private synchronized void saveFSImageInAllDirs(FSNamesystem source,
         LOG.info("Updating NimbleLedger via TMCS");
         tmcs.increment(info.tag);
       }
+      imageInfo = info;
+      imageInfoName = imageFile.getName();
 
       // Since we now have a new checkpoint, we can clean up some
       // old edit logs and checkpoints.
@@ -69,7 +69,9 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.hdfs.util.Sha256;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
@@ -189,6 +191,7 @@ private FSImageFormat() {}
 
   interface AbstractLoader {
     MD5Hash getLoadedImageMd5();
+    byte[] getLoadedImageSha256();
     long getLoadedImageTxId();
   }
 
@@ -207,6 +210,11 @@ public MD5Hash getLoadedImageMd5() {
       return impl.getLoadedImageMd5();
     }
 
+    @Override
+    public byte[] getLoadedImageSha256() {
+      return impl.getLoadedImageSha256();
+    }
+
     @Override
     public long getLoadedImageTxId() {
       return impl.getLoadedImageTxId();
@@ -263,6 +271,8 @@ public static class Loader implements AbstractLoader {
     private long imgTxId;
     /** The MD5 sum of the loaded file */
     private MD5Hash imgDigest;
+    /** The SHA-256 of the loaded file */
+    private byte[] imgSha256;
     
     private Map<Integer, Snapshot> snapshotMap = null;
     private final ReferenceMap referenceMap = new ReferenceMap();
@@ -282,6 +292,12 @@ public MD5Hash getLoadedImageMd5() {
       return imgDigest;
     }
 
+    @Override
+    public byte[] getLoadedImageSha256() {
+      checkLoaded();
+      return imgSha256;
+    }
+
     @Override
     public long getLoadedImageTxId() {
       checkLoaded();
@@ -319,8 +335,9 @@ public void load(File curFile) throws IOException {
       // Load in bits
       //
       MessageDigest digester = MD5Hash.getDigester();
-      DigestInputStream fin = new DigestInputStream(
-          Files.newInputStream(curFile.toPath()), digester);
+      MessageDigest sha256 = NimbleUtils._checksum();
+      DigestInputStream fin = new DigestInputStream(new DigestInputStream(
+          Files.newInputStream(curFile.toPath()), sha256), digester);
 
       DataInputStream in = new DataInputStream(fin);
       try {
@@ -438,8 +455,10 @@ public void load(File curFile) throws IOException {
         // make sure to read to the end of file
         boolean eof = (in.read() == -1);
         assert eof : "Should have reached the end of image file " + curFile;
+        imgSha256 = sha256.digest();
       } finally {
         in.close();
+        Sha256.release(sha256);
       }
 
       imgDigest = new MD5Hash(digester.digest());
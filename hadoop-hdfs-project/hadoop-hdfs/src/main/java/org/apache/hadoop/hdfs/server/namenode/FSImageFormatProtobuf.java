@@ -31,6 +31,7 @@
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.ArrayList;
@@ -70,7 +71,8 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
-import org.apache.hadoop.hdfs.util.MD5FileUtils;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.hdfs.util.Sha256;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.util.LimitInputStream;
@@ -147,6 +149,8 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
     private final LoaderContext ctx;
     /** The MD5 sum of the loaded file */
     private MD5Hash imgDigest;
+    /** The SHA-256 of the loaded file */
+    private byte[] imgSha256;
     /** The transaction ID of the last edit represented by the loaded file */
     private long imgTxId;
     /**
@@ -171,6 +175,11 @@ public MD5Hash getLoadedImageMd5() {
       return imgDigest;
     }
 
+    @Override
+    public byte[] getLoadedImageSha256() {
+      return imgSha256;
+    }
+
     @Override
     public long getLoadedImageTxId() {
       return imgTxId;
@@ -181,8 +190,9 @@ public LoaderContext getLoaderContext() {
     }
 
     /**
-     * Thread to compute the MD5 of a file as this can be in parallel while
-     * loading the image without interfering much.
+     * Thread to compute the MD5 and the SHA-256 of a file, in one pass, as
+     * this can be in parallel while loading the image without interfering
+     * much.
      */
     private static class DigestThread extends Thread {
 
@@ -196,6 +206,8 @@ private static class DigestThread extends Thread {
        */
       private volatile MD5Hash digest = null;
 
+      private volatile byte[] sha256 = null;
+
       /**
        * FsImage file computed MD5.
        */
@@ -203,7 +215,7 @@ private static class DigestThread extends Thread {
 
       DigestThread(File inFile) {
         file = inFile;
-        setName(inFile.getName() + " MD5 compute");
+        setName(inFile.getName() + " digest compute");
         setDaemon(true);
       }
 
@@ -214,14 +226,33 @@ public MD5Hash getDigest() throws IOException {
         return digest;
       }
 
+      public byte[] getSha256() throws IOException {
+        if (ioe != null) {
+          throw ioe;
+        }
+        return sha256;
+      }
+
       public IOException getException() {
         return ioe;
       }
 
       @Override
       public void run() {
-        try {
-          digest = MD5FileUtils.computeMd5ForFile(file);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+          MessageDigest md5 = MD5Hash.getDigester();
+          MessageDigest sha = NimbleUtils._checksum();
+          try {
+            byte[] buf = new byte[128 * 1024];
+            for (int n; (n = in.read(buf)) > 0;) {
+              md5.update(buf, 0, n);
+              sha.update(buf, 0, n);
+            }
+            digest = new MD5Hash(md5.digest());
+            sha256 = sha.digest();
+          } finally {
+            Sha256.release(sha);
+          }
         } catch (IOException e) {
           ioe = e;
         } catch (Throwable t) {
@@ -248,6 +279,7 @@ void load(File file) throws IOException {
         try {
           dt.join();
           imgDigest = dt.getDigest();
+          imgSha256 = dt.getSha256();
         } catch (InterruptedException ie) {
           throw new IOException(ie);
         }
@@ -623,6 +655,7 @@ public static final class Saver {
     private long currentOffset = FSImageUtil.MAGIC_HEADER.length;
     private long subSectionOffset = currentOffset;
     private MD5Hash savedDigest;
+    private byte[] savedSha256;
 
     private FileChannel fileChannel;
     // OutputStream for the section data
@@ -641,6 +674,13 @@ public MD5Hash getSavedDigest() {
       return savedDigest;
     }
 
+    /**
+     * @return the SHA-256 of the saved file, computed while writing it
+     */
+    public byte[] getSavedSha256() {
+      return savedSha256;
+    }
+
     public SaveNamespaceContext getContext() {
       return context;
     }
@@ -728,17 +768,19 @@ long save(File file, FSImageCompression compression) throws IOException {
       enableSubSectionsIfRequired();
       FileOutputStream fout = new FileOutputStream(file);
       fileChannel = fout.getChannel();
+      MessageDigest sha256 = NimbleUtils._checksum();
       try {
         LOG.info("Saving image file {} using {}", file, compression);
         long startTime = monotonicNow();
         long numErrors = saveInternal(
-            fout, compression, file.getAbsolutePath());
+            fout, compression, file.getAbsolutePath(), sha256);
         LOG.info("Image file {} of size {} bytes saved in {} seconds {}.", file,
             file.length(), (monotonicNow() - startTime) / 1000,
             (numErrors > 0 ? (" with" + numErrors + " errors") : ""));
         return numErrors;
       } finally {
         fout.close();
+        Sha256.release(sha256);
       }
     }
 
@@ -826,14 +868,15 @@ private long saveSnapshots(FileSummary.Builder summary) throws IOException {
      * @throws IOException on fatal error.
      */
     private long saveInternal(FileOutputStream fout,
-        FSImageCompression compression, String filePath) throws IOException {
+        FSImageCompression compression, String filePath,
+        MessageDigest sha256) throws IOException {
       StartupProgress prog = NameNode.getStartupProgress();
       MessageDigest digester = MD5Hash.getDigester();
       int layoutVersion =
           context.getSourceNamesystem().getEffectiveLayoutVersion();
 
-      underlyingOutputStream = new DigestOutputStream(new BufferedOutputStream(
-          fout), digester);
+      underlyingOutputStream = new DigestOutputStream(new DigestOutputStream(
+          new BufferedOutputStream(fout), digester), sha256);
       underlyingOutputStream.write(FSImageUtil.MAGIC_HEADER);
 
       fileChannel = fout.getChannel();
@@ -895,6 +938,7 @@ private long saveInternal(FileOutputStream fout,
       saveFileSummary(underlyingOutputStream, summary);
       underlyingOutputStream.close();
       savedDigest = new MD5Hash(digester.digest());
+      savedSha256 = sha256.digest();
       return numErrors;
     }
 
@@ -292,6 +292,7 @@
 import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
 import org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics;
 import org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager;
+import org.apache.hadoop.hdfs.server.nimble.TMCSEditLog;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
@@ -512,6 +513,7 @@ private void logAuditEvent(boolean succeeded,
   Daemon nnrmthread = null; // NamenodeResourceMonitor thread
 
   Daemon nnEditLogRoller = null; // NameNodeEditLogRoller thread
+  Daemon nimbleBatchSealer = null; // NimbleBatchSealer thread
 
   // A daemon to periodically clean up corrupt lazyPersist files
   // from the name space.
@@ -1360,6 +1362,13 @@ void startActiveServices() throws IOException {
         LOG.info("Catching up to latest edits from old active before " +
             "taking over writer role in edits logs");
         editLogTailer.catchupDuringFailover();
+        // Edits were checked against the ledger while tailed, so only the
+        // latest counter is read, unless the catch-up already went live.
+        TMCSEditLog tmcsEdits = editLog.getTMCSEdits();
+        if (tmcsEdits != null && !tmcsEdits.isLive()) {
+          tmcsEdits.verifyState();
+          tmcsEdits.liveMode();
+        }
         
         blockManager.setPostponeBlocksFromFuture(false);
         blockManager.getDatanodeManager().markAllDatanodesStale();
@@ -1411,6 +1420,13 @@ void startActiveServices() throws IOException {
           editLogRollerThreshold, editLogRollerInterval));
       nnEditLogRoller.start();
 
+      TMCSEditLog tmcsEdits = getEditLog().getTMCSEdits();
+      if (tmcsEdits != null && tmcsEdits.getSealCheckIntervalMs() > 0) {
+        nimbleBatchSealer = new Daemon(new NimbleBatchSealer(
+            tmcsEdits.getSealCheckIntervalMs()));
+        nimbleBatchSealer.start();
+      }
+
       if (lazyPersistFileScrubIntervalSec > 0) {
         lazyPersistFileScrubber = new Daemon(new LazyPersistFileScrubber(
             lazyPersistFileScrubIntervalSec));
@@ -1481,6 +1497,10 @@ void stopActiveServices() {
         ((NameNodeEditLogRoller)nnEditLogRoller.getRunnable()).stop();
         nnEditLogRoller.interrupt();
       }
+      if (nimbleBatchSealer != null) {
+        ((NimbleBatchSealer) nimbleBatchSealer.getRunnable()).stop();
+        nimbleBatchSealer.interrupt();
+      }
       if (lazyPersistFileScrubber != null) {
         ((LazyPersistFileScrubber) lazyPersistFileScrubber.getRunnable()).stop();
         lazyPersistFileScrubber.interrupt();
@@ -4468,6 +4488,60 @@ public void stop() {
     }
   }
 
+  /**
+   * Daemon to seal the open Nimble batch once it is due, as logEdit does,
+   * so that edits are committed to the ledger on an idle namespace too.
+   */
+  class NimbleBatchSealer implements Runnable {
+    private volatile boolean shouldRun = true;
+    private final long sleepIntervalMs;
+
+    NimbleBatchSealer(long sleepIntervalMs) {
+      this.sleepIntervalMs = sleepIntervalMs;
+    }
+
+    @Override
+    public void run() {
+      while (fsRunning && shouldRun) {
+        try {
+          Thread.sleep(sleepIntervalMs);
+        } catch (InterruptedException e) {
+          FSNamesystem.LOG.info(NimbleBatchSealer.class.getSimpleName()
+              + " was interrupted, exiting");
+          break;
+        }
+        try {
+          sealNimbleBatchIfDue();
+        } catch (Exception e) {
+          FSNamesystem.LOG.error("Swallowing exception in "
+              + NimbleBatchSealer.class.getSimpleName() + ":", e);
+        }
+      }
+    }
+
+    public void stop() {
+      shouldRun = false;
+    }
+  }
+
+  @VisibleForTesting
+  void sealNimbleBatchIfDue() {
+    TMCSEditLog tmcsEdits = getEditLog().getTMCSEdits();
+    if (tmcsEdits == null || !tmcsEdits.shouldSeal()) {
+      return;
+    }
+    writeLock();
+    try {
+      if (!getEditLog().isOpenForWrite() || !tmcsEdits.claimSeal()) {
+        return;
+      }
+      getEditLog().logNimbleFlush();
+    } finally {
+      writeUnlock("sealNimbleBatch");
+    }
+    getEditLog().logSync();
+  }
+
   /**
    * Daemon to periodically scan the namespace for lazyPersist files
    * with missing blocks and unlink them.
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import org.apache.hadoop.hdfs.server.nimble.NimbleMetrics;
 import org.apache.hadoop.hdfs.server.nimble.TMCS;
 import org.apache.hadoop.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.hadoop.thirdparty.com.google.common.base.Joiner;
@@ -479,6 +480,7 @@ public void queueExternalCall(ExternalCall<?> extCall)
 
   public static void initMetrics(Configuration conf, NamenodeRole role) {
     metrics = NameNodeMetrics.create(conf, role);
+    NimbleMetrics.create(conf);
   }
 
   public static NameNodeMetrics getNameNodeMetrics() {
@@ -90,7 +90,9 @@ public enum Feature implements LayoutFeature {
     QUOTA_BY_STORAGE_TYPE(-63, -61, "Support quota for specific storage types"),
     ERASURE_CODING(-64, -61, "Support erasure coding"),
     EXPANDED_STRING_TABLE(-65, -61, "Support expanded string table in fsimage"),
-    SNAPSHOT_MODIFICATION_TIME(-66, -61, "Support modification time for snapshot");
+    SNAPSHOT_MODIFICATION_TIME(-66, -61, "Support modification time for snapshot"),
+    NIMBLE_FLUSH_BOUNDARIES(-67, -67, "Nimble batches are closed only by " +
+      "OP_NIMBLE_FLUSH");
 
     private final FeatureInfo info;
 
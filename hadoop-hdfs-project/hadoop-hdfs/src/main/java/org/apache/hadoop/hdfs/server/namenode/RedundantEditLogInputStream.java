@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
@@ -265,6 +266,11 @@ public int getVersion(boolean verifyVersion) throws IOException {
     return streams[curIdx].getVersion(verifyVersion);
   }
 
+  @Override
+  public ByteBuffer getLastOpFrame() {
+    return streams[curIdx].getLastOpFrame();
+  }
+
   @Override
   public long getPosition() {
     return streams[curIdx].getPosition();
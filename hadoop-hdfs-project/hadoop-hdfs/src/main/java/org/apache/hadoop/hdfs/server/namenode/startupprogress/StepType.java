@@ -57,7 +57,13 @@ public enum StepType {
   /**
    * The namenode is performing an operation related to erasure coding policies.
    */
-  ERASURE_CODING_POLICIES("ErasureCodingPolicies", "erasure coding policies");
+  ERASURE_CODING_POLICIES("ErasureCodingPolicies", "erasure coding policies"),
+
+  /**
+   * The namenode is verifying the Nimble tags of the edit log batches it
+   * replays.
+   */
+  NIMBLE_TAGS("NimbleTags", "nimble tags");
 
   private final String name, description;
 
@@ -0,0 +1,277 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default NimbleTransport over HTTP/1.1.
+ *
+ * Requests go through a pooled keep-alive connection manager sized for the
+ * in-flight IncrementCounter calls, with TCP_NODELAY and timeouts set. When
+ * fs.nimble.transport.pipelining is enabled, pipeline() writes requests
+ * back-to-back on one dedicated persistent connection and a reader thread
+ * matches the responses in order, so sequential increments reach the ledger
+ * in counter order without waiting for each other's RTT.
+ */
+public class HttpNimbleTransport implements NimbleTransport {
+    static Logger logger = Logger.getLogger(HttpNimbleTransport.class);
+
+    private URI endpoint;
+    private CloseableHttpClient httpClient;
+    private int connectTimeout, socketTimeout;
+    private boolean pipelining;
+
+    private final Object sendLock = new Object();
+    private Pipeline pipeline; // guarded by sendLock
+
+    @Override
+    public void initialize(URI endpoint, Configuration conf) {
+        this.endpoint = endpoint;
+        this.connectTimeout = (int) conf.getTimeDuration(NimbleUtils.Conf.TRANSPORT_CONNECT_TIMEOUT_KEY,
+                NimbleUtils.Conf.TRANSPORT_CONNECT_TIMEOUT_DEFAULT, TimeUnit.MILLISECONDS);
+        this.socketTimeout = (int) conf.getTimeDuration(NimbleUtils.Conf.TRANSPORT_SOCKET_TIMEOUT_KEY,
+                NimbleUtils.Conf.TRANSPORT_SOCKET_TIMEOUT_DEFAULT, TimeUnit.MILLISECONDS);
+        this.pipelining = conf.getBoolean(NimbleUtils.Conf.TRANSPORT_PIPELINING_KEY,
+                NimbleUtils.Conf.TRANSPORT_PIPELINING_DEFAULT) && "http".equalsIgnoreCase(endpoint.getScheme());
+
+        // Allow one connection per in-flight IncrementCounter (see TMCSCommitter)
+        int maxConn = Math.max(2, conf.getInt(NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_KEY,
+                NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_DEFAULT));
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(maxConn);
+        pool.setDefaultMaxPerRoute(maxConn);
+        pool.setValidateAfterInactivity(2000);
+        pool.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(true)
+                .setSoKeepAlive(true)
+                .setSoTimeout(socketTimeout)
+                .build());
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setConnectionRequestTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout)
+                        .build())
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .disableAuthCaching()
+                .build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (sendLock) {
+            if (pipeline != null)
+                pipeline.fail(new NimbleError("transport closed"));
+            pipeline = null;
+        }
+        httpClient.close();
+    }
+
+    @Override
+    public NimbleResponse execute(String method, URI uri, byte[] body) throws IOException {
+        HttpRequestBase request;
+        switch (method) {
+            case GET:  request = new HttpGet(uri); break;
+            case PUT:  request = new HttpPut(uri); break;
+            case POST: request = new HttpPost(uri); break;
+            default: throw new NimbleError("Unsupported method: " + method);
+        }
+        if (body != null) {
+            if (!(request instanceof HttpEntityEnclosingRequestBase))
+                throw new NimbleError(method + " cannot carry a body");
+            ((HttpEntityEnclosingRequestBase) request).setEntity(
+                    new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        }
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            return toResponse(response.getStatusLine(), response.getEntity());
+        }
+    }
+
+    private static NimbleResponse toResponse(StatusLine status, HttpEntity entity) throws IOException {
+        NimbleResponse r = new NimbleResponse(status.getStatusCode(), status.getReasonPhrase());
+        if (entity == null)
+            return r;
+        if (!isJSON(entity)) {
+            EntityUtils.consume(entity);
+            return r;
+        }
+        // Closing the content stream drains it, keeping the connection reusable
+        try (InputStream in = entity.getContent()) {
+            r.parse(in);
+        }
+        return r;
+    }
+
+    private static boolean isJSON(HttpEntity entity) {
+        if (entity.getContentType() == null)
+            return false;
+        ContentType type = ContentType.get(entity);
+        return type != null && ContentType.APPLICATION_JSON.getMimeType().equalsIgnoreCase(type.getMimeType());
+    }
+
+    @Override
+    public boolean supportsPipelining() {
+        return pipelining;
+    }
+
+    @Override
+    public CompletableFuture<NimbleResponse> pipeline(String method, URI uri, byte[] body) {
+        if (!pipelining)
+            return NimbleTransport.super.pipeline(method, uri, body);
+
+        CompletableFuture<NimbleResponse> f = new CompletableFuture<>();
+        synchronized (sendLock) {
+            try {
+                if (pipeline == null || pipeline.isClosed())
+                    pipeline = new Pipeline();
+                pipeline.send(method, uri, body, f);
+            } catch (IOException e) {
+                f.completeExceptionally(e);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * One persistent connection with requests written back-to-back. Requests
+     * are sent by the caller under sendLock; responses are read in order by a
+     * dedicated thread. Any I/O error fails every outstanding request and the
+     * next pipeline() call reconnects.
+     */
+    private class Pipeline implements Runnable {
+        private final Socket socket;
+        private final DefaultBHttpClientConnection conn;
+        private final BlockingQueue<CompletableFuture<NimbleResponse>> pending = new LinkedBlockingQueue<>();
+        private final String host;
+        private boolean closed; // guarded by this
+
+        Pipeline() throws IOException {
+            int port = endpoint.getPort() != -1 ? endpoint.getPort() : 80;
+            this.host = endpoint.getHost() + ":" + port;
+            this.socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(endpoint.getHost(), port), connectTimeout);
+            socket.setSoTimeout(socketTimeout);
+            this.conn = new DefaultBHttpClientConnection(8 * 1024);
+            conn.bind(socket);
+
+            Thread reader = new Thread(this, "NimblePipeline-" + host);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        void send(String method, URI uri, byte[] body, CompletableFuture<NimbleResponse> f) throws IOException {
+            assert Thread.holdsLock(sendLock);
+            synchronized (this) {
+                if (closed)
+                    throw new NimbleError("pipeline closed");
+                pending.add(f);
+            }
+
+            String target = uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+            try {
+                if (body != null) {
+                    BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(method, target);
+                    request.setHeader(HttpHeaders.HOST, host);
+                    request.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
+                    request.setHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(body.length));
+                    request.setEntity(new ByteArrayEntity(body));
+                    conn.sendRequestHeader(request);
+                    conn.sendRequestEntity(request);
+                } else {
+                    BasicHttpRequest request = new BasicHttpRequest(method, target);
+                    request.setHeader(HttpHeaders.HOST, host);
+                    conn.sendRequestHeader(request);
+                }
+                conn.flush();
+            } catch (HttpException e) {
+                NimbleError ne = new NimbleError("Cannot send " + method + " " + target + ": " + e);
+                fail(ne);
+                throw ne;
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isClosed()) {
+                    CompletableFuture<NimbleResponse> f = pending.poll(1, TimeUnit.SECONDS);
+                    if (f == null)
+                        continue;
+                    HttpResponse response = conn.receiveResponseHeader();
+                    conn.receiveResponseEntity(response);
+                    f.complete(toResponse(response.getStatusLine(), response.getEntity()));
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (HttpException e) {
+                fail(new NimbleError("Malformed response: " + e));
+            } catch (InterruptedException e) {
+                fail(new NimbleError("pipeline reader interrupted"));
+            } catch (RuntimeException e) {
+                fail(new NimbleError("pipeline reader failed: " + e));
+            }
+        }
+
+        void fail(IOException e) {
+            synchronized (this) {
+                if (!closed)
+                    logger.warn("Closing Nimble pipeline to " + host + ": " + e);
+                closed = true;
+            }
+            try {
+                conn.shutdown();
+            } catch (IOException ignored) {
+                // already failing
+            }
+            CompletableFuture<NimbleResponse> f;
+            while ((f = pending.poll()) != null)
+                f.completeExceptionally(e);
+        }
+    }
+}
@@ -1,68 +1,89 @@
 package org.apache.hadoop.hdfs.server.nimble;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.util.JsonSerialization;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.*;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.log4j.Logger;
 
 import javax.ws.rs.core.UriBuilder;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.InvalidParameterSpecException;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class NimbleAPI implements Closeable {
     static  Logger logger = Logger.getLogger(NimbleAPI.class);
 
     private URI                 nimble_rest_uri;
-    private CloseableHttpClient httpClient;
+    private URI                 serviceid_uri;
+    private NimbleTransport     transport;
+    private volatile CounterURI counter_uri; // precomputed for the last handle
     final public Configuration       conf;
 
+    private static final class CounterURI {
+        final byte[] handle;
+        final URI uri;
+        final String str;
+
+        CounterURI(byte[] handle, URI uri) {
+            this.handle = handle.clone();
+            this.uri = uri;
+            this.str = uri.toString();
+        }
+    }
+
     public NimbleAPI(Configuration conf) {
         this.conf = conf;
         this.nimble_rest_uri = URI.create(conf.get(NimbleUtils.Conf.NIMBLE_LEDGER_URI_KEY, NimbleUtils.Conf.NIMBLE_LEDGER_URI_DEFAULT));
-        this.httpClient = HttpClients.custom()
-                .disableRedirectHandling()
+        this.serviceid_uri = UriBuilder
+                .fromUri(nimble_rest_uri)
+                .replacePath("/serviceid")
+                .queryParam("pkformat", "compressed")
                 .build();
+
+        Class<? extends NimbleTransport> clazz = conf.getClass(NimbleUtils.Conf.TRANSPORT_IMPL_KEY,
+                HttpNimbleTransport.class, NimbleTransport.class);
+        this.transport = ReflectionUtils.newInstance(clazz, conf);
+        try {
+            this.transport.initialize(nimble_rest_uri, conf);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot initialize " + clazz.getName() + ": " + e, e);
+        }
     }
 
     public synchronized void close() throws IOException {
         try {
-            httpClient.close();
+            transport.close();
         } catch (IOException e) {
             logger.error(e);
         }
     }
 
-    private URI getCounterURI(String handle) {
-        return UriBuilder
-                .fromUri(nimble_rest_uri)
-                .path("/counters/" + handle)
-                .build();
+    private CounterURI getCounterURI(byte[] handle) {
+        CounterURI c = counter_uri;
+        if (c == null || !Arrays.equals(c.handle, handle)) {
+            URI uri = UriBuilder
+                    .fromUri(nimble_rest_uri)
+                    .path("/counters/" + NimbleUtils.URLEncode(handle))
+                    .build();
+            c = counter_uri = new CounterURI(handle, uri);
+        }
+        return c;
     }
 
-    private Map<?,?> parseJSON(HttpEntity entity) throws IOException {
-        // Ensure JSON content
-        String contentType = entity.getContentType().getValue();
-        if (!contentType.equalsIgnoreCase("application/json")) {
+    private static NimbleResponse expectJSON(NimbleResponse response) throws NimbleError {
+        if (!response.json)
             throw new NimbleError("expected JSON Content-Type");
-        }
+        return response;
+    }
 
-        // Parse JSON
-        String responseBody = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-        Map<?, ?> json = JsonSerialization.mapReader().readValue(responseBody);
-        return json;
+    public boolean supportsPipelining() {
+        return transport.supportsPipelining();
     }
 
     public boolean verifyServiceID(NimbleServiceID with) {
@@ -81,20 +102,8 @@ public boolean verifyServiceID(NimbleServiceID with) {
      * Response Body: { "Identity": ..., "PublicKey": ... }
      */
     public NimbleServiceID getServiceID() throws IOException, NoSuchAlgorithmException, InvalidParameterSpecException, InvalidKeySpecException, NoSuchProviderException {
-        URI uri = UriBuilder
-                .fromUri(nimble_rest_uri)
-                .replacePath("/serviceid")
-                .queryParam("pkformat", "compressed")
-                .build();
-
-        // Build HTTP request
-        HttpGet request = new HttpGet(uri);
-
-        // Execute HTTP request
-        try (CloseableHttpResponse response = httpClient.execute(request)) {
-            Map<?, ?> json = parseJSON(response.getEntity());
-            return new NimbleServiceID((String) json.get("Identity"), (String) json.get("PublicKey"), null);
-        }
+        NimbleResponse response = expectJSON(transport.execute(NimbleTransport.GET, serviceid_uri, null));
+        return new NimbleServiceID(response.identity, response.publicKey, null, null, null);
     }
 
     /**
@@ -103,30 +112,17 @@ public NimbleServiceID getServiceID() throws IOException, NoSuchAlgorithmExcepti
      * Response Body: { "Signature": "..." }
      */
     public NimbleOpNewCounter newCounter(NimbleServiceID id, byte[] tag) throws IOException {
-        String handle_str = NimbleUtils.URLEncode(id.handle),
-                tag_str    = NimbleUtils.URLEncode(tag);
-        URI uri = getCounterURI(handle_str);
-
-        // Build HTTP request
-        HttpPut request = new HttpPut(uri);
-        byte[] body = String
-                .format("{\"Tag\": \"%s\"}", tag_str)
-                .getBytes();
-        request.setEntity(new ByteArrayEntity(body));
-        request.setHeader("Content-type", "application/json");
-
-        // Execute HTTP request
-        try (CloseableHttpResponse response = httpClient.execute(request)) {
-            switch (response.getStatusLine().getStatusCode()) {
-                case 200: break;
-                case 409: throw new NimbleError("Conflict Handle=" + handle_str);
-                default: throw new NimbleError("Failed newCounter: " + response.getStatusLine());
-            }
-
-            Map<?, ?> json = parseJSON(response.getEntity());
-            logger.debug(String.format("NewCounter response: %s", json.toString()));
-            return new NimbleOpNewCounter(id, id.handle, tag, json);
+        CounterURI uri = getCounterURI(id.handle);
+        NimbleResponse response = transport.execute(NimbleTransport.PUT, uri.uri, NimbleResponse.encodeTag(tag));
+        switch (response.status) {
+            case 200: break;
+            case 409: throw new NimbleError("Conflict Handle=" + NimbleUtils.URLEncode(id.handle));
+            default: throw new NimbleError("Failed newCounter: " + response.status + " " + response.reason);
         }
+
+        expectJSON(response);
+        logger.debug("NewCounter response: " + response);
+        return new NimbleOpNewCounter(id, id.handle, tag, response);
     }
 
     /**
@@ -136,27 +132,16 @@ public NimbleOpNewCounter newCounter(NimbleServiceID id, byte[] tag) throws IOEx
      */
     public NimbleOpReadLatest readLatest(NimbleServiceID id) throws IOException {
         byte[] nonce = NimbleUtils.getNonce();
-        String handle_str = NimbleUtils.URLEncode(id.handle),
-                nonce_str    = NimbleUtils.URLEncode(nonce);
-        URI uri = UriBuilder
-                .fromUri(getCounterURI(handle_str))
-                .queryParam("nonce", nonce_str)
-                .build();
-
-        // Build HTTP request
-        HttpGet request = new HttpGet(uri);
-
-        // Execute HTTP request
-        try (CloseableHttpResponse response = httpClient.execute(request)) {
-            switch (response.getStatusLine().getStatusCode()) {
-                case 200: break;
-                default: throw new NimbleError("Failed readLatest: " + response.getStatusLine());
-            }
-
-            Map<?, ?> json = parseJSON(response.getEntity());
-            logger.debug(String.format("ReadLatest response: %s", json.toString()));
-            return new NimbleOpReadLatest(id, id.handle, nonce, json);
+        URI uri = URI.create(getCounterURI(id.handle).str + "?nonce=" + NimbleUtils.URLEncode(nonce));
+        NimbleResponse response = transport.execute(NimbleTransport.GET, uri, null);
+        switch (response.status) {
+            case 200: break;
+            default: throw new NimbleError("Failed readLatest: " + response.status + " " + response.reason);
         }
+
+        expectJSON(response);
+        logger.debug("ReadLatest response: " + response);
+        return new NimbleOpReadLatest(id, id.handle, nonce, response);
     }
 
     /**
@@ -165,28 +150,45 @@ public NimbleOpReadLatest readLatest(NimbleServiceID id) throws IOException {
      * Response Body: { "Signature": "..." }
      */
     public NimbleOpIncrementCounter incrementCounter(NimbleServiceID id, byte[] tag, int expected) throws IOException {
-        String handle_str = NimbleUtils.URLEncode(id.handle),
-                tag_str   = NimbleUtils.URLEncode(tag);
-        URI uri = getCounterURI(handle_str);
-
-        // Build HTTP request
-        HttpPost request = new HttpPost(uri);
-        byte[] body = String
-                .format("{\"Tag\": \"%s\", \"ExpectedCounter\": %d}", tag_str, expected)
-                .getBytes();
-        request.setEntity(new ByteArrayEntity(body));
-        request.setHeader("Content-type", "application/json");
-
-        // Execute HTTP request
-        try (CloseableHttpResponse response = httpClient.execute(request)) {
-            switch (response.getStatusLine().getStatusCode()) {
-                case 200: break;
-                default: throw new NimbleError("Failed readLatest: " + response.getStatusLine());
+        CounterURI uri = getCounterURI(id.handle);
+        NimbleResponse response = transport.execute(NimbleTransport.POST, uri.uri,
+                NimbleResponse.encodeIncrement(tag, expected));
+        return toIncrementCounter(id, tag, expected, response);
+    }
+
+    /**
+     * Same as incrementCounter(), but pipelined behind earlier calls if the
+     * transport supports it. Calls reach the ledger in invocation order.
+     */
+    public CompletableFuture<NimbleOpIncrementCounter> incrementCounterAsync(NimbleServiceID id, byte[] tag, int expected) {
+        CounterURI uri = getCounterURI(id.handle);
+        byte[] body;
+        try {
+            body = NimbleResponse.encodeIncrement(tag, expected);
+        } catch (IOException e) {
+            CompletableFuture<NimbleOpIncrementCounter> f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            return f;
+        }
+        return transport.pipeline(NimbleTransport.POST, uri.uri, body).thenApply(response -> {
+            try {
+                return toIncrementCounter(id, tag, expected, response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
+        });
+    }
 
-            Map<?, ?> json = parseJSON(response.getEntity());
-            logger.debug(String.format("IncrementCounter response: %s", json.toString()));
-            return new NimbleOpIncrementCounter(id, id.handle, tag, expected, json);
+    private NimbleOpIncrementCounter toIncrementCounter(NimbleServiceID id, byte[] tag, int expected,
+                                                        NimbleResponse response) throws IOException {
+        switch (response.status) {
+            case 200: break;
+            default: throw new NimbleError("Failed incrementCounter: " + response.status + " " + response.reason);
         }
+
+        expectJSON(response);
+        if (logger.isDebugEnabled())
+            logger.debug("IncrementCounter response: " + response);
+        return new NimbleOpIncrementCounter(id, id.handle, tag, expected, response);
     }
 }
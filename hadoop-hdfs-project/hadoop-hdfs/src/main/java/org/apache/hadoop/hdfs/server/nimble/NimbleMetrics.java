@@ -0,0 +1,129 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.MetricsSystem;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.lib.MutableStat;
+
+/**
+ * Ledger activity of the NameNode, published as NimbleActivity.
+ *
+ * TMCS is one per JVM, and so is this source. NameNode.initMetrics() calls
+ * create(), which registers it, again if the metrics system was shut down in
+ * between. Until then get() returns an instance that records but is not
+ * published, so the ledger code never has to check.
+ */
+public class NimbleMetrics implements MetricsSource {
+    static final String NAME = "NimbleActivity";
+
+    private static volatile NimbleMetrics instance;
+
+    private final MetricsRegistry registry = new MetricsRegistry(NAME);
+
+    private final MutableRate ledgerRoundTrip;
+    private final MutableQuantiles[] ledgerRoundTripQuantiles;
+    private final MutableStat batchSize;
+    private final MutableQuantiles[] batchSizeQuantiles;
+    private final MutableCounterLong bytesSigned;
+    private final MutableRate signatureNanos;
+    private final MutableRate verificationNanos;
+    private final MutableGaugeInt counterLag;
+    private final MutableGaugeInt unverifiedBatches;
+
+    NimbleMetrics(int[] intervals) {
+        registry.setContext("dfs");
+        ledgerRoundTrip = registry.newRate("LedgerRoundTrip",
+                "IncrementCounter round trips to the ledger in ms");
+        batchSize = registry.newStat("BatchSize",
+                "Edit log ops per ledger batch", "Batches", "Ops");
+        bytesSigned = registry.newCounter("BytesSigned",
+                "Bytes of edit log batches signed", 0L);
+        signatureNanos = registry.newRate("SignatureNanos",
+                "Signing the tag of a batch in ns");
+        verificationNanos = registry.newRate("VerificationNanos",
+                "Verifying a ledger receipt or a replayed tag in ns");
+        counterLag = registry.newGauge("CounterLag",
+                "Ledger counters issued but not acknowledged yet", 0);
+        unverifiedBatches = registry.newGauge("UnverifiedBatches",
+                "Batches tailed by the Standby not checked against the ledger yet", 0);
+
+        ledgerRoundTripQuantiles = new MutableQuantiles[intervals.length];
+        batchSizeQuantiles = new MutableQuantiles[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            int interval = intervals[i];
+            ledgerRoundTripQuantiles[i] = registry.newQuantiles(
+                    "LedgerRoundTrip" + interval + "s",
+                    "IncrementCounter round trip in ms", "ops", "latency", interval);
+            batchSizeQuantiles[i] = registry.newQuantiles(
+                    "BatchSize" + interval + "s",
+                    "Edit log ops per ledger batch", "batches", "ops", interval);
+        }
+    }
+
+    /**
+     * Register the source, with quantiles over the intervals of
+     * dfs.metrics.percentiles.intervals, unless it is registered already.
+     */
+    public static synchronized NimbleMetrics create(Configuration conf) {
+        MetricsSystem ms = DefaultMetricsSystem.instance();
+        if (instance == null || ms.getSource(NAME) == null) {
+            instance = new NimbleMetrics(
+                    conf.getInts(DFSConfigKeys.DFS_METRICS_PERCENTILES_INTERVALS_KEY));
+            ms.register(NAME, "Nimble ledger metrics", instance);
+        }
+        return instance;
+    }
+
+    public static NimbleMetrics get() {
+        NimbleMetrics m = instance;
+        return m != null ? m : getOrCreate();
+    }
+
+    private static synchronized NimbleMetrics getOrCreate() {
+        if (instance == null)
+            instance = new NimbleMetrics(new int[0]);
+        return instance;
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector collector, boolean all) {
+        registry.snapshot(collector.addRecord(registry.info()), all);
+    }
+
+    void addLedgerRoundTrip(long latencyMs) {
+        ledgerRoundTrip.add(latencyMs);
+        for (MutableQuantiles q : ledgerRoundTripQuantiles)
+            q.add(latencyMs);
+    }
+
+    void addBatch(int ops) {
+        batchSize.add(ops);
+        for (MutableQuantiles q : batchSizeQuantiles)
+            q.add(ops);
+    }
+
+    void addSignature(long bytes, long nanos) {
+        bytesSigned.incr(bytes);
+        signatureNanos.add(nanos);
+    }
+
+    void addVerificationNanos(long nanos) {
+        verificationNanos.add(nanos);
+    }
+
+    void setCounterLag(int lag) {
+        counterLag.set(lag);
+    }
+
+    void setUnverifiedBatches(int batches) {
+        unverifiedBatches.set(batches);
+    }
+}
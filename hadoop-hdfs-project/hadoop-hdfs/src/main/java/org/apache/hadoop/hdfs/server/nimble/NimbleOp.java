@@ -4,10 +4,9 @@
 import java.nio.ByteOrder;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.util.ArrayList;
 
 /* Captures responses */
-abstract class NimbleOp {
+public abstract class NimbleOp {
     // From Request
     public NimbleServiceID id;
     public byte[]          handle;
@@ -22,25 +21,39 @@ abstract class NimbleOp {
     public static final long TYPE_INCREMENT_COUNTER = 3;
     public static final long TYPE_READ_COUNTER = 5;
 
+    /**
+     * Append the parts of the signed message (see toString()).
+     */
+    abstract void encode(NimbleReceipt out);
+
     // Verify signature
     public boolean verify() throws NimbleError {
-        String msg = this.toString();
+        long start = System.nanoTime();
+        NimbleReceipt msg = NimbleReceipt.of(this);
         try {
-            return id.verifySignature(signature, msg.getBytes());
+            return id.verifySignature(signature, msg.buffer(), 0, msg.length());
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
             e.printStackTrace();
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
-        } catch (NoSuchProviderException e) {
-            e.printStackTrace();
         } catch (InvalidKeySpecException e) {
             e.printStackTrace();
+        } finally {
+            NimbleMetrics.get().addVerificationNanos(System.nanoTime() - start);
         }
         return false;
     }
 
+    /**
+     * The signed message, e.g. for logging.
+     */
+    @Override
+    public String toString() {
+        return NimbleReceipt.of(this).toString();
+    }
+
     /**
      * Converts byte[]{10, 23, ...} to String("[10, 23, ...]")
      *
@@ -51,11 +64,13 @@ public static String toNimbleStringRepr(byte[] bs) {
         if (NimbleUtils.READABLE_LOG_OPERATIONS)
             return NimbleUtils.URLEncode(bs); // Note: verification will fail
 
-        ArrayList<Integer> as = new ArrayList<>(bs.length);
-        for (Byte b : bs) {
-            as.add(b & 0xFF);
+        StringBuilder sb = new StringBuilder(bs.length * 4 + 2).append('[');
+        for (int i = 0; i < bs.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(bs[i] & 0xFF);
         }
-        return as.toString();
+        return sb.append(']').toString();
     }
 
     /**
@@ -0,0 +1,106 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Canonical form of a message signed by the ledger:
+ * MsgType.NimbleID.Handle.Counter.Tag[.Nonce], each part unpadded base64url
+ * and longs in little endian (see NimbleOp.toString()).
+ *
+ * Parts are encoded straight into a reusable per-thread buffer, so verifying
+ * a receipt does not build Strings or intermediate arrays.
+ */
+final class NimbleReceipt {
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII); // like NimbleUtils.URLEncode()
+
+    private static final ThreadLocal<NimbleReceipt> BUFFER = ThreadLocal.withInitial(NimbleReceipt::new);
+
+    private byte[] buf = new byte[256];
+    private int len, parts;
+    private final byte[] longBytes = new byte[Long.BYTES];
+
+    private NimbleReceipt() { }
+
+    /**
+     * Encode op into this thread's buffer. Valid until the next call.
+     */
+    static NimbleReceipt of(NimbleOp op) {
+        NimbleReceipt r = BUFFER.get();
+        r.len = r.parts = 0;
+        op.encode(r);
+        return r;
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    int length() {
+        return len;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Append a little endian long (message type or counter).
+     */
+    NimbleReceipt part(long v) {
+        for (int i = 0; i < Long.BYTES; i++)
+            longBytes[i] = (byte) (v >>> (8 * i));
+        return part(longBytes);
+    }
+
+    NimbleReceipt part(byte[] b) {
+        if (parts++ > 0)
+            append((byte) '.');
+        if (b == null) {
+            ensure(NULL.length);
+            System.arraycopy(NULL, 0, buf, len, NULL.length);
+            len += NULL.length;
+            return this;
+        }
+
+        ensure((b.length * 4 + 2) / 3);
+        int i = 0;
+        for (; i + 3 <= b.length; i += 3) {
+            int n = (b[i] & 0xff) << 16 | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff);
+            buf[len++] = ALPHABET[n >>> 18];
+            buf[len++] = ALPHABET[(n >>> 12) & 0x3f];
+            buf[len++] = ALPHABET[(n >>> 6) & 0x3f];
+            buf[len++] = ALPHABET[n & 0x3f];
+        }
+        switch (b.length - i) {
+            case 1: {
+                int n = (b[i] & 0xff) << 16;
+                buf[len++] = ALPHABET[n >>> 18];
+                buf[len++] = ALPHABET[(n >>> 12) & 0x3f];
+                break;
+            }
+            case 2: {
+                int n = (b[i] & 0xff) << 16 | (b[i + 1] & 0xff) << 8;
+                buf[len++] = ALPHABET[n >>> 18];
+                buf[len++] = ALPHABET[(n >>> 12) & 0x3f];
+                buf[len++] = ALPHABET[(n >>> 6) & 0x3f];
+                break;
+            }
+            default:
+        }
+        return this;
+    }
+
+    private void append(byte b) {
+        ensure(1);
+        buf[len++] = b;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+    }
+}
@@ -0,0 +1,114 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoded response of the Nimble REST endpoint.
+ *
+ * Bodies are encoded and decoded with the streaming JSON API straight
+ * between byte[] and the wire; base64url fields are decoded to bytes without
+ * going through String.
+ */
+public class NimbleResponse {
+    private static final JsonFactory JSON = new JsonFactory();
+    // Nimble uses unpadded base64url, like NimbleUtils.URLEncode()
+    private static final Base64Variant B64 = Base64Variants.MODIFIED_FOR_URL;
+
+    public final int status;
+    public final String reason;
+
+    // From body. Unset fields are null (or -1 for the counter).
+    public byte[] identity;
+    public byte[] publicKey;
+    public byte[] tag;
+    public byte[] signature;
+    public int counter = -1;
+    public boolean json;
+
+    public NimbleResponse(int status, String reason) {
+        this.status = status;
+        this.reason = reason;
+    }
+
+    /**
+     * Parse a JSON body. Unknown fields are skipped.
+     */
+    public NimbleResponse parse(InputStream in) throws IOException {
+        json = true;
+        try (JsonParser p = JSON.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                throw new NimbleError("expected JSON object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName(); // interned by the parser
+                JsonToken t = p.nextToken();
+                switch (field) {
+                    case "Identity":  identity  = binary(p, t); break;
+                    case "PublicKey": publicKey = binary(p, t); break;
+                    case "Tag":       tag       = binary(p, t); break;
+                    case "Signature": signature = binary(p, t); break;
+                    case "Counter":   counter   = p.getIntValue(); break;
+                    default: p.skipChildren();
+                }
+            }
+        }
+        return this;
+    }
+
+    private static byte[] binary(JsonParser p, JsonToken t) throws IOException {
+        if (t != JsonToken.VALUE_STRING || p.getTextLength() == 0)
+            return null;
+        return p.getBinaryValue(B64);
+    }
+
+    /**
+     * Request body: { "Tag": "[tag]" }
+     */
+    public static byte[] encodeTag(byte[] tag) throws IOException {
+        return encode(tag, -1);
+    }
+
+    /**
+     * Request body: { "Tag": "[tag]", "ExpectedCounter": [expected] }
+     */
+    public static byte[] encodeIncrement(byte[] tag, int expected) throws IOException {
+        return encode(tag, expected);
+    }
+
+    private static byte[] encode(byte[] tag, int expected) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(48 + tag.length * 4 / 3);
+        try (JsonGenerator g = JSON.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeFieldName("Tag");
+            g.writeBinary(B64, tag, 0, tag.length);
+            if (expected >= 0)
+                g.writeNumberField("ExpectedCounter", expected);
+            g.writeEndObject();
+        }
+        return buf.toByteArray();
+    }
+
+    public boolean isOK() {
+        return status == 200;
+    }
+
+    @Override
+    public String toString() {
+        return "NimbleResponse{" +
+                "status=" + status +
+                (identity != null ? ", Identity=" + NimbleUtils.URLEncode(identity) : "") +
+                (publicKey != null ? ", PublicKey=" + NimbleUtils.URLEncode(publicKey) : "") +
+                (tag != null ? ", Tag=" + NimbleUtils.URLEncode(tag) : "") +
+                (counter >= 0 ? ", Counter=" + counter : "") +
+                (signature != null ? ", Signature=" + NimbleUtils.URLEncode(signature) : "") +
+                '}';
+    }
+}
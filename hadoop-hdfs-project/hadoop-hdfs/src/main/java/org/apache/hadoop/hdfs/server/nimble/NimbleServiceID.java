@@ -14,20 +14,43 @@
 
 /* NimbleServiceID */
 public final class NimbleServiceID {
-    final String SIGN_SPEC = "secp256k1";
-    final String SIGN_ALGO = "SHA256withECDSA";
+    // secp256k1 is gone from the JDK's own EC provider since Java 16.
+    // Providers are expensive to build, so one instance serves all uses.
+    static final Provider SIGN_PROVIDER = new BouncyCastleProvider();
+    private static final ECNamedCurveSpec LEDGER_CURVE;
+    static {
+        ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("prime256v1");
+        LEDGER_CURVE = new ECNamedCurveSpec("prime256v1", spec.getCurve(), spec.getG(), spec.getN());
+    }
 
     public byte[] identity;
     public byte[] publicKey;
     public byte[] handle;
 
-    // Signing keys
-    private PublicKey signPublicKey;
-    private PrivateKey signPrivateKey;
+    // Signing keys, null if none are set
+    private TagSigner signer;
+
+    private volatile PublicKey pk;
 
-    private PublicKey pk;
+    // Initialized receipt verifier per thread, reset by each verify()
+    private static final class Verifier {
+        final PublicKey key;
+        final Signature sg;
+
+        Verifier(PublicKey key) throws NoSuchAlgorithmException, InvalidKeyException {
+            this.key = key;
+            this.sg = Signature.getInstance("SHA256withECDSA", SIGN_PROVIDER);
+            sg.initVerify(key);
+        }
+    }
+    private final ThreadLocal<Verifier> verifier = new ThreadLocal<>();
 
     public NimbleServiceID(byte[] identity, byte[] publicKey, byte[] handle, byte[] signPublicKey, byte[] signPrivateKey) throws NoSuchAlgorithmException, InvalidParameterSpecException, InvalidKeySpecException {
+        this(identity, publicKey, handle, TagSigner.Algorithm.ECDSA_SECP256K1, signPublicKey, signPrivateKey);
+    }
+
+    public NimbleServiceID(byte[] identity, byte[] publicKey, byte[] handle, TagSigner.Algorithm signAlgorithm,
+                           byte[] signPublicKey, byte[] signPrivateKey) throws NoSuchAlgorithmException, InvalidParameterSpecException, InvalidKeySpecException {
         this.identity = identity;
         this.publicKey = publicKey;
         this.handle = handle;
@@ -36,11 +59,8 @@ public NimbleServiceID(byte[] identity, byte[] publicKey, byte[] handle, byte[]
             this.pk = parsePublicKey(publicKey);
 
         // Assign signing keys. These keys are used for signing the tag stored in Nimble.
-        KeyFactory kf = KeyFactory.getInstance("EC");
-        if (signPublicKey != null)
-            this.signPublicKey = kf.generatePublic(new X509EncodedKeySpec(signPublicKey));
-        if (signPrivateKey != null)
-            this.signPrivateKey = kf.generatePrivate(new PKCS8EncodedKeySpec(signPrivateKey));
+        if (signPublicKey != null || signPrivateKey != null)
+            this.signer = TagSigner.load(signAlgorithm, signPublicKey, signPrivateKey);
     }
 
     public NimbleServiceID(String identity, String publicKey, String handle) throws NoSuchAlgorithmException, InvalidParameterSpecException, InvalidKeySpecException {
@@ -52,7 +72,13 @@ public NimbleServiceID(String identity, String publicKey, String handle) throws
 
     public NimbleServiceID(String identity, String publicKey, String handle, String signPublicKey, String signPrivateKey)
             throws NoSuchAlgorithmException, InvalidParameterSpecException, InvalidKeySpecException {
-        this(NimbleUtils.URLDecode(identity), NimbleUtils.URLDecode(publicKey), null,
+        this(identity, publicKey, handle, TagSigner.Algorithm.ECDSA_SECP256K1, signPublicKey, signPrivateKey);
+    }
+
+    public NimbleServiceID(String identity, String publicKey, String handle, TagSigner.Algorithm signAlgorithm,
+                           String signPublicKey, String signPrivateKey)
+            throws NoSuchAlgorithmException, InvalidParameterSpecException, InvalidKeySpecException {
+        this(NimbleUtils.URLDecode(identity), NimbleUtils.URLDecode(publicKey), null, signAlgorithm,
              NimbleUtils.URLDecode(signPublicKey), NimbleUtils.URLDecode(signPrivateKey));
         if (handle != null) {
             this.handle = NimbleUtils.URLDecode(handle);
@@ -61,90 +87,60 @@ public NimbleServiceID(String identity, String publicKey, String handle, String
 
     @Override
     public String toString() {
-        String pub = (this.signPublicKey != null) ? NimbleUtils.URLEncode(signPublicKey.getEncoded()) : "null";
-        String priv = (this.signPrivateKey != null) ? NimbleUtils.URLEncode(signPrivateKey.getEncoded()) : "null";
+        String pub = (this.signer != null) ? NimbleUtils.URLEncode(signer.getPublicKey()) : "null";
+        String priv = (this.signer != null) ? NimbleUtils.URLEncode(signer.getPrivateKey()) : "null";
 
         return "NimbleServiceID{" +
                 "identity=" + NimbleUtils.URLEncode(identity) +
                 ", publicKey=" + NimbleUtils.URLEncode(publicKey) +
                 ", handle=" + NimbleUtils.URLEncode(handle) +
+                ", signAlgorithm=" + (signer != null ? signer.getAlgorithm() : "null") +
                 ", signPublicKey=" + pub +
                 ", signPrivateKey=" + priv +
                 '}';
     }
 
-    public void generateSigningKeys() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
-        // Init
-        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("EC");
-        keyPairGen.initialize(new ECGenParameterSpec(SIGN_SPEC), new SecureRandom());
-
-        // Generate
-        KeyPair pair = keyPairGen.generateKeyPair();
-        this.signPublicKey = pair.getPublic();
-        this.signPrivateKey = pair.getPrivate();
+    public void generateSigningKeys() throws NimbleError {
+        generateSigningKeys(TagSigner.Algorithm.ECDSA_SECP256K1);
     }
 
-    public Signature getSignature() throws NimbleError {
-        if (this.signPrivateKey == null)
-            throw new NimbleError("Private key for signing is not set");
-
-        try {
-            Signature ecdsa = Signature.getInstance(SIGN_ALGO);
-            ecdsa.initSign(this.signPrivateKey);
-            return ecdsa;
-        } catch (Exception e) {
-            throw new NimbleError("Cannot sign message: " + e);
-        }
+    public void generateSigningKeys(TagSigner.Algorithm algorithm) throws NimbleError {
+        this.signer = TagSigner.generate(algorithm);
     }
 
-    public Signature verifySignature() throws NimbleError {
-        if (this.signPublicKey == null)
-            throw new NimbleError("Public key for signing is not set");
-
-        try {
-            Signature sg = Signature.getInstance(SIGN_ALGO);
-            sg.initVerify(signPublicKey);
-            return sg;
-        } catch (Exception e) {
-            throw new NimbleError("Cannot verify signature on tag: " + e);
-        }
+    /**
+     * Signs and verifies the tags stored in Nimble.
+     */
+    public TagSigner getTagSigner() throws NimbleError {
+        if (this.signer == null)
+            throw new NimbleError("Signing keys are not set");
+        return signer;
     }
 
     public boolean canSign() {
-        return signPrivateKey != null && signPublicKey != null;
+        return signer != null && signer.canSign();
+    }
+
+    public TagSigner.Algorithm getSignAlgorithm() {
+        return signer != null ? signer.getAlgorithm() : null;
     }
 
     public byte[] getSignPublicKey() {
-        return signPublicKey.getEncoded();
+        return signer != null ? signer.getPublicKey() : null;
     }
 
     public byte[] getSignPrivateKey() {
-        return signPrivateKey.getEncoded();
+        return signer != null ? signer.getPrivateKey() : null;
     }
 
     public boolean equals(NimbleServiceID other) {
-        boolean signPublic, signPrivate;
-
-        // Compare public signing keys
-        if (this.signPublicKey != null && other.signPublicKey != null)
-            signPublic = Arrays.equals(this.signPublicKey.getEncoded(), other.signPublicKey.getEncoded());
-        else if (this.signPublicKey == other.signPublicKey) // both are null, or same objects
-            signPublic = true;
-        else
-            signPublic = false;
-
-        // Compare private signing keys
-        if (this.signPrivateKey != null && other.signPrivateKey != null)
-            signPrivate = Arrays.equals(this.signPrivateKey.getEncoded(), other.signPrivateKey.getEncoded());
-        else if (this.signPrivateKey == other.signPrivateKey)  // both are null, or same objects
-            signPrivate = true;
-        else
-            signPrivate = false;
+        // Compare signing keys: both are unset, or same algorithm and keys
+        boolean sign = this.signer == null ? other.signer == null : this.signer.equals(other.signer);
 
         return Arrays.equals(this.identity, other.identity) &&
                 Arrays.equals(this.publicKey, other.publicKey) &&
                 Arrays.equals(this.handle, other.handle) &&
-                signPublic && signPrivate;
+                sign;
     }
 
     public boolean valid() {
@@ -154,14 +150,9 @@ public boolean valid() {
     }
 
     public static PublicKey parsePublicKey(byte[] pubKey) throws InvalidKeySpecException, NoSuchAlgorithmException {
-        ECNamedCurveParameterSpec spec = ECNamedCurveTable
-                .getParameterSpec("prime256v1");
-        ECNamedCurveSpec params = new ECNamedCurveSpec("prime256v1",
-                spec.getCurve(), spec.getG(), spec.getN());
-
-        ECPoint point = ECPointUtil.decodePoint(params.getCurve(), pubKey);
-        ECPublicKeySpec pubKeySpec = new ECPublicKeySpec(point, params);
-        KeyFactory kf = KeyFactory.getInstance("ECDSA", new BouncyCastleProvider());
+        ECPoint point = ECPointUtil.decodePoint(LEDGER_CURVE.getCurve(), pubKey);
+        ECPublicKeySpec pubKeySpec = new ECPublicKeySpec(point, LEDGER_CURVE);
+        KeyFactory kf = KeyFactory.getInstance("ECDSA", SIGN_PROVIDER);
         ECPublicKey pk = (ECPublicKey) kf.generatePublic(pubKeySpec);
         return pk;
     }
@@ -180,20 +171,39 @@ public static PublicKey parsePublicKey(byte[] pubKey) throws InvalidKeySpecExcep
      * @throws NoSuchProviderException
      */
     public boolean verifySignature(byte[] signature, byte[] msg) throws InvalidKeyException, SignatureException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException, NimbleError {
+        return verifySignature(signature, msg, 0, msg.length);
+    }
+
+    /**
+     * Same as verifySignature(byte[], byte[]) on msg[off, off+len). Reuses an
+     * initialized verifier of the calling thread.
+     */
+    public boolean verifySignature(byte[] signature, byte[] msg, int off, int len) throws InvalidKeyException, SignatureException, NoSuchAlgorithmException, InvalidKeySpecException, NimbleError {
         // Available algorithms:
         // https://docs.oracle.com/javase/8/docs/technotes/guides/security/StandardNames.html#KeyFactory
-        Signature sg = Signature.getInstance("SHA256withECDSA", new BouncyCastleProvider());
-
-        if (pk == null)
+        PublicKey key = pk;
+        if (key == null)
             if (publicKey != null)
-                pk = parsePublicKey(publicKey);
+                pk = key = parsePublicKey(publicKey);
             else
                 throw new NimbleError("No public key is set");
+        if (signature == null || signature.length != 64)
+            return false;
 
-        // Verification
-        sg.initVerify(pk);
-        sg.update(msg);
-        return sg.verify(NimbleServiceID.toANS1Signature(signature));
+        Verifier v = verifier.get();
+        if (v == null || v.key != key) {
+            v = new Verifier(key);
+            verifier.set(v);
+        }
+
+        // Verification. verify() resets sg for the next message, also on failure.
+        try {
+            v.sg.update(msg, off, len);
+            return v.sg.verify(NimbleServiceID.toANS1Signature(signature));
+        } catch (SignatureException e) {
+            verifier.remove(); // state unknown
+            throw e;
+        }
     }
 
     /**
@@ -0,0 +1,57 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Moves requests to the Nimble REST endpoint and back.
+ *
+ * NimbleAPI builds request bodies and URIs and interprets the responses; the
+ * transport only carries bytes. The implementation is chosen with
+ * fs.nimble.transport.impl and must have a no-argument constructor.
+ */
+public interface NimbleTransport extends Closeable {
+    String GET  = "GET";
+    String PUT  = "PUT";
+    String POST = "POST";
+
+    /**
+     * Called once before any request.
+     *
+     * @param endpoint base URI of the Nimble REST endpoint (fs.nimbleURI)
+     */
+    void initialize(URI endpoint, Configuration conf) throws IOException;
+
+    /**
+     * Execute a request and wait for its response.
+     *
+     * @param body JSON request body, or null
+     */
+    NimbleResponse execute(String method, URI uri, byte[] body) throws IOException;
+
+    /**
+     * Whether pipeline() sends requests without waiting for earlier responses.
+     */
+    default boolean supportsPipelining() {
+        return false;
+    }
+
+    /**
+     * Send a request without waiting for the responses of earlier pipelined
+     * requests. Requests reach the endpoint in call order and their futures
+     * complete in the same order. The default executes synchronously.
+     */
+    default CompletableFuture<NimbleResponse> pipeline(String method, URI uri, byte[] body) {
+        CompletableFuture<NimbleResponse> f = new CompletableFuture<>();
+        try {
+            f.complete(execute(method, uri, body));
+        } catch (IOException e) {
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+}
@@ -5,6 +5,7 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage;
+import org.apache.hadoop.hdfs.util.Sha256;
 import org.apache.hadoop.thirdparty.com.google.common.io.BaseEncoding;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -33,6 +34,27 @@ public static class Conf {
         public static final String NIMBLE_LEDGER_URI_DEFAULT = "http://localhost:8082/";
         public static final String BATCH_SIZE_KEY            = "fs.nimble.batchSize";
         public static final long BATCH_SIZE__DEFAULT         = 2;
+        public static final String BATCH_POLICY_KEY          = "fs.nimble.batch.policy";
+        public static final String BATCH_POLICY_DEFAULT      = "fixed";
+        public static final String BATCH_MAX_OPS_KEY         = "fs.nimble.batch.maxOps";
+        public static final int BATCH_MAX_OPS_DEFAULT        = 1024;
+        public static final String BATCH_MAX_BYTES_KEY       = "fs.nimble.batch.maxBytes";
+        public static final long BATCH_MAX_BYTES_DEFAULT     = 1024 * 1024;
+        public static final String BATCH_MAX_AGE_KEY         = "fs.nimble.batch.maxAge";
+        public static final long BATCH_MAX_AGE_DEFAULT       = 1000; // ms
+        public static final String COMMIT_MAX_IN_FLIGHT_KEY  = "fs.nimble.commit.maxInFlight";
+        public static final int COMMIT_MAX_IN_FLIGHT_DEFAULT = 4;
+        public static final String TAG_ALGORITHM_KEY         = "fs.nimble.tag.algorithm";
+        public static final String TAG_ALGORITHM_DEFAULT     = "ecdsa-secp256k1";
+        public static final String REPLAY_VERIFY_THREADS_KEY = "fs.nimble.replay.verifyThreads";
+        public static final int REPLAY_VERIFY_THREADS_DEFAULT = 2;
+        public static final String TRANSPORT_IMPL_KEY        = "fs.nimble.transport.impl";
+        public static final String TRANSPORT_PIPELINING_KEY  = "fs.nimble.transport.pipelining";
+        public static final boolean TRANSPORT_PIPELINING_DEFAULT = false;
+        public static final String TRANSPORT_CONNECT_TIMEOUT_KEY = "fs.nimble.transport.connectTimeout";
+        public static final long TRANSPORT_CONNECT_TIMEOUT_DEFAULT = 5000; // ms
+        public static final String TRANSPORT_SOCKET_TIMEOUT_KEY  = "fs.nimble.transport.socketTimeout";
+        public static final long TRANSPORT_SOCKET_TIMEOUT_DEFAULT  = 60000; // ms
     }
 
     // URL of NimbleLedger's REST endpoint
@@ -45,8 +67,10 @@ public static class Conf {
         /* Enable debug logging for all Nimble classes, if debugging is enabled on this class */
         if (logger.isDebugEnabled()) {
             NimbleAPI.logger.setLevel(Level.DEBUG);
+            HttpNimbleTransport.logger.setLevel(Level.DEBUG);
             TMCS.logger.setLevel(Level.DEBUG);
             TMCSEditLog.logger.setLevel(Level.DEBUG);
+            TMCSCommitter.logger.setLevel(Level.DEBUG);
         }
     }
     public static boolean debug() {
@@ -146,10 +170,13 @@ public static NimbleServiceID loadNimbleInfo(Configuration conf, Storage.Storage
         }
 
         Properties props = Storage.readPropertiesFile(getNimbleInfo(sd));
+        // Keys saved before the algorithm was recorded are secp256k1
+        TagSigner.Algorithm signAlgorithm = TagSigner.Algorithm.parse(props.getProperty("signAlgorithm"));
         NimbleServiceID fsID = new NimbleServiceID(
                 props.getProperty("identity", Conf.SERVICE_IDENTITY_DEFAULT),
                 props.getProperty("publicKey", Conf.SERVICE_PUBLIC_KEY_DEFAULT),
                 props.getProperty("handle", Conf.SERVICE_HANDLE_DEFAULT),
+                signAlgorithm,
                 props.getProperty("signPublicKey"),
                 props.getProperty("signPrivateKey")
         );
@@ -158,6 +185,7 @@ public static NimbleServiceID loadNimbleInfo(Configuration conf, Storage.Storage
                 conf.get(Conf.SERVICE_IDENTITY_KEY, Conf.SERVICE_IDENTITY_DEFAULT),
                 conf.get(Conf.SERVICE_PUBLIC_KEY_KEY, Conf.SERVICE_PUBLIC_KEY_DEFAULT),
                 conf.get(Conf.SERVICE_HANDLE_KEY, Conf.SERVICE_HANDLE_DEFAULT),
+                signAlgorithm,
                 // TODO: Load from Azure Key Vault
                 props.getProperty("signPublicKey"),
                 props.getProperty("signPrivateKey")
@@ -191,6 +219,7 @@ public static void saveNimbleInfo(Storage.StorageDirectory sd, NimbleServiceID i
         props.setProperty("publicKey", URLEncode(id.publicKey));
         props.setProperty("handle", URLEncode(id.handle));
         // TODO: Store in Azure Key Vault
+        props.setProperty("signAlgorithm", id.getSignAlgorithm().toString());
         props.setProperty("signPublicKey", URLEncode(id.getSignPublicKey()));
         props.setProperty("signPrivateKey", URLEncode(id.getSignPrivateKey()));
         Storage.writeProperties(nimble_info, props);
@@ -198,12 +227,13 @@ public static void saveNimbleInfo(Storage.StorageDirectory sd, NimbleServiceID i
 
     /**
      * Called from FSImageSaver to save "fsimage_###.nimble"
+     *
+     * @param digest SHA-256 of the fsimage, computed while it was written
      */
-    public static void saveFSImageInfo(File fsimage) throws IOException, NoSuchAlgorithmException {
+    public static void saveFSImageInfo(File fsimage, byte[] digest) throws IOException {
         // Prepare data
         Properties props = new Properties();
         TMCS tmcs = TMCS.getInstance();
-        byte[] digest = NimbleUtils.checksum(fsimage);
         byte[] tag = getTagForFSImage(digest, tmcs.expectedCounter());
         logger.info("Signed tag for FSImage: " + URLEncode(tag));
 
@@ -231,29 +261,40 @@ public NimbleFSImageInfo(int counter, byte[] digest, byte[] tag) {
     }
 
     /**
-     * Called from FSImageSaver to load "fsimage_###.nimble"
+     * Read "fsimage_###.nimble" as saved, without checking the fsimage.
+     * Only for an image whose digest was just computed, see
+     * {@link #getFSImageInfo(File, byte[])}.
      */
-    public static NimbleFSImageInfo getFSImageInfo(File fsimage) throws IOException {
-        logger.info("getFSImageInfo for: "+fsimage);
+    public static NimbleFSImageInfo readFSImageInfo(File fsimage) throws IOException {
         File nimble_info = new File(fsimage.getParentFile(), fsimage.getName() + NIMBLE_FSIMAGE_EXTENSION);
         Properties props = Storage.readPropertiesFile(nimble_info);
-        byte[] digest_curr = NimbleUtils.checksum(fsimage);
 
         byte[] digest_saved = URLDecode(props.getProperty("sha256sum-fsimage", ""));
         int counter_saved = Integer.parseInt(props.getProperty("counter", "-2"));
         byte[] tag_saved = URLDecode(props.getProperty("tag", ""));
+        return new NimbleFSImageInfo(counter_saved, digest_saved, tag_saved);
+    }
+
+    /**
+     * Load "fsimage_###.nimble", hashing the fsimage to check it
+     */
+    public static NimbleFSImageInfo getFSImageInfo(File fsimage) throws IOException {
+        logger.info("getFSImageInfo for: "+fsimage);
+        return getFSImageInfo(fsimage, NimbleUtils.checksum(fsimage));
+    }
+
+    /**
+     * Load "fsimage_###.nimble" and check it against the SHA-256 of the
+     * fsimage, computed while it was read
+     */
+    public static NimbleFSImageInfo getFSImageInfo(File fsimage, byte[] digest_curr) throws IOException {
+        NimbleFSImageInfo info = readFSImageInfo(fsimage);
 
         // Sanity checks
-        if (!Arrays.equals(digest_curr, digest_saved))
+        if (!Arrays.equals(digest_curr, info.digest))
             throw new NimbleError("Saved & current checksums do not match");
 
-        return new NimbleFSImageInfo(counter_saved, digest_saved, tag_saved);
-    }
-
-    public static boolean verifyFSImageInfo(File fsImage) throws IOException {
-        // The following also verifies the signature on FSImage's tag
-        NimbleFSImageInfo info = NimbleUtils.getFSImageInfo(fsImage);
-        return verifyTagForFSImage(info.tag, info.digest, info.counter);
+        return info;
     }
 
     public static void renameFSImageInfo(File from, File to) throws IOException {
@@ -268,23 +309,13 @@ public static void renameFSImageInfo(File from, File to) throws IOException {
     }
 
     public static byte[] getTagForFSImage(byte[] digest, int counter) throws IOException {
-        try {
-            Signature tag = TMCS.getInstance().getSignature();
-            tag.update(InetAddress.getLocalHost().getHostName().getBytes(StandardCharsets.UTF_8));
-            return tag.sign();
-        } catch (SignatureException e) {
-            throw new NimbleError("Cannot compute signature: " + e);
-        }
+        TagSigner signer = TMCS.getInstance().getTagSigner();
+        return signer.sign(signer.digest(InetAddress.getLocalHost().getHostName().getBytes(StandardCharsets.UTF_8)));
     }
 
     public static boolean verifyTagForFSImage(byte[] tag, byte[] digest, int counter) throws IOException {
-        try {
-            Signature vTag = TMCS.getInstance().verifySignature();
-            vTag.update(InetAddress.getLocalHost().getHostName().getBytes(StandardCharsets.UTF_8));
-            return vTag.verify(tag);
-        } catch (SignatureException e) {
-            throw new NimbleError("Cannot compute signature: " + e);
-        }
+        TagSigner signer = TMCS.getInstance().getTagSigner();
+        return signer.verify(signer.digest(InetAddress.getLocalHost().getHostName().getBytes(StandardCharsets.UTF_8)), tag);
     }
 
     public static byte[] getNonce() {
@@ -305,7 +336,7 @@ public static byte[] URLDecode(String value) {
 
     public static MessageDigest _checksum() throws NimbleError {
         try {
-            return MessageDigest.getInstance("SHA-256");
+            return Sha256.newDigest();
         } catch (NoSuchAlgorithmException e) {
             throw new NimbleError("cannot compute SHA256");
         }
@@ -313,19 +344,25 @@ public static MessageDigest _checksum() throws NimbleError {
 
     public static byte[] checksum(byte[] value) throws NimbleError {
         MessageDigest md = _checksum();
-        return md.digest(value);
+        try {
+            return md.digest(value);
+        } finally {
+            Sha256.release(md);
+        }
     }
 
     public static byte[] checksum(File file) throws IOException {
         MessageDigest       md  = _checksum();
-        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = bis.read(buffer)) > 0) {
+                md.update(buffer, 0, count);
+            }
 
-        byte[] buffer = new byte[8192];
-        int count;
-        while ((count = bis.read(buffer)) > 0) {
-            md.update(buffer, 0, count);
+            return md.digest();
+        } finally {
+            Sha256.release(md);
         }
-
-        return md.digest();
     }
 }
@@ -2,24 +2,28 @@
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.server.common.Storage;
+import org.apache.hadoop.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.util.Time;
 import org.apache.log4j.Logger;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
-import java.security.Signature;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class TMCS implements Closeable {
     static Logger logger = Logger.getLogger(TMCS.class);
 
     private static TMCS instance;
+    private static Configuration conf; // for lazy loading; null means defaults
     private NimbleServiceID id;
     private NimbleAPI api;
     private int counter = -1;
 
     private void _TMCS() throws NimbleError {
-        api = new NimbleAPI(new Configuration());
+        api = new NimbleAPI(conf != null ? conf : new Configuration());
         try {
             id = NimbleUtils.loadAndValidateNimbleInfo(api);
             logger.info("Loaded Nimble info: " + id);
@@ -70,6 +74,24 @@ public synchronized static TMCS getInstance() throws NimbleError {
         return _getInstance();
     }
 
+    /**
+     * Drop the current instance so that the next format() or getInstance()
+     * talks to the ledger given by conf. Used when several clusters run in
+     * one JVM (see MiniDFSCluster).
+     */
+    @VisibleForTesting
+    public synchronized static void reset(Configuration conf) {
+        if (instance != null && instance.api != null) {
+            try {
+                instance.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close TMCS: " + e);
+            }
+        }
+        instance = null;
+        TMCS.conf = conf;
+    }
+
     /**
      * Refresh service identity and create new ledger handle.
      */
@@ -81,7 +103,9 @@ public synchronized static void format(Configuration conf) throws IOException {
         try {
             instance.id = instance.api.getServiceID();
             instance.id.handle = NimbleUtils.getNonce();
-            instance.id.generateSigningKeys();
+            instance.id.generateSigningKeys(TagSigner.Algorithm.parse(
+                    (conf != null ? conf : new Configuration()).get(
+                            NimbleUtils.Conf.TAG_ALGORITHM_KEY, NimbleUtils.Conf.TAG_ALGORITHM_DEFAULT)));
             // newCounter whose tag=[hostname]. We don't sign it because it is not used.
             instance._initialize(InetAddress.getLocalHost().getHostName().getBytes(StandardCharsets.UTF_8));
             logger.info("Formatted TMCS: " + instance.id);
@@ -121,35 +145,95 @@ public synchronized void initialize(byte[] tag) throws IOException {
         _initialize(tag);
     }
 
-    public Signature getSignature() throws NimbleError {
-        return id.getSignature();
+    public TagSigner getTagSigner() throws NimbleError {
+        return id.getTagSigner();
     }
 
-    public Signature verifySignature() throws NimbleError {
-        return id.verifySignature();
-    }
-
-    public synchronized void increment(byte[] tag) throws IOException {
+    public synchronized NimbleOpIncrementCounter increment(byte[] tag) throws IOException {
         if (counter == -1)
             throw new NimbleError("not initialized");
 
         // TODO: Sign tag
-        NimbleOp op = api.incrementCounter(id, tag, counter+1);
+        long start = Time.monotonicNow();
+        NimbleOpIncrementCounter op = api.incrementCounter(id, tag, counter+1);
+        NimbleMetrics.get().addLedgerRoundTrip(Time.monotonicNow() - start);
         counter++;
         if (!op.verify())
             throw new NimbleError("Verification failed for IncrementCounter");
-        else
-            logger.info("Verified IncrementCounter");
-        logger.info(String.format("increment: newCounter=%d tag=%s",
-                counter, NimbleUtils.URLEncode(tag)));
+        if (logger.isDebugEnabled())
+            logger.debug(String.format("increment: newCounter=%d tag=%s",
+                    counter, NimbleUtils.URLEncode(tag)));
+        return op;
+    }
+
+    /**
+     * Increment the counter to an explicit value.
+     *
+     * Unlike increment(), the TMCS monitor is not held during the round-trip to
+     * the ledger, so several calls may be in flight at once. The caller is
+     * responsible for issuing them in counter order (see TMCSCommitter).
+     */
+    public NimbleOpIncrementCounter incrementTo(byte[] tag, int expected) throws IOException {
+        NimbleAPI api;
+        NimbleServiceID id;
+        synchronized (this) {
+            if (counter == -1)
+                throw new NimbleError("not initialized");
+            api = this.api;
+            id = this.id;
+        }
+
+        return acknowledged(api.incrementCounter(id, tag, expected));
+    }
+
+    /**
+     * Same as incrementTo(), but pipelined behind earlier calls when the
+     * transport supports it (see supportsPipelining()).
+     */
+    public CompletableFuture<NimbleOpIncrementCounter> incrementToAsync(byte[] tag, int expected) {
+        NimbleAPI api;
+        NimbleServiceID id;
+        synchronized (this) {
+            if (counter == -1) {
+                CompletableFuture<NimbleOpIncrementCounter> f = new CompletableFuture<>();
+                f.completeExceptionally(new NimbleError("not initialized"));
+                return f;
+            }
+            api = this.api;
+            id = this.id;
+        }
+
+        return api.incrementCounterAsync(id, tag, expected).thenApply(op -> {
+            try {
+                return acknowledged(op);
+            } catch (NimbleError e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private NimbleOpIncrementCounter acknowledged(NimbleOpIncrementCounter op) throws NimbleError {
+        if (!op.verify())
+            throw new NimbleError("Verification failed for IncrementCounter: counter=" + op.counter);
+        if (logger.isDebugEnabled())
+            logger.debug(String.format("incrementTo: newCounter=%d tag=%s",
+                    op.counter, NimbleUtils.URLEncode(op.tag)));
+
+        synchronized (this) {
+            if (op.counter > counter)
+                counter = op.counter;
+        }
+        return op;
+    }
+
+    public synchronized boolean supportsPipelining() {
+        return api != null && api.supportsPipelining();
     }
 
     private NimbleOpReadLatest _latest() throws IOException {
         NimbleOpReadLatest op = api.readLatest(id);
         if (!op.verify())
             throw new NimbleError("Verification failed for ReadCounter");
-        else
-            logger.info("Verified ReadCounter");
         return op;
     }
 
@@ -162,6 +246,20 @@ public synchronized NimbleOpReadLatest latest() throws IOException {
         return op;
     }
 
+    /**
+     * Like latest(), but the ledger may have moved on without us, e.g. while
+     * the Active writes and we tail its edits. Our counter follows the ledger.
+     */
+    public synchronized NimbleOpReadLatest readLatest() throws IOException {
+        if (counter == -1)
+            throw new NimbleError("not initialized");
+
+        NimbleOpReadLatest op = _latest();
+        if (op.counter > counter)
+            counter = op.counter;
+        return op;
+    }
+
     public synchronized int expectedCounter() throws IOException {
         if (counter == -1)
             throw new NimbleError("not initialized");
@@ -0,0 +1,108 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the active NameNode closes a batch. Whatever the policy,
+ * FSEditLog closes it by writing an OP_NIMBLE_FLUSH, which is the only thing
+ * that closes a batch on replay. The policy is therefore a writer-side
+ * setting, and may differ between the NameNodes or change across restarts.
+ *
+ * FIXED: close after fs.nimble.batchSize ops.
+ *
+ * ADAPTIVE: the batch grows with the edit arrival rate and the measured
+ * ledger latency, so that the commit pipeline (maxInFlight calls of one RTT
+ * each) is kept busy but not overrun. A batch is bounded by maxOps, maxBytes
+ * and maxAgeMs. On an idle namespace FSNamesystem.NimbleBatchSealer writes
+ * the OP_NIMBLE_FLUSH once maxAgeMs is reached.
+ */
+class TMCSBatchPolicy {
+    enum Mode { FIXED, ADAPTIVE }
+
+    // Weight of the newest sample in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private final Mode mode;
+    private final long batchSize;
+    private final int maxOps;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final int maxInFlight;
+
+    private double opsPerMs = 0; // moving average of the edit arrival rate
+    private int targetOps = 1;
+
+    TMCSBatchPolicy(Configuration conf) {
+        String m = conf.getTrimmed(NimbleUtils.Conf.BATCH_POLICY_KEY, NimbleUtils.Conf.BATCH_POLICY_DEFAULT);
+        try {
+            this.mode = Mode.valueOf(m.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + NimbleUtils.Conf.BATCH_POLICY_KEY + ": " + m);
+        }
+        this.batchSize = conf.getLong(NimbleUtils.Conf.BATCH_SIZE_KEY, NimbleUtils.Conf.BATCH_SIZE__DEFAULT);
+        this.maxOps = Math.max(1, conf.getInt(NimbleUtils.Conf.BATCH_MAX_OPS_KEY,
+                NimbleUtils.Conf.BATCH_MAX_OPS_DEFAULT));
+        this.maxBytes = conf.getLongBytes(NimbleUtils.Conf.BATCH_MAX_BYTES_KEY,
+                NimbleUtils.Conf.BATCH_MAX_BYTES_DEFAULT);
+        this.maxAgeMs = conf.getTimeDuration(NimbleUtils.Conf.BATCH_MAX_AGE_KEY,
+                NimbleUtils.Conf.BATCH_MAX_AGE_DEFAULT, TimeUnit.MILLISECONDS);
+        this.maxInFlight = Math.max(1, conf.getInt(NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_KEY,
+                NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_DEFAULT));
+    }
+
+    boolean isAdaptive() {
+        return mode == Mode.ADAPTIVE;
+    }
+
+    /**
+     * Whether the open batch should be sealed after its last op.
+     *
+     * @param ledgerLatencyMs moving average of the IncrementCounter RTT
+     */
+    synchronized boolean shouldSeal(int num, long bytes, long ageMs, double ledgerLatencyMs) {
+        if (num == 0)
+            return false;
+        if (mode == Mode.FIXED)
+            return num >= batchSize;
+        if (num >= maxOps || bytes >= maxBytes || ageMs >= maxAgeMs)
+            return true;
+
+        // Ops arriving during one ledger call, spread over the in-flight slots
+        double rate = Math.max(opsPerMs, ageMs > 0 ? (double) num / ageMs : 0);
+        targetOps = (int) Math.min(maxOps, Math.max(1, Math.ceil(rate * ledgerLatencyMs / maxInFlight)));
+        return num >= targetOps;
+    }
+
+    synchronized void batchClosed(int num, long ageMs) {
+        opsPerMs = average(opsPerMs, (double) num / Math.max(1, ageMs));
+    }
+
+    long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    synchronized int getTargetOps() {
+        return targetOps;
+    }
+
+    /**
+     * Exponentially weighted moving average; the first sample seeds it.
+     */
+    static double average(double current, double sample) {
+        return current == 0 ? sample : ALPHA * sample + (1 - ALPHA) * current;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TMCSBatchPolicy{" +
+                "mode=" + mode +
+                (mode == Mode.FIXED ? ", batchSize=" + batchSize :
+                        ", maxOps=" + maxOps +
+                        ", maxBytes=" + maxBytes +
+                        ", maxAgeMs=" + maxAgeMs +
+                        ", targetOps=" + targetOps) +
+                '}';
+    }
+}
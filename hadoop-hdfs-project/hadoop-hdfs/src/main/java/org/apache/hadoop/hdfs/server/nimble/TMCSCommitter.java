@@ -0,0 +1,328 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.util.Time;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Ledger-commit stage of TMCSEditLog.
+ *
+ * Closed batches are handed over by the edit log and committed to Nimble off
+ * the edit-log monitor. At most maxInFlight IncrementCounter calls are
+ * outstanding at once. They are issued in counter order and acknowledged in
+ * counter order. A call rejected while its predecessor is still outstanding
+ * (the ledger only accepts counter+1) is retried once the predecessor is
+ * acknowledged.
+ *
+ * If the transport supports pipelining, calls are sent back-to-back on one
+ * connection by a single sender thread, so they reach the ledger in counter
+ * order and rejections for ordering do not occur.
+ *
+ * Writers call waitForCommit(txid) from logSync() to block until the batch
+ * covering their transaction has been acknowledged, like group commit. The
+ * async edit log instead registers runAfterCommit(txid, action), so that its
+ * sync thread does not wait for the ledger. The actions run in txid order on
+ * a notifier thread, never on the threads that complete ledger calls.
+ *
+ * A batch the ledger does not accept, or whose receipt does not verify, fails
+ * the stage for good: nothing more is sent to the ledger, submit() throws, and
+ * every waiter is handed the failure.
+ */
+class TMCSCommitter implements Closeable {
+    static Logger logger = Logger.getLogger(TMCSCommitter.class);
+
+    private static class Batch {
+        final int counter;
+        final byte[] tag;
+        final long lastTxId;
+        boolean done, retry;
+        boolean sentAsHead; // predecessor was acknowledged when this was sent
+        IOException error;
+
+        Batch(int counter, byte[] tag, long lastTxId) {
+            this.counter = counter;
+            this.tag = tag;
+            this.lastTxId = lastTxId;
+        }
+    }
+
+    private static class Waiter {
+        final long txId;
+        final Consumer<IOException> action;
+
+        Waiter(long txId, Consumer<IOException> action) {
+            this.txId = txId;
+            this.action = action;
+        }
+    }
+
+    private final TMCS tmcs;
+    private final int maxInFlight;
+    private final boolean pipelined;
+    private final ExecutorService executor;
+    private final ExecutorService notifier;
+    private final PriorityQueue<Waiter> waiters =
+            new PriorityQueue<>(Comparator.comparingLong((Waiter w) -> w.txId));
+
+    private final ArrayDeque<Batch> queued = new ArrayDeque<>();   // waiting for a slot
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>(); // dispatched, oldest first
+    private long submittedTxId = 0, ackedTxId = 0;
+    private int ackedCounter;
+    private double latencyMs; // moving average of the IncrementCounter RTT
+    private IOException failure;
+    private boolean closed;
+
+    TMCSCommitter(TMCS tmcs, int maxInFlight) {
+        this.tmcs = tmcs;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.pipelined = tmcs.supportsPipelining();
+        // A pipelined send returns immediately; one thread keeps them in order
+        this.executor = Executors.newFixedThreadPool(pipelined ? 1 : this.maxInFlight,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("TMCSCommitter-%d")
+                        .build());
+        this.notifier = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("TMCSCommitter-notify-%d")
+                        .build());
+    }
+
+    /**
+     * Queue a closed batch. Never blocks on the ledger.
+     *
+     * @param lastTxId highest transaction covered by the batch, or 0 if the
+     *                 batch does not cover edit log transactions (FSImage)
+     * @throws NimbleError if the stage is closed or an earlier batch failed
+     */
+    synchronized void submit(int counter, byte[] tag, long lastTxId) throws IOException {
+        if (closed)
+            throw new NimbleError("TMCSCommitter is closed");
+        checkFailure();
+        submittedTxId = Math.max(submittedTxId, lastTxId);
+        queued.add(new Batch(counter, tag, submittedTxId));
+        dispatch();
+        NimbleMetrics.get().setCounterLag(getPending());
+    }
+
+    private void dispatch() {
+        assert Thread.holdsLock(this);
+        while (failure == null && inFlight.size() < maxInFlight && !queued.isEmpty()) {
+            Batch b = queued.poll();
+            inFlight.add(b);
+            send(b);
+        }
+    }
+
+    private void send(final Batch b) {
+        assert Thread.holdsLock(this);
+        b.sentAsHead = inFlight.peek() == b;
+        try {
+            executor.execute(() -> commit(b));
+        } catch (RejectedExecutionException e) {
+            b.done = true;
+            b.error = new NimbleError("TMCSCommitter is closed");
+        }
+    }
+
+    private void commit(Batch b) {
+        long start = Time.monotonicNow();
+        if (pipelined) {
+            tmcs.incrementToAsync(b.tag, b.counter).whenComplete((op, t) ->
+                    completed(b, t == null ? null : toIOException(t), Time.monotonicNow() - start));
+            return;
+        }
+
+        IOException error = null;
+        try {
+            tmcs.incrementTo(b.tag, b.counter);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new NimbleError("IncrementCounter failed: " + e);
+        }
+        completed(b, error, Time.monotonicNow() - start);
+    }
+
+    private static IOException toIOException(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof IOException ? (IOException) cause
+                : new NimbleError("IncrementCounter failed: " + cause);
+    }
+
+    private synchronized void completed(Batch b, IOException error, long elapsedMs) {
+        if (error == null) {
+            latencyMs = TMCSBatchPolicy.average(latencyMs, elapsedMs);
+            NimbleMetrics.get().addLedgerRoundTrip(elapsedMs);
+        }
+        if (error != null && !b.sentAsHead) {
+            // Predecessor was outstanding; the ledger may have seen us first.
+            logger.debug("deferring retry of counter=" + b.counter + ": " + error.getMessage());
+            b.retry = true;
+        } else {
+            b.done = true;
+            b.error = error;
+        }
+
+        // Acknowledge strictly in counter order
+        while (!inFlight.isEmpty()) {
+            Batch head = inFlight.peek();
+            if (head.retry && failure == null) {
+                head.retry = false;
+                send(head);
+                continue; // a rejected send completes immediately
+            }
+            if (!head.done)
+                break;
+            inFlight.poll();
+            if (head.retry || head.error != null) {
+                if (failure == null) {
+                    logger.error("Cannot commit counter=" + head.counter + " to Nimble", head.error);
+                    failure = head.error;
+                }
+                continue;
+            }
+            ackedCounter = head.counter;
+            ackedTxId = head.lastTxId;
+        }
+
+        dispatch();
+        NimbleMetrics.get().setCounterLag(getPending());
+        releaseWaiters();
+        notifyAll();
+    }
+
+    private void releaseWaiters() {
+        assert Thread.holdsLock(this);
+        while (!waiters.isEmpty()
+                && (waiters.peek().txId <= ackedTxId || failure != null || closed)) {
+            Waiter w = waiters.poll();
+            final IOException error = w.txId <= ackedTxId ? null : commitFailure();
+            try {
+                notifier.execute(() -> w.action.accept(error));
+            } catch (RejectedExecutionException e) {
+                w.action.accept(error);
+            }
+        }
+    }
+
+    /**
+     * Wait until every closed batch covering transactions up to txid has been
+     * acknowledged by the ledger. Transactions still in the open batch are not
+     * waited for.
+     */
+    synchronized void waitForCommit(long txid) throws IOException {
+        long target = Math.min(txid, submittedTxId);
+        boolean interrupted = false;
+        while (ackedTxId < target && failure == null) {
+            try {
+                wait(1000);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        checkFailure();
+    }
+
+    /**
+     * Run the action once every closed batch covering transactions up to
+     * txid has been acknowledged, or the commit stage has failed or closed.
+     * Runs it on the calling thread if there is nothing to wait for. The
+     * action is passed null if the transactions were acknowledged, and the
+     * reason otherwise.
+     */
+    void runAfterCommit(long txid, Consumer<IOException> action) {
+        IOException error = null;
+        synchronized (this) {
+            long target = Math.min(txid, submittedTxId);
+            if (ackedTxId < target) {
+                if (failure == null && !closed) {
+                    waiters.add(new Waiter(target, action));
+                    return;
+                }
+                error = commitFailure();
+            }
+        }
+        action.accept(error);
+    }
+
+    /**
+     * Wait until all submitted batches have been acknowledged.
+     */
+    synchronized void drain() throws IOException {
+        boolean interrupted = false;
+        while ((!queued.isEmpty() || !inFlight.isEmpty()) && failure == null) {
+            try {
+                wait(1000);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        checkFailure();
+    }
+
+    private void checkFailure() throws NimbleError {
+        assert Thread.holdsLock(this);
+        if (failure != null)
+            throw commitFailure();
+    }
+
+    private NimbleError commitFailure() {
+        assert Thread.holdsLock(this);
+        return failure != null
+                ? new NimbleError("Nimble ledger commit failed: " + failure.getMessage())
+                : new NimbleError("TMCSCommitter is closed");
+    }
+
+    synchronized int getAckedCounter() {
+        return ackedCounter;
+    }
+
+    synchronized double getLatencyMs() {
+        return latencyMs;
+    }
+
+    synchronized int getPending() {
+        return queued.size() + inFlight.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                releaseWaiters();
+            }
+            executor.shutdownNow();
+            notifier.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TMCSCommitter{" +
+                "ackedCounter=" + ackedCounter +
+                ", ackedTxId=" + ackedTxId +
+                ", inFlight=" + inFlight.size() +
+                ", queued=" + queued.size() +
+                '}';
+    }
+}
@@ -3,72 +3,184 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.apache.hadoop.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.util.Time;
 import org.apache.log4j.Logger;
 
 import java.io.*;
-import java.security.Signature;
-import java.security.SignatureException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_NIMBLE_FLUSH;
+import static org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion.Feature.NIMBLE_FLUSH_BOUNDARIES;
 
 /**
- * We aggregate EditLog ops for fixed number, or till we encounter the special NimbleOp (or just flush?).
- * Then we increment TMCS. The Tag contains the PreviousTag with ops.
+ * We aggregate EditLog ops into batches, each closed by the special NimbleOp that FSEditLog writes when
+ * TMCSBatchPolicy says so. Then we increment TMCS. The Tag contains the PreviousTag with ops: the digest
+ * of a batch starts with the digest of the batch before it, or with the tag of
+ * the FSImage for the first batch after it. Verifying the latest tag therefore
+ * covers every batch since the image.
  *
- * To Verify: when applying the EditLogs, we keep doing the same.
+ * To Verify: when applying the EditLogs, we keep doing the same. Replayed
+ * batches are hashed by TMCSReplayVerifier, overlapped with the replay.
+ *
+ * On the Standby the replay never ends: verifyTailed() checks the ledger after
+ * every tail, so that failover only has to check what was tailed since. A
+ * replayed batch counts as verified once its tag, or the tag of any later
+ * batch chaining it, matches the ledger; until then verifyState() checks it
+ * through the tag of the last batch.
+ *
+ * Closed batches are committed to the ledger asynchronously by TMCSCommitter.
+ * FSEditLog.logSync() calls waitForCommit() so that a writer returns only after
+ * the batch covering its transaction has been acknowledged. FSEditLogAsync
+ * uses runAfterCommit() instead, so that its sync thread keeps batching while
+ * the ledger acknowledges, and only the RPC responses wait.
  */
 public class TMCSEditLog {
     static Logger logger = Logger.getLogger(TMCS.class);
 
     private Configuration conf;
-    private long aggregateFrequency;
+    private TMCSBatchPolicy policy;
     private NimbleUtils.NimbleFSImageInfo fsImage; // base image for all operations
     private boolean apply; // false means don't increment to TMCS (we're verifying)
     private int num, nextCounter;
+    private long lastTxId; // highest txid recorded in the current batch
+    private long batchStart; // monotonic time when the current batch was opened
+    private boolean sealClaimed; // an OP_NIMBLE_FLUSH is on its way to close the current batch
+    private volatile TMCSCommitter committer;
+    private TMCSReplayVerifier replay; // set in load mode
     private SignatureOutputStream tag, previousTag;
-    private DataOutputStream out; // wrapper for tag
+    private byte[] imageTag; // chained into the first batch after the image
+    private DataOutputStream out; // wrapper for tag, counts bytes of the current batch
     private TMCS tmcs;
 
+    // Tags of the replayed batches the ledger may still return, by counter
+    private final TreeMap<Integer, SignatureOutputStream> tailed = new TreeMap<>();
+    private int verifiedCounter = -1; // last counter whose tag matched the ledger, covering those before it
+    private int imageCounter; // counter of the image the batches chain from
+    private int checkedCounter = -1; // replayed counter when the ledger was last read
+
+    // opcode (1), length (4) and txid (8) precede the fields of a frame
+    private static final int FRAME_HEADER_LENGTH = 13;
+
+    /**
+     * Running digest of the bytes of a batch, signed or verified by a
+     * TagSigner when the batch is closed.
+     *
+     * A deferred stream keeps all bytes until flush(), so that a replayed
+     * batch can be hashed later on another thread (see TMCSReplayVerifier).
+     */
     public static class SignatureOutputStream extends OutputStream {
-        protected Signature s, v;
-        protected boolean doVerify;
+        private static final int BUFFER_SIZE = 8192;
+
+        private final TagSigner signer;
+        private MessageDigest md; // null once digest() was taken
+        private byte[] digest;
+        private boolean deferred;
+        private byte[] buf; // only used while deferred
+        private int count;
+        private SignatureOutputStream previous; // hashed before any byte
+
+        public SignatureOutputStream(TagSigner signer) throws NimbleError {
+            this.signer = signer;
+            this.md = signer.newDigest();
+        }
+
+        /**
+         * Start this digest with the digest of the previous batch. Must be
+         * called before any byte is written. While deferred, the previous
+         * digest is only taken when this one is hashed, so that both can be
+         * hashed off the caller thread, in order.
+         */
+        public void chain(SignatureOutputStream prev) throws IOException {
+            if (deferred)
+                previous = prev;
+            else
+                write(prev.digest());
+        }
 
-        public SignatureOutputStream(Signature sign, Signature verify) {
-            this.s = sign;
-            this.v = verify;
-            this.doVerify = false;
+        public void setDeferred(boolean b) throws IOException {
+            if (!b)
+                flush();
+            this.deferred = b;
         }
 
-        public void setVerify(boolean b) {
-            this.doVerify = b;
+        /**
+         * Bytes written while deferred and not hashed yet.
+         */
+        public synchronized int getBufferedBytes() {
+            return count;
         }
 
         public boolean verify(byte[] signature) throws IOException {
-            try {
-                return v.verify(signature);
-            } catch (SignatureException e) { throw new NimbleError(e); }
+            return signer.verify(digest(), signature);
         }
 
         public byte[] sign() throws IOException {
-            try {
-                return s.sign();
-            } catch (SignatureException e) { throw new NimbleError(e); }
+            return signer.sign(digest());
+        }
+
+        /**
+         * The digest of all bytes written. No more bytes may be written.
+         */
+        public synchronized byte[] digest() throws IOException {
+            if (digest == null) {
+                flush();
+                digest = md.digest();
+                signer.release(md);
+                md = null;
+            }
+            return digest;
         }
 
         public void write(int b) throws IOException {
-            try{
-                s.update((byte) b);
-                if (doVerify)
-                    v.update((byte) b);
-            } catch (SignatureException e) { throw new NimbleError(e); }
+            if (!deferred) {
+                checkOpen();
+                md.update((byte) b);
+                return;
+            }
+            if (buf == null)
+                buf = new byte[BUFFER_SIZE];
+            else if (count == buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[count++] = (byte) b;
         }
 
         public void write(byte[] var1, int var2, int var3) throws IOException {
-            try{
-                s.update(var1, var2, var3);
-                if (doVerify)
-                    v.update(var1, var2, var3);
-            } catch (SignatureException e) { throw new NimbleError(e); }
+            if (!deferred) {
+                checkOpen();
+                md.update(var1, var2, var3);
+                return;
+            }
+            if (buf == null)
+                buf = new byte[Math.max(BUFFER_SIZE, var3)];
+            else if (count + var3 > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + var3));
+            System.arraycopy(var1, var2, buf, count, var3);
+            count += var3;
+        }
+
+        public void flush() throws IOException {
+            if (count > 0 || previous != null) {
+                checkOpen();
+                if (count > 0)
+                    md.update(buf, 0, count);
+                count = 0;
+            }
+            buf = null;
+        }
+
+        private void checkOpen() throws IOException {
+            if (md == null)
+                throw new NimbleError("Tag already computed");
+            if (previous != null) {
+                SignatureOutputStream prev = previous;
+                previous = null; // do not keep the whole chain reachable
+                md.update(prev.digest());
+            }
         }
     }
 
@@ -77,17 +189,23 @@ public TMCSEditLog(Configuration conf, boolean apply, File fsImageFile) throws I
     }
 
     public TMCSEditLog(Configuration conf, boolean apply, NimbleUtils.NimbleFSImageInfo fsImage) throws IOException {
+        this(conf, apply, fsImage, TMCS.getInstance());
+    }
+
+    @VisibleForTesting
+    TMCSEditLog(Configuration conf, boolean apply, NimbleUtils.NimbleFSImageInfo fsImage, TMCS tmcs) throws IOException {
         this.conf = conf;
         this.apply = apply;
         this.fsImage = fsImage;
-        this.aggregateFrequency = conf.getLong(NimbleUtils.Conf.BATCH_SIZE_KEY, NimbleUtils.Conf.BATCH_SIZE__DEFAULT);
+        this.policy = new TMCSBatchPolicy(conf);
+        logger.info("Nimble batching: " + policy);
 
         this.num = 0;
         this.nextCounter = fsImage.counter;
+        this.imageCounter = fsImage.counter;
         this.previousTag = null;
-        this.tmcs = TMCS.getInstance();
-        this.tag = new SignatureOutputStream(tmcs.getSignature(), tmcs.verifySignature());
-        this.out = new DataOutputStream(this.tag);
+        this.imageTag = fsImage.tag;
+        this.tmcs = tmcs;
 
         prepareNextBatch();
     }
@@ -95,9 +213,25 @@ public TMCSEditLog(Configuration conf, boolean apply, NimbleUtils.NimbleFSImageI
     private void prepareNextBatch() throws IOException {
         nextCounter++;
         num = 0;
+        batchStart = Time.monotonicNow();
+
+        // Build tag, starting from the previous one
+        tag = new SignatureOutputStream(tmcs.getTagSigner());
+        tag.setDeferred(replay != null);
+        if (previousTag != null)
+            tag.chain(previousTag);
+        else if (imageTag != null)
+            tag.write(imageTag);
+        out = new DataOutputStream(tag);
+    }
 
-        // Build tag
-        tag = new SignatureOutputStream(tmcs.getSignature(), tmcs.verifySignature());
+    private TMCSCommitter getCommitter() {
+        if (committer == null) {
+            committer = new TMCSCommitter(tmcs, conf.getInt(
+                    NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_KEY,
+                    NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_DEFAULT));
+        }
+        return committer;
     }
 
     // Send data to EditLogs
@@ -105,10 +239,18 @@ private void finalizeBatch() throws IOException {
         // Write counter after ops
         out.writeInt(nextCounter);
 
-        // Update TMCS
+        // Hand over to the ledger-commit stage
+        policy.batchClosed(num, Time.monotonicNow() - batchStart);
+        NimbleMetrics.get().addBatch(num);
         this.previousTag = tag;
         if (apply) {
-            tmcs.increment(tag.sign());
+            long start = System.nanoTime();
+            byte[] signature = tag.sign();
+            NimbleMetrics.get().addSignature(out.size(), System.nanoTime() - start);
+            getCommitter().submit(nextCounter, signature, lastTxId);
+        } else if (replay != null) {
+            replay.submit(tag);
+            tailed.put(nextCounter, tag);
         }
 
         // Prepare for next batch
@@ -119,16 +261,45 @@ private void finalizeBatch() throws IOException {
      * Record an operation
      */
     public synchronized void add(FSEditLogOp op) throws IOException {
+        add(op, null, NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    }
+
+    /**
+     * Record an operation read from an edit log. frame is what the reader
+     * returned for it (see EditLogInputStream.getLastOpFrame()): opcode,
+     * length, txid and fields as stored on disk. Its field bytes are the
+     * ones writeFields() would produce, so they are fed to the tag as is.
+     * Without a usable frame the op is serialized again.
+     *
+     * @param logVersion layout version of the edit log the op was read from;
+     *                   logs older than NIMBLE_FLUSH_BOUNDARIES are rejected.
+     *                   Their tags never covered the batch data, so they
+     *                   cannot be verified: save a checkpoint and format a
+     *                   new ledger before upgrading.
+     */
+    public synchronized void add(FSEditLogOp op, ByteBuffer frame, int logVersion) throws IOException {
         try {
+            if (!NameNodeLayoutVersion.supports(NIMBLE_FLUSH_BOUNDARIES, logVersion))
+                throw new IOException("Edit log version " + logVersion + " predates "
+                        + NIMBLE_FLUSH_BOUNDARIES + " and cannot be verified against Nimble;"
+                        + " save a checkpoint and format a new ledger before upgrading");
             out.write(op.opCode.getOpCode()); // OPCODE
-            op.writeFields(out, NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION); // Fields
+            if (isFrameOf(frame, op)) {
+                out.write(frame.array(), frame.arrayOffset() + FRAME_HEADER_LENGTH,
+                        frame.limit() - FRAME_HEADER_LENGTH); // Fields
+            } else {
+                op.writeFields(out, NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION); // Fields
+            }
             num++;
-            logger.debug(String.format("record: opcode=%X %s", op.opCode.getOpCode(), op));
+            if (op.hasTransactionId())
+                lastTxId = op.getTransactionId();
+            if (logger.isDebugEnabled())
+                logger.debug(String.format("record: opcode=%X %s", op.opCode.getOpCode(), op));
 
             boolean flushOp = op.opCode.getOpCode() == OP_NIMBLE_FLUSH.getOpCode();
-            if (num >= aggregateFrequency || flushOp) {
-                if (flushOp)
-                    logger.debug("NimbleFlushOp executed!");
+            if (flushOp) {
+                logger.debug("NimbleFlushOp executed!");
+                sealClaimed = false;
                 finalizeBatch();
             }
         } catch (IOException e) {
@@ -137,11 +308,100 @@ public synchronized void add(FSEditLogOp op) throws IOException {
         }
     }
 
+    private static boolean isFrameOf(ByteBuffer frame, FSEditLogOp op) {
+        if (frame == null || !frame.hasArray() || frame.limit() < FRAME_HEADER_LENGTH
+                || frame.get(0) != op.opCode.getOpCode())
+            return false;
+        return !op.hasTransactionId() || frame.getLong(5) == op.getTransactionId();
+    }
+
+    /**
+     * Whether the open batch is due to be sealed and no OP_NIMBLE_FLUSH has
+     * been claimed for it yet.
+     */
+    public synchronized boolean shouldSeal() {
+        if (!apply || sealClaimed)
+            return false;
+        TMCSCommitter c = committer;
+        return policy.shouldSeal(num, out.size(), Time.monotonicNow() - batchStart,
+                c == null ? 0 : c.getLatencyMs());
+    }
+
+    /**
+     * Claim the seal of the open batch if it is due. The caller must then
+     * write an OP_NIMBLE_FLUSH, which closes the batch when it is recorded.
+     * No other seal is handed out until then, since with asynchronous edit
+     * logging ops are recorded some time after they are logged.
+     */
+    public synchronized boolean claimSeal() {
+        if (!shouldSeal())
+            return false;
+        sealClaimed = true;
+        return true;
+    }
+
+    /**
+     * How often the open batch should be checked with shouldSeal() when no
+     * logSync does, so that an idle namespace still commits it, or 0 if the
+     * policy does not seal by age.
+     */
+    public long getSealCheckIntervalMs() {
+        return policy.isAdaptive() ? Math.max(1, policy.getMaxAgeMs() / 2) : 0;
+    }
+
+    /**
+     * Close the current batch and wait until the ledger has acknowledged it.
+     */
     public synchronized void flush() throws IOException {
         if (num > 0) {
-            logger.info("flush " + num + " edit log operations");
+            logger.debug("flush " + num + " edit log operations");
             finalizeBatch();
         }
+        if (committer != null)
+            committer.drain();
+    }
+
+    /**
+     * Wait until the batch covering txid, if already closed, is acknowledged
+     * by the ledger. Must not be called while holding the TMCSEditLog monitor.
+     */
+    public void waitForCommit(long txid) throws IOException {
+        TMCSCommitter c = committer;
+        if (c != null)
+            c.waitForCommit(txid);
+    }
+
+    /**
+     * Run the action once the batch covering txid, if already closed, is
+     * acknowledged by the ledger; right away if there is nothing to wait for.
+     * The action is passed the ledger failure, if any.
+     */
+    public void runAfterCommit(long txid, Consumer<IOException> action) {
+        TMCSCommitter c = committer;
+        if (c != null)
+            c.runAfterCommit(txid, action);
+        else
+            action.accept(null);
+    }
+
+    /**
+     * Drain and stop the ledger-commit stage. It is restarted on demand.
+     */
+    public synchronized void close() throws IOException {
+        if (replay != null) {
+            try {
+                replay.close();
+            } finally {
+                replay = null;
+            }
+        }
+        if (committer != null) {
+            try {
+                committer.close();
+            } finally {
+                committer = null;
+            }
+        }
     }
 
     /**
@@ -155,67 +415,164 @@ public synchronized void recordImage(byte[] tag) throws IOException {
             throw new NimbleError(num + " edit log operations are still not flushed");
 
         // Record new FSImage creation. Expects a signed tag.
-        tmcs.increment(tag);
+        if (committer != null) {
+            committer.drain();
+            committer.submit(nextCounter, tag, 0);
+            committer.drain();
+        } else {
+            tmcs.increment(tag);
+        }
 
-        // Update bookkeeping
-        nextCounter++;
+        // Update bookkeeping: the open batch is empty, and chains from the new image
+        this.tag.digest(); // returns its digest to the signer
+        this.previousTag = null;
+        this.imageTag = tag;
+        this.imageCounter = nextCounter;
+        prepareNextBatch();
     }
 
     /**
      * Should be called before invoking liveMode().
      */
     public synchronized void verifyState() throws IOException {
-        NimbleOpReadLatest latest = tmcs.latest();
+        if (replay != null)
+            replay.drain();
+        NimbleOpReadLatest latest = tmcs.readLatest();
+        int replayed = nextCounter - 1;
 
         // Sanity checks
-        if ((nextCounter-1) != latest.counter)
-            throw new NimbleError(String.format("Incorrect Counter: expecting=%d got=%d", (nextCounter-1), latest.counter));
+        if (replayed != latest.counter)
+            throw new NimbleError(String.format("Incorrect Counter: expecting=%d got=%d", replayed, latest.counter));
 
         if (num > 0) {
             logger.warn("the last " + num + " ops will not be verified. This is likely due to unclean shutdown.");
         }
 
+        // Only the tag of the last batch covers all of them
+        if (verifiedCounter == replayed) {
+            logger.debug("State verified while tailing: " + latest);
+            return;
+        }
+
         if (previousTag == null) {
             logger.warn("No edit log ops to verify");
             return;
         }
 
         // Verify signature. The current tag is empty if all ops were committed before shutdown.
-        if(!previousTag.verify(latest.tag))
+        long start = System.nanoTime();
+        boolean verified = previousTag.verify(latest.tag);
+        NimbleMetrics.get().addVerificationNanos(System.nanoTime() - start);
+        if (!verified)
             throw new NimbleError("Cannot verify signature on tag");
+        verifiedCounter = replayed;
+        tailed.clear();
 
         logger.debug("State verified: " + latest);
     }
 
+    /**
+     * Check the ledger against the batches replayed so far and stay in load
+     * mode. Called by the Standby after every tail of the edit log.
+     *
+     * The ledger only returns its latest entry, so a tag is checked when that
+     * entry is one of the batches replayed. While the Active is ahead of the
+     * edits tailed there is nothing to check yet; a later call will.
+     *
+     * A tag is dropped once the ledger has moved past its counter, as the
+     * ledger will not return it again. Its batch is not verified then: it is
+     * covered when the tag of a later batch, which chains it, matches, at the
+     * latest by verifyState() on failover.
+     */
+    public synchronized void verifyTailed() throws IOException {
+        int replayed = nextCounter - 1;
+        if (replayed == checkedCounter)
+            return; // no batch closed since the ledger was last caught up with
+        if (replay != null)
+            replay.drain();
+        NimbleOpReadLatest latest = tmcs.readLatest();
+        if (latest.counter >= replayed)
+            checkedCounter = replayed;
+
+        SignatureOutputStream t = tailed.get(latest.counter);
+        if (t != null) {
+            long start = System.nanoTime();
+            boolean verified = t.verify(latest.tag);
+            NimbleMetrics.get().addVerificationNanos(System.nanoTime() - start);
+            if (!verified)
+                throw new NimbleError("Cannot verify signature on tag: counter=" + latest.counter);
+            // The batches before it are covered by the chain
+            verifiedCounter = latest.counter;
+            tailed.headMap(latest.counter, true).clear();
+        } else {
+            if (logger.isDebugEnabled())
+                logger.debug(String.format("Nothing to verify: replayed=%d ledger=%d", replayed, latest.counter));
+            tailed.headMap(latest.counter, false).clear();
+        }
+        NimbleMetrics.get().setUnverifiedBatches(getUnverifiedBatches());
+    }
+
+    /**
+     * @return number of replayed batches not covered by a verified tag
+     */
+    @VisibleForTesting
+    synchronized int getUnverifiedBatches() {
+        return nextCounter - 1 - Math.max(verifiedCounter, imageCounter);
+    }
+
+    public synchronized boolean isLive() {
+        return apply;
+    }
+
+    @VisibleForTesting
+    synchronized int getPendingOps() {
+        return num;
+    }
+
+    @VisibleForTesting
+    synchronized int getVerifiedCounter() {
+        return verifiedCounter;
+    }
+
     /**
      * When loading existing EditLogs from disk
      */
-    public synchronized void loadMode() throws IOError {
+    public synchronized void loadMode() throws IOException {
         logger.info("DO NOT APPLY mode: " + this);
         this.apply = false;
-        this.tag.setVerify(true);
+        if (replay == null) {
+            replay = new TMCSReplayVerifier(conf.getInt(
+                    NimbleUtils.Conf.REPLAY_VERIFY_THREADS_KEY,
+                    NimbleUtils.Conf.REPLAY_VERIFY_THREADS_DEFAULT));
+        }
+        this.tag.setDeferred(true);
     }
 
     /**
      * When writing to EditLogs
      */
-    public synchronized void liveMode() throws NimbleError {
+    public synchronized void liveMode() throws IOException {
         logger.info("LIVE mode: " + this);
         this.apply = true;
-        this.tag.setVerify(false);
+        if (replay != null) {
+            try {
+                replay.close();
+            } finally {
+                replay = null;
+            }
+        }
+        tailed.clear();
+        NimbleMetrics.get().setUnverifiedBatches(0);
+        // The open batch continues: hash what it holds
+        this.tag.setDeferred(false);
     }
 
     @Override
     public String toString() {
-        byte[] tagArr;
-        try {
-            tagArr = tag.sign();
-        } catch (IOException e) {
-            tagArr = null;
-        }
+        // Do not sign here: that would reset the tag of the open batch
         return "TMCSEditLog{" +
                 "counter=" + (nextCounter-1) +
-                ", tag=" + tagArr +
+                ", pending=" + num +
                 '}';
     }
 }
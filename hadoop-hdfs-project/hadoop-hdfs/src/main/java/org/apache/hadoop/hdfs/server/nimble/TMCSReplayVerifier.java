@@ -0,0 +1,138 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tag-verification stage of TMCSEditLog while edit logs are replayed.
+ *
+ * In load mode a batch only buffers the bytes of its ops. Once the batch is
+ * closed it is handed over here and its digest is computed on one of a few
+ * threads, so hashing overlaps with the namespace replay in FSEditLogLoader.
+ * Each digest starts with the digest of the batch before it (see
+ * TMCSEditLog.SignatureOutputStream#chain), so batches are hashed in order.
+ *
+ * Small batches are cheaper to hash than to hand over, so closed batches are
+ * collected into runs of at least RUN_BYTES buffered bytes and each run is
+ * hashed by one task. At most maxPending runs are outstanding; submit() waits
+ * for the oldest one beyond that, which bounds the memory held by buffered
+ * batches.
+ *
+ * Progress is reported as a NimbleTags step of the LoadingEdits phase.
+ */
+class TMCSReplayVerifier implements Closeable {
+    static Logger logger = Logger.getLogger(TMCSReplayVerifier.class);
+
+    // buffered bytes collected before a run of batches is handed over
+    static final int RUN_BYTES = 64 * 1024;
+
+    private final ExecutorService executor; // null: hash on the caller thread
+    private final int maxPending;
+    private final ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+    private List<TMCSEditLog.SignatureOutputStream> run = new ArrayList<>();
+    private long runBytes;
+    private final StartupProgress prog = NameNode.getStartupProgress();
+    private final Step step = new Step(StepType.NIMBLE_TAGS);
+    private final Counter counter;
+    private long submitted;
+
+    TMCSReplayVerifier(int threads) {
+        if (threads > 0) {
+            this.executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("TMCSReplayVerifier-%d")
+                            .build());
+        } else {
+            this.executor = null;
+        }
+        this.maxPending = 4 * Math.max(1, threads);
+        prog.beginStep(Phase.LOADING_EDITS, step);
+        this.counter = prog.getCounter(Phase.LOADING_EDITS, step);
+    }
+
+    /**
+     * Hash the buffered bytes of a closed batch.
+     */
+    void submit(TMCSEditLog.SignatureOutputStream tag) throws IOException {
+        submitted++;
+        prog.setTotal(Phase.LOADING_EDITS, step, submitted);
+        if (executor == null) {
+            tag.digest();
+            counter.increment();
+            return;
+        }
+        run.add(tag);
+        runBytes += tag.getBufferedBytes();
+        if (runBytes >= RUN_BYTES)
+            handOff();
+    }
+
+    private void handOff() throws IOException {
+        if (run.isEmpty())
+            return;
+        List<TMCSEditLog.SignatureOutputStream> batches = run;
+        run = new ArrayList<>();
+        runBytes = 0;
+        while (pending.size() >= maxPending)
+            await(pending.poll());
+        pending.add(executor.submit(() -> {
+            for (TMCSEditLog.SignatureOutputStream tag : batches) {
+                tag.digest();
+                counter.increment();
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Wait until all submitted batches are hashed.
+     */
+    void drain() throws IOException {
+        if (executor != null)
+            handOff();
+        while (!pending.isEmpty())
+            await(pending.poll());
+    }
+
+    private static void await(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NimbleError("Interrupted while verifying edit log tags");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new NimbleError("Cannot verify edit log tags: " + e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+            prog.endStep(Phase.LOADING_EDITS, step);
+            logger.debug("Hashed " + submitted + " replayed batches");
+        }
+    }
+}
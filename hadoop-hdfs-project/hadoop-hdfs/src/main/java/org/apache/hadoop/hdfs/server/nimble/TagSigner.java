@@ -0,0 +1,341 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Signs the tags stored in Nimble with the NameNode's signing key.
+ *
+ * A tag covers a stream of bytes (a batch of edit log ops, or the FSImage
+ * record). The stream goes through a running SHA-256 digest (newDigest()),
+ * and sign()/verify() only process the 32-byte digest. For the ECDSA modes
+ * this gives the same signatures as SHA256withECDSA over the whole stream.
+ *
+ * Digests, signers and verifiers are initialized once and pooled, so closing
+ * a batch does not set up any cryptographic state.
+ */
+public abstract class TagSigner {
+    public enum Algorithm {
+        ECDSA_SECP256K1("ecdsa-secp256k1"),
+        ECDSA_P256("ecdsa-p256"),
+        ED25519("ed25519"),
+        /** Keyed MAC: whoever verifies tags can also forge them. */
+        HMAC_SHA256("hmac-sha256");
+
+        private final String name;
+
+        Algorithm(String name) {
+            this.name = name;
+        }
+
+        public static Algorithm parse(String name) throws NimbleError {
+            if (name == null || name.isEmpty())
+                return ECDSA_SECP256K1;
+            for (Algorithm a : values())
+                if (a.name.equalsIgnoreCase(name))
+                    return a;
+            throw new NimbleError("Unknown tag algorithm: " + name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final int MAX_POOLED = 64;
+
+    /**
+     * Objects that are expensive to initialize and are reset by use, like a
+     * Signature after sign().
+     */
+    abstract static class Pool<T> {
+        private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        abstract T create() throws GeneralSecurityException;
+
+        T get() throws NimbleError {
+            T t = idle.poll();
+            if (t != null) {
+                size.decrementAndGet();
+                return t;
+            }
+            try {
+                return create();
+            } catch (GeneralSecurityException e) {
+                throw new NimbleError("Cannot initialize tag signer: " + e);
+            }
+        }
+
+        /**
+         * Return an object in its initial state. Objects in an unknown state
+         * (e.g. after an exception) must not be returned.
+         */
+        void release(T t) {
+            if (size.incrementAndGet() <= MAX_POOLED)
+                idle.offer(t);
+            else
+                size.decrementAndGet();
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final byte[] publicKey, privateKey; // encoded, see getPublicKey()
+    private final Pool<MessageDigest> digests = new Pool<MessageDigest>() {
+        @Override
+        MessageDigest create() throws NoSuchAlgorithmException {
+            return MessageDigest.getInstance("SHA-256");
+        }
+    };
+
+    TagSigner(Algorithm algorithm, byte[] publicKey, byte[] privateKey) {
+        this.algorithm = algorithm;
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * Generate a new signing key.
+     */
+    public static TagSigner generate(Algorithm algorithm) throws NimbleError {
+        try {
+            switch (algorithm) {
+                case HMAC_SHA256: {
+                    byte[] key = new byte[32];
+                    new SecureRandom().nextBytes(key);
+                    return load(algorithm, null, key);
+                }
+                case ED25519: {
+                    KeyPairGenerator g = KeyPairGenerator.getInstance("Ed25519", NimbleServiceID.SIGN_PROVIDER);
+                    KeyPair pair = g.generateKeyPair();
+                    return load(algorithm, pair.getPublic().getEncoded(), pair.getPrivate().getEncoded());
+                }
+                default: {
+                    KeyPairGenerator g = KeyPairGenerator.getInstance("EC", NimbleServiceID.SIGN_PROVIDER);
+                    g.initialize(new ECGenParameterSpec(
+                            algorithm == Algorithm.ECDSA_P256 ? "prime256v1" : "secp256k1"), new SecureRandom());
+                    KeyPair pair = g.generateKeyPair();
+                    return load(algorithm, pair.getPublic().getEncoded(), pair.getPrivate().getEncoded());
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new NimbleError("Cannot generate signing keys: " + e);
+        }
+    }
+
+    /**
+     * Load a signing key saved from getPublicKey() and getPrivateKey(). Either
+     * may be null, in which case the signer cannot sign (or verify).
+     */
+    public static TagSigner load(Algorithm algorithm, byte[] publicKey, byte[] privateKey)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (algorithm == Algorithm.HMAC_SHA256)
+            return new MacSigner(privateKey);
+
+        // BouncyCastle, as the JDK has neither secp256k1 nor (before Java 15) Ed25519
+        boolean ed25519 = algorithm == Algorithm.ED25519;
+        Provider provider = NimbleServiceID.SIGN_PROVIDER;
+        KeyFactory kf = KeyFactory.getInstance(ed25519 ? "Ed25519" : "EC", provider);
+        PublicKey pub = publicKey == null ? null : kf.generatePublic(new X509EncodedKeySpec(publicKey));
+        PrivateKey priv = privateKey == null ? null : kf.generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+        // ECDSA signs the digest as is: the same as SHA256withECDSA over the stream
+        return new SignatureSigner(algorithm, ed25519 ? "Ed25519" : "NONEwithECDSA", provider, pub, priv);
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return X.509 encoding of the public key, or null for a keyed MAC
+     */
+    public byte[] getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * @return PKCS#8 encoding of the private key, or the raw MAC key
+     */
+    public byte[] getPrivateKey() {
+        return privateKey;
+    }
+
+    public abstract boolean canSign();
+
+    /**
+     * A running digest for the bytes covered by a tag. Hand it back with
+     * release() after digest().
+     */
+    public MessageDigest newDigest() throws NimbleError {
+        return digests.get();
+    }
+
+    public void release(MessageDigest md) {
+        md.reset();
+        digests.release(md);
+    }
+
+    public byte[] digest(byte[] msg) throws NimbleError {
+        MessageDigest md = newDigest();
+        try {
+            return md.digest(msg);
+        } finally {
+            release(md);
+        }
+    }
+
+    /**
+     * Sign the SHA-256 digest of a tagged stream.
+     */
+    public abstract byte[] sign(byte[] digest) throws NimbleError;
+
+    /**
+     * Verify a tag against the SHA-256 digest of a tagged stream.
+     */
+    public abstract boolean verify(byte[] digest, byte[] tag) throws NimbleError;
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TagSigner))
+            return false;
+        TagSigner other = (TagSigner) o;
+        return algorithm == other.algorithm &&
+                Arrays.equals(publicKey, other.publicKey) &&
+                Arrays.equals(privateKey, other.privateKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * algorithm.hashCode() + Arrays.hashCode(publicKey);
+    }
+
+    @Override
+    public String toString() {
+        return "TagSigner{" + algorithm + '}';
+    }
+
+    /**
+     * ECDSA or Ed25519 through java.security.Signature.
+     */
+    private static final class SignatureSigner extends TagSigner {
+        private final Pool<Signature> signers, verifiers;
+        private final boolean canSign;
+
+        SignatureSigner(Algorithm algorithm, String signatureAlgorithm, Provider provider,
+                        PublicKey pub, PrivateKey priv) {
+            super(algorithm, pub == null ? null : pub.getEncoded(), priv == null ? null : priv.getEncoded());
+            this.canSign = pub != null && priv != null;
+            this.signers = new Pool<Signature>() {
+                @Override
+                Signature create() throws GeneralSecurityException {
+                    if (priv == null)
+                        throw new GeneralSecurityException("Private key for signing is not set");
+                    Signature s = Signature.getInstance(signatureAlgorithm, provider);
+                    s.initSign(priv);
+                    return s;
+                }
+            };
+            this.verifiers = new Pool<Signature>() {
+                @Override
+                Signature create() throws GeneralSecurityException {
+                    if (pub == null)
+                        throw new GeneralSecurityException("Public key for signing is not set");
+                    Signature v = Signature.getInstance(signatureAlgorithm, provider);
+                    v.initVerify(pub);
+                    return v;
+                }
+            };
+        }
+
+        @Override
+        public boolean canSign() {
+            return canSign;
+        }
+
+        @Override
+        public byte[] sign(byte[] digest) throws NimbleError {
+            Signature s = signers.get();
+            try {
+                // sign() resets s to the state after initSign()
+                s.update(digest);
+                byte[] tag = s.sign();
+                signers.release(s);
+                return tag;
+            } catch (GeneralSecurityException e) {
+                throw new NimbleError("Cannot compute signature: " + e);
+            }
+        }
+
+        @Override
+        public boolean verify(byte[] digest, byte[] tag) throws NimbleError {
+            Signature v = verifiers.get();
+            try {
+                v.update(digest);
+                boolean ok = v.verify(tag);
+                verifiers.release(v);
+                return ok;
+            } catch (GeneralSecurityException e) {
+                // Also thrown for a malformed tag
+                return false;
+            }
+        }
+    }
+
+    /**
+     * HMAC-SHA256 with a shared secret.
+     */
+    private static final class MacSigner extends TagSigner {
+        private final Pool<Mac> macs;
+
+        MacSigner(byte[] key) {
+            super(Algorithm.HMAC_SHA256, null, key);
+            this.macs = new Pool<Mac>() {
+                @Override
+                Mac create() throws GeneralSecurityException {
+                    if (key == null)
+                        throw new GeneralSecurityException("Key for signing is not set");
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(new SecretKeySpec(key, "HmacSHA256"));
+                    return mac;
+                }
+            };
+        }
+
+        @Override
+        public boolean canSign() {
+            return getPrivateKey() != null;
+        }
+
+        @Override
+        public byte[] sign(byte[] digest) throws NimbleError {
+            Mac mac = macs.get();
+            byte[] tag = mac.doFinal(digest); // resets mac
+            macs.release(mac);
+            return tag;
+        }
+
+        @Override
+        public boolean verify(byte[] digest, byte[] tag) throws NimbleError {
+            return tag != null && MessageDigest.isEqual(sign(digest), tag);
+        }
+    }
+}
@@ -79,20 +79,44 @@ public static class BlockECReconstructionInfo {
     private StorageType[] targetStorageTypes;
     private final byte[] liveBlockIndices;
     private final ErasureCodingPolicy ecPolicy;
+    private final byte[][] blockChecksums;
 
     public BlockECReconstructionInfo(ExtendedBlock block,
         DatanodeInfo[] sources, DatanodeStorageInfo[] targetDnStorageInfo,
         byte[] liveBlockIndices, ErasureCodingPolicy ecPolicy) {
+      this(block, sources, targetDnStorageInfo, liveBlockIndices, ecPolicy,
+          null);
+    }
+
+    public BlockECReconstructionInfo(ExtendedBlock block,
+        DatanodeInfo[] sources, DatanodeStorageInfo[] targetDnStorageInfo,
+        byte[] liveBlockIndices, ErasureCodingPolicy ecPolicy,
+        byte[][] blockChecksums) {
       this(block, sources, DatanodeStorageInfo
           .toDatanodeInfos(targetDnStorageInfo), DatanodeStorageInfo
           .toStorageIDs(targetDnStorageInfo), DatanodeStorageInfo
-          .toStorageTypes(targetDnStorageInfo), liveBlockIndices, ecPolicy);
+          .toStorageTypes(targetDnStorageInfo), liveBlockIndices, ecPolicy,
+          blockChecksums);
     }
 
     public BlockECReconstructionInfo(ExtendedBlock block,
         DatanodeInfo[] sources, DatanodeInfo[] targets,
         String[] targetStorageIDs, StorageType[] targetStorageTypes,
         byte[] liveBlockIndices, ErasureCodingPolicy ecPolicy) {
+      this(block, sources, targets, targetStorageIDs, targetStorageTypes,
+          liveBlockIndices, ecPolicy, null);
+    }
+
+    /**
+     * @param blockChecksums SHA-256 digests of the internal blocks, by block
+     *                       index, for the rebuilt blocks to be checked
+     *                       against; an entry is null where none is known
+     */
+    public BlockECReconstructionInfo(ExtendedBlock block,
+        DatanodeInfo[] sources, DatanodeInfo[] targets,
+        String[] targetStorageIDs, StorageType[] targetStorageTypes,
+        byte[] liveBlockIndices, ErasureCodingPolicy ecPolicy,
+        byte[][] blockChecksums) {
       this.block = block;
       this.sources = sources;
       this.targets = targets;
@@ -101,6 +125,8 @@ public BlockECReconstructionInfo(ExtendedBlock block,
       this.liveBlockIndices = liveBlockIndices == null ?
           new byte[]{} : liveBlockIndices;
       this.ecPolicy = ecPolicy;
+      this.blockChecksums = blockChecksums == null ? new byte[0][]
+          : blockChecksums;
     }
 
     public ExtendedBlock getExtendedBlock() {
@@ -131,6 +157,19 @@ public ErasureCodingPolicy getErasureCodingPolicy() {
       return ecPolicy;
     }
 
+    /**
+     * @return the digest of the internal block with the given index, or null
+     *         if it is not known
+     */
+    public byte[] getBlockChecksum(int blockIndex) {
+      return blockIndex < blockChecksums.length ?
+          blockChecksums[blockIndex] : null;
+    }
+
+    public byte[][] getBlockChecksums() {
+      return blockChecksums;
+    }
+
     @Override
     public String toString() {
       return new StringBuilder().append("BlockECReconstructionInfo(\n  ")
@@ -96,16 +96,30 @@ public static class StripedBlockWithLocations extends BlockWithLocations {
     final byte[] indices;
     final short dataBlockNum;
     final int cellSize;
+    final byte[][] checksums;
 
     public StripedBlockWithLocations(BlockWithLocations blk, byte[] indices,
          short dataBlockNum, int cellSize) {
+      this(blk, indices, dataBlockNum, cellSize, null);
+    }
+
+    /**
+     * @param checksums SHA-256 digests of the internal blocks, aligned with
+     *                  indices; an entry is null where none is known
+     */
+    public StripedBlockWithLocations(BlockWithLocations blk, byte[] indices,
+         short dataBlockNum, int cellSize, byte[][] checksums) {
       super(blk.getBlock(), blk.getDatanodeUuids(), blk.getStorageIDs(),
           blk.getStorageTypes());
       Preconditions.checkArgument(
           blk.getDatanodeUuids().length == indices.length);
+      Preconditions.checkArgument(
+          checksums == null || checksums.length == indices.length);
       this.indices = indices;
       this.dataBlockNum = dataBlockNum;
       this.cellSize = cellSize;
+      this.checksums = checksums == null ? new byte[indices.length][]
+          : checksums;
     }
 
     public byte[] getIndices() {
@@ -119,6 +133,14 @@ public short getDataBlockNum() {
     public int getCellSize() {
       return cellSize;
     }
+
+    /**
+     * @return the SHA-256 digests of the internal blocks, aligned with
+     *         {@link #getIndices()}; an entry is null where none is known
+     */
+    public byte[][] getChecksums() {
+      return checksums;
+    }
   }
 
   private final BlockWithLocations[] blocks;
@@ -63,7 +63,8 @@ private static long getSupportedCapabilities() {
 
   public enum Capability {
     UNKNOWN(false),
-    STORAGE_BLOCK_REPORT_BUFFERS(true); // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_BUFFERS(true), // use optimized ByteString buffers
+    BLOCK_REPORT_DIGESTS(true); // buffers carry finalized replica digests
     private final boolean supported;
     private final long mask;
     Capability(boolean isSupported) {
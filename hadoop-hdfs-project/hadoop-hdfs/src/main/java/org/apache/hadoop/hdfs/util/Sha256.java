@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.crypto.OpensslSha256;
+
+/**
+ * SHA-256 whose intermediate state can be saved and resumed.
+ *
+ * Blocks are compressed in Java: OpenSSL's EVP API can neither export nor
+ * load a chaining value, so {@link OpensslSha256} cannot resume a saved
+ * state. Digests that need not be resumed should use {@link #newDigest()},
+ * and be given back to {@link #release(MessageDigest)}.
+ */
+@InterfaceAudience.Private
+public final class Sha256 extends MessageDigest implements Cloneable {
+  public static final int DIGEST_LENGTH = 32;
+  private static final int BLOCK_SIZE = 64;
+  private static final int STATE_WORDS = 8;
+  /** Length of a state without buffered bytes, see {@link #getState()}. */
+  private static final int STATE_LENGTH = 4 * STATE_WORDS + 8;
+  private static final boolean NATIVE = OpensslSha256.isNativeCodeLoaded();
+
+  private static final int[] IV = {
+      0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+      0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+  };
+
+  private static final int[] K = {
+      0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5,
+      0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+      0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3,
+      0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+      0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc,
+      0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+      0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7,
+      0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+      0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13,
+      0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+      0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3,
+      0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+      0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5,
+      0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+      0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208,
+      0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+  };
+
+  private int[] h = new int[STATE_WORDS];
+  private byte[] buf = new byte[BLOCK_SIZE];
+  private int[] w = new int[64];
+  /** Bytes hashed so far. */
+  private long count;
+
+  public Sha256() {
+    super("SHA-256");
+    engineReset();
+  }
+
+  /**
+   * @return whether {@link #newDigest()} uses OpenSSL
+   */
+  public static boolean isNativeCodeLoaded() {
+    return NATIVE;
+  }
+
+  /**
+   * @return a SHA-256 digest that cannot be resumed: OpenSSL's if the native
+   * hadoop library has it, the JDK's otherwise, which has intrinsics on some
+   * platforms
+   */
+  public static MessageDigest newDigest() throws NoSuchAlgorithmException {
+    return NATIVE ? new OpensslSha256() : MessageDigest.getInstance("SHA-256");
+  }
+
+  /**
+   * Release the native context of a digest from {@link #newDigest()}, which
+   * is not freed by garbage collection. Does nothing for other digests or
+   * null.
+   */
+  public static void release(MessageDigest md) {
+    if (md instanceof OpensslSha256) {
+      ((OpensslSha256) md).close();
+    }
+  }
+
+  /**
+   * @return the chaining value, the number of bytes hashed and the bytes of
+   * the last partial block
+   */
+  public byte[] getState() {
+    int buffered = (int) (count % BLOCK_SIZE);
+    ByteBuffer state = ByteBuffer.allocate(STATE_LENGTH + buffered);
+    for (int x : h) {
+      state.putInt(x);
+    }
+    state.putLong(count);
+    state.put(buf, 0, buffered);
+    return state.array();
+  }
+
+  /**
+   * @return a digest resuming from a state of {@link #getState()}
+   */
+  public static Sha256 fromState(byte[] state) throws IOException {
+    if (state.length < STATE_LENGTH) {
+      throw new IOException("Invalid SHA-256 state length " + state.length);
+    }
+    ByteBuffer in = ByteBuffer.wrap(state);
+    Sha256 sha = new Sha256();
+    for (int i = 0; i < STATE_WORDS; i++) {
+      sha.h[i] = in.getInt();
+    }
+    sha.count = in.getLong();
+    if (sha.count < 0 || in.remaining() != sha.count % BLOCK_SIZE) {
+      throw new IOException("Invalid SHA-256 state: count=" + sha.count
+          + ", buffered=" + in.remaining());
+    }
+    in.get(sha.buf, 0, in.remaining());
+    return sha;
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return DIGEST_LENGTH;
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    int buffered = (int) (count++ % BLOCK_SIZE);
+    buf[buffered] = input;
+    if (buffered == BLOCK_SIZE - 1) {
+      compress(buf, 0);
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int off, int len) {
+    int buffered = (int) (count % BLOCK_SIZE);
+    count += len;
+    if (buffered > 0) {
+      int n = Math.min(len, BLOCK_SIZE - buffered);
+      System.arraycopy(input, off, buf, buffered, n);
+      off += n;
+      len -= n;
+      if (buffered + n < BLOCK_SIZE) {
+        return;
+      }
+      compress(buf, 0);
+    }
+    int blocks = len - len % BLOCK_SIZE;
+    for (int i = 0; i < blocks; i += BLOCK_SIZE) {
+      compress(input, off + i);
+    }
+    System.arraycopy(input, off + blocks, buf, 0, len - blocks);
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    long bits = count << 3;
+    int buffered = (int) (count % BLOCK_SIZE);
+    buf[buffered++] = (byte) 0x80;
+    if (buffered > BLOCK_SIZE - 8) {
+      Arrays.fill(buf, buffered, BLOCK_SIZE, (byte) 0);
+      compress(buf, 0);
+      buffered = 0;
+    }
+    Arrays.fill(buf, buffered, BLOCK_SIZE - 8, (byte) 0);
+    for (int i = 0; i < 8; i++) {
+      buf[BLOCK_SIZE - 1 - i] = (byte) (bits >>> (8 * i));
+    }
+    compress(buf, 0);
+
+    byte[] out = new byte[DIGEST_LENGTH];
+    for (int i = 0; i < STATE_WORDS; i++) {
+      int x = h[i];
+      out[4 * i] = (byte) (x >>> 24);
+      out[4 * i + 1] = (byte) (x >>> 16);
+      out[4 * i + 2] = (byte) (x >>> 8);
+      out[4 * i + 3] = (byte) x;
+    }
+    engineReset();
+    return out;
+  }
+
+  @Override
+  protected void engineReset() {
+    System.arraycopy(IV, 0, h, 0, STATE_WORDS);
+    count = 0;
+  }
+
+  @Override
+  public Sha256 clone() throws CloneNotSupportedException {
+    Sha256 copy = (Sha256) super.clone();
+    copy.h = h.clone();
+    copy.buf = buf.clone();
+    copy.w = new int[w.length];
+    return copy;
+  }
+
+  /** Compress one block of b, starting at off, in Java. */
+  private void compress(byte[] b, int off) {
+    for (int t = 0; t < 16; t++, off += 4) {
+      w[t] = (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+          | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+    for (int t = 16; t < 64; t++) {
+      int x = w[t - 2];
+      int y = w[t - 15];
+      int s1 = Integer.rotateRight(x, 17) ^ Integer.rotateRight(x, 19)
+          ^ (x >>> 10);
+      int s0 = Integer.rotateRight(y, 7) ^ Integer.rotateRight(y, 18)
+          ^ (y >>> 3);
+      w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+    }
+
+    int a = h[0], bb = h[1], c = h[2], d = h[3];
+    int e = h[4], f = h[5], g = h[6], hh = h[7];
+    for (int t = 0; t < 64; t++) {
+      int t1 = hh + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11)
+          ^ Integer.rotateRight(e, 25)) + ((e & f) ^ (~e & g)) + K[t] + w[t];
+      int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13)
+          ^ Integer.rotateRight(a, 22)) + ((a & bb) ^ (a & c) ^ (bb & c));
+      hh = g;
+      g = f;
+      f = e;
+      e = d + t1;
+      d = c;
+      c = bb;
+      bb = a;
+      a = t1 + t2;
+    }
+    h[0] += a;
+    h[1] += bb;
+    h[2] += c;
+    h[3] += d;
+    h[4] += e;
+    h[5] += f;
+    h[6] += g;
+    h[7] += hh;
+  }
+}
@@ -129,6 +129,9 @@
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.hdfs.server.nimble.NimbleLedgerEmulator;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.hdfs.server.nimble.TMCS;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.hdfs.tools.DFSAdmin;
@@ -228,6 +231,7 @@ public static class Builder {
     private Configuration[] dnConfOverlays;
     private boolean skipFsyncForTesting = true;
     private boolean useConfiguredTopologyMappingClass = false;
+    private NimbleLedgerEmulator nimbleLedger = null;
 
     public Builder(Configuration conf) {
       this.conf = conf;
@@ -450,6 +454,17 @@ public Builder clusterId(String cid) {
       return this;
     }
 
+    /**
+     * Default: null
+     * Nimble ledger emulator used by the NameNodes. When null and
+     * fs.nimbleURI is not set, a default emulator shared within the JVM is
+     * used. The caller owns the given emulator and closes it.
+     */
+    public Builder nimbleLedger(NimbleLedgerEmulator ledger) {
+      this.nimbleLedger = ledger;
+      return this;
+    }
+
     /**
      * Default: false
      * When true the hosts file/include file for the cluster is setup
@@ -552,6 +567,7 @@ protected MiniDFSCluster(Builder builder) throws IOException {
         + ", numDataNodes=" + builder.numDataNodes);
 
     this.storagesPerDatanode = builder.storagesPerDatanode;
+    this.nimbleLedger = builder.nimbleLedger;
 
     // Duplicate the storageType setting for each DN.
     if (builder.storageTypes == null && builder.storageTypes1D != null) {
@@ -635,6 +651,7 @@ public DataNode getDatanode() {
   private boolean waitSafeMode = true;
   private boolean federation;
   private boolean checkExitOnShutdown = true;
+  private NimbleLedgerEmulator nimbleLedger;
   protected final int storagesPerDatanode;
   private Set<FileSystem> fileSystems = Sets.newHashSet();
 
@@ -869,6 +886,36 @@ public MiniDFSCluster(int nameNodePort,
                        true, false, false, null, true, false);
   }
 
+  /**
+   * Point the NameNodes at the Nimble ledger emulator and make TMCS pick it
+   * up. Unless the builder or fs.nimbleURI names a ledger, the emulator
+   * shared by all clusters of the JVM is used, so that a cluster restarted on
+   * the same directories finds the ledger identity it was formatted with.
+   */
+  private void configureNimbleLedger(Configuration conf) {
+    if (nimbleLedger == null) {
+      String uri = conf.get(NimbleUtils.Conf.NIMBLE_LEDGER_URI_KEY);
+      if (uri == null) {
+        nimbleLedger = NimbleLedgerEmulator.getDefault().clearFaults();
+      } else {
+        nimbleLedger = NimbleLedgerEmulator.lookup(URI.create(uri));
+      }
+    }
+    if (nimbleLedger != null) {
+      nimbleLedger.configure(conf);
+      LOG.info("Using " + nimbleLedger);
+    }
+    TMCS.reset(conf);
+  }
+
+  /**
+   * @return the Nimble ledger emulator of the cluster, or null if the
+   * NameNodes use the ledger given by fs.nimbleURI.
+   */
+  public NimbleLedgerEmulator getNimbleLedger() {
+    return nimbleLedger;
+  }
+
   private void initMiniDFSCluster(
       Configuration conf,
       int numDataNodes, StorageType[][] storageTypes, boolean format,
@@ -898,6 +945,7 @@ private void initMiniDFSCluster(
       }
 
       this.conf = conf;
+      configureNimbleLedger(conf);
       base_dir = new File(determineDfsBaseDir());
       data_dir = new File(base_dir, "data");
       this.waitSafeMode = waitSafeMode;
@@ -2131,6 +2179,7 @@ public void shutdown(boolean deleteDfsDir, boolean closeFileSystem) {
       stopAndJoinNameNode(nnInfo.nameNode);
     }
     ShutdownHookManager.get().clearShutdownHooks();
+    TMCS.reset(null);
     if (base_dir != null) {
       if (deleteDfsDir) {
         FileUtil.fullyDelete(base_dir);
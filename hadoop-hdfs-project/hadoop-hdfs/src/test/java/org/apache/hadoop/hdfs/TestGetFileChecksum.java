@@ -19,12 +19,19 @@
 
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockSha256FileChecksum;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options.ChecksumCombineMode;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -92,4 +99,46 @@ public void testGetFileChecksum() throws Exception {
     testGetFileChecksum(new Path("/foo"), BLOCKSIZE / 4);
     testGetFileChecksum(new Path("/bar"), BLOCKSIZE / 4 - 1);
   }
+
+  /** SHA-256 of the SHA-256 of each block of the first length bytes. */
+  private static byte[] blockSha256(byte[] data, int length)
+      throws IOException {
+    ByteArrayOutputStream digests = new ByteArrayOutputStream();
+    for (int off = 0; off < length; off += BLOCKSIZE) {
+      digests.write(NimbleUtils.checksum(Arrays.copyOfRange(
+          data, off, Math.min(off + BLOCKSIZE, length))));
+    }
+    return NimbleUtils.checksum(digests.toByteArray());
+  }
+
+  @Test
+  public void testBlockSha256Checksum() throws Exception {
+    final Path foo = new Path("/foo");
+    final int length = 3 * BLOCKSIZE + 100;
+    DFSTestUtil.createFile(dfs, foo, length, REPLICATION, 0L);
+    final byte[] data = DFSTestUtil.readFileBuffer(dfs, foo);
+
+    Configuration clientConf = new Configuration(conf);
+    clientConf.set(HdfsClientConfigKeys.DFS_CHECKSUM_COMBINE_MODE_KEY,
+        ChecksumCombineMode.BLOCK_SHA256.name());
+    try (FileSystem fs = FileSystem.newInstance(dfs.getUri(), clientConf)) {
+      FileChecksum checksum = fs.getFileChecksum(foo);
+      Assert.assertTrue(checksum instanceof BlockSha256FileChecksum);
+      Assert.assertEquals("SHA256-of-" + BLOCKSIZE + "SHA256",
+          checksum.getAlgorithmName());
+      Assert.assertArrayEquals(blockSha256(data, length),
+          checksum.getBytes());
+
+      // A prefix ending within a block is hashed by a DataNode
+      final int prefix = BLOCKSIZE + 10;
+      Assert.assertArrayEquals(blockSha256(data, prefix),
+          fs.getFileChecksum(foo, prefix).getBytes());
+
+      // The NameNode alone answers for complete blocks
+      cluster.shutdownDataNodes();
+      Assert.assertEquals(checksum, fs.getFileChecksum(foo));
+      Assert.assertArrayEquals(blockSha256(data, 2 * BLOCKSIZE),
+          fs.getFileChecksum(foo, 2 * BLOCKSIZE).getBytes());
+    }
+  }
 }
@@ -47,15 +47,18 @@
 import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.ExtendedBlockId;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo.DatanodeInfoBuilder;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.shortcircuit.DfsClientShmManager.PerDatanodeVisitorInfo;
 import org.apache.hadoop.hdfs.shortcircuit.DfsClientShmManager.Visitor;
 import org.apache.hadoop.hdfs.shortcircuit.DomainSocketFactory;
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitCache;
+import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitCache.ShortCircuitReplicaCreator;
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitReplicaInfo;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.unix.DomainSocket;
@@ -522,6 +525,121 @@ public void testShortCircuitReadFromClientWithoutShm() throws Exception {
     sockDir.close();
   }
 
+  /**
+   * Test that a client configured to check block digests checks a replica
+   * the first time it is read, and remembers that it did.
+   */
+  @Test
+  public void testShortCircuitReadVerifiesBlockDigest() throws Exception {
+    TemporarySocketDirectory sockDir = new TemporarySocketDirectory();
+    Configuration conf = createShortCircuitConf(
+        "testShortCircuitReadVerifiesBlockDigest", sockDir);
+    conf.setBoolean(
+        HdfsClientConfigKeys.Read.ShortCircuit.VERIFY_BLOCK_DIGEST_KEY, true);
+    DFSInputStream.tcpReadsDisabledForTesting = true;
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    final DistributedFileSystem fs = cluster.getFileSystem();
+    final String TEST_FILE = "/test_file";
+    final int TEST_FILE_LEN = 4000;
+    final int SEED = 0xFADEC;
+    DFSTestUtil.createFile(fs, new Path(TEST_FILE), TEST_FILE_LEN,
+        (short)1, SEED);
+    GenericTestUtils.waitFor(() -> {
+      try {
+        return fs.getClient().getLocatedBlocks(TEST_FILE, 0).get(0)
+            .getBlock().getLocalBlock().hasChecksum();
+      } catch (IOException e) {
+        return false;
+      }
+    }, 100, 10000);
+    byte[] digest = fs.getClient().getLocatedBlocks(TEST_FILE, 0).get(0)
+        .getBlock().getLocalBlock().getChecksum();
+
+    byte contents[] = DFSTestUtil.readFileBuffer(fs, new Path(TEST_FILE));
+    byte expected[] = DFSTestUtil.
+        calculateFileContentsFromSeed(SEED, TEST_FILE_LEN);
+    Assert.assertTrue(Arrays.equals(contents, expected));
+
+    ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, new Path(TEST_FILE));
+    final ShortCircuitCache cache = fs.getClient().getClientContext()
+        .getShortCircuitCache(block.getBlockId());
+    ShortCircuitReplicaInfo info = cache.fetchOrCreate(
+        new ExtendedBlockId(block.getBlockId(), block.getBlockPoolId()),
+        new ShortCircuitReplicaCreator() {
+          @Override
+          public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
+            Assert.fail("The replica should still be cached");
+            return null;
+          }
+        });
+    Assert.assertTrue(info.getReplica().isDigestVerified(digest));
+    info.getReplica().unref();
+    cluster.shutdown();
+    sockDir.close();
+  }
+
+  /**
+   * Test that a short-circuit replica which does not match its block digest
+   * is purged from the ShortCircuitCache and reported to the NameNode.
+   */
+  @Test
+  public void testShortCircuitReadReportsDigestMismatch() throws Exception {
+    TemporarySocketDirectory sockDir = new TemporarySocketDirectory();
+    Configuration conf = createShortCircuitConf(
+        "testShortCircuitReadReportsDigestMismatch", sockDir);
+    conf.setBoolean(
+        HdfsClientConfigKeys.Read.ShortCircuit.VERIFY_BLOCK_DIGEST_KEY, true);
+    DFSInputStream.tcpReadsDisabledForTesting = true;
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    final DistributedFileSystem fs = cluster.getFileSystem();
+    final String TEST_FILE = "/test_file";
+    final int TEST_FILE_LEN = 4000;
+    final int SEED = 0xFADEC;
+    DFSTestUtil.createFile(fs, new Path(TEST_FILE), TEST_FILE_LEN,
+        (short)1, SEED);
+    GenericTestUtils.waitFor(() -> {
+      try {
+        return fs.getClient().getLocatedBlocks(TEST_FILE, 0).get(0)
+            .getBlock().getLocalBlock().hasChecksum();
+      } catch (IOException e) {
+        return false;
+      }
+    }, 100, 10000);
+    ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, new Path(TEST_FILE));
+    cluster.corruptReplica(0, block);
+
+    try {
+      DFSTestUtil.readFileBuffer(fs, new Path(TEST_FILE));
+      Assert.fail("expected the read of a corrupt replica to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    GenericTestUtils.waitFor(
+        () -> cluster.getNamesystem().getCorruptReplicaBlocks() == 1,
+        100, 10000);
+
+    final ShortCircuitCache cache = fs.getClient().getClientContext()
+        .getShortCircuitCache(block.getBlockId());
+    final AtomicBoolean created = new AtomicBoolean(false);
+    cache.fetchOrCreate(
+        new ExtendedBlockId(block.getBlockId(), block.getBlockPoolId()),
+        new ShortCircuitReplicaCreator() {
+          @Override
+          public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
+            created.set(true);
+            return new ShortCircuitReplicaInfo();
+          }
+        });
+    Assert.assertTrue("The corrupt replica should have been purged",
+        created.get());
+    cluster.shutdown();
+    sockDir.close();
+  }
+
   /**
    * Test shutting down the ShortCircuitCache while there are things in it.
    */
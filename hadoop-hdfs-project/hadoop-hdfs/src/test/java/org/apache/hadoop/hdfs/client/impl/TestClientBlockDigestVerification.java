@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.client.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests reads of whole blocks checked by the client against the SHA-256
+ * digest the NameNode has for the block.
+ */
+public class TestClientBlockDigestVerification {
+
+  static BlockReaderTestUtil util = null;
+  static final Path TEST_FILE = new Path("/test.file");
+  static final int FILE_SIZE_K = 256;
+  static final int LENGTH = FILE_SIZE_K * 1024;
+  static byte[] data;
+
+  @BeforeClass
+  public static void setupCluster() throws Exception {
+    HdfsConfiguration conf = new HdfsConfiguration();
+    conf.setBoolean(HdfsClientConfigKeys.Read.VERIFY_BLOCK_DIGEST_KEY, true);
+    util = new BlockReaderTestUtil(1, conf);
+    data = util.writeFile(TEST_FILE, FILE_SIZE_K);
+  }
+
+  /** The only block of the file, with a fresh copy of its digest */
+  private static LocatedBlock getBlock() throws Exception {
+    LocatedBlock lb = util.getFileBlocks(TEST_FILE, FILE_SIZE_K).get(0);
+    assertTrue(lb.getBlock().getLocalBlock().hasChecksum());
+    return lb;
+  }
+
+  @Test
+  public void testWholeBlockRead() throws Exception {
+    BlockReaderRemote reader = (BlockReaderRemote) spy(
+        util.getBlockReader(getBlock(), 0, LENGTH));
+    util.readAndCheckEOS(reader, LENGTH, true);
+    verify(reader).sendReadResult(Status.CHECKSUM_OK);
+    reader.close();
+
+    assertArrayEquals(data, DFSTestUtil.readFileAsBytes(
+        util.getCluster().getFileSystem(), TEST_FILE));
+  }
+
+  @Test
+  public void testDigestMismatch() throws Exception {
+    LocatedBlock lb = getBlock();
+    lb.getBlock().getLocalBlock().setChecksum(
+        new byte[Block.CHECKSUM_LENGTH]);
+    BlockReaderRemote reader = (BlockReaderRemote) spy(
+        util.getBlockReader(lb, 0, LENGTH));
+    try {
+      util.readAndCheckEOS(reader, LENGTH, true);
+      fail("Block read despite its digest not matching");
+    } catch (ChecksumException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("SHA-256"));
+    }
+    verify(reader, never()).sendReadResult(Status.CHECKSUM_OK);
+    reader.close();
+  }
+
+  /**
+   * Part of a block cannot be checked against the digest of the block, the
+   * DN checks it instead.
+   */
+  @Test
+  public void testPartialRead() throws Exception {
+    LocatedBlock lb = getBlock();
+    lb.getBlock().getLocalBlock().setChecksum(
+        new byte[Block.CHECKSUM_LENGTH]);
+    BlockReaderRemote reader = (BlockReaderRemote) spy(
+        util.getBlockReader(lb, 0, LENGTH / 2));
+    util.readAndCheckEOS(reader, LENGTH / 2, true);
+    verify(reader).sendReadResult(Status.CHECKSUM_OK);
+    reader.close();
+  }
+
+  @AfterClass
+  public static void teardownCluster() throws Exception {
+    util.shutdown();
+  }
+}
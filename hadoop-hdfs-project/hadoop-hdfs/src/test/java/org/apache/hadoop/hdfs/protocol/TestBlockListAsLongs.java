@@ -29,8 +29,10 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -139,6 +141,42 @@ public void testFuzz() throws InterruptedException {
     checkReport(replicas);
   }
 
+  @Test
+  public void testDigests() {
+    byte[] digest = new byte[Block.CHECKSUM_LENGTH];
+    new Random(0).nextBytes(digest);
+    Block finalized = new Block(b1);
+    finalized.setChecksum(digest);
+    Block uc = new Block(b3);
+    uc.setChecksum(digest);
+    BlockListAsLongs blocks = BlockListAsLongs.encode(Arrays.asList(
+        new FinalizedReplica(finalized, null, null),
+        new FinalizedReplica(b2, null, null),
+        new ReplicaBeingWritten(uc, null, null, null)));
+
+    Iterator<BlockReportReplica> it = BlockListAsLongs.decodeBuffers(
+        3, blocks.getBlocksBuffers()).iterator();
+    BlockReportReplica replica = it.next();
+    assertEquals(ReplicaState.FINALIZED, replica.getState());
+    assertTrue(replica.checksumEquals(digest));
+    // the decoded replica is reused, and must not keep the previous digest
+    replica = it.next();
+    assertEquals(b2.getBlockId(), replica.getBlockId());
+    assertFalse(replica.hasChecksum());
+    // only finalized replicas carry their digest
+    replica = it.next();
+    assertEquals(ReplicaState.RBW, replica.getState());
+    assertFalse(replica.hasChecksum());
+
+    BlockListAsLongs stripped = blocks.withoutDigests();
+    assertEquals(blocks.getBlocksBuffer().size() - Block.CHECKSUM_LENGTH,
+        stripped.getBlocksBuffer().size());
+    for (BlockReportReplica r : BlockListAsLongs.decodeBuffers(
+        3, stripped.getBlocksBuffers())) {
+      assertFalse(r.hasChecksum());
+    }
+  }
+
   private BlockListAsLongs checkReport(Replica...replicas) {
     Map<Long, Replica> expectedReplicas = new HashMap<>();
     for (Replica replica : replicas) {
@@ -231,7 +269,9 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     NamespaceInfo nsInfo = new NamespaceInfo(1, "cluster", "bp", 1);
     reg.setNamespaceInfo(nsInfo);
 
-    Replica r = new FinalizedReplica(new Block(1, 2, 3), null, null);
+    Block b = new Block(1, 2, 3);
+    b.setChecksum(new byte[Block.CHECKSUM_LENGTH]);
+    Replica r = new FinalizedReplica(b, null, null);
     BlockListAsLongs bbl = BlockListAsLongs.encode(Collections.singleton(r));
     DatanodeStorage storage = new DatanodeStorage("s1");
     StorageBlockReport[] sbr = { new StorageBlockReport(storage, bbl) };    
@@ -245,7 +285,18 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     assertNotNull(proto);
     assertTrue(proto.getReports(0).getBlocksList().isEmpty());
     assertFalse(proto.getReports(0).getBlocksBuffersList().isEmpty());
-    
+    assertFalse(decodeReport(proto).iterator().next().hasChecksum());
+
+    // check DN sends digests to a NN that supports them
+    request.set(null);
+    nsInfo.setCapabilities(Capability.STORAGE_BLOCK_REPORT_BUFFERS.getMask()
+        | Capability.BLOCK_REPORT_DIGESTS.getMask());
+    nn.blockReport(reg, "pool", sbr,
+        new BlockReportContext(1, 0, System.nanoTime(), 0L));
+    proto = request.get();
+    assertNotNull(proto);
+    assertTrue(decodeReport(proto).iterator().next().hasChecksum());
+
     // back up to prior version and check DN sends old-style BR
     request.set(null);
     nsInfo.setCapabilities(Capability.UNKNOWN.getMask());
@@ -259,4 +310,10 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     assertFalse(proto.getReports(0).getBlocksList().isEmpty());
     assertTrue(proto.getReports(0).getBlocksBuffersList().isEmpty());
   }
+
+  private static BlockListAsLongs decodeReport(BlockReportRequestProto proto) {
+    return BlockListAsLongs.decodeBuffers(
+        (int) proto.getReports(0).getNumberOfBlocks(),
+        proto.getReports(0).getBlocksBuffersList());
+  }
 }
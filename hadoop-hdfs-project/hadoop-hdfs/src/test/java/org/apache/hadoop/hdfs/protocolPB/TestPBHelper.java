@@ -30,6 +30,7 @@
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -437,7 +438,7 @@ public void testConvertRecoveringBlock() {
   }
   
   @Test
-  public void testConvertBlockRecoveryCommand() {
+  public void testConvertBlockRecoveryCommand() throws Exception {
     DatanodeInfo di1 = DFSTestUtil.getLocalDatanodeInfo();
     DatanodeInfo di2 = DFSTestUtil.getLocalDatanodeInfo();
     DatanodeInfo[] dnInfo = new DatanodeInfo[] { di1, di2 };
@@ -565,7 +566,7 @@ private LocatedBlock createLocatedBlockNoStorageMedia() {
   }
 
   @Test
-  public void testConvertLocatedBlock() {
+  public void testConvertLocatedBlock() throws Exception {
     LocatedBlock lb = createLocatedBlock();
     LocatedBlockProto lbProto = PBHelperClient.convertLocatedBlock(lb);
     LocatedBlock lb2 = PBHelperClient.convertLocatedBlockProto(lbProto);
@@ -573,7 +574,7 @@ public void testConvertLocatedBlock() {
   }
 
   @Test
-  public void testConvertLocatedBlockNoStorageMedia() {
+  public void testConvertLocatedBlockNoStorageMedia() throws Exception {
     LocatedBlock lb = createLocatedBlockNoStorageMedia();
     LocatedBlockProto lbProto = PBHelperClient.convertLocatedBlock(lb);
     LocatedBlock lb2 = PBHelperClient.convertLocatedBlockProto(lbProto);
@@ -581,7 +582,7 @@ public void testConvertLocatedBlockNoStorageMedia() {
   }
 
   @Test
-  public void testConvertLocatedBlockList() {
+  public void testConvertLocatedBlockList() throws Exception {
     ArrayList<LocatedBlock> lbl = new ArrayList<LocatedBlock>();
     for (int i=0;i<3;i++) {
       lbl.add(createLocatedBlock());
@@ -595,7 +596,7 @@ public void testConvertLocatedBlockList() {
   }
   
   @Test
-  public void testConvertLocatedBlockArray() {
+  public void testConvertLocatedBlockArray() throws Exception {
     LocatedBlock [] lbl = new LocatedBlock[3];
     for (int i=0;i<3;i++) {
       lbl[i] = createLocatedBlock();
@@ -608,6 +609,36 @@ public void testConvertLocatedBlockArray() {
     }
   }
 
+  @Test
+  public void testConvertLocatedBlockChecksum() throws Exception {
+    ArrayList<LocatedBlock> lbl = new ArrayList<LocatedBlock>();
+    for (int i = 0; i < 3; i++) {
+      LocatedBlock lb = createLocatedBlock();
+      byte[] checksum = new byte[Block.CHECKSUM_LENGTH];
+      Arrays.fill(checksum, (byte) (i + 1));
+      lb.getBlock().getLocalBlock().setChecksum(checksum);
+      lbl.add(lb);
+    }
+    // The blocks of one message share the buffer of their checksums
+    List<LocatedBlockProto> lbpl = PBHelperClient.convertLocatedBlocks2(lbl);
+    List<LocatedBlock> lbl2 = PBHelperClient.convertLocatedBlocks(lbpl);
+    for (int i = 0; i < lbl.size(); i++) {
+      assertTrue(Arrays.equals(
+          lbl.get(i).getBlock().getLocalBlock().getChecksum(),
+          lbl2.get(i).getBlock().getLocalBlock().getChecksum()));
+    }
+
+    LocatedBlockProto truncated = lbpl.get(0).toBuilder()
+        .setChecksum(ByteString.copyFrom(new byte[Block.CHECKSUM_LENGTH - 1]))
+        .build();
+    try {
+      PBHelperClient.convertLocatedBlockProto(truncated);
+      Assert.fail("Expected a truncated checksum to be rejected");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("Invalid checksum", e);
+    }
+  }
+
   @Test
   public void testConvertDatanodeRegistration() {
     DatanodeID dnId = DFSTestUtil.getLocalDatanodeID();
@@ -43,11 +43,13 @@
 import java.io.PrintStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -279,6 +281,33 @@ public void testWrite() {
     assertArrayEquals(byteBuffer.array(), byteStream.toByteArray());
   }
 
+  @Test
+  public void testInternalChecksums() {
+    Block[] blocks = createReportedBlocks(totalBlocks);
+    for (int i = 0; i < totalBlocks; i += 2) {
+      byte[] checksum = new byte[Block.CHECKSUM_LENGTH];
+      Arrays.fill(checksum, (byte) i);
+      blocks[i].setChecksum(checksum);
+      info.setInternalChecksum(blocks[i]);
+    }
+    // A report without a digest keeps the one known
+    info.setInternalChecksum(new Block(BASE_ID));
+    // So does a report of another digest
+    Block other = createReportedBlocks(1)[0];
+    byte[] otherChecksum = new byte[Block.CHECKSUM_LENGTH];
+    Arrays.fill(otherChecksum, (byte) -1);
+    other.setChecksum(otherChecksum);
+    info.setInternalChecksum(other);
+
+    for (int i = 0; i < totalBlocks; i++) {
+      assertArrayEquals("index " + i, blocks[i].getChecksum(),
+          info.getInternalChecksum(i));
+      assertTrue("index " + i, info.internalChecksumMatches(blocks[i]));
+    }
+    assertFalse(info.internalChecksumMatches(other));
+    assertFalse(info.hasChecksum());
+  }
+
   @Test(expected=IllegalArgumentException.class)
   public void testAddStorageWithReplicatedBlock() {
     DatanodeStorageInfo storage = DFSTestUtil.createDatanodeStorageInfo(
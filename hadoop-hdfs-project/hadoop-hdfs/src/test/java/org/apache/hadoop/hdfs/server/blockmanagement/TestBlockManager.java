@@ -1050,6 +1050,42 @@ public void testSafeModeIBRBeforeFirstFullBR() throws Exception {
         (ds) >= 0);
   }
 
+  @Test
+  public void testReportedDigestDoesNotReplaceStored() throws Exception {
+    BlockInfo stored = addBlockToBM(47);
+    byte[] digest = new byte[Block.CHECKSUM_LENGTH];
+    Arrays.fill(digest, (byte) 1);
+    byte[] other = new byte[Block.CHECKSUM_LENGTH];
+    Arrays.fill(other, (byte) 2);
+
+    // The first finalized replica sets the digest
+    reportReceived(nodes.get(0), stored, digest);
+    assertTrue(stored.checksumEquals(digest));
+
+    // A replica with another digest is corrupt, and changes nothing
+    reportReceived(nodes.get(1), stored, other);
+    assertTrue(stored.checksumEquals(digest));
+    assertTrue(bm.isReplicaCorrupt(stored, nodes.get(1)));
+    assertFalse(bm.isReplicaCorrupt(stored, nodes.get(0)));
+
+    reportReceived(nodes.get(2), stored, digest);
+    assertFalse(bm.isReplicaCorrupt(stored, nodes.get(2)));
+  }
+
+  private void reportReceived(DatanodeDescriptor node, Block block,
+      byte[] digest) throws IOException {
+    node.setAlive(true);
+    bm.getDatanodeManager().registerDatanode(
+        new DatanodeRegistration(node, null, null, ""));
+    bm.getDatanodeManager().addDatanode(node);
+    Block reported = new Block(block);
+    reported.setChecksum(digest);
+    bm.processIncrementalBlockReport(node, new StorageReceivedDeletedBlocks(
+        new DatanodeStorage(node.getStorageInfos()[0].getStorageID()),
+        new ReceivedDeletedBlockInfo[] {new ReceivedDeletedBlockInfo(reported,
+            ReceivedDeletedBlockInfo.BlockStatus.RECEIVED_BLOCK, null)}));
+  }
+
   @Test
   public void testSafeModeWithProvidedStorageBR() throws Exception {
     DatanodeDescriptor node0 = spy(nodes.get(0));
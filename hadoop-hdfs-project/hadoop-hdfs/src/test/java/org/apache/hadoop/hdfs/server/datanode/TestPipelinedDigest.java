@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test hashing the packets of a block on shared threads.
+ */
+public class TestPipelinedDigest {
+  private static final int PACKET_SIZE = 4096;
+
+  private final byte[] data = new byte[100 * PACKET_SIZE + 123];
+  private final DataNodeMetrics metrics = mock(DataNodeMetrics.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  public TestPipelinedDigest() {
+    new Random(0).nextBytes(data);
+  }
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /** Give the data in packets, through one reused buffer. */
+  private void receive(PipelinedDigest digest, int from, int to)
+      throws IOException {
+    byte[] packet = new byte[PACKET_SIZE];
+    for (int off = from; off < to; off += PACKET_SIZE) {
+      int len = Math.min(PACKET_SIZE, to - off);
+      System.arraycopy(data, off, packet, 0, len);
+      digest.update(packet, 0, len);
+      Arrays.fill(packet, (byte) 0);
+    }
+  }
+
+  private void assertDigest(PipelinedDigest digest) throws Exception {
+    ResumableDigest md = digest.getDigest();
+    assertEquals(data.length, md.getLength());
+    assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data),
+        md.digest());
+  }
+
+  private PipelinedDigest newDigest(int queueSize) {
+    return new PipelinedDigest(new ResumableDigest(64 * 1024), metrics,
+        queueSize, executor, "test");
+  }
+
+  @Test(timeout = 60000)
+  public void testDigest() throws Exception {
+    for (int queueSize : new int[] {0, 1, 16}) {
+      PipelinedDigest digest = newDigest(queueSize);
+      receive(digest, 0, data.length);
+      assertDigest(digest);
+      digest.close();
+    }
+    verify(metrics, atLeastOnce()).addDigest(eq((long) PACKET_SIZE), anyLong());
+  }
+
+  /**
+   * Packets handed off are hashed in place and released once hashed, while
+   * several digests share the threads.
+   */
+  @Test(timeout = 60000)
+  public void testHandOff() throws Exception {
+    PipelinedDigest[] digests = new PipelinedDigest[5];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = newDigest(4);
+    }
+    AtomicInteger released = new AtomicInteger();
+    int packets = 0;
+    for (int off = 0; off < data.length; off += PACKET_SIZE) {
+      int len = Math.min(PACKET_SIZE, data.length - off);
+      for (PipelinedDigest digest : digests) {
+        digest.update(ByteBuffer.wrap(data, off, len),
+            released::incrementAndGet);
+        packets++;
+      }
+    }
+    for (PipelinedDigest digest : digests) {
+      assertDigest(digest);
+    }
+    assertEquals(packets, released.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testUpdateAfterGetDigest() throws Exception {
+    PipelinedDigest digest = newDigest(4);
+    receive(digest, 0, 10 * PACKET_SIZE);
+    digest.getDigest();
+    receive(digest, 10 * PACKET_SIZE, data.length);
+    assertDigest(digest);
+    digest.close();
+  }
+
+  @Test(timeout = 60000)
+  public void testFailure() throws Exception {
+    doThrow(new IllegalStateException("injected"))
+        .when(metrics).addDigest(anyLong(), anyLong());
+    PipelinedDigest digest = newDigest(2);
+    AtomicInteger given = new AtomicInteger();
+    AtomicInteger released = new AtomicInteger();
+    try {
+      // Later packets do not block on the failed hasher
+      for (int off = 0; off < data.length; off += PACKET_SIZE) {
+        given.incrementAndGet();
+        digest.update(ByteBuffer.wrap(data, off,
+            Math.min(PACKET_SIZE, data.length - off)),
+            released::incrementAndGet);
+      }
+      digest.getDigest();
+      fail("returned the digest of data that failed to be hashed");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("Failed to hash", e);
+    }
+    digest.close();
+    // Every buffer is released, hashed or not
+    assertEquals(given.get(), released.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testRejected() throws Exception {
+    PipelinedDigest digest = newDigest(4);
+    receive(digest, 0, 10 * PACKET_SIZE);
+    executor.shutdown();
+    // Hashed on the caller's thread once the executor shuts down
+    receive(digest, 10 * PACKET_SIZE, data.length);
+    assertDigest(digest);
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.nimble.NimbleError;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.DataChecksum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for saving and resuming the SHA-256 state of replicas.
+ */
+public class TestResumableDigest {
+  private static final int INTERVAL = 1024;
+
+  private final Random random = new Random(0);
+  private File dir;
+  private byte[] data;
+
+  @Before
+  public void setUp() {
+    dir = GenericTestUtils.getRandomizedTestDir();
+    assertTrue(dir.mkdirs());
+    data = new byte[10 * INTERVAL + 100];
+    random.nextBytes(data);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private ResumableDigest digest(int len) {
+    ResumableDigest md = new ResumableDigest(INTERVAL);
+    for (int off = 0; off < len;) {
+      int n = Math.min(len - off, random.nextInt(3 * INTERVAL));
+      md.update(data, off, n);
+      off += n;
+    }
+    return md;
+  }
+
+  private byte[] sha256(int len) throws Exception {
+    return NimbleUtils.checksum(Arrays.copyOf(data, len));
+  }
+
+  @Test
+  public void testDigest() throws Exception {
+    ResumableDigest md = digest(data.length);
+    assertEquals(data.length, md.getLength());
+    assertEquals(10, md.getNumCheckpoints());
+    assertArrayEquals(sha256(data.length), md.digest());
+    // digest() does not end the hashing
+    assertArrayEquals(sha256(data.length), md.digest());
+
+    md = digest(5 * INTERVAL);
+    assertEquals(5, md.getNumCheckpoints());
+    md.update(data, 5 * INTERVAL, data.length - 5 * INTERVAL);
+    assertArrayEquals(sha256(data.length), md.digest());
+  }
+
+  @Test
+  public void testStreaming() throws Exception {
+    ResumableDigest md = ResumableDigest.newStreaming();
+    assertFalse(md.isResumable());
+    md.update(data, 0, 5 * INTERVAL);
+    ResumableDigest copy = md.copy();
+    md.update(data, 5 * INTERVAL, data.length - 5 * INTERVAL);
+    assertEquals(data.length, md.getLength());
+    assertEquals(0, md.getNumCheckpoints());
+    assertArrayEquals(sha256(data.length), md.digest());
+    assertArrayEquals(sha256(5 * INTERVAL), copy.digest());
+
+    try {
+      md.write(new DataOutputStream(new ByteArrayOutputStream()));
+      fail("saved a streaming digest");
+    } catch (IllegalStateException expected) {
+    }
+    assertTrue(digest(INTERVAL).isResumable());
+  }
+
+  @Test
+  public void testUpdateBuffers() throws Exception {
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+    for (ResumableDigest md : new ResumableDigest[] {
+        new ResumableDigest(INTERVAL), ResumableDigest.newStreaming()}) {
+      direct.limit(3 * INTERVAL + 5);
+      md.update(direct);
+      assertFalse(direct.hasRemaining());
+      ByteBuffer readOnly = ByteBuffer.wrap(data).asReadOnlyBuffer();
+      readOnly.position(direct.position()).limit(7 * INTERVAL);
+      md.update(readOnly);
+      ByteBuffer heap = ByteBuffer.wrap(data, readOnly.position(),
+          data.length - readOnly.position()).slice();
+      md.update(heap);
+      assertFalse(heap.hasRemaining());
+      assertEquals(data.length, md.getLength());
+      assertEquals(md.isResumable() ? 10 : 0, md.getNumCheckpoints());
+      assertArrayEquals(sha256(data.length), md.digest());
+      md.close();
+      direct.clear();
+    }
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    ResumableDigest md = digest(data.length);
+    for (int offset : new int[] {0, 1, INTERVAL - 1, INTERVAL, 3 * INTERVAL + 5,
+        data.length}) {
+      ResumableDigest resumed = md.resumeAt(offset);
+      int from = (int) resumed.getLength();
+      assertEquals(offset - offset % INTERVAL, from);
+      resumed.update(data, from, offset - from);
+      assertArrayEquals(sha256(offset), resumed.digest());
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    ResumableDigest md = digest(data.length);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    md.write(new DataOutputStream(bytes));
+    byte[] saved = bytes.toByteArray();
+
+    ResumableDigest read = ResumableDigest.read(
+        new DataInputStream(new ByteArrayInputStream(saved)));
+    assertEquals(data.length, read.getLength());
+    assertEquals(INTERVAL, read.getCheckpointInterval());
+    assertArrayEquals(md.digest(), read.digest());
+    ResumableDigest resumed = read.resumeAt(2 * INTERVAL);
+    resumed.update(data, 2 * INTERVAL, data.length - 2 * INTERVAL);
+    assertArrayEquals(md.digest(), resumed.digest());
+
+    try {
+      ResumableDigest.read(new DataInputStream(new ByteArrayInputStream(
+          Arrays.copyOf(saved, saved.length - 1))));
+      fail("read a partial state");
+    } catch (EOFException expected) {
+    }
+  }
+
+  private LocalReplica newReplica(int len) throws Exception {
+    LocalReplica r = (LocalReplica) new ReplicaBuilder(ReplicaState.FINALIZED)
+        .setBlockId(1).setGenerationStamp(1).setLength(len)
+        .setChecksum(sha256(len)).setDirectoryToUse(dir).build();
+    try (FileOutputStream out = new FileOutputStream(r.getBlockFile())) {
+      out.write(data, 0, len);
+    }
+    DataChecksum crc =
+        DataChecksum.newDataChecksum(DataChecksum.Type.CRC32C, 512);
+    byte[] sums = new byte[(len / 512 + 1) * crc.getChecksumSize()];
+    crc.calculateChunkedSums(data, 0, len, sums, 0);
+    try (DataOutputStream out = new DataOutputStream(
+        new FileOutputStream(r.getMetaFile()))) {
+      BlockMetadataHeader.writeHeader(out, crc);
+      out.write(sums, 0,
+          (len + 511) / 512 * crc.getChecksumSize());
+    }
+    return r;
+  }
+
+  @Test
+  public void testReplicaState() throws Exception {
+    LocalReplica r = newReplica(data.length);
+    assertNull(r.loadDigestState());
+    r.saveDigestState(digest(data.length));
+    assertArrayEquals(r.getChecksum(), r.loadDigestState().digest());
+
+    // Truncate resumes from a checkpoint and saves the new state
+    int newLength = 7 * INTERVAL + 10;
+    r.truncateBlock(newLength);
+    r.setNumBytes(newLength);
+    assertEquals(newLength, r.getBlockFile().length());
+    assertArrayEquals(sha256(newLength), r.getChecksum());
+    ResumableDigest state = r.loadDigestState();
+    assertNotNull(state);
+    assertEquals(7, state.getNumCheckpoints());
+
+    // A state that does not match the replica is ignored
+    r.setChecksum(sha256(newLength - 1));
+    assertNull(r.loadDigestState());
+
+    assertTrue(r.deleteBlockData());
+    assertTrue(!r.getDigestStateFile().exists());
+  }
+
+  /** A replica received with a streaming digest gets its state built. */
+  @Test(timeout = 60000)
+  public void testStateOfReceivedReplica() throws Exception {
+    LocalReplica r = newReplica(data.length);
+    Configuration conf = new Configuration();
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_NIMBLE_DIGEST_CHECKPOINT_INTERVAL_KEY,
+        INTERVAL);
+    DataNode dn = new DataNode(conf);
+    dn.saveDigestState(r);
+    GenericTestUtils.waitFor(() -> r.loadDigestState() != null, 10, 30000);
+    assertEquals(data.length / INTERVAL,
+        r.loadDigestState().getNumCheckpoints());
+  }
+
+  @Test
+  public void testTruncateWithoutState() throws Exception {
+    LocalReplica r = newReplica(data.length);
+    r.truncateBlock(3 * INTERVAL, INTERVAL);
+    r.setNumBytes(3 * INTERVAL);
+    assertArrayEquals(sha256(3 * INTERVAL), r.getChecksum());
+    ResumableDigest state = r.loadDigestState();
+    assertNotNull(state);
+    // Checkpointed at the given interval, not the default one
+    assertEquals(INTERVAL, state.getCheckpointInterval());
+    assertEquals(3, state.getNumCheckpoints());
+  }
+
+  @Test
+  public void testForgedCheckpoint() throws Exception {
+    LocalReplica r = newReplica(data.length);
+    ResumableDigest md = digest(data.length);
+    r.saveDigestState(md);
+
+    // Change the first checkpoint; the final state still matches
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    md.write(new DataOutputStream(bytes));
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    in.skipBytes(16);
+    int finalState = in.readInt();
+    try (RandomAccessFile f =
+             new RandomAccessFile(r.getDigestStateFile(), "rw")) {
+      long pos = 16 + 4 + finalState + 4 + 4 + 20;
+      f.seek(pos);
+      int b = f.read();
+      f.seek(pos);
+      f.write(b ^ 1);
+    }
+    assertNotNull(r.loadDigestState());
+
+    try {
+      r.truncateBlock(INTERVAL + 10);
+      fail("truncated from a forged checkpoint");
+    } catch (NimbleError e) {
+      GenericTestUtils.assertExceptionContains("Incorrect checksum", e);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.StripedFileTestUtil;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
+import org.apache.hadoop.hdfs.protocol.SystemErasureCodingPolicies;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoStriped;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManagerTestUtil;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the SHA-256 digests of the internal blocks of striped groups, as
+ * written by the client and rebuilt by the erasure coding worker.
+ */
+public class TestStripedBlockDigests {
+  private final ErasureCodingPolicy ecPolicy =
+      SystemErasureCodingPolicies.getByID(
+          SystemErasureCodingPolicies.RS_3_2_POLICY_ID);
+  private final int dataBlocks = ecPolicy.getNumDataUnits();
+  private final int cellSize = ecPolicy.getCellSize();
+  private final int blockSize = cellSize * 2;
+  private final int groupSize = dataBlocks + ecPolicy.getNumParityUnits();
+  private final int blockGroupSize = blockSize * dataBlocks;
+  private final Path file = new Path("/ec/file");
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private byte[] data;
+
+  @Before
+  public void setup() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REDUNDANCY_INTERVAL_SECONDS_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(groupSize + 1)
+        .build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    fs.enableErasureCodingPolicy(ecPolicy.getName());
+    fs.mkdirs(file.getParent());
+    fs.setErasureCodingPolicy(file.getParent(), ecPolicy.getName());
+
+    data = StripedFileTestUtil.generateBytes(blockGroupSize);
+    DFSTestUtil.writeFile(fs, file, data);
+    StripedFileTestUtil.waitBlockGroupsReported(fs, file.toString());
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private LocatedStripedBlock getBlockGroup() throws IOException {
+    return (LocatedStripedBlock) StripedFileTestUtil.getLocatedBlocks(file, fs)
+        .get(0);
+  }
+
+  private BlockInfoStriped getStoredBlockGroup() throws IOException {
+    return (BlockInfoStriped) cluster.getNamesystem().getBlockManager()
+        .getStoredBlock(getBlockGroup().getBlock().getLocalBlock());
+  }
+
+  /**
+   * Unlike {@link MiniDFSCluster#getDataNode(int)}, skips the DataNodes the
+   * test has shut down.
+   */
+  private DataNode getDataNode(DatanodeInfo info) {
+    for (DataNode dn : cluster.getDataNodes()) {
+      if (dn.isDatanodeUp() && dn.getIpcPort() == info.getIpcPort()) {
+        return dn;
+      }
+    }
+    throw new AssertionError("No live DataNode at " + info);
+  }
+
+  /**
+   * @return the SHA-256 of the internal block, as stored on its DataNode
+   */
+  private byte[] digestOnDisk(LocatedBlock internal) throws IOException {
+    DataNode dn = getDataNode(internal.getLocations()[0]);
+    ExtendedBlock b = internal.getBlock();
+    ReplicaInfo replica = (ReplicaInfo) dn.getFSDataset().getReplica(
+        b.getBlockPoolId(), b.getBlockId());
+    return NimbleUtils.checksum(new File(replica.getBlockURI()));
+  }
+
+  @Test(timeout = 120000)
+  public void testInternalBlockDigests() throws Exception {
+    LocatedStripedBlock group = getBlockGroup();
+    BlockInfoStriped stored = getStoredBlockGroup();
+    // The group itself has no digest, and none is handed out for it
+    assertFalse(stored.hasChecksum());
+    assertFalse(group.getBlock().getLocalBlock().hasChecksum());
+
+    LocatedBlock[] internals = StripedBlockUtil.parseStripedBlockGroup(
+        group, cellSize, dataBlocks, ecPolicy.getNumParityUnits());
+    for (int i = 0; i < groupSize; i++) {
+      byte[] expected = digestOnDisk(internals[i]);
+      assertArrayEquals("index " + i, expected, stored.getInternalChecksum(i));
+      Replica replica = getDataNode(internals[i].getLocations()[0])
+          .getFSDataset().getReplica(internals[i].getBlock().getBlockPoolId(),
+              internals[i].getBlock().getBlockId());
+      assertArrayEquals("index " + i, expected, replica.getChecksum());
+    }
+  }
+
+  /**
+   * Internal block digests are not persisted by the NameNode; the first
+   * full block reports after a restart bring them back.
+   */
+  @Test(timeout = 120000)
+  public void testInternalBlockDigestsAfterRestart() throws Exception {
+    cluster.restartNameNode(true);
+    fs = cluster.getFileSystem();
+    final BlockInfoStriped stored = getStoredBlockGroup();
+    GenericTestUtils.waitFor(() -> {
+      for (int i = 0; i < groupSize; i++) {
+        if (stored.getInternalChecksum(i) == null) {
+          return false;
+        }
+      }
+      return true;
+    }, 100, 30000);
+
+    LocatedBlock[] internals = StripedBlockUtil.parseStripedBlockGroup(
+        getBlockGroup(), cellSize, dataBlocks, ecPolicy.getNumParityUnits());
+    for (int i = 0; i < groupSize; i++) {
+      assertArrayEquals("index " + i, digestOnDisk(internals[i]),
+          stored.getInternalChecksum(i));
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testReconstructionKeepsDigest() throws Exception {
+    final byte[] expected = getStoredBlockGroup().getInternalChecksum(0);
+    assertNotNull(expected);
+
+    loseInternalBlock(0);
+    StripedFileTestUtil.waitForReconstructionFinished(file, fs, groupSize);
+
+    LocatedBlock[] internals = StripedBlockUtil.parseStripedBlockGroup(
+        getBlockGroup(), cellSize, dataBlocks, ecPolicy.getNumParityUnits());
+    assertArrayEquals(expected, digestOnDisk(internals[0]));
+    assertArrayEquals(expected, getStoredBlockGroup().getInternalChecksum(0));
+    assertEquals(0, getDigestMismatches());
+    assertArrayEquals(data, DFSTestUtil.readFileAsBytes(fs, file));
+  }
+
+  @Test(timeout = 120000)
+  public void testReconstructionDigestMismatch() throws Exception {
+    // The NameNode expects another digest for the block to be rebuilt
+    Block forged = new Block(getStoredBlockGroup().getBlockId());
+    forged.setChecksum(new byte[Block.CHECKSUM_LENGTH]);
+    getStoredBlockGroup().clearInternalChecksum(0);
+    getStoredBlockGroup().setInternalChecksum(forged);
+
+    loseInternalBlock(0);
+    GenericTestUtils.waitFor(() -> getDigestMismatches() > 0, 100, 60000);
+
+    // The rebuilt block is discarded rather than finalized
+    Thread.sleep(1000);
+    assertEquals(groupSize - 1, getBlockGroup().getLocations().length);
+  }
+
+  /**
+   * Stop the DataNode holding the internal block with the given index, and
+   * have the NameNode schedule its reconstruction.
+   */
+  private void loseInternalBlock(int index) throws Exception {
+    LocatedStripedBlock group = getBlockGroup();
+    DatanodeInfo location = null;
+    for (int i = 0; i < group.getBlockIndices().length; i++) {
+      if (group.getBlockIndices()[i] == index) {
+        location = group.getLocations()[i];
+      }
+    }
+    assertNotNull(location);
+    DataNode dn = getDataNode(location);
+    dn.shutdown();
+    DatanodeDescriptor dnd = NameNodeAdapter.getDatanode(
+        cluster.getNamesystem(), dn.getDatanodeId());
+    DFSTestUtil.setDatanodeDead(dnd);
+    BlockManagerTestUtil.checkHeartbeat(
+        cluster.getNamesystem().getBlockManager());
+  }
+
+  private long getDigestMismatches() {
+    long mismatches = 0;
+    for (DataNode dn : cluster.getDataNodes()) {
+      if (dn.isDatanodeUp()) {
+        mismatches += getLongCounter("EcReconstructionDigestMismatches",
+            getMetrics(dn.getMetrics().name()));
+      }
+    }
+    return mismatches;
+  }
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.nimble.NimbleError;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for reading replica data verified by segment.
+ */
+public class TestVerifiedBlockInputStream {
+  private static final int SEGMENT = 1000;
+
+  private File dir;
+  private byte[] data;
+  private ReplicaInfo replica;
+  private DataNodeMetrics metrics;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = GenericTestUtils.getRandomizedTestDir();
+    assertEquals(true, dir.mkdirs());
+    data = new byte[10 * SEGMENT + 123];
+    new Random(0).nextBytes(data);
+    replica = newReplica(data.length);
+    metrics = mock(DataNodeMetrics.class);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private ReplicaInfo newReplica(int length) throws Exception {
+    ReplicaInfo r = new ReplicaBuilder(ReplicaState.FINALIZED)
+        .setBlockId(1).setGenerationStamp(1).setLength(length)
+        .setChecksum(NimbleUtils.checksum(Arrays.copyOf(data, length)))
+        .setDirectoryToUse(dir).build();
+    try (FileOutputStream out = new FileOutputStream(
+        new File(dir, r.getBlockName()))) {
+      out.write(data);
+    }
+    return r;
+  }
+
+  private byte[] read(long offset, int len) throws Exception {
+    byte[] b = new byte[len];
+    try (InputStream in = replica.getVerifiedDataInputStream(offset,
+        SEGMENT, metrics)) {
+      IOUtils.readFully(in, b, 0, len);
+    }
+    return b;
+  }
+
+  private void corrupt(long offset) throws Exception {
+    try (RandomAccessFile f = new RandomAccessFile(
+        new File(dir, replica.getBlockName()), "rw")) {
+      f.seek(offset);
+      int b = f.read();
+      f.seek(offset);
+      f.write(b ^ 1);
+    }
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    assertArrayEquals(data, read(0, data.length));
+    for (long offset : new long[] {1, SEGMENT - 1, SEGMENT, 5 * SEGMENT + 7,
+        data.length - 1}) {
+      int len = (int) Math.min(2 * SEGMENT, data.length - offset);
+      assertArrayEquals("offset " + offset,
+          Arrays.copyOfRange(data, (int) offset, (int) offset + len),
+          read(offset, len));
+    }
+
+    try (InputStream in = replica.getVerifiedDataInputStream(0, SEGMENT,
+        null)) {
+      assertEquals(data[0] & 0xff, in.read());
+      assertEquals(3 * SEGMENT, in.skip(3 * SEGMENT));
+      assertEquals(data[3 * SEGMENT + 1] & 0xff, in.read());
+      assertEquals(data.length - 3 * SEGMENT - 2,
+          in.skip(Long.MAX_VALUE));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  private File getSegmentedDigestFile() {
+    return ((LocalReplica) replica).getSegmentedDigestFile();
+  }
+
+  @Test
+  public void testDigestIsReused() throws Exception {
+    SegmentedReplicaDigest digest =
+        replica.getSegmentedDigest(SEGMENT, metrics);
+    assertEquals(11, digest.getNumSegments());
+    assertTrue(getSegmentedDigestFile().exists());
+    assertArrayEquals(digest.fingerprint(),
+        replica.getSegmentedDigest(SEGMENT, metrics).fingerprint());
+    verify(metrics, times(1)).addDigestVerify(anyLong());
+    assertEquals(6,
+        replica.getSegmentedDigest(SEGMENT * 2, metrics).getNumSegments());
+    verify(metrics, times(2)).addDigestVerify(anyLong());
+
+    // A new checksum, e.g. after an append, needs new digests
+    replica.setNumBytes(data.length - 10);
+    replica.setChecksum(NimbleUtils.checksum(
+        Arrays.copyOf(data, data.length - 10)));
+    digest = replica.getSegmentedDigest(SEGMENT, null);
+    assertEquals(data.length - 10, digest.getLength());
+  }
+
+  @Test
+  public void testReplacedDigestsAreRebuilt() throws Exception {
+    replica.getSegmentedDigest(SEGMENT, metrics);
+
+    // Digests of other data, claiming the replica's checksum
+    byte[] other = data.clone();
+    other[3 * SEGMENT] ^= 1;
+    SegmentedReplicaDigest.Builder segments =
+        new SegmentedReplicaDigest.Builder(SEGMENT);
+    segments.update(other, 0, other.length);
+    try (DataOutputStream out = new DataOutputStream(
+        new FileOutputStream(getSegmentedDigestFile()))) {
+      segments.build(replica.getChecksum()).write(out);
+    }
+
+    assertArrayEquals(data, read(0, data.length));
+    verify(metrics, times(2)).addDigestVerify(anyLong());
+  }
+
+  @Test
+  public void testDigestsOnlySavedForFinalized() throws Exception {
+    ReplicaInfo rwr = new ReplicaBuilder(ReplicaState.RWR)
+        .setBlockId(1).setGenerationStamp(1).setLength(data.length)
+        .setChecksum(replica.getChecksum()).setDirectoryToUse(dir).build();
+    rwr.getSegmentedDigest(SEGMENT, metrics);
+    assertFalse(getSegmentedDigestFile().exists());
+    rwr.getSegmentedDigest(SEGMENT, metrics);
+    verify(metrics, times(2)).addDigestVerify(anyLong());
+  }
+
+  @Test
+  public void testChangeAfterCheck() throws Exception {
+    try (InputStream in = replica.getVerifiedDataInputStream(SEGMENT + 5,
+        SEGMENT, metrics)) {
+      byte[] b = new byte[10];
+      IOUtils.readFully(in, b, 0, b.length);
+      assertArrayEquals(Arrays.copyOfRange(data, SEGMENT + 5, SEGMENT + 15),
+          b);
+
+      // The rest of the checked segment is served as it was checked
+      corrupt(SEGMENT + 20);
+      corrupt(4 * SEGMENT + 10);
+      b = new byte[SEGMENT - 15];
+      IOUtils.readFully(in, b, 0, b.length);
+      assertArrayEquals(Arrays.copyOfRange(data, SEGMENT + 15, 2 * SEGMENT),
+          b);
+
+      // Segments read afterwards are checked as they are now on disk
+      b = new byte[3 * SEGMENT];
+      try {
+        IOUtils.readFully(in, b, 0, b.length);
+        fail("read corrupt data");
+      } catch (NimbleError e) {
+        GenericTestUtils.assertExceptionContains("offset " + 4 * SEGMENT, e);
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentFirstReads() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<SegmentedReplicaDigest>> digests = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        digests.add(executor.submit(
+            () -> replica.getSegmentedDigest(SEGMENT, metrics)));
+      }
+      for (Future<SegmentedReplicaDigest> f : digests) {
+        assertArrayEquals(digests.get(0).get().fingerprint(),
+            f.get().fingerprint());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(metrics, times(1)).addDigestVerify(anyLong());
+  }
+
+  @Test
+  public void testCorruptSegment() throws Exception {
+    replica.getSegmentedDigest(SEGMENT, null);
+    corrupt(4 * SEGMENT + 10);
+
+    // Segments before the corrupt one are still served
+    assertArrayEquals(Arrays.copyOf(data, 4 * SEGMENT), read(0, 4 * SEGMENT));
+    assertArrayEquals(Arrays.copyOfRange(data, 5 * SEGMENT, 6 * SEGMENT),
+        read(5 * SEGMENT, SEGMENT));
+    try {
+      read(4 * SEGMENT + 500, 10);
+      fail("read corrupt data");
+    } catch (NimbleError e) {
+      GenericTestUtils.assertExceptionContains("offset " + 4 * SEGMENT, e);
+    }
+    verify(metrics).incrDigestMismatches();
+    verify(metrics, times(6)).addDigestSegmentVerifyNanos(anyLong());
+  }
+
+  @Test
+  public void testCorruptReplica() throws Exception {
+    corrupt(7);
+    try {
+      read(5 * SEGMENT, 10);
+      fail("read corrupt replica");
+    } catch (NimbleError e) {
+      GenericTestUtils.assertExceptionContains("in-memory checksum", e);
+    }
+    verify(metrics).addDigestVerify(anyLong());
+    verify(metrics).incrDigestMismatches();
+  }
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.FileIoProvider;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaBuilder;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ReplicaDigestIndex}.
+ */
+public class TestReplicaDigestIndex {
+  private static final String BPID = "BP-1";
+
+  private final FileIoProvider fileIoProvider = new FileIoProvider(null, null);
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = GenericTestUtils.getRandomizedTestDir();
+    assertTrue(dir.mkdirs());
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private ReplicaDigestIndex newIndex() {
+    return new ReplicaDigestIndex(dir, null, fileIoProvider);
+  }
+
+  private static byte[] checksum(long blockId, long genStamp)
+      throws Exception {
+    return NimbleUtils.checksum(
+        ("blk_" + blockId + "_" + genStamp).getBytes("UTF-8"));
+  }
+
+  private ReplicaInfo newReplica(long blockId, long genStamp, byte[] checksum) {
+    return new ReplicaBuilder(ReplicaState.FINALIZED)
+        .setBlockId(blockId).setGenerationStamp(genStamp)
+        .setLength(blockId * 100).setChecksum(checksum)
+        .setDirectoryToUse(dir).build();
+  }
+
+  /**
+   * @return the replicas 1..n as found by a directory scan after a restart
+   */
+  private ReplicaMap scan(int n) {
+    ReplicaMap map = new ReplicaMap(new ReentrantReadWriteLock());
+    for (long id = 1; id <= n; id++) {
+      map.add(BPID, newReplica(id, 1, null));
+    }
+    return map;
+  }
+
+  private int restart(ReplicaMap map) throws Exception {
+    ReplicaDigestIndex index = newIndex();
+    return index.apply(index.load(), BPID, map);
+  }
+
+  private File[] segments() {
+    return dir.listFiles((d, name) ->
+        name.startsWith(ReplicaDigestIndex.SEGMENT_PREFIX));
+  }
+
+  @Test
+  public void testLoadLog() throws Exception {
+    ReplicaDigestIndex index = newIndex();
+    for (long id = 1; id <= 5; id++) {
+      index.add(newReplica(id, 1, checksum(id, 1)));
+    }
+    // Not finalized, or without a checksum
+    index.add(new ReplicaBuilder(ReplicaState.RBW).setBlockId(6)
+        .setGenerationStamp(1).setLength(600).setChecksum(checksum(6, 1))
+        .setDirectoryToUse(dir).setBytesToReserve(0).build());
+    index.add(newReplica(7, 1, null));
+    // A later generation stamp than on disk
+    index.add(newReplica(3, 2, checksum(3, 2)));
+    index.close();
+    assertEquals(6 * ReplicaDigestIndex.LOG_RECORD_LENGTH,
+        segments()[0].length());
+
+    ReplicaMap map = scan(7);
+    assertEquals(5, restart(map));
+    for (long id = 1; id <= 5; id++) {
+      assertArrayEquals(checksum(id, 1), map.get(BPID, id).getChecksum());
+    }
+    assertNull(map.get(BPID, 6).getChecksum());
+    assertNull(map.get(BPID, 7).getChecksum());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    ReplicaDigestIndex index = newIndex();
+    ReplicaMap map = new ReplicaMap(new ReentrantReadWriteLock());
+    for (long id = 1; id <= 5; id++) {
+      ReplicaInfo r = newReplica(id, 1, checksum(id, 1));
+      index.add(r);
+      map.add(BPID, r);
+    }
+    ReplicaDigestIndex.Compaction c = index.startCompaction();
+    for (ReplicaInfo r : map.replicas(BPID)) {
+      c.add(r);
+    }
+    // Finalized while the snapshot is written
+    index.add(newReplica(6, 1, checksum(6, 1)));
+    c.finish();
+    assertEquals(5, c.getCount());
+    assertTrue(new File(dir, ReplicaDigestIndex.SNAPSHOT_FILE).exists());
+    assertEquals(1, segments().length);
+
+    // An older compaction does not replace a newer snapshot
+    ReplicaDigestIndex.Compaction older = index.startCompaction();
+    ReplicaDigestIndex.Compaction newer = index.startCompaction();
+    newer.add(newReplica(1, 1, checksum(1, 1)));
+    newer.finish();
+    older.finish();
+    index.close();
+    map = scan(6);
+    assertEquals(1, restart(map));
+
+    index = newIndex();
+    c = index.startCompaction();
+    for (long id = 1; id <= 6; id++) {
+      c.add(newReplica(id, 1, checksum(id, 1)));
+    }
+    c.finish();
+    index.add(newReplica(7, 1, checksum(7, 1)));
+    index.close();
+    map = scan(7);
+    assertEquals(7, restart(map));
+    assertArrayEquals(checksum(6, 1), map.get(BPID, 6).getChecksum());
+  }
+
+  @Test
+  public void testSegmentRotation() throws Exception {
+    ReplicaDigestIndex index = new ReplicaDigestIndex(dir, null,
+        fileIoProvider, 2 * ReplicaDigestIndex.LOG_RECORD_LENGTH);
+    assertFalse(index.add(newReplica(1, 1, checksum(1, 1))));
+    assertTrue(index.add(newReplica(2, 1, checksum(2, 1))));
+    assertFalse(index.add(newReplica(3, 1, checksum(3, 1))));
+    // Asked for a compaction once until it starts
+    assertFalse(index.add(newReplica(4, 1, checksum(4, 1))));
+    assertEquals(2, segments().length);
+
+    // The snapshot is streamed to a temporary file until it finishes
+    ReplicaDigestIndex.Compaction c = index.startCompaction();
+    for (long id = 1; id <= 4; id++) {
+      c.add(newReplica(id, 1, checksum(id, 1)));
+    }
+    File[] tmp = dir.listFiles((d, name) ->
+        name.startsWith(ReplicaDigestIndex.TMP_PREFIX));
+    assertEquals(1, tmp.length);
+    c.finish();
+    assertFalse(tmp[0].exists());
+    assertEquals(0, segments().length);
+
+    assertFalse(index.add(newReplica(5, 1, checksum(5, 1))));
+    assertTrue(index.add(newReplica(6, 1, checksum(6, 1))));
+    index.close();
+    ReplicaMap map = scan(6);
+    assertEquals(6, restart(map));
+  }
+
+  @Test
+  public void testTornRecord() throws Exception {
+    ReplicaDigestIndex index = newIndex();
+    for (long id = 1; id <= 3; id++) {
+      index.add(newReplica(id, 1, checksum(id, 1)));
+    }
+    index.close();
+    File segment = segments()[0];
+    try (RandomAccessFile f = new RandomAccessFile(segment, "rw")) {
+      f.setLength(f.length() - 1);
+    }
+
+    // Records after a restart go to a new segment
+    index = newIndex();
+    index.add(newReplica(4, 1, checksum(4, 1)));
+    index.close();
+    assertEquals(2, segments().length);
+    ReplicaMap map = scan(4);
+    assertEquals(3, restart(map));
+    assertNull(map.get(BPID, 3).getChecksum());
+    assertArrayEquals(checksum(4, 1), map.get(BPID, 4).getChecksum());
+  }
+
+  @Test
+  public void testCorruptSnapshot() throws Exception {
+    ReplicaDigestIndex index = newIndex();
+    ReplicaDigestIndex.Compaction c = index.startCompaction();
+    for (long id = 1; id <= 3; id++) {
+      c.add(newReplica(id, 1, checksum(id, 1)));
+    }
+    c.finish();
+    index.add(newReplica(4, 1, checksum(4, 1)));
+    index.close();
+    assertEquals(4, restart(scan(4)));
+
+    File snapshot = new File(dir, ReplicaDigestIndex.SNAPSHOT_FILE);
+    try (RandomAccessFile f = new RandomAccessFile(snapshot, "rw")) {
+      f.seek(40);
+      int b = f.read();
+      f.seek(40);
+      f.write(b ^ 1);
+    }
+    ReplicaMap map = scan(4);
+    assertEquals(1, restart(map));
+    assertFalse(map.get(BPID, 4).getChecksum() == null);
+    assertNull(map.get(BPID, 1).getChecksum());
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.LocalReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaBuilder;
+import org.apache.hadoop.hdfs.server.nimble.NimbleError;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link VerifiedReplicaCache}.
+ */
+public class TestVerifiedReplicaCache {
+  private static final String BPID = "BP-1";
+  private static final int SEGMENT = 1024;
+
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = GenericTestUtils.getRandomizedTestDir();
+    assertTrue(dir.mkdirs());
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private LocalReplica newReplica(long blockId) throws Exception {
+    byte[] data = new byte[10 * SEGMENT];
+    new Random(blockId).nextBytes(data);
+    LocalReplica r = (LocalReplica) new ReplicaBuilder(ReplicaState.FINALIZED)
+        .setBlockId(blockId).setGenerationStamp(1).setLength(data.length)
+        .setChecksum(NimbleUtils.checksum(data)).setDirectoryToUse(dir)
+        .build();
+    try (FileOutputStream out = new FileOutputStream(r.getBlockFile())) {
+      out.write(data);
+    }
+    return r;
+  }
+
+  private static void modify(LocalReplica r) throws Exception {
+    File f = r.getBlockFile();
+    long mtime = f.lastModified();
+    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+      int b = raf.read();
+      raf.seek(0);
+      raf.write(b ^ 1);
+    }
+    assertTrue(f.setLastModified(mtime - 10000));
+  }
+
+  @Test
+  public void testVerifyOnce() throws Exception {
+    VerifiedReplicaCache cache = new VerifiedReplicaCache(10);
+    LocalReplica r = newReplica(1);
+    assertFalse(cache.isVerified(BPID, r));
+    cache.verify(BPID, r, SEGMENT, null);
+    assertTrue(cache.isVerified(BPID, r));
+    assertTrue(cache.isVerified(BPID, r));
+    assertFalse(cache.isVerified("BP-2", r));
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+
+    // A new generation stamp, e.g. after an append
+    r.setGenerationStamp(2);
+    assertFalse(cache.isVerified(BPID, r));
+    assertEquals(0, cache.size());
+
+    cache.verify(BPID, r, SEGMENT, null);
+    cache.invalidate(BPID, r.getBlockId());
+    assertFalse(cache.isVerified(BPID, r));
+
+    cache.verify(BPID, r, SEGMENT, null);
+    cache.invalidateBlockPool(BPID);
+    assertFalse(cache.isVerified(BPID, r));
+  }
+
+  @Test
+  public void testModifiedFile() throws Exception {
+    VerifiedReplicaCache cache = new VerifiedReplicaCache(10);
+    LocalReplica r = newReplica(1);
+    cache.verify(BPID, r, SEGMENT, null);
+    modify(r);
+    assertFalse(cache.isVerified(BPID, r));
+
+    try {
+      cache.verify(BPID, r, SEGMENT, null);
+      fail("verified a modified replica");
+    } catch (NimbleError expected) {
+    }
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    VerifiedReplicaCache cache = new VerifiedReplicaCache(2);
+    LocalReplica r1 = newReplica(1);
+    LocalReplica r2 = newReplica(2);
+    LocalReplica r3 = newReplica(3);
+    cache.verify(BPID, r1, SEGMENT, null);
+    cache.verify(BPID, r2, SEGMENT, null);
+    // r1 was read last, so r2 is evicted
+    assertTrue(cache.isVerified(BPID, r1));
+    cache.verify(BPID, r3, SEGMENT, null);
+    assertEquals(2, cache.size());
+    assertTrue(cache.isVerified(BPID, r1));
+    assertFalse(cache.isVerified(BPID, r2));
+    assertTrue(cache.isVerified(BPID, r3));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    VerifiedReplicaCache cache = new VerifiedReplicaCache(0);
+    assertFalse(cache.isEnabled());
+    LocalReplica r = newReplica(1);
+    cache.verify(BPID, r, SEGMENT, null);
+    assertFalse(cache.isVerified(BPID, r));
+    assertEquals(0, cache.size());
+
+    modify(r);
+    try {
+      cache.verify(BPID, r, SEGMENT, null);
+      fail("verified a modified replica");
+    } catch (NimbleError expected) {
+    }
+  }
+}
@@ -31,6 +31,8 @@
 import java.io.FileOutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.EnumMap;
 
 import org.apache.hadoop.thirdparty.protobuf.ByteString;
@@ -42,6 +44,7 @@
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.hdfs.util.Holder;
 import org.apache.hadoop.hdfs.web.URLConnectionFactory;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
 import org.junit.Assert;
@@ -162,6 +165,67 @@ public void testScanCorruptEditLog() throws Exception {
     elis.close();
   }
 
+  /**
+   * The frame of an op read from a current edit log holds the opcode, txid
+   * and the bytes writeFields() produces, so the op need not be serialized
+   * again to be tagged during replay.
+   */
+  @Test(timeout=60000)
+  public void testLastOpFrame() throws Exception {
+    Configuration conf = new Configuration();
+    File editLog = new File(GenericTestUtils.getTempPath("testLastOpFrame"));
+    EditLogFileOutputStream elos = new EditLogFileOutputStream(conf,
+        editLog.getAbsoluteFile(), 8192);
+    elos.create(NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    FSEditLogOp.OpInstanceCache cache = new FSEditLogOp.OpInstanceCache();
+    FSEditLogOp.MkdirOp mkdirOp = FSEditLogOp.MkdirOp.getInstance(cache);
+    // Large enough to grow the reader's frame buffer
+    String longName = new String(new char[10000]).replace('\0', 'x');
+    for (int i = 1; i <= 3; i++) {
+      mkdirOp.reset();
+      mkdirOp.setRpcCallId(i);
+      mkdirOp.setTransactionId(i);
+      mkdirOp.setInodeId(1000L + i);
+      mkdirOp.setPath(i == 2 ? "/" + longName : "/dir" + i);
+      mkdirOp.setPermissionStatus(PermissionStatus.createImmutable(
+          "myuser", "mygroup", FsPermission.createImmutable((short)0755)));
+      elos.write(mkdirOp);
+    }
+    elos.setReadyToFlush();
+    elos.flushAndSync(false);
+    elos.close();
+
+    EditLogFileInputStream elis = new EditLogFileInputStream(editLog);
+    try {
+      Assert.assertNull(elis.getLastOpFrame());
+      for (int i = 1; i <= 3; i++) {
+        FSEditLogOp op = elis.readOp();
+        ByteBuffer frame = elis.getLastOpFrame();
+        Assert.assertNotNull(frame);
+        assertEquals(op.opCode.getOpCode(), frame.get(0));
+        assertEquals(i, frame.getLong(5));
+
+        DataOutputBuffer fields = new DataOutputBuffer();
+        op.writeFields(fields, NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+        byte[] expected = Arrays.copyOf(fields.getData(), fields.getLength());
+        byte[] actual = Arrays.copyOfRange(frame.array(), 13, frame.limit());
+        Assert.assertArrayEquals(expected, actual);
+      }
+      Assert.assertNull(elis.readOp());
+      Assert.assertNull(elis.getLastOpFrame());
+    } finally {
+      elis.close();
+    }
+
+    // Fields of older layouts may be serialized differently
+    EditLogInputStream old = EditLogFileInputStream.fromByteString(
+        ByteString.copyFrom(FAKE_LOG_DATA), HdfsServerConstants.INVALID_TXID,
+        HdfsServerConstants.INVALID_TXID, true);
+    Assert.assertNotNull(old.readOp());
+    Assert.assertNull(old.getLastOpFrame());
+    old.close();
+  }
+
   /**
    * Regression test for HDFS-14557 which verifies that an edit log filled
    * with only "-1" bytes is moved aside and does not prevent the Journal
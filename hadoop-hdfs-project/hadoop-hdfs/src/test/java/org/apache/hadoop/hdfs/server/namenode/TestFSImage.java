@@ -51,6 +51,7 @@
 import org.apache.hadoop.hdfs.protocol.BlockType;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.SnapshotTestHelper;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
 import org.apache.hadoop.io.erasurecode.ECSchema;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.util.NativeCodeLoader;
@@ -362,6 +363,38 @@ public void testDigest() throws IOException {
     }
   }
 
+  /**
+   * Ensure that the SHA-256 computed while saving the image matches the
+   * file, and the one computed while loading it matches the saved one.
+   */
+  @Test
+  public void testNimbleDigest() throws IOException {
+    Configuration conf = new Configuration();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      fs.mkdirs(new Path("/dir"));
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      assertArrayEquals(NimbleUtils.checksum(fsimage),
+          NimbleUtils.readFSImageInfo(fsimage).digest);
+
+      // Loading checks the image against the saved digest
+      cluster.restartNameNode();
+      assertTrue(cluster.getFileSystem().exists(new Path("/dir")));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   /**
    * Ensure mtime and atime can be loaded from fsimage.
    */
@@ -0,0 +1,100 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * NimbleTransport that calls a NimbleLedgerEmulator of the same JVM, found by
+ * the authority of fs.nimbleURI (see NimbleLedgerEmulator.getURI()).
+ *
+ * Bodies still go through the JSON codec, only the network is skipped. With
+ * fs.nimble.transport.pipelining enabled, pipeline() applies requests in call
+ * order on one thread and completes them after the emulated latency, so
+ * in-flight requests overlap like they do on a pipelined connection.
+ */
+public class EmulatedNimbleTransport implements NimbleTransport {
+    private NimbleLedgerEmulator ledger;
+    private boolean pipelining;
+    private ExecutorService pipeline;  // applies requests in order
+    private ExecutorService responder; // completes them in order
+    private long lastDue; // only used by the pipeline thread
+
+    @Override
+    public void initialize(URI endpoint, Configuration conf) throws IOException {
+        this.ledger = NimbleLedgerEmulator.lookup(endpoint);
+        if (ledger == null)
+            throw new NimbleError("No Nimble ledger emulator at " + endpoint);
+        this.pipelining = conf.getBoolean(NimbleUtils.Conf.TRANSPORT_PIPELINING_KEY,
+                NimbleUtils.Conf.TRANSPORT_PIPELINING_DEFAULT);
+        if (pipelining) {
+            pipeline = newThread("EmulatedNimblePipeline-" + endpoint.getAuthority());
+            responder = newThread("EmulatedNimbleResponder-" + endpoint.getAuthority());
+        }
+    }
+
+    private static ExecutorService newThread(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public NimbleResponse execute(String method, URI uri, byte[] body) throws IOException {
+        return ledger.execute(method, uri, body).toResponse();
+    }
+
+    @Override
+    public boolean supportsPipelining() {
+        return pipelining;
+    }
+
+    @Override
+    public CompletableFuture<NimbleResponse> pipeline(String method, URI uri, byte[] body) {
+        if (!pipelining)
+            return NimbleTransport.super.pipeline(method, uri, body);
+
+        CompletableFuture<NimbleResponse> f = new CompletableFuture<>();
+        synchronized (this) {
+            if (pipeline.isShutdown()) {
+                f.completeExceptionally(new NimbleError("transport closed"));
+                return f;
+            }
+            // Requests reach the ledger in call order. Responses arrive after
+            // the emulated latency, but never before an earlier response.
+            pipeline.execute(() -> {
+                NimbleResponse response;
+                try {
+                    response = ledger.executeUndelayed(method, uri, body).toResponse();
+                } catch (IOException e) {
+                    responder.execute(() -> f.completeExceptionally(e));
+                    return;
+                }
+                long due = lastDue = Math.max(lastDue, System.nanoTime() + ledger.nextLatencyNanos());
+                responder.execute(() -> {
+                    try {
+                        NimbleLedgerEmulator.sleepNanos(due - System.nanoTime());
+                        f.complete(response);
+                    } catch (InterruptedException e) {
+                        f.completeExceptionally(new NimbleError("transport closed"));
+                    }
+                });
+            });
+        }
+        return f;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pipeline != null) {
+            pipeline.shutdownNow();
+            responder.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,712 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the Nimble ledger that runs inside the test JVM.
+ *
+ * It serves /serviceid and /counters/{handle} with the semantics NimbleAPI
+ * relies on (NewCounter, IncrementCounter with ExpectedCounter = counter + 1,
+ * ReadLatest with a nonce) and signs real ECDSA P-256 receipts over the same
+ * messages that NimbleOp verifies.
+ *
+ * The emulator is reachable in-process through EmulatedNimbleTransport, using
+ * the URI returned by getURI(), or over loopback HTTP after startHttp(). On
+ * top of the ledger semantics it can add latency, limit concurrency and rate,
+ * and inject failures, to measure ledger-bound throughput and recovery on a
+ * single machine. MiniDFSCluster uses getDefault() unless told otherwise.
+ */
+public class NimbleLedgerEmulator implements Closeable {
+    static Logger logger = Logger.getLogger(NimbleLedgerEmulator.class);
+
+    public static final String SCHEME = "nimble-emulator";
+
+    private static final Map<String, NimbleLedgerEmulator> REGISTRY = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Base64Variant B64 = Base64Variants.MODIFIED_FOR_URL;
+    private static NimbleLedgerEmulator defaultLedger;
+
+    private final Provider provider = new BouncyCastleProvider();
+    private final String name;
+    private final byte[] identity;
+    private final byte[] publicKey;
+    private final KeyPair keys;
+    private final Map<String, Ledger> ledgers = new ConcurrentHashMap<>();
+
+    // Injected behaviour
+    private volatile Latency latency = Latency.NONE;
+    private volatile Semaphore concurrency;
+    private volatile long minIntervalNanos;
+    private final Object rateLock = new Object();
+    private long nextSlotNanos; // guarded by rateLock
+    private final AtomicInteger failNext = new AtomicInteger();
+    private volatile int failStatus = 503;
+    private volatile double failureRate;
+    private volatile boolean failAfterApply;
+    private volatile boolean unavailable;
+    private final Random random;
+
+    // Statistics
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong increments = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    private static final class Ledger {
+        int counter;
+        byte[] tag;
+
+        Ledger(byte[] tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * A reply of the emulated REST endpoint. The body is JSON, or null.
+     */
+    public static final class Reply {
+        public final int status;
+        public final String reason;
+        public final byte[] body;
+
+        Reply(int status, String reason, byte[] body) {
+            this.status = status;
+            this.reason = reason;
+            this.body = body;
+        }
+
+        public NimbleResponse toResponse() throws IOException {
+            NimbleResponse r = new NimbleResponse(status, reason);
+            if (body != null)
+                r.parse(new ByteArrayInputStream(body));
+            return r;
+        }
+    }
+
+    /**
+     * Distribution of the service time added to every request.
+     */
+    @FunctionalInterface
+    public interface Latency {
+        Latency NONE = random -> 0;
+
+        long nextNanos(Random random);
+
+        static Latency fixed(long micros) {
+            long nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+            return random -> nanos;
+        }
+
+        static Latency uniform(long minMicros, long maxMicros) {
+            if (maxMicros < minMicros)
+                throw new IllegalArgumentException("max < min");
+            return random -> TimeUnit.MICROSECONDS.toNanos(minMicros) +
+                    (long) (random.nextDouble() * TimeUnit.MICROSECONDS.toNanos(maxMicros - minMicros));
+        }
+
+        static Latency exponential(long meanMicros) {
+            double mean = TimeUnit.MICROSECONDS.toNanos(meanMicros);
+            return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+        }
+
+        /**
+         * Base latency plus an exponential tail, a common model of a
+         * replicated service behind a network hop.
+         */
+        static Latency shifted(long baseMicros, long meanTailMicros) {
+            Latency tail = exponential(meanTailMicros);
+            long base = TimeUnit.MICROSECONDS.toNanos(baseMicros);
+            return random -> base + tail.nextNanos(random);
+        }
+    }
+
+    public NimbleLedgerEmulator() {
+        this(new SecureRandom().nextLong());
+    }
+
+    /**
+     * @param seed seeds latency and failure sampling, not the keys
+     */
+    public NimbleLedgerEmulator(long seed) {
+        this.random = new Random(seed);
+        this.name = "ledger-" + NEXT_ID.incrementAndGet();
+        try {
+            KeyPairGenerator gen = KeyPairGenerator.getInstance("ECDSA", provider);
+            gen.initialize(new ECGenParameterSpec("prime256v1"), new SecureRandom());
+            this.keys = gen.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot generate ledger keys: " + e, e);
+        }
+        this.publicKey = ((ECPublicKey) keys.getPublic()).getQ().getEncoded(true);
+        this.identity = new byte[32];
+        new SecureRandom().nextBytes(identity);
+        REGISTRY.put(name, this);
+    }
+
+    /**
+     * The emulator shared by everything in this JVM that does not ask for
+     * its own. It is never closed.
+     */
+    public static synchronized NimbleLedgerEmulator getDefault() {
+        if (defaultLedger == null)
+            defaultLedger = new NimbleLedgerEmulator();
+        return defaultLedger;
+    }
+
+    /**
+     * @return the open emulator reachable in-process at endpoint, or null
+     */
+    public static NimbleLedgerEmulator lookup(URI endpoint) {
+        if (!SCHEME.equals(endpoint.getScheme()) || endpoint.getAuthority() == null)
+            return null;
+        return REGISTRY.get(endpoint.getAuthority());
+    }
+
+    /**
+     * URI to reach this emulator in-process with EmulatedNimbleTransport.
+     */
+    public URI getURI() {
+        return URI.create(SCHEME + "://" + name + "/");
+    }
+
+    /**
+     * Point conf at this emulator (fs.nimbleURI and fs.nimble.transport.impl).
+     * Uses loopback HTTP if startHttp() was called, the in-process transport
+     * otherwise.
+     */
+    public Configuration configure(Configuration conf) {
+        synchronized (this) {
+            if (server != null) {
+                conf.set(NimbleUtils.Conf.NIMBLE_LEDGER_URI_KEY, getHttpURI().toString());
+                conf.setClass(NimbleUtils.Conf.TRANSPORT_IMPL_KEY, HttpNimbleTransport.class, NimbleTransport.class);
+                return conf;
+            }
+        }
+        conf.set(NimbleUtils.Conf.NIMBLE_LEDGER_URI_KEY, getURI().toString());
+        conf.setClass(NimbleUtils.Conf.TRANSPORT_IMPL_KEY, EmulatedNimbleTransport.class, NimbleTransport.class);
+        return conf;
+    }
+
+    public byte[] getIdentity() {
+        return identity.clone();
+    }
+
+    public byte[] getPublicKey() {
+        return publicKey.clone();
+    }
+
+    // Fault and performance injection
+
+    public NimbleLedgerEmulator setLatency(Latency latency) {
+        this.latency = latency == null ? Latency.NONE : latency;
+        return this;
+    }
+
+    /**
+     * Serve at most this many requests at once; 0 means unlimited.
+     */
+    public NimbleLedgerEmulator setMaxConcurrency(int max) {
+        this.concurrency = max > 0 ? new Semaphore(max, true) : null;
+        return this;
+    }
+
+    /**
+     * Admit at most this many requests per second; 0 means unlimited.
+     */
+    public NimbleLedgerEmulator setMaxRate(double perSecond) {
+        this.minIntervalNanos = perSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+        return this;
+    }
+
+    /**
+     * Fail the next n counter requests with the given HTTP status.
+     */
+    public NimbleLedgerEmulator failNext(int n, int status) {
+        this.failStatus = status;
+        this.failNext.set(n);
+        return this;
+    }
+
+    /**
+     * Fail each counter request with this probability (see failNext()).
+     */
+    public NimbleLedgerEmulator setFailureRate(double p, int status) {
+        this.failStatus = status;
+        this.failureRate = p;
+        return this;
+    }
+
+    /**
+     * When true, injected failures are returned after the request was applied,
+     * as if the response had been lost on the way back.
+     */
+    public NimbleLedgerEmulator setFailAfterApply(boolean afterApply) {
+        this.failAfterApply = afterApply;
+        return this;
+    }
+
+    /**
+     * While true every request fails with a connection error.
+     */
+    public NimbleLedgerEmulator setUnavailable(boolean unavailable) {
+        this.unavailable = unavailable;
+        return this;
+    }
+
+    /**
+     * Remove all injected latency, limits and failures.
+     */
+    public NimbleLedgerEmulator clearFaults() {
+        latency = Latency.NONE;
+        concurrency = null;
+        minIntervalNanos = 0;
+        failNext.set(0);
+        failureRate = 0;
+        failAfterApply = false;
+        unavailable = false;
+        return this;
+    }
+
+    // Inspection
+
+    /**
+     * @return the counter of handle, or -1 if there is no such counter
+     */
+    public int getCounter(byte[] handle) {
+        Ledger l = ledgers.get(NimbleUtils.URLEncode(handle));
+        if (l == null)
+            return -1;
+        synchronized (l) {
+            return l.counter;
+        }
+    }
+
+    public byte[] getTag(byte[] handle) {
+        Ledger l = ledgers.get(NimbleUtils.URLEncode(handle));
+        if (l == null)
+            return null;
+        synchronized (l) {
+            return l.tag;
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getIncrements() {
+        return increments.get();
+    }
+
+    public long getInjectedFailures() {
+        return injectedFailures.get();
+    }
+
+    // Request processing
+
+    /**
+     * Serve one request, including injected latency, limits and failures.
+     */
+    public Reply execute(String method, URI uri, byte[] body) throws IOException {
+        return serve(method, uri, body, true);
+    }
+
+    /**
+     * Same as execute() without the injected latency, which the caller
+     * applies itself (see EmulatedNimbleTransport.pipeline()).
+     */
+    Reply executeUndelayed(String method, URI uri, byte[] body) throws IOException {
+        return serve(method, uri, body, false);
+    }
+
+    long nextLatencyNanos() {
+        Latency l = latency;
+        if (l == Latency.NONE)
+            return 0;
+        synchronized (random) {
+            return Math.max(0, l.nextNanos(random));
+        }
+    }
+
+    private Reply serve(String method, URI uri, byte[] body, boolean delay) throws IOException {
+        if (unavailable)
+            throw new ConnectException("Nimble ledger emulator " + name + " is unavailable");
+        requests.incrementAndGet();
+
+        Semaphore permits = concurrency;
+        try {
+            if (permits != null)
+                permits.acquire();
+            try {
+                throttle();
+                if (delay)
+                    sleepNanos(nextLatencyNanos());
+                return dispatch(method, uri, body);
+            } finally {
+                if (permits != null)
+                    permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+
+    private void throttle() throws InterruptedException {
+        long interval = minIntervalNanos;
+        if (interval == 0)
+            return;
+        long wait;
+        synchronized (rateLock) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextSlotNanos);
+            nextSlotNanos = slot + interval;
+            wait = slot - now;
+        }
+        sleepNanos(wait);
+    }
+
+    static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0)
+            TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    private Reply dispatch(String method, URI uri, byte[] body) throws IOException {
+        String path = uri.getRawPath();
+        if ("/serviceid".equals(path) || "/serviceid/".equals(path)) {
+            if (!NimbleTransport.GET.equals(method))
+                return error(405, "Method Not Allowed");
+            return serviceID();
+        }
+        if (path == null || !path.startsWith("/counters/"))
+            return error(404, "Not Found");
+
+        String handle = path.substring("/counters/".length());
+        if (handle.isEmpty() || handle.contains("/"))
+            return error(404, "Not Found");
+
+        boolean inject = injectFailure();
+        if (inject && !failAfterApply)
+            return injected();
+
+        Reply reply;
+        switch (method) {
+            case NimbleTransport.PUT:  reply = newCounter(handle, parseTag(body)); break;
+            case NimbleTransport.POST: reply = incrementCounter(handle, body); break;
+            case NimbleTransport.GET:  reply = readLatest(handle, uri.getRawQuery()); break;
+            default: return error(405, "Method Not Allowed");
+        }
+        return inject ? injected() : reply;
+    }
+
+    private boolean injectFailure() {
+        if (failNext.get() > 0 && failNext.getAndDecrement() > 0)
+            return true;
+        double p = failureRate;
+        if (p <= 0)
+            return false;
+        synchronized (random) {
+            return random.nextDouble() < p;
+        }
+    }
+
+    private Reply injected() {
+        injectedFailures.incrementAndGet();
+        return error(failStatus, "Injected failure");
+    }
+
+    private Reply serviceID() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+        try (JsonGenerator g = JSON.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeFieldName("Identity");
+            g.writeBinary(B64, identity, 0, identity.length);
+            g.writeFieldName("PublicKey");
+            g.writeBinary(B64, publicKey, 0, publicKey.length);
+            g.writeEndObject();
+        }
+        return ok(buf.toByteArray());
+    }
+
+    private Reply newCounter(String handle, byte[] tag) throws IOException {
+        if (tag == null)
+            return error(400, "Bad Request");
+        Ledger l = new Ledger(tag);
+        if (ledgers.putIfAbsent(handle, l) != null)
+            return error(409, "Conflict");
+        return signature(sign(NimbleOp.TYPE_NEW_COUNTER, handle, 0, tag, null));
+    }
+
+    private Reply incrementCounter(String handle, byte[] body) throws IOException {
+        Ledger l = ledgers.get(handle);
+        if (l == null)
+            return error(404, "Not Found");
+
+        byte[] tag = null;
+        int expected = -1;
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                return error(400, "Bad Request");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "Tag":             tag = p.getBinaryValue(B64); break;
+                    case "ExpectedCounter": expected = p.getIntValue(); break;
+                    default: p.skipChildren();
+                }
+            }
+        }
+        if (tag == null || expected < 0)
+            return error(400, "Bad Request");
+
+        synchronized (l) {
+            if (expected != l.counter + 1)
+                return error(409, "Conflict");
+            l.counter = expected;
+            l.tag = tag;
+        }
+        increments.incrementAndGet();
+        return signature(sign(NimbleOp.TYPE_INCREMENT_COUNTER, handle, expected, tag, null));
+    }
+
+    private Reply readLatest(String handle, String query) throws IOException {
+        Ledger l = ledgers.get(handle);
+        if (l == null)
+            return error(404, "Not Found");
+
+        String nonce = null;
+        if (query != null)
+            for (String param : query.split("&"))
+                if (param.startsWith("nonce="))
+                    nonce = param.substring("nonce=".length());
+        if (nonce == null || nonce.isEmpty())
+            return error(400, "Bad Request");
+
+        int counter;
+        byte[] tag;
+        synchronized (l) {
+            counter = l.counter;
+            tag = l.tag;
+        }
+        byte[] signature = sign(NimbleOp.TYPE_READ_COUNTER, handle, counter, tag, nonce);
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        try (JsonGenerator g = JSON.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeNumberField("Counter", counter);
+            g.writeFieldName("Tag");
+            g.writeBinary(B64, tag, 0, tag.length);
+            g.writeFieldName("Signature");
+            g.writeBinary(B64, signature, 0, signature.length);
+            g.writeEndObject();
+        }
+        return ok(buf.toByteArray());
+    }
+
+    private static byte[] parseTag(byte[] body) throws IOException {
+        if (body == null)
+            return null;
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                return null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if ("Tag".equals(field))
+                    return p.getBinaryValue(B64);
+                p.skipChildren();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sign MsgType.NimbleID.Handle.Counter.Tag[.Nonce] like the ledger does
+     * (see NimbleOp.toString()) and return the raw (r, s) pair.
+     */
+    private byte[] sign(long type, String handle, int counter, byte[] tag, String nonce) throws IOException {
+        StringBuilder msg = new StringBuilder(256)
+                .append(NimbleUtils.URLEncode(NimbleOp.longToBytes(type))).append('.')
+                .append(NimbleUtils.URLEncode(identity)).append('.')
+                .append(handle).append('.')
+                .append(NimbleUtils.URLEncode(NimbleOp.longToBytes(counter))).append('.')
+                .append(NimbleUtils.URLEncode(tag));
+        if (nonce != null)
+            msg.append('.').append(nonce);
+
+        try {
+            Signature ecdsa = Signature.getInstance("SHA256withECDSA", provider);
+            ecdsa.initSign(keys.getPrivate());
+            ecdsa.update(msg.toString().getBytes(StandardCharsets.UTF_8));
+            return toRawSignature(ecdsa.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot sign receipt: " + e, e);
+        }
+    }
+
+    /**
+     * Inverse of NimbleServiceID.toANS1Signature(): DER to 32-byte r || s.
+     */
+    static byte[] toRawSignature(byte[] der) {
+        int o = 2;
+        if ((der[1] & 0x80) != 0)
+            o += der[1] & 0x7f;
+        int rlen = der[o + 1];
+        byte[] r = new byte[rlen];
+        System.arraycopy(der, o + 2, r, 0, rlen);
+        o += 2 + rlen;
+        int slen = der[o + 1];
+        byte[] s = new byte[slen];
+        System.arraycopy(der, o + 2, s, 0, slen);
+
+        byte[] raw = new byte[64];
+        copyUnsigned(new BigInteger(1, r), raw, 0);
+        copyUnsigned(new BigInteger(1, s), raw, 32);
+        return raw;
+    }
+
+    private static void copyUnsigned(BigInteger v, byte[] dst, int off) {
+        byte[] b = v.toByteArray();
+        int from = Math.max(0, b.length - 32);
+        int len = b.length - from;
+        System.arraycopy(b, from, dst, off + 32 - len, len);
+    }
+
+    private static Reply ok(byte[] body) {
+        return new Reply(200, "OK", body);
+    }
+
+    private static Reply signature(byte[] signature) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(112);
+        try (JsonGenerator g = JSON.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeFieldName("Signature");
+            g.writeBinary(B64, signature, 0, signature.length);
+            g.writeEndObject();
+        }
+        return ok(buf.toByteArray());
+    }
+
+    private static Reply error(int status, String reason) {
+        return new Reply(status, reason, null);
+    }
+
+    // Loopback HTTP
+
+    /**
+     * Also serve the REST API over HTTP on the loopback interface.
+     *
+     * @return base URI of the endpoint
+     */
+    public synchronized URI startHttp() throws IOException {
+        if (server == null) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", this::handle);
+            serverExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "NimbleLedgerEmulator-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+            server.setExecutor(serverExecutor);
+            server.start();
+            logger.info("Nimble ledger emulator " + name + " listening on " + getHttpURI());
+        }
+        return getHttpURI();
+    }
+
+    public synchronized URI getHttpURI() {
+        if (server == null)
+            return null;
+        InetSocketAddress addr = server.getAddress();
+        return URI.create("http://" + addr.getAddress().getHostAddress() + ":" + addr.getPort() + "/");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+            Reply reply;
+            try {
+                reply = execute(exchange.getRequestMethod(), exchange.getRequestURI(), body.length == 0 ? null : body);
+            } catch (ConnectException e) {
+                // Closest we can get to a refused connection once accepted
+                exchange.close();
+                return;
+            }
+            if (reply.body == null) {
+                exchange.sendResponseHeaders(reply.status, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(reply.status, reply.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply.body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        REGISTRY.remove(name, this);
+        synchronized (this) {
+            if (server != null) {
+                server.stop(0);
+                serverExecutor.shutdownNow();
+                server = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NimbleLedgerEmulator{" + name +
+                ", identity=" + NimbleUtils.URLEncode(identity) +
+                ", counters=" + ledgers.size() +
+                ", requests=" + requests.get() + '}';
+    }
+}
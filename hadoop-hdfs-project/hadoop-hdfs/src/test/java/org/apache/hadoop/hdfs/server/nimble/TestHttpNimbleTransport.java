@@ -0,0 +1,130 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.JsonSerialization;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the JSON codec and the HTTP transport of NimbleAPI.
+ */
+public class TestHttpNimbleTransport {
+    private HttpServer server;
+    private URI endpoint;
+    private final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/counters/", exchange -> {
+            byte[] request = IOUtils.toByteArray(exchange.getRequestBody());
+            Map<?, ?> json = JsonSerialization.mapReader().readValue(request);
+            received.add((Integer) json.get("ExpectedCounter"));
+
+            byte[] body = ("{\"Signature\": \"" + json.get("Tag") + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        byte[] tag = new byte[]{(byte) 0xfb, (byte) 0xff, 0x01, 0x7e};
+        Map<?, ?> json = JsonSerialization.mapReader().readValue(NimbleResponse.encodeIncrement(tag, 7));
+        assertEquals(NimbleUtils.URLEncode(tag), json.get("Tag"));
+        assertEquals(7, json.get("ExpectedCounter"));
+
+        json = JsonSerialization.mapReader().readValue(NimbleResponse.encodeTag(tag));
+        assertEquals(NimbleUtils.URLEncode(tag), json.get("Tag"));
+        assertFalse(json.containsKey("ExpectedCounter"));
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        byte[] tag = "some-tag-value".getBytes(StandardCharsets.UTF_8);
+        byte[] sig = new byte[64];
+        sig[0] = (byte) 0xfe;
+        String body = "{\"Counter\": 42, \"Tag\": \"" + NimbleUtils.URLEncode(tag) + "\", " +
+                "\"Extra\": {\"a\": [1, 2]}, \"Signature\": \"" + NimbleUtils.URLEncode(sig) + "\", " +
+                "\"Identity\": \"\"}";
+
+        NimbleResponse r = new NimbleResponse(200, "OK")
+                .parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(r.json);
+        assertEquals(42, r.counter);
+        assertArrayEquals(tag, r.tag);
+        assertArrayEquals(sig, r.signature);
+        assertNull(r.identity);
+        assertNull(r.publicKey);
+    }
+
+    @Test(timeout = 60000)
+    public void testExecute() throws Exception {
+        try (HttpNimbleTransport transport = new HttpNimbleTransport()) {
+            transport.initialize(endpoint, new Configuration(false));
+            byte[] tag = "tag_1".getBytes(StandardCharsets.UTF_8);
+            for (int i = 1; i <= 3; i++) {
+                NimbleResponse r = transport.execute(NimbleTransport.POST,
+                        endpoint.resolve("counters/abc"), NimbleResponse.encodeIncrement(tag, i));
+                assertTrue(r.isOK());
+                assertArrayEquals(tag, r.signature);
+            }
+            assertEquals(3, received.size());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPipelineKeepsOrder() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(NimbleUtils.Conf.TRANSPORT_PIPELINING_KEY, true);
+        try (HttpNimbleTransport transport = new HttpNimbleTransport()) {
+            transport.initialize(endpoint, conf);
+            assertTrue(transport.supportsPipelining());
+
+            List<CompletableFuture<NimbleResponse>> futures = new ArrayList<>();
+            for (int i = 1; i <= 20; i++) {
+                byte[] tag = new byte[]{(byte) i};
+                futures.add(transport.pipeline(NimbleTransport.POST,
+                        endpoint.resolve("counters/abc"), NimbleResponse.encodeIncrement(tag, i)));
+            }
+            for (int i = 1; i <= 20; i++) {
+                NimbleResponse r = futures.get(i - 1).get();
+                assertTrue(r.isOK());
+                assertArrayEquals(new byte[]{(byte) i}, r.signature);
+            }
+            for (int i = 1; i <= 20; i++)
+                assertEquals(i, (int) received.get(i - 1));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for NimbleLedgerEmulator, through NimbleAPI as the NameNode uses it.
+ */
+public class TestNimbleLedgerEmulator {
+    private NimbleLedgerEmulator ledger;
+
+    @Before
+    public void setUp() {
+        ledger = new NimbleLedgerEmulator(0);
+    }
+
+    @After
+    public void tearDown() {
+        ledger.close();
+    }
+
+    private NimbleServiceID newCounter(NimbleAPI api) throws Exception {
+        NimbleServiceID id = api.getServiceID();
+        id.handle = NimbleUtils.getNonce();
+        assertTrue(api.newCounter(id, "tag_0".getBytes(StandardCharsets.UTF_8)).verify());
+        return id;
+    }
+
+    private void checkReceipts(Configuration conf) throws Exception {
+        try (NimbleAPI api = new NimbleAPI(conf)) {
+            NimbleServiceID id = newCounter(api);
+            assertArrayEquals(ledger.getIdentity(), id.identity);
+            assertArrayEquals(ledger.getPublicKey(), id.publicKey);
+
+            for (int i = 1; i <= 3; i++) {
+                byte[] tag = ("tag_" + i).getBytes(StandardCharsets.UTF_8);
+                assertTrue(api.incrementCounter(id, tag, i).verify());
+            }
+
+            NimbleOpReadLatest latest = api.readLatest(id);
+            assertTrue(latest.verify());
+            assertEquals(3, latest.counter);
+            assertArrayEquals("tag_3".getBytes(StandardCharsets.UTF_8), latest.tag);
+            assertEquals(3, ledger.getCounter(id.handle));
+
+            try {
+                api.newCounter(id, new byte[]{1});
+                fail("counter created twice");
+            } catch (NimbleError e) {
+                assertTrue(e.getMessage().contains("Conflict"));
+            }
+            try {
+                api.incrementCounter(id, new byte[]{1}, 3);
+                fail("stale increment accepted");
+            } catch (NimbleError e) {
+                assertTrue(e.getMessage().contains("409"));
+            }
+        }
+    }
+
+    @Test
+    public void testInProcessReceipts() throws Exception {
+        checkReceipts(ledger.configure(new Configuration(false)));
+    }
+
+    @Test(timeout = 60000)
+    public void testHttpReceipts() throws Exception {
+        ledger.startHttp();
+        checkReceipts(ledger.configure(new Configuration(false)));
+        assertTrue(ledger.getRequests() > 0);
+    }
+
+    @Test
+    public void testRawSignature() {
+        // 33-byte r (leading zero) and 31-byte s
+        byte[] raw = new byte[64];
+        raw[0] = (byte) 0x80;
+        raw[31] = 1;
+        raw[33] = 0x7f;
+        raw[63] = 2;
+        assertArrayEquals(raw, NimbleLedgerEmulator.toRawSignature(NimbleServiceID.toANS1Signature(raw)));
+    }
+
+    @Test
+    public void testFailureInjection() throws Exception {
+        try (NimbleAPI api = new NimbleAPI(ledger.configure(new Configuration(false)))) {
+            NimbleServiceID id = newCounter(api);
+
+            ledger.failNext(1, 503);
+            try {
+                api.incrementCounter(id, new byte[]{1}, 1);
+                fail("injected failure not reported");
+            } catch (NimbleError e) {
+                assertTrue(e.getMessage().contains("503"));
+            }
+            assertEquals(0, ledger.getCounter(id.handle));
+
+            // A lost response: the ledger moved on, so the retry conflicts
+            ledger.setFailAfterApply(true).failNext(1, 503);
+            try {
+                api.incrementCounter(id, new byte[]{1}, 1);
+                fail("injected failure not reported");
+            } catch (NimbleError expected) {
+            }
+            assertEquals(1, ledger.getCounter(id.handle));
+            try {
+                api.incrementCounter(id, new byte[]{1}, 1);
+                fail("retry of an applied increment accepted");
+            } catch (NimbleError e) {
+                assertTrue(e.getMessage().contains("409"));
+            }
+            assertEquals(2, ledger.getInjectedFailures());
+
+            ledger.setUnavailable(true);
+            try {
+                api.readLatest(id);
+                fail("unavailable ledger answered");
+            } catch (IOException expected) {
+            }
+            ledger.clearFaults();
+            assertTrue(api.incrementCounter(id, new byte[]{2}, 2).verify());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPipelineWithLatency() throws Exception {
+        Configuration conf = ledger.configure(new Configuration(false));
+        conf.setBoolean(NimbleUtils.Conf.TRANSPORT_PIPELINING_KEY, true);
+        ledger.setLatency(NimbleLedgerEmulator.Latency.uniform(1000, 20000));
+
+        try (NimbleAPI api = new NimbleAPI(conf)) {
+            assertTrue(api.supportsPipelining());
+            NimbleServiceID id = newCounter(api);
+
+            List<CompletableFuture<NimbleOpIncrementCounter>> futures = new ArrayList<>();
+            List<Integer> completed = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                int counter = i;
+                futures.add(api.incrementCounterAsync(id, new byte[]{(byte) i}, i)
+                        .whenComplete((op, e) -> {
+                            synchronized (completed) {
+                                completed.add(counter);
+                            }
+                        }));
+            }
+            for (CompletableFuture<NimbleOpIncrementCounter> f : futures)
+                assertTrue(f.get().verify());
+            for (int i = 1; i <= 50; i++)
+                assertEquals(i, (int) completed.get(i - 1));
+            assertEquals(50, ledger.getCounter(id.handle));
+        }
+    }
+
+    /**
+     * An ADAPTIVE batch left open by the last edit is sealed and committed
+     * within its max age, without any further logSync.
+     */
+    @Test(timeout = 120000)
+    public void testIdleBatchIsSealed() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(NimbleUtils.Conf.BATCH_POLICY_KEY, "adaptive");
+        conf.setLong(NimbleUtils.Conf.BATCH_MAX_AGE_KEY, 200);
+        ledger.setLatency(NimbleLedgerEmulator.Latency.fixed(1000));
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                .numDataNodes(0).nimbleLedger(ledger).build();
+        try {
+            cluster.waitActive();
+            final TMCSEditLog edits = cluster.getNamesystem().getEditLog().getTMCSEdits();
+            cluster.getFileSystem().mkdirs(new Path("/dir"));
+            GenericTestUtils.waitFor(() -> edits.getPendingOps() == 0, 100, 30000);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testMiniDFSCluster() throws Exception {
+        Configuration conf = new Configuration();
+        ledger.setLatency(NimbleLedgerEmulator.Latency.fixed(500));
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                .numDataNodes(0).nimbleLedger(ledger).build();
+        try {
+            cluster.waitActive();
+            long before = ledger.getIncrements();
+            DistributedFileSystem fs = cluster.getFileSystem();
+            for (int i = 0; i < 10; i++)
+                fs.mkdirs(new Path("/dir" + i));
+            assertTrue(ledger.getIncrements() > before);
+
+            cluster.restartNameNode();
+            assertTrue(cluster.getFileSystem().exists(new Path("/dir9")));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
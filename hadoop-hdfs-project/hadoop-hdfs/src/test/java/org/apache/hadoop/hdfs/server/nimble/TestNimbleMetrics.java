@@ -0,0 +1,44 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.Test;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for the NimbleActivity metrics source.
+ */
+public class TestNimbleMetrics {
+
+    @Test(timeout = 30000)
+    public void testLedgerMetrics() throws Exception {
+        NimbleMetrics metrics = NimbleMetrics.create(new Configuration());
+        assertSame(metrics, NimbleMetrics.create(new Configuration()));
+        assertSame(metrics, NimbleMetrics.get());
+
+        MetricsRecordBuilder rb = getMetrics(NimbleMetrics.NAME);
+        long roundTrips = getLongCounter("LedgerRoundTripNumOps", rb);
+        long batches = getLongCounter("BatchSizeNumBatches", rb);
+        long bytes = getLongCounter("BytesSigned", rb);
+
+        TMCSCommitter committer = new TMCSCommitter(mock(TMCS.class), 2);
+        for (int i = 1; i <= 3; i++)
+            committer.submit(i, new byte[]{(byte) i}, i);
+        committer.waitForCommit(3);
+        metrics.addBatch(10);
+        metrics.addSignature(100, 1000);
+
+        rb = getMetrics(NimbleMetrics.NAME);
+        assertCounter("LedgerRoundTripNumOps", roundTrips + 3, rb);
+        assertGauge("CounterLag", 0, rb);
+        assertCounter("BatchSizeNumBatches", batches + 1, rb);
+        assertCounter("BytesSigned", bytes + 100, rb);
+        committer.close();
+    }
+}
@@ -0,0 +1,100 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the canonical receipt encoding and receipt verification.
+ */
+public class TestNimbleReceipt {
+
+    private static String expected(long type, byte[] identity, byte[] handle, int counter, byte[] tag) {
+        return String.format("%s.%s.%s.%s.%s",
+                NimbleUtils.URLEncode(NimbleOp.longToBytes(type)),
+                NimbleUtils.URLEncode(identity),
+                NimbleUtils.URLEncode(handle),
+                NimbleUtils.URLEncode(NimbleOp.longToBytes(counter)),
+                NimbleUtils.URLEncode(tag));
+    }
+
+    @Test
+    public void testEncodingMatchesURLEncode() throws Exception {
+        Random r = new Random(0);
+        NimbleServiceID id = new NimbleServiceID(new byte[32], null, null, null, null);
+        r.nextBytes(id.identity);
+        byte[] handle = new byte[16];
+        r.nextBytes(handle);
+
+        for (int len = 0; len < 70; len++) {
+            byte[] tag = new byte[len];
+            r.nextBytes(tag);
+            int counter = len == 5 ? -1 : r.nextInt();
+            NimbleResponse response = new NimbleResponse(200, "OK");
+            NimbleOp op = new NimbleOpIncrementCounter(id, handle, tag, counter, response);
+            assertEquals(expected(NimbleOp.TYPE_INCREMENT_COUNTER, id.identity, handle, counter, tag), op.toString());
+        }
+
+        // A missing tag is encoded like NimbleUtils.URLEncode(null)
+        NimbleOp op = new NimbleOpNewCounter(id, handle, null, new NimbleResponse(200, "OK"));
+        assertEquals(expected(NimbleOp.TYPE_NEW_COUNTER, id.identity, handle, 0, null), op.toString());
+
+        NimbleResponse response = new NimbleResponse(200, "OK");
+        response.tag = "tag".getBytes(StandardCharsets.UTF_8);
+        response.counter = 7;
+        byte[] nonce = NimbleUtils.getNonce();
+        op = new NimbleOpReadLatest(id, handle, nonce, response);
+        assertEquals(expected(NimbleOp.TYPE_READ_COUNTER, id.identity, handle, 7, response.tag) +
+                "." + NimbleUtils.URLEncode(nonce), op.toString());
+    }
+
+    @Test
+    public void testVerifierReuse() throws Exception {
+        try (NimbleLedgerEmulator ledger = new NimbleLedgerEmulator(0);
+             NimbleAPI api = new NimbleAPI(ledger.configure(new Configuration(false)))) {
+            NimbleServiceID id = api.getServiceID();
+            id.handle = NimbleUtils.getNonce();
+
+            List<NimbleOp> receipts = new ArrayList<>();
+            receipts.add(api.newCounter(id, new byte[]{0}));
+            for (int i = 1; i <= 10; i++)
+                receipts.add(api.incrementCounter(id, ("tag_" + i).getBytes(StandardCharsets.UTF_8), i));
+            receipts.add(api.readLatest(id));
+            for (NimbleOp receipt : receipts)
+                assertTrue(receipt.verify());
+
+            // Verifiers are reused; a bad receipt must not poison the next one
+            NimbleOp bad = receipts.get(4);
+            byte[] good = bad.signature;
+            bad.signature = Arrays.copyOf(good, good.length);
+            bad.signature[10] ^= 1;
+            assertFalse(bad.verify());
+            assertTrue(receipts.get(5).verify());
+            bad.signature = new byte[3];
+            assertFalse(bad.verify());
+            bad.signature = good;
+            assertTrue(bad.verify());
+        }
+    }
+
+    @Test
+    public void testVerifyReportsFailure() throws Exception {
+        try (NimbleLedgerEmulator ledger = new NimbleLedgerEmulator(0);
+             NimbleAPI api = new NimbleAPI(ledger.configure(new Configuration(false)))) {
+            NimbleServiceID id = api.getServiceID();
+            id.handle = NimbleUtils.getNonce();
+            NimbleOp op = api.newCounter(id, new byte[]{0});
+            op.counter = 1;
+            assertFalse(op.verify());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the batch boundaries chosen by TMCSBatchPolicy.
+ */
+public class TestTMCSBatchPolicy {
+
+    private static Configuration adaptive() {
+        Configuration conf = new Configuration(false);
+        conf.set(NimbleUtils.Conf.BATCH_POLICY_KEY, "adaptive");
+        conf.setInt(NimbleUtils.Conf.BATCH_MAX_OPS_KEY, 100);
+        conf.setLong(NimbleUtils.Conf.BATCH_MAX_BYTES_KEY, 4096);
+        conf.setLong(NimbleUtils.Conf.BATCH_MAX_AGE_KEY, 50);
+        conf.setInt(NimbleUtils.Conf.COMMIT_MAX_IN_FLIGHT_KEY, 2);
+        return conf;
+    }
+
+    @Test
+    public void testFixedPolicy() {
+        Configuration conf = new Configuration(false);
+        conf.setLong(NimbleUtils.Conf.BATCH_SIZE_KEY, 3);
+        TMCSBatchPolicy policy = new TMCSBatchPolicy(conf);
+
+        assertFalse(policy.isAdaptive());
+        // FIXED batches are sealed by count alone
+        assertFalse(policy.shouldSeal(0, 0, 1000, 10));
+        assertFalse(policy.shouldSeal(2, 10, 1000, 10));
+        assertTrue(policy.shouldSeal(3, 10, 0, 10));
+    }
+
+    @Test
+    public void testAdaptiveBounds() {
+        TMCSBatchPolicy policy = new TMCSBatchPolicy(adaptive());
+
+        assertTrue(policy.isAdaptive());
+        assertFalse(policy.shouldSeal(0, 0, 1000, 10));
+        assertTrue("max ops", policy.shouldSeal(100, 10, 0, 1000));
+        assertTrue("max bytes", policy.shouldSeal(1, 4096, 0, 1000));
+        assertTrue("max age", policy.shouldSeal(1, 10, 50, 1000));
+    }
+
+    @Test
+    public void testAdaptiveFollowsLoad() {
+        TMCSBatchPolicy policy = new TMCSBatchPolicy(adaptive());
+
+        // Light load: every logSync seals
+        assertTrue(policy.shouldSeal(1, 10, 10, 10));
+        assertEquals(1, policy.getTargetOps());
+
+        // 4 ops/ms with a 10ms ledger over 2 slots: 20 ops per batch
+        policy.batchClosed(40, 10);
+        assertFalse(policy.shouldSeal(10, 100, 5, 10));
+        assertEquals(20, policy.getTargetOps());
+        assertTrue(policy.shouldSeal(20, 100, 5, 10));
+
+        // A slower ledger grows the batch, up to max ops
+        assertFalse(policy.shouldSeal(20, 100, 5, 40));
+        assertEquals(80, policy.getTargetOps());
+        policy.shouldSeal(1, 100, 1, 1000);
+        assertEquals(100, policy.getTargetOps());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPolicy() {
+        Configuration conf = new Configuration(false);
+        conf.set(NimbleUtils.Conf.BATCH_POLICY_KEY, "bogus");
+        new TMCSBatchPolicy(conf);
+    }
+}
@@ -0,0 +1,151 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for the ledger-commit stage of TMCSEditLog.
+ */
+public class TestTMCSCommitter {
+
+    /**
+     * Mock ledger that only accepts counter+1, like Nimble's IncrementCounter.
+     */
+    private static TMCS orderedLedger(final List<Integer> accepted, final CountDownLatch gate) throws IOException {
+        TMCS tmcs = mock(TMCS.class);
+        doAnswer(inv -> {
+            int expected = inv.getArgument(1);
+            if (gate != null && expected == 1)
+                gate.await(10, TimeUnit.SECONDS);
+            synchronized (accepted) {
+                int current = accepted.isEmpty() ? 0 : accepted.get(accepted.size() - 1);
+                if (expected != current + 1)
+                    throw new NimbleError("Failed incrementCounter: expected=" + expected);
+                accepted.add(expected);
+            }
+            return null;
+        }).when(tmcs).incrementTo(any(byte[].class), anyInt());
+        return tmcs;
+    }
+
+    @Test(timeout = 30000)
+    public void testAcknowledgeInCounterOrder() throws Exception {
+        List<Integer> accepted = new CopyOnWriteArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        TMCSCommitter committer = new TMCSCommitter(orderedLedger(accepted, gate), 4);
+
+        for (int i = 1; i <= 8; i++)
+            committer.submit(i, new byte[]{(byte) i}, i * 10L);
+
+        // The first batch is held back, so nothing may be acknowledged yet
+        assertEquals(0, committer.getAckedCounter());
+        gate.countDown();
+
+        committer.waitForCommit(80);
+        assertEquals(8, committer.getAckedCounter());
+        assertEquals(0, committer.getPending());
+        for (int i = 0; i < accepted.size(); i++)
+            assertEquals(i + 1, (int) accepted.get(i));
+        committer.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenBatchIsNotWaitedFor() throws Exception {
+        TMCSCommitter committer = new TMCSCommitter(
+                orderedLedger(new CopyOnWriteArrayList<>(), null), 2);
+        committer.submit(1, new byte[]{1}, 5);
+        // txid 7 has not been handed over yet; only txids up to 5 are waited for
+        committer.waitForCommit(7);
+        assertEquals(1, committer.getAckedCounter());
+        committer.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testRunAfterCommit() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        TMCSCommitter committer = new TMCSCommitter(
+                orderedLedger(new CopyOnWriteArrayList<>(), gate), 4);
+        committer.submit(1, new byte[]{1}, 10);
+        committer.submit(2, new byte[]{2}, 20);
+
+        // Held back behind the first batch: the caller is not blocked
+        final CountDownLatch ran = new CountDownLatch(1);
+        committer.runAfterCommit(15, e -> {
+            if (e == null)
+                ran.countDown();
+        });
+        assertEquals(1, ran.getCount());
+
+        // Nothing closed covers txid 0: runs right away
+        final boolean[] inline = new boolean[1];
+        committer.runAfterCommit(0, e -> inline[0] = e == null);
+        assertTrue(inline[0]);
+
+        gate.countDown();
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        assertTrue(committer.getAckedCounter() >= 2);
+        committer.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testFailureIsSticky() throws Exception {
+        TMCS tmcs = mock(TMCS.class);
+        final Set<Integer> seen = Collections.synchronizedSet(new HashSet<>());
+        doAnswer(inv -> {
+            int expected = inv.getArgument(1);
+            seen.add(expected);
+            if (expected == 2)
+                throw new NimbleError("Failed incrementCounter");
+            return null;
+        }).when(tmcs).incrementTo(any(byte[].class), anyInt());
+
+        TMCSCommitter committer = new TMCSCommitter(tmcs, 1);
+        committer.submit(1, new byte[]{1}, 1);
+        committer.submit(2, new byte[]{2}, 2);
+        try {
+            committer.waitForCommit(2);
+            fail("expected the ledger failure to surface");
+        } catch (NimbleError e) {
+            assertTrue(e.getMessage().contains("commit failed"));
+        }
+        assertEquals(1, committer.getAckedCounter());
+        assertTrue(seen.contains(2));
+
+        // Waiters are handed the failure rather than released as committed
+        final IOException[] handed = new IOException[1];
+        committer.runAfterCommit(2, e -> handed[0] = e);
+        assertTrue(handed[0] instanceof NimbleError);
+
+        // Later batches are refused and never reach the ledger
+        try {
+            committer.submit(3, new byte[]{3}, 3);
+            fail("expected submit to fail after a ledger failure");
+        } catch (NimbleError e) {
+            assertTrue(e.getMessage().contains("commit failed"));
+        }
+        assertFalse(seen.contains(3));
+        try {
+            committer.close();
+            fail("expected the ledger failure to surface on close");
+        } catch (NimbleError e) {
+            // expected
+        }
+    }
+}
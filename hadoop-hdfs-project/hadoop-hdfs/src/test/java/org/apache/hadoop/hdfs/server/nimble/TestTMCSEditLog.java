@@ -0,0 +1,279 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_NIMBLE_FLUSH;
+import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_START_LOG_SEGMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that a Standby tailing the edits of the Active checks them against
+ * the ledger as they come in.
+ */
+public class TestTMCSEditLog {
+    private static TagSigner signer;
+
+    private final Configuration conf = new Configuration();
+    private final Map<Integer, byte[]> ledger = new ConcurrentHashMap<>();
+    private int latest;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        signer = TagSigner.generate(TagSigner.Algorithm.ECDSA_P256);
+    }
+
+    /**
+     * Sign 5 batches as the Active does, each closed by a flush op.
+     */
+    @Before
+    public void setUp() throws Exception {
+        conf.setInt(NimbleUtils.Conf.REPLAY_VERIFY_THREADS_KEY, 2);
+        TMCS tmcs = mock(TMCS.class);
+        when(tmcs.getTagSigner()).thenReturn(signer);
+        doAnswer(inv -> {
+            ledger.put(inv.getArgument(1), inv.getArgument(0));
+            return null;
+        }).when(tmcs).incrementTo(any(byte[].class), anyInt());
+
+        TMCSEditLog active = newEditLog(tmcs, true);
+        tail(active, 5);
+        active.flush();
+        active.close();
+        assertEquals(5, ledger.size());
+    }
+
+    private TMCSEditLog newEditLog(TMCS tmcs, boolean apply) throws IOException {
+        return new TMCSEditLog(conf, apply, new NimbleUtils.NimbleFSImageInfo(0, null, null), tmcs);
+    }
+
+    private static void tail(TMCSEditLog edits, int batches) throws IOException {
+        FSEditLogOp.OpInstanceCache cache = new FSEditLogOp.OpInstanceCache();
+        for (int i = 0; i < batches; i++)
+            edits.add(cache.get(OP_NIMBLE_FLUSH));
+    }
+
+    /**
+     * Ledger returning the entry at latest, or a forged one
+     */
+    private TMCS standbyLedger(boolean forge) throws Exception {
+        NimbleServiceID id = new NimbleServiceID(new byte[32], null, new byte[16], null, null);
+        TMCS tmcs = mock(TMCS.class);
+        when(tmcs.getTagSigner()).thenReturn(signer);
+        when(tmcs.readLatest()).thenAnswer(inv -> {
+            NimbleResponse r = new NimbleResponse(200, "OK");
+            r.counter = latest;
+            r.tag = ledger.get(forge ? latest - 1 : latest);
+            return new NimbleOpReadLatest(id, id.handle, new byte[16], r);
+        });
+        return tmcs;
+    }
+
+    @Test(timeout = 30000)
+    public void testVerifyWhileTailing() throws Exception {
+        TMCS tmcs = standbyLedger(false);
+        TMCSEditLog standby = newEditLog(tmcs, true);
+        standby.loadMode();
+
+        // The Active is ahead: nothing to check yet
+        latest = 5;
+        tail(standby, 3);
+        standby.verifyTailed();
+        assertEquals(-1, standby.getVerifiedCounter());
+
+        // Caught up
+        tail(standby, 2);
+        standby.verifyTailed();
+        assertEquals(5, standby.getVerifiedCounter());
+
+        // Nothing tailed since: the ledger is not read again
+        standby.verifyTailed();
+        verify(tmcs, times(2)).readLatest();
+        assertFalse(standby.isLive());
+
+        // Failover reads the latest counter once more and goes live
+        standby.verifyState();
+        standby.liveMode();
+        assertTrue(standby.isLive());
+        verify(tmcs, times(3)).readLatest();
+        standby.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testLedgerBehindTailedEdits() throws Exception {
+        TMCSEditLog standby = newEditLog(standbyLedger(false), true);
+        standby.loadMode();
+
+        // The Active has written batch 5 but the ledger has only acknowledged 3
+        latest = 3;
+        tail(standby, 5);
+        standby.verifyTailed();
+        assertEquals(3, standby.getVerifiedCounter());
+
+        latest = 5;
+        standby.verifyTailed();
+        assertEquals(5, standby.getVerifiedCounter());
+        standby.close();
+    }
+
+    /**
+     * A batch that differs from what the Active signed is caught by the tag
+     * of any later batch, as each tag chains the previous one.
+     */
+    @Test(timeout = 30000)
+    public void testTagsChain() throws Exception {
+        TMCSEditLog standby = newEditLog(standbyLedger(false), true);
+        standby.loadMode();
+        latest = 5;
+        tail(standby, 1);
+        FSEditLogOp.OpInstanceCache cache = new FSEditLogOp.OpInstanceCache();
+        standby.add(cache.get(OP_START_LOG_SEGMENT)); // not in batch 2 of the Active
+        tail(standby, 4);
+        try {
+            standby.verifyTailed();
+            fail("Batch 2 differs but batch 5 was accepted");
+        } catch (NimbleError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("counter=5"));
+        }
+        standby.close();
+    }
+
+    /**
+     * Tags the ledger has moved past are dropped unverified, and their
+     * batches are checked through the tag of the last one on failover.
+     */
+    @Test(timeout = 30000)
+    public void testLedgerAheadOfTailedEdits() throws Exception {
+        TMCSEditLog standby = newEditLog(standbyLedger(false), true);
+        standby.loadMode();
+        latest = 5;
+        tail(standby, 3);
+        standby.verifyTailed();
+        assertEquals(-1, standby.getVerifiedCounter());
+        assertEquals(3, standby.getUnverifiedBatches());
+
+        tail(standby, 2);
+        assertEquals(5, standby.getUnverifiedBatches());
+        standby.verifyState();
+        assertEquals(5, standby.getVerifiedCounter());
+        assertEquals(0, standby.getUnverifiedBatches());
+        standby.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testDroppedTagCheckedOnFailover() throws Exception {
+        TMCSEditLog standby = newEditLog(standbyLedger(false), true);
+        standby.loadMode();
+        latest = 5;
+        tail(standby, 1);
+        FSEditLogOp.OpInstanceCache cache = new FSEditLogOp.OpInstanceCache();
+        standby.add(cache.get(OP_START_LOG_SEGMENT)); // not in batch 2 of the Active
+        tail(standby, 2);
+        // Batch 2 is not checked here, as the ledger is past it
+        standby.verifyTailed();
+        tail(standby, 2);
+        try {
+            standby.verifyState();
+            fail("Batch 2 differs but the state was accepted");
+        } catch (NimbleError e) {
+            GenericTestUtils.assertExceptionContains("Cannot verify", e);
+        }
+        standby.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testForgedTag() throws Exception {
+        TMCSEditLog standby = newEditLog(standbyLedger(true), true);
+        standby.loadMode();
+        latest = 4;
+        tail(standby, 4);
+        try {
+            standby.verifyTailed();
+            fail("Tag of batch 3 accepted for batch 4");
+        } catch (NimbleError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("counter=4"));
+        }
+        standby.close();
+    }
+
+    /**
+     * Batches are closed by the flush ops the Active writes, so a Standby
+     * configured with another batch size replays the same boundaries.
+     */
+    @Test(timeout = 30000)
+    public void testBoundariesIndependentOfPolicy() throws Exception {
+        TMCS tmcs = standbyLedger(false);
+        doAnswer(inv -> {
+            ledger.put(inv.getArgument(1), inv.getArgument(0));
+            return null;
+        }).when(tmcs).incrementTo(any(byte[].class), anyInt());
+        conf.setLong(NimbleUtils.Conf.BATCH_SIZE_KEY, 3);
+        TMCSEditLog active = newEditLog(tmcs, true);
+        FSEditLogOp.OpInstanceCache cache = new FSEditLogOp.OpInstanceCache();
+        int sealed = 0;
+        for (int i = 0; i < 7; i++) {
+            active.add(cache.get(OP_START_LOG_SEGMENT));
+            if (active.claimSeal()) {
+                assertFalse("claimed twice", active.claimSeal());
+                active.add(cache.get(OP_NIMBLE_FLUSH));
+                sealed++;
+            }
+        }
+        assertEquals(2, sealed);
+        active.close();
+
+        conf.setLong(NimbleUtils.Conf.BATCH_SIZE_KEY, 1);
+        TMCSEditLog standby = newEditLog(tmcs, true);
+        standby.loadMode();
+        latest = 2;
+        for (int i = 0; i < 7; i++) {
+            standby.add(cache.get(OP_START_LOG_SEGMENT));
+            if (i % 3 == 2)
+                standby.add(cache.get(OP_NIMBLE_FLUSH));
+        }
+        assertEquals(2, standby.getUnverifiedBatches());
+        standby.verifyState();
+        assertEquals(2, standby.getVerifiedCounter());
+        standby.close();
+    }
+
+    /**
+     * Tags of edit logs written before NIMBLE_FLUSH_BOUNDARIES never covered
+     * the batch data; replaying them fails instead of verifying nothing.
+     */
+    @Test(timeout = 30000)
+    public void testLegacyLogRejected() throws Exception {
+        TMCSEditLog standby = newEditLog(standbyLedger(false), true);
+        standby.loadMode();
+        FSEditLogOp.OpInstanceCache cache = new FSEditLogOp.OpInstanceCache();
+        int legacy = NameNodeLayoutVersion.Feature.SNAPSHOT_MODIFICATION_TIME
+                .getInfo().getLayoutVersion();
+        try {
+            standby.add(cache.get(OP_START_LOG_SEGMENT), null, legacy);
+            fail("Edit log older than NIMBLE_FLUSH_BOUNDARIES was accepted");
+        } catch (IOException e) {
+            GenericTestUtils.assertExceptionContains("new ledger", e);
+        }
+        assertEquals(0, standby.getUnverifiedBatches());
+        standby.close();
+    }
+}
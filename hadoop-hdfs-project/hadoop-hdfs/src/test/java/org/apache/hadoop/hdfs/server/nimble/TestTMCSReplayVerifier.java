@@ -0,0 +1,106 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that replayed batches hashed by TMCSReplayVerifier verify like
+ * batches hashed in place.
+ */
+public class TestTMCSReplayVerifier {
+    private static TagSigner signer;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        signer = TagSigner.generate(TagSigner.Algorithm.ECDSA_P256);
+    }
+
+    /**
+     * Write a batch the way TMCSEditLog does: small fields, a few large
+     * ones, then the counter.
+     */
+    private static void writeBatch(DataOutputStream out, Random r, int counter, int large) throws Exception {
+        for (int op = 0; op < 20; op++) {
+            out.write(op);
+            out.writeLong(r.nextLong());
+            byte[] fields = new byte[op % 7 == 0 ? large : r.nextInt(100)];
+            r.nextBytes(fields);
+            out.write(fields);
+        }
+        out.writeInt(counter);
+    }
+
+    private void checkReplay(int threads, int large) throws Exception {
+        int batches = 30;
+        List<byte[]> tags = new ArrayList<>();
+        Random r = new Random(threads);
+        for (int i = 0; i < batches; i++) {
+            TMCSEditLog.SignatureOutputStream tag = new TMCSEditLog.SignatureOutputStream(signer);
+            writeBatch(new DataOutputStream(tag), r, i, large);
+            tags.add(tag.sign());
+        }
+
+        List<TMCSEditLog.SignatureOutputStream> replayed = new ArrayList<>();
+        r = new Random(threads);
+        try (TMCSReplayVerifier replay = new TMCSReplayVerifier(threads)) {
+            for (int i = 0; i < batches; i++) {
+                TMCSEditLog.SignatureOutputStream tag = new TMCSEditLog.SignatureOutputStream(signer);
+                tag.setDeferred(true);
+                writeBatch(new DataOutputStream(tag), r, i == 7 ? -1 : i, large); // batch 7 was tampered with
+                replay.submit(tag);
+                replayed.add(tag);
+            }
+            replay.drain();
+        }
+        for (int i = 0; i < batches; i++)
+            assertEquals("batch " + i, i != 7, replayed.get(i).verify(tags.get(i)));
+    }
+
+    @Test
+    public void testInline() throws Exception {
+        checkReplay(0, 20000);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        checkReplay(3, 20000);
+    }
+
+    @Test
+    public void testSmallBatchesHandedOffAsRuns() throws Exception {
+        // well below RUN_BYTES per batch; drain() hands off the last partial run
+        checkReplay(3, 200);
+    }
+
+    @Test
+    public void testOpenBatchContinues() throws Exception {
+        // Bytes replayed into the open batch, then written live, sign as one batch
+        Random r = new Random(1);
+        byte[] replayed = new byte[30000], live = new byte[100];
+        r.nextBytes(replayed);
+        r.nextBytes(live);
+
+        TMCSEditLog.SignatureOutputStream tag = new TMCSEditLog.SignatureOutputStream(signer);
+        tag.setDeferred(true);
+        tag.write(replayed, 0, 10);
+        tag.write(replayed, 10, replayed.length - 10);
+        tag.setDeferred(false);
+        tag.write(live);
+        byte[] signature = tag.sign();
+
+        byte[] all = new byte[replayed.length + live.length];
+        System.arraycopy(replayed, 0, all, 0, replayed.length);
+        System.arraycopy(live, 0, all, replayed.length, live.length);
+        assertTrue(signer.verify(signer.digest(all), signature));
+        assertFalse(signer.verify(signer.digest(live), signature));
+    }
+}
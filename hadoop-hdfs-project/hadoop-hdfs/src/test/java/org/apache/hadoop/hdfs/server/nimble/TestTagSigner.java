@@ -0,0 +1,133 @@
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the tag signers of each algorithm.
+ */
+public class TestTagSigner {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSignAndVerify() throws Exception {
+        for (TagSigner.Algorithm a : TagSigner.Algorithm.values()) {
+            TagSigner signer = TagSigner.generate(a);
+            assertEquals(a, signer.getAlgorithm());
+            assertTrue(signer.canSign());
+
+            byte[] digest = signer.digest(bytes("batch"));
+            byte[] tag = signer.sign(digest);
+            assertTrue(a.toString(), signer.verify(digest, tag));
+            // Signers are reused
+            assertTrue(a.toString(), signer.verify(digest, signer.sign(digest)));
+            assertFalse(a.toString(), signer.verify(signer.digest(bytes("other")), tag));
+            assertFalse(a.toString(), signer.verify(digest, new byte[3]));
+            assertTrue(a.toString(), signer.verify(digest, tag));
+
+            // Saved keys verify tags of the original signer
+            TagSigner loaded = TagSigner.load(a, signer.getPublicKey(), signer.getPrivateKey());
+            assertEquals(signer, loaded);
+            assertTrue(a.toString(), loaded.verify(digest, tag));
+            assertTrue(a.toString(), signer.verify(digest, loaded.sign(digest)));
+
+            assertEquals(a, TagSigner.Algorithm.parse(a.toString()));
+        }
+        assertEquals(TagSigner.Algorithm.ECDSA_SECP256K1, TagSigner.Algorithm.parse(null));
+    }
+
+    @Test
+    public void testVerifyOnly() throws Exception {
+        TagSigner signer = TagSigner.generate(TagSigner.Algorithm.ED25519);
+        TagSigner verifier = TagSigner.load(TagSigner.Algorithm.ED25519, signer.getPublicKey(), null);
+        assertFalse(verifier.canSign());
+        byte[] digest = signer.digest(bytes("batch"));
+        assertTrue(verifier.verify(digest, signer.sign(digest)));
+        try {
+            verifier.sign(digest);
+            fail("signed without a private key");
+        } catch (NimbleError expected) {
+        }
+
+        assertNull(TagSigner.generate(TagSigner.Algorithm.HMAC_SHA256).getPublicKey());
+    }
+
+    @Test
+    public void testEcdsaMatchesSignatureOverStream() throws Exception {
+        // Tags written as SHA256withECDSA over the batch stream stay valid
+        TagSigner signer = TagSigner.generate(TagSigner.Algorithm.ECDSA_SECP256K1);
+        KeyFactory kf = KeyFactory.getInstance("EC", NimbleServiceID.SIGN_PROVIDER);
+        byte[] stream = new byte[10000];
+        new Random(0).nextBytes(stream);
+
+        Signature s = Signature.getInstance("SHA256withECDSA", NimbleServiceID.SIGN_PROVIDER);
+        s.initSign(kf.generatePrivate(new PKCS8EncodedKeySpec(signer.getPrivateKey())));
+        s.update(stream);
+        assertTrue(signer.verify(signer.digest(stream), s.sign()));
+
+        Signature v = Signature.getInstance("SHA256withECDSA", NimbleServiceID.SIGN_PROVIDER);
+        v.initVerify(kf.generatePublic(new X509EncodedKeySpec(signer.getPublicKey())));
+        v.update(stream);
+        assertTrue(v.verify(signer.sign(signer.digest(stream))));
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentUse() throws Exception {
+        TagSigner signer = TagSigner.generate(TagSigner.Algorithm.ECDSA_P256);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                byte[] batch = bytes("batch_" + i);
+                results.add(executor.submit(() -> {
+                    byte[] digest = signer.digest(batch);
+                    return signer.verify(digest, signer.sign(digest));
+                }));
+            }
+            for (Future<Boolean> f : results)
+                assertTrue(f.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testServiceIDKeepsAlgorithm() throws Exception {
+        NimbleServiceID id = new NimbleServiceID(new byte[]{1}, null, new byte[]{3}, null, null);
+        assertFalse(id.canSign());
+        id.generateSigningKeys(TagSigner.Algorithm.ED25519);
+        assertTrue(id.canSign());
+
+        NimbleServiceID saved = new NimbleServiceID(
+                NimbleUtils.URLEncode(id.identity), NimbleUtils.URLEncode(id.publicKey),
+                NimbleUtils.URLEncode(id.handle), TagSigner.Algorithm.parse(id.getSignAlgorithm().toString()),
+                NimbleUtils.URLEncode(id.getSignPublicKey()), NimbleUtils.URLEncode(id.getSignPrivateKey()));
+        assertTrue(saved.equals(id));
+        assertEquals(TagSigner.Algorithm.ED25519, saved.getSignAlgorithm());
+        assertArrayEquals(id.getSignPublicKey(), saved.getSignPublicKey());
+
+        id.generateSigningKeys(TagSigner.Algorithm.HMAC_SHA256);
+        assertFalse(saved.equals(id));
+    }
+}
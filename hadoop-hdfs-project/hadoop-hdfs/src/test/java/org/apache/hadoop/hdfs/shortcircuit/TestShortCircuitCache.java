@@ -30,6 +30,7 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -42,6 +43,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.ClientContext;
@@ -165,6 +167,38 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
     }
   }
 
+  @Test(timeout=60000)
+  public void testVerifyDigest() throws Exception {
+    final ShortCircuitCache cache =
+        new ShortCircuitCache(10, 10000000, 10, 10000000, 1, 10000, 0);
+    final TestFileDescriptorPair pair = new TestFileDescriptorPair();
+    ShortCircuitReplica replica = cache.fetchOrCreate(
+        new ExtendedBlockId(123, "test_bp1"),
+        new SimpleReplicaCreator(123, cache, pair)).getReplica();
+    // The data file holds a single byte, 1
+    byte[] digest = MessageDigest.getInstance("SHA-256")
+        .digest(new byte[] {1});
+    byte[] other = new byte[digest.length];
+    Assert.assertFalse(replica.isDigestVerified(digest));
+
+    replica.verifyDigest(digest);
+    Assert.assertTrue(replica.isDigestVerified(digest));
+    Assert.assertFalse(replica.isDigestVerified(other));
+    Assert.assertFalse(replica.isDigestVerified(null));
+
+    try {
+      replica.verifyDigest(other);
+      Assert.fail("Replica verified against the wrong digest");
+    } catch (ChecksumException e) {
+      GenericTestUtils.assertExceptionContains("SHA-256", e);
+    }
+    Assert.assertTrue(replica.isDigestVerified(digest));
+    Assert.assertFalse(replica.isDigestVerified(other));
+    replica.unref();
+    cache.close();
+    pair.close();
+  }
+
   @Test(timeout=60000)
   public void testCreateAndDestroy() throws Exception {
     ShortCircuitCache cache =
@@ -1186,7 +1186,8 @@ public void testReverseXmlWithoutSnapshotDiffSection() throws Throwable {
       writer.println("<?xml version=\"1.0\"?>");
       writer.println("<fsimage>");
       writer.println("<version>");
-      writer.println("<layoutVersion>-66</layoutVersion>");
+      writer.println(String.format("<layoutVersion>%d</layoutVersion>",
+          NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION));
       writer.println("<onDiskVersion>1</onDiskVersion>");
       writer.println("<oivRevision>545bbef596c06af1c3c8dca1ce29096a64608478</oivRevision>");
       writer.println("</version>");
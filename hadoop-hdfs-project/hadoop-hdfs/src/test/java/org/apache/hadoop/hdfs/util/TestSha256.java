@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test {@link Sha256} against the JDK's SHA-256.
+ */
+public class TestSha256 {
+  private final byte[] data = new byte[10000];
+
+  public TestSha256() {
+    new Random(0).nextBytes(data);
+  }
+
+  private byte[] expected(int len) throws Exception {
+    return MessageDigest.getInstance("SHA-256")
+        .digest(Arrays.copyOf(data, len));
+  }
+
+  @Test
+  public void testDigest() throws Exception {
+    // Lengths around the padding boundary
+    int[] lengths = {0, 1, 55, 56, 63, 64, 65, 119, 120, 255, 256, 257,
+        1000, data.length};
+    Sha256 sha = new Sha256();
+    for (int len : lengths) {
+      sha.update(data, 0, len);
+      assertArrayEquals("len=" + len, expected(len), sha.digest());
+    }
+  }
+
+  @Test
+  public void testUpdates() throws Exception {
+    Random r = new Random(1);
+    Sha256 sha = new Sha256();
+    int off = 0;
+    while (off < data.length) {
+      int n = Math.min(r.nextInt(700), data.length - off);
+      if (n % 3 == 0 && n > 0) {
+        sha.update(data[off]);
+        n = 1;
+      } else {
+        sha.update(data, off, n);
+      }
+      off += n;
+    }
+    assertArrayEquals(expected(data.length), sha.digest());
+  }
+
+  @Test
+  public void testByteBuffers() throws Exception {
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.flip();
+    Sha256 sha = new Sha256();
+    sha.update(data, 0, 7);
+    direct.position(7);
+    direct.limit(5000);
+    sha.update(direct);
+    assertEquals(5000, direct.position());
+    sha.update(ByteBuffer.wrap(data, 5000, data.length - 5000));
+    assertArrayEquals(expected(data.length), sha.digest());
+  }
+
+  @Test
+  public void testNewDigest() throws Exception {
+    MessageDigest sha = Sha256.newDigest();
+    sha.update(data, 0, 1000);
+    MessageDigest copy = (MessageDigest) sha.clone();
+    sha.update(data, 1000, data.length - 1000);
+    assertArrayEquals(expected(data.length), sha.digest());
+    assertArrayEquals(expected(1000), copy.digest());
+  }
+
+  @Test
+  public void testState() throws Exception {
+    for (int len : new int[] {0, 33, 64, 1000}) {
+      Sha256 sha = new Sha256();
+      sha.update(data, 0, len);
+      Sha256 resumed = Sha256.fromState(sha.getState());
+      Sha256 copy = sha.clone();
+      resumed.update(data, len, data.length - len);
+      copy.update(data, len, data.length - len);
+      assertArrayEquals("len=" + len, expected(data.length), resumed.digest());
+      assertArrayEquals("len=" + len, expected(data.length), copy.digest());
+      assertArrayEquals("len=" + len, expected(len), sha.digest());
+    }
+  }
+
+  @Test
+  public void testInvalidState() throws Exception {
+    byte[] state = new Sha256().getState();
+    try {
+      Sha256.fromState(Arrays.copyOf(state, state.length + 1));
+      fail("accepted a buffered byte at a block boundary");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      Sha256.fromState(Arrays.copyOf(state, 10));
+      fail("accepted a truncated state");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
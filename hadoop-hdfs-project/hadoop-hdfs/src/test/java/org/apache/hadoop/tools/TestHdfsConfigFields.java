@@ -122,6 +122,8 @@ public void initializeMemberVariables() {
 
     // Some properties have moved to HdfsClientConfigKeys
     xmlPropsToSkipCompare.add("dfs.client.short.circuit.replica.stale.threshold.ms");
+    xmlPropsToSkipCompare.add(
+        "dfs.client.read.shortcircuit.verify-block-digest");
 
     // Ignore HTrace properties
     xmlPropsToSkipCompare.add("fs.client.htrace");
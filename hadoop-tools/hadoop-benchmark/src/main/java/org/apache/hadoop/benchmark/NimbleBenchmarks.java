@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this module, taking the usual JMH options.
+ *
+ * Unlike the plain JMH launcher, results are written as JSON to
+ * {@value #DEFAULT_RESULT} unless -rf or -rff say otherwise, so that runs
+ * of different releases can be compared by tools.
+ */
+public final class NimbleBenchmarks {
+  public static final String DEFAULT_RESULT = "nimble-jmh-result.json";
+
+  private NimbleBenchmarks() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams()
+        || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+      Main.main(args);
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+    if (!cmd.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+      if (!cmd.getResult().hasValue()) {
+        options.result(DEFAULT_RESULT);
+      }
+    }
+    new Runner(options.build()).run();
+  }
+}
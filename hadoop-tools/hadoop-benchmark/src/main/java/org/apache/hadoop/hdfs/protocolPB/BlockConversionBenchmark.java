@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocolPB;
+
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockProto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protobuf conversion of blocks, with and without their SHA-256 checksum,
+ * as done for every block sent to or received from the NameNode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BlockConversionBenchmark {
+  @Param({"true", "false"})
+  public boolean withChecksum;
+
+  private Block block;
+  private BlockProto blockProto;
+
+  @Setup
+  public void setUp() {
+    byte[] checksum = null;
+    if (withChecksum) {
+      checksum = new byte[Block.CHECKSUM_LENGTH];
+      new Random(0).nextBytes(checksum);
+    }
+    block = new Block(1073741825L, 134217728L, 1001, checksum);
+    blockProto = PBHelperClient.convert(block);
+  }
+
+  @Benchmark
+  public BlockProto blockToProto() {
+    return PBHelperClient.convert(block);
+  }
+
+  @Benchmark
+  public Block blockFromProto() {
+    return PBHelperClient.convert(blockProto);
+  }
+
+  /** Serialized form, as sent over the wire. */
+  @Benchmark
+  public Block blockRoundTrip() throws Exception {
+    return PBHelperClient.convert(
+        BlockProto.parseFrom(PBHelperClient.convert(block).toByteArray()));
+  }
+}
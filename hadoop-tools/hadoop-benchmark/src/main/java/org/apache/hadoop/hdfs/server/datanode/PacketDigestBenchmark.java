@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of received packets as BlockReceiver does it: on the receiving
+ * thread (queueSize 0) or handed over to PipelinedDigest. Measures what the
+ * receiving thread spends per packet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PacketDigestBenchmark {
+  @Param({"0", "16"})
+  public int queueSize;
+
+  /** Data bytes of a packet, see dfs.client-write-packet-size. */
+  @Param({"65536"})
+  public int packetSize;
+
+  private DataNodeMetrics metrics;
+  private ThreadGroup threadGroup;
+  private PipelinedDigest digest;
+  private byte[] packet;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    metrics = DataNodeMetrics.create(new Configuration(), "PacketDigestBenchmark");
+    threadGroup = new ThreadGroup("PacketDigestBenchmark");
+    packet = new byte[packetSize];
+    new Random(0).nextBytes(packet);
+    digest = new PipelinedDigest(ResumableDigest.newStreaming(),
+        metrics, queueSize, threadGroup, "blk_1073741825_1001");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    digest.getDigest();
+    digest.close();
+    metrics.shutdown();
+  }
+
+  @Benchmark
+  public void update() throws IOException {
+    digest.update(packet, 0, packet.length);
+  }
+}
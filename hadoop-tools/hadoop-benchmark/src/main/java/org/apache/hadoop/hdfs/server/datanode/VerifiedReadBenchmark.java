@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a whole replica through getVerifiedDataInputStream, which checks
+ * each segment against its digest, versus the plain data stream. The
+ * replica file stays in the page cache, so the difference is the hashing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VerifiedReadBenchmark {
+  @Param({"67108864"})
+  public int replicaSize;
+
+  /** See dfs.datanode.nimble.verify.segment.size. */
+  @Param({"65536", "524288"})
+  public int segmentSize;
+
+  @Param({"65536"})
+  public int bufferSize;
+
+  private File dir;
+  private ReplicaInfo replica;
+  private byte[] buf;
+
+  @Setup
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("VerifiedReadBenchmark").toFile();
+    byte[] data = new byte[replicaSize];
+    new Random(0).nextBytes(data);
+    replica = new ReplicaBuilder(ReplicaState.FINALIZED)
+        .setBlockId(1073741825L).setGenerationStamp(1001).setLength(replicaSize)
+        .setChecksum(NimbleUtils.checksum(data))
+        .setDirectoryToUse(dir).build();
+    try (FileOutputStream out = new FileOutputStream(
+        new File(dir, replica.getBlockName()))) {
+      out.write(data);
+    }
+    buf = new byte[bufferSize];
+    // Segment digests are built by the first verified read and then reused
+    replica.verifyData(segmentSize, null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private long readAll(InputStream in) throws IOException {
+    long total = 0;
+    try {
+      for (int n; (n = in.read(buf)) > 0;) {
+        total += n;
+      }
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long plainRead() throws IOException {
+    return readAll(replica.getDataInputStream(0));
+  }
+
+  @Benchmark
+  public long verifiedRead() throws IOException {
+    return readAll(replica.getVerifiedDataInputStream(0, segmentSize, null));
+  }
+}
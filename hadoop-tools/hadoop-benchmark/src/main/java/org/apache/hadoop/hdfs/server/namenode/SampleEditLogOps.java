@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.fs.Options.Rename;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AddOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.CloseOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.DeleteOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.MkdirOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.OpInstanceCache;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RenameOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.TimesOp;
+import org.apache.hadoop.hdfs.server.nimble.NimbleUtils;
+import org.apache.hadoop.ipc.ClientId;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Edit log ops as FSEditLog writes them for common namespace operations,
+ * for benchmarks outside of the namenode package.
+ */
+public final class SampleEditLogOps {
+  private static final String PATH = "/user/hadoop/benchmarks/dir0/file0";
+  private static final long TIME = 1_650_000_000_000L;
+  private static final PermissionStatus PERMISSIONS = new PermissionStatus(
+      "hadoop", "supergroup", FsPermission.getFileDefault());
+  private static final byte[] CLIENT_ID = ClientId.getClientId();
+
+  /** The namespace operation an op records. */
+  public enum Type {
+    MKDIR, ADD, CLOSE, TIMES, RENAME, DELETE
+  }
+
+  private SampleEditLogOps() {
+  }
+
+  /**
+   * @return a new op of the given type. CLOSE carries one block with its
+   * checksum, like the close of a file written through Nimble.
+   */
+  public static FSEditLogOp create(Type type) throws IOException {
+    OpInstanceCache cache = new OpInstanceCache();
+    cache.disableCache();
+    FSEditLogOp op;
+    switch (type) {
+    case MKDIR:
+      op = MkdirOp.getInstance(cache)
+          .setInodeId(16386)
+          .setPath("/user/hadoop/benchmarks/dir0")
+          .setTimestamp(TIME)
+          .setPermissionStatus(PERMISSIONS);
+      break;
+    case ADD:
+      op = AddOp.getInstance(cache)
+          .setInodeId(16387)
+          .setPath(PATH)
+          .setReplication((short) 3)
+          .setModificationTime(TIME)
+          .setAccessTime(TIME)
+          .setBlockSize(128L * 1024 * 1024)
+          .setBlocks(new Block[0])
+          .setPermissionStatus(PERMISSIONS)
+          .setClientName("DFSClient_NONMAPREDUCE_-1_1")
+          .setClientMachine("127.0.0.1")
+          .setOverwrite(false)
+          .setStoragePolicyId((byte) 0)
+          .setErasureCodingPolicyId((byte) 0);
+      op.setRpcClientId(CLIENT_ID);
+      op.setRpcCallId(1);
+      break;
+    case CLOSE:
+      byte[] data = "block data".getBytes(StandardCharsets.UTF_8);
+      op = CloseOp.getInstance(cache)
+          .setPath(PATH)
+          .setReplication((short) 3)
+          .setModificationTime(TIME)
+          .setAccessTime(TIME)
+          .setBlockSize(128L * 1024 * 1024)
+          .setBlocks(new Block[] {new Block(1073741825L, data.length, 1001,
+              NimbleUtils.checksum(data))})
+          .setPermissionStatus(PERMISSIONS);
+      break;
+    case TIMES:
+      op = TimesOp.getInstance(cache)
+          .setPath(PATH)
+          .setModificationTime(TIME)
+          .setAccessTime(TIME);
+      break;
+    case RENAME:
+      op = RenameOp.getInstance(cache)
+          .setSource(PATH)
+          .setDestination(PATH + ".renamed")
+          .setTimestamp(TIME)
+          .setOptions(new Rename[] {Rename.NONE});
+      op.setRpcClientId(CLIENT_ID);
+      op.setRpcCallId(2);
+      break;
+    case DELETE:
+      op = DeleteOp.getInstance(cache)
+          .setPath(PATH)
+          .setTimestamp(TIME);
+      op.setRpcClientId(CLIENT_ID);
+      op.setRpcCallId(3);
+      break;
+    default:
+      throw new IllegalArgumentException("Unexpected type: " + type);
+    }
+    return op;
+  }
+}
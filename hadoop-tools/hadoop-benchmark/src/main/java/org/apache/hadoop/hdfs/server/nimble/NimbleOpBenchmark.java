@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking the ledger's receipts, taken from an in-process
+ * NimbleLedgerEmulator, and of a round trip to it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NimbleOpBenchmark {
+  private NimbleLedgerEmulator ledger;
+  private NimbleAPI api;
+  private NimbleServiceID id;
+  private NimbleOpIncrementCounter increment;
+  private NimbleOpReadLatest latest;
+
+  @Setup
+  public void setUp() throws Exception {
+    ledger = new NimbleLedgerEmulator(0);
+    api = new NimbleAPI(ledger.configure(new Configuration(false)));
+    id = api.getServiceID();
+    id.handle = NimbleUtils.getNonce();
+    byte[] tag = "tag".getBytes(StandardCharsets.UTF_8);
+    api.newCounter(id, tag);
+    increment = api.incrementCounter(id, tag, 1);
+    latest = api.readLatest(id);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    api.close();
+    ledger.close();
+  }
+
+  @Benchmark
+  public boolean verifyIncrementCounter() throws NimbleError {
+    return increment.verify();
+  }
+
+  @Benchmark
+  public boolean verifyReadLatest() throws NimbleError {
+    return latest.verify();
+  }
+
+  /** readLatest round trip to the emulator, including its checks. */
+  @Benchmark
+  public boolean readLatest() throws Exception {
+    return api.readLatest(id).verify();
+  }
+}
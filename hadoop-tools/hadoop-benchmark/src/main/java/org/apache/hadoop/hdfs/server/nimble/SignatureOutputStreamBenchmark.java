@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the tag of a batch: hashing its bytes in place, buffering
+ * them for TMCSReplayVerifier first, and signing or verifying the digest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SignatureOutputStreamBenchmark {
+  @Param({"ECDSA_P256", "ED25519", "HMAC_SHA256"})
+  public TagSigner.Algorithm algorithm;
+
+  /** Bytes in a batch. */
+  @Param({"256", "16384", "1048576"})
+  public int batchBytes;
+
+  /** Bytes per write, about the size of an op. */
+  @Param({"64"})
+  public int writeBytes;
+
+  private TagSigner signer;
+  private byte[] data;
+  private byte[] signature;
+
+  @Setup
+  public void setUp() throws IOException {
+    signer = TagSigner.generate(algorithm);
+    data = new byte[batchBytes];
+    new Random(0).nextBytes(data);
+    signature = write(false).sign();
+  }
+
+  private TMCSEditLog.SignatureOutputStream write(boolean deferred)
+      throws IOException {
+    TMCSEditLog.SignatureOutputStream tag =
+        new TMCSEditLog.SignatureOutputStream(signer);
+    tag.setDeferred(deferred);
+    for (int off = 0; off < data.length; off += writeBytes) {
+      tag.write(data, off, Math.min(writeBytes, data.length - off));
+    }
+    return tag;
+  }
+
+  @Benchmark
+  public byte[] digest() throws IOException {
+    return write(false).digest();
+  }
+
+  @Benchmark
+  public byte[] digestDeferred() throws IOException {
+    return write(true).digest();
+  }
+
+  @Benchmark
+  public byte[] sign() throws IOException {
+    return write(false).sign();
+  }
+
+  @Benchmark
+  public boolean verify() throws IOException {
+    return write(false).verify(signature);
+  }
+}
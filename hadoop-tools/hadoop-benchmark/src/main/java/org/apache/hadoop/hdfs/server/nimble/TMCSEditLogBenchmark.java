@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.nimble;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp;
+import org.apache.hadoop.hdfs.server.namenode.SampleEditLogOps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording an edit log op in TMCSEditLog, by op type and batch
+ * size. Live mode signs closed batches and commits them to an in-process
+ * NimbleLedgerEmulator; replay mode hashes them as FSImage.loadEdits does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TMCSEditLogBenchmark {
+  @Param({"MKDIR", "ADD", "CLOSE", "TIMES", "RENAME", "DELETE"})
+  public SampleEditLogOps.Type op;
+
+  @Param({"1", "16", "256"})
+  public int batchSize;
+
+  @Param({"true", "false"})
+  public boolean live;
+
+  private NimbleLedgerEmulator ledger;
+  private TMCSEditLog edits;
+  private FSEditLogOp sample;
+  private long txid;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    ledger = new NimbleLedgerEmulator(0);
+    Configuration conf = ledger.configure(new Configuration(false));
+    conf.setLong(NimbleUtils.Conf.BATCH_SIZE_KEY, batchSize);
+    TMCS.reset(conf);
+    TMCS.format(conf);
+    edits = new TMCSEditLog(conf, true,
+        new NimbleUtils.NimbleFSImageInfo(0, null, null));
+    if (!live) {
+      edits.loadMode();
+    }
+    sample = SampleEditLogOps.create(op);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try {
+      if (live) {
+        edits.flush();
+      }
+      edits.close();
+    } finally {
+      TMCS.reset(null);
+      ledger.close();
+    }
+  }
+
+  @Benchmark
+  public void add() throws IOException {
+    sample.setTransactionId(++txid);
+    edits.add(sample);
+  }
+}